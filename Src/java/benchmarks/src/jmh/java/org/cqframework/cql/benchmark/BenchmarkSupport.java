@@ -0,0 +1,73 @@
+package org.cqframework.cql.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.cqframework.cql.cql2elm.CqlCompilerOptions;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+/**
+ * Library sources shared by the benchmarks.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {}
+
+    /**
+     * Creates a library manager that resolves FHIRHelpers and the CQL resources of this package.
+     */
+    static LibraryManager newLibraryManager(ModelManager modelManager) {
+        final var libraryManager = new LibraryManager(modelManager, CqlCompilerOptions.defaultOptions());
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        libraryManager.getLibrarySourceLoader().registerProvider(BenchmarkSupport::getLibrarySource);
+        return libraryManager;
+    }
+
+    private static InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
+        return BenchmarkSupport.class.getResourceAsStream(libraryIdentifier.getId() + ".cql");
+    }
+
+    static String readResource(String name) {
+        try (var stream = BenchmarkSupport.class.getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IllegalArgumentException(String.format("Resource %s not found.", name));
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns FHIRHelpers 4.0.1, a large real-world library.
+     */
+    static String fhirHelpers() {
+        return readResource("/org/hl7/fhir/FHIRHelpers-4.0.1.cql");
+    }
+
+    /**
+     * Returns a system-model library with the given number of definitions, each of which references
+     * the previous one, to measure how translation scales with library size.
+     */
+    static String syntheticLibrary(int definitions) {
+        final var body = IntStream.range(0, definitions)
+                .mapToObj(i -> i == 0
+                        ? "define \"Definition 0\": Interval[@2020-01-01, @2021-01-01)\n"
+                        : String.format(
+                                "define \"Definition %d\":%n"
+                                        + "  { 1, 2, 3, %d } X%n"
+                                        + "    where X > 1 and \"Definition %d\" is not null%n"
+                                        + "      and Today() in \"Definition 0\"%n"
+                                        + "    return X * 2%n"
+                                        + "    sort desc%n",
+                                i, i, i - 1))
+                .collect(Collectors.joining("\n"));
+        return "library Synthetic version '1.0.0'\n\n" + body;
+    }
+}
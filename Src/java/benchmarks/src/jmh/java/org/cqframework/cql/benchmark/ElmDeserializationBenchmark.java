@@ -0,0 +1,49 @@
+package org.cqframework.cql.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.elm.serializing.jackson.ElmJsonLibraryReader;
+import org.cqframework.cql.elm.serializing.jackson.ElmXmlLibraryReader;
+import org.hl7.elm.r1.Library;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures reading FHIRHelpers 4.0.1 from ELM JSON and ELM XML, which is how precompiled libraries
+ * are loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ElmDeserializationBenchmark {
+
+    private final ElmJsonLibraryReader jsonReader = new ElmJsonLibraryReader();
+    private final ElmXmlLibraryReader xmlReader = new ElmXmlLibraryReader();
+    private String json;
+    private String xml;
+
+    @Setup
+    public void setup() {
+        final var translator = CqlTranslator.fromText(
+                BenchmarkSupport.fhirHelpers(), BenchmarkSupport.newLibraryManager(new ModelManager()));
+        json = translator.toJson();
+        xml = translator.toXml();
+    }
+
+    @Benchmark
+    public Library readJson() throws IOException {
+        return jsonReader.read(json);
+    }
+
+    @Benchmark
+    public Library readXml() throws IOException {
+        return xmlReader.read(xml);
+    }
+}
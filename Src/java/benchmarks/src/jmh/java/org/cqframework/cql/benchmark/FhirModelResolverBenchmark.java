@@ -0,0 +1,49 @@
+package org.cqframework.cql.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Patient;
+import org.opencds.cqf.cql.engine.fhir.model.R4FhirModelResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures property path resolution on FHIR R4 resources, which the engine performs for every
+ * property access in a query. Compare results across commits to see the effect of changes to the
+ * model resolver.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FhirModelResolverBenchmark {
+
+    @Param({"birthDate", "birthDate.value", "gender", "name", "name[0].family", "name[1].given", "name[10].family"})
+    public String path;
+
+    private R4FhirModelResolver modelResolver;
+    private Patient patient;
+
+    @Setup
+    public void setup() {
+        modelResolver = new R4FhirModelResolver();
+        patient = new Patient();
+        patient.setBirthDate(new Date(0));
+        patient.setGender(AdministrativeGender.FEMALE);
+        for (int i = 0; i < 12; i++) {
+            patient.addName(new HumanName().setFamily("Family " + i).addGiven("Given " + i));
+        }
+    }
+
+    @Benchmark
+    public Object resolvePath() {
+        return modelResolver.resolvePath(patient, path);
+    }
+}
@@ -0,0 +1,102 @@
+package org.cqframework.cql.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.opencds.cqf.cql.engine.elm.executing.DistinctEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.ExceptEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.IntersectEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.UnionEvaluator;
+import org.opencds.cqf.cql.engine.execution.Environment;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures Distinct, Union, Intersect and Except over large lists of hashable values, which should
+ * scale linearly with the size of the lists. Half of the values of each list are duplicates, and
+ * half of the values of the right operand of Union, Intersect and Except are in the left one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ListOperatorBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private org.opencds.cqf.cql.engine.execution.State state;
+    private List<Object> codes;
+    private List<Object> dateTimes;
+    private List<Object> tuples;
+    private List<Object> left;
+    private List<Object> right;
+
+    @Setup
+    public void setup() {
+        state = new org.opencds.cqf.cql.engine.execution.State(
+                new Environment(new LibraryManager(new ModelManager())));
+
+        codes = generate(i -> new Code().withSystem("http://loinc.org").withCode(Integer.toString(i / 2)));
+        dateTimes = generate(i -> new DateTime(BigDecimal.ZERO, 2000 + (i / 2) / 365, 1, 1, 0, 0, 0, (i / 2) % 365));
+        tuples = generate(i -> {
+            final var elements = new LinkedHashMap<String, Object>();
+            elements.put("id", "resource-" + (i / 2));
+            elements.put("value", i / 2);
+            return new Tuple(state).withElements(elements);
+        });
+        left = generate(i -> "code-" + i);
+        right = generate(i -> "code-" + (i + size / 2));
+    }
+
+    private List<Object> generate(IntFunction<Object> generator) {
+        final var result = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(generator.apply(i));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Object> distinctCodes() {
+        return DistinctEvaluator.distinct(codes, state);
+    }
+
+    @Benchmark
+    public List<Object> distinctDateTimes() {
+        return DistinctEvaluator.distinct(dateTimes, state);
+    }
+
+    @Benchmark
+    public List<Object> distinctTuples() {
+        return DistinctEvaluator.distinct(tuples, state);
+    }
+
+    @Benchmark
+    public Object union() {
+        return UnionEvaluator.union(left, right, state);
+    }
+
+    @Benchmark
+    public Object intersect() {
+        return IntersectEvaluator.intersect(left, right, state);
+    }
+
+    @Benchmark
+    public Object except() {
+        return ExceptEvaluator.except(left, right, state);
+    }
+}
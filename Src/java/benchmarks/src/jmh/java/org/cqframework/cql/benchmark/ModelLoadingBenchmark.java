@@ -0,0 +1,114 @@
+package org.cqframework.cql.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.util.concurrent.TimeUnit;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.elm_modelinfo.r1.serializing.BinaryModelInfo;
+import org.hl7.elm_modelinfo.r1.serializing.ModelInfoReaderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures loading the QICore 6.0.0 model: reading its ModelInfo from XML and from the binary form
+ * generated at build time, and importing its types eagerly and lazily. The retained heap of the
+ * eagerly and lazily imported models is printed once the benchmarks have run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ModelLoadingBenchmark {
+
+    private static final String MODEL_INFO = "/org/hl7/fhir/qicore-modelinfo-6.0.0.xml";
+
+    private byte[] xml;
+    private byte[] binary;
+    private ModelInfo modelInfo;
+    private ModelManager modelManager;
+
+    @Setup
+    public void setup() throws IOException {
+        xml = readBytes(MODEL_INFO);
+        binary = readBytes(BinaryModelInfo.getBinaryName(MODEL_INFO));
+        modelInfo = readBinary();
+
+        // Load the System model the imported models depend on.
+        modelManager = new ModelManager();
+        modelManager.resolveModel("System");
+    }
+
+    @TearDown
+    public void reportRetainedHeap() throws ClassNotFoundException {
+        for (var lazy : new boolean[] {false, true}) {
+            final long before = usedHeap();
+            final var model = new Model(modelInfo, modelManager, lazy);
+            final long after = usedHeap();
+            Reference.reachabilityFence(model);
+            System.out.printf("%nRetained heap of QICore 6.0.0 (lazy: %s): %d KB%n", lazy, (after - before) / 1024);
+        }
+    }
+
+    @Benchmark
+    public ModelInfo readXml() throws IOException {
+        return ModelInfoReaderFactory.getReader("application/xml").read(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public ModelInfo readBinary() throws IOException {
+        return BinaryModelInfo.read(new ByteArrayInputStream(binary));
+    }
+
+    @Benchmark
+    public Model importEagerly() throws ClassNotFoundException {
+        return new Model(modelInfo, modelManager, false);
+    }
+
+    @Benchmark
+    public Model importLazily() throws ClassNotFoundException {
+        return new Model(modelInfo, modelManager, true);
+    }
+
+    /**
+     * Measures resolving QICore with a new model manager, as the translator does on startup.
+     */
+    @Benchmark
+    public Model resolveEagerly() {
+        return new ModelManager().resolveModel("QICore", "6.0.0");
+    }
+
+    @Benchmark
+    public Model resolveLazily() {
+        final var lazyModelManager = new ModelManager();
+        lazyModelManager.setLazyTypeImportEnabled(true);
+        return lazyModelManager.resolveModel("QICore", "6.0.0");
+    }
+
+    private static byte[] readBytes(String name) {
+        try (var stream = ModelLoadingBenchmark.class.getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IllegalArgumentException(String.format("Resource %s not found.", name));
+            }
+            return stream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long usedHeap() {
+        final var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,61 @@
+package org.cqframework.cql.benchmark;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.Environment;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures queries with three and four sources of the given number of rows each, whose where
+ * clauses select a fraction of every source and relate the remaining rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MultiSourceQueryBenchmark {
+
+    private static final VersionedIdentifier LIBRARY =
+            new VersionedIdentifier().withId("BenchmarkQueries").withVersion("1.0.0");
+
+    @Param({"100", "300"})
+    public int rows;
+
+    private Environment environment;
+    private Map<String, Object> parameters;
+
+    @Setup
+    public void setup() {
+        environment = new Environment(BenchmarkSupport.newLibraryManager(new ModelManager()));
+        final var values = new ArrayList<Integer>(rows);
+        for (int i = 0; i < rows; i++) {
+            values.add(i);
+        }
+        parameters = Map.of("Values", values);
+
+        // Compile the library.
+        threeSources();
+    }
+
+    @Benchmark
+    public EvaluationResult threeSources() {
+        return new CqlEngine(environment).evaluate(LIBRARY, Set.of("Three Sources"), parameters);
+    }
+
+    @Benchmark
+    public EvaluationResult fourSources() {
+        return new CqlEngine(environment).evaluate(LIBRARY, Set.of("Four Sources"), parameters);
+    }
+}
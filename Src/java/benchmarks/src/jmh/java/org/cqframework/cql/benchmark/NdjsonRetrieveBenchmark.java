@@ -0,0 +1,137 @@
+package org.cqframework.cql.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.cql.engine.fhir.model.R4FhirModelResolver;
+import org.opencds.cqf.cql.engine.fhir.retrieve.NdjsonRetrieveProvider;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures loading a Bulk Data export of synthetic patients with the NDJSON retrieve provider and
+ * retrieving the conditions with a code and the encounters in a period of a patient. The index
+ * statistics and the retained heap per million resources are printed once the benchmarks have run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NdjsonRetrieveBenchmark {
+
+    private static final List<String> TYPES = List.of("Patient", "Encounter", "Condition", "Observation");
+    private static final List<Code> DIABETES =
+            List.of(new Code().withSystem("http://snomed.info/sct").withCode("44054006"));
+    private static final Interval MEASUREMENT_PERIOD = new Interval(
+            new DateTime(OffsetDateTime.parse("2023-01-01T00:00:00Z")),
+            true,
+            new DateTime(OffsetDateTime.parse("2023-12-31T23:59:59.999Z")),
+            true);
+
+    @Param({"1000"})
+    public int patients;
+
+    private final R4FhirModelResolver modelResolver = new R4FhirModelResolver();
+    private Path directory;
+    private NdjsonRetrieveProvider provider;
+    private List<String> patientIds;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        final var population = new SyntheticPatients(patients, 10);
+        final var parser = modelResolver.getFhirContext().newJsonParser();
+        directory = Files.createTempDirectory("ndjson");
+        for (var type : TYPES) {
+            try (Writer writer = Files.newBufferedWriter(directory.resolve(type + ".ndjson"), StandardCharsets.UTF_8)) {
+                for (var patientId : population.getPatientIds()) {
+                    for (var resource : population.retrieve(
+                            null, null, patientId, type, null, null, null, null, null, null, null, null)) {
+                        writer.write(parser.encodeResourceToString((IBaseResource) resource));
+                        writer.write('\n');
+                    }
+                }
+            }
+        }
+
+        provider = load();
+        patientIds = provider.getPatientIds();
+    }
+
+    @TearDown
+    public void reportMemory() throws IOException {
+        final long before = usedHeap();
+        final var loaded = load();
+        final long after = usedHeap();
+        Reference.reachabilityFence(loaded);
+
+        final var statistics = loaded.getStatistics();
+        System.out.printf(
+                "%n%s%nRetained heap: %d MB per million resources%n",
+                statistics,
+                (after - before) * 1_000_000 / statistics.resourceCount() >> 20);
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public NdjsonRetrieveProvider load() throws IOException {
+        final var loaded = new NdjsonRetrieveProvider(modelResolver);
+        loaded.load(directory);
+        return loaded;
+    }
+
+    @Benchmark
+    public int retrievePatient() {
+        final var patientId = patientIds.get(next++ % patientIds.size());
+        int count = 0;
+        for (Object condition : provider.retrieve(
+                "Patient", "subject", patientId, "Condition", null, "code", DIABETES, null, null, null, null, null)) {
+            count++;
+        }
+        for (Object encounter : provider.retrieve(
+                "Patient",
+                "subject",
+                patientId,
+                "Encounter",
+                null,
+                null,
+                null,
+                null,
+                "period",
+                null,
+                null,
+                MEASUREMENT_PERIOD)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static long usedHeap() {
+        final var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
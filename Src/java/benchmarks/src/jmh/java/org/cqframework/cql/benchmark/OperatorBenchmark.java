@@ -0,0 +1,170 @@
+package org.cqframework.cql.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.hl7.elm.r1.Avg;
+import org.hl7.elm.r1.Count;
+import org.hl7.elm.r1.StdDev;
+import org.opencds.cqf.cql.engine.elm.executing.AggregateClauseEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.AvgEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.CountEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.DistinctEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.EqualEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.InEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.IncludedInEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.IntersectEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.MedianEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.ModeEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.OverlapsEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.StdDevEvaluator;
+import org.opencds.cqf.cql.engine.execution.Environment;
+import org.opencds.cqf.cql.engine.runtime.CqlList;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures frequently used {@code elm.executing} operators directly, without the visitor: equality,
+ * list membership, Distinct, sorting, DateTime interval operations and aggregates of Decimals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OperatorBenchmark {
+
+    @Param({"100", "10000"})
+    public int size;
+
+    private org.opencds.cqf.cql.engine.execution.State state;
+    private List<Object> dateTimes;
+    private List<Object> intervals;
+    private List<Object> decimals;
+    private DateTime probe;
+    private Interval probeInterval;
+
+    @Setup
+    public void setup() {
+        state = new org.opencds.cqf.cql.engine.execution.State(
+                new Environment(new LibraryManager(new ModelManager())));
+
+        // Random dates in 2023, with duplicates once the list holds more than a few hundred values.
+        final var random = new Random(size);
+        dateTimes = new ArrayList<>(size);
+        intervals = new ArrayList<>(size);
+        decimals = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final var low = dateTime(random.nextInt(12) + 1, random.nextInt(28) + 1);
+            final var high = dateTime(12, 31);
+            dateTimes.add(low);
+            intervals.add(new Interval(low, true, high, true));
+            decimals.add(BigDecimal.valueOf(random.nextInt(1000), 1));
+        }
+        probe = dateTime(7, 15);
+        probeInterval = new Interval(dateTime(6, 1), true, dateTime(8, 1), false);
+    }
+
+    private static DateTime dateTime(int month, int day) {
+        return new DateTime(BigDecimal.ZERO, 2023, month, day, 12, 0, 0, 0);
+    }
+
+    @Benchmark
+    public int equal() {
+        int count = 0;
+        for (var dateTime : dateTimes) {
+            if (Boolean.TRUE.equals(EqualEvaluator.equal(dateTime, probe, state))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public Boolean in() {
+        return InEvaluator.in(probe, dateTimes, null, state);
+    }
+
+    @Benchmark
+    public List<Object> distinct() {
+        return DistinctEvaluator.distinct(dateTimes, state);
+    }
+
+    @Benchmark
+    public List<Object> sort() {
+        final var sorted = new ArrayList<>(dateTimes);
+        sorted.sort(new CqlList(state).valueSort);
+        return sorted;
+    }
+
+    @Benchmark
+    public int overlaps() {
+        int count = 0;
+        for (var interval : intervals) {
+            if (Boolean.TRUE.equals(OverlapsEvaluator.overlaps(interval, probeInterval, null, state))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int includedIn() {
+        int count = 0;
+        for (var interval : intervals) {
+            if (Boolean.TRUE.equals(IncludedInEvaluator.includedIn(probeInterval, interval, "day", state))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int intersect() {
+        int count = 0;
+        for (var interval : intervals) {
+            if (IntersectEvaluator.intersect(interval, probeInterval, state) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public Object mode() {
+        return ModeEvaluator.mode(decimals, state);
+    }
+
+    @Benchmark
+    public Object median() {
+        return MedianEvaluator.median(decimals, state);
+    }
+
+    /**
+     * Count, Avg and StdDev of the same list, each iterating it.
+     */
+    @Benchmark
+    public Object[] statistics() {
+        return new Object[] {
+            CountEvaluator.count(decimals), AvgEvaluator.avg(decimals, state), StdDevEvaluator.stdDev(decimals, state)
+        };
+    }
+
+    /**
+     * Count, Avg and StdDev of the same list, in one pass over it.
+     */
+    @Benchmark
+    public List<Object> statisticsInOnePass() {
+        return AggregateClauseEvaluator.aggregate(List.of(new Count(), new Avg(), new StdDev()), decimals, state);
+    }
+}
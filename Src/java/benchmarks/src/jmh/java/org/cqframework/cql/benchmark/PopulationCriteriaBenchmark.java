@@ -0,0 +1,88 @@
+package org.cqframework.cql.benchmark;
+
+import java.time.ZonedDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.tuple.Pair;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.opencds.cqf.cql.engine.data.CompositeDataProvider;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.Environment;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.opencds.cqf.cql.engine.fhir.model.R4FhirModelResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures evaluation of measure population criteria that combine retrieves with And, Or and
+ * Implies, some of which are decided by a parameter alone, for one patient at a time. Compare the
+ * default left-to-right short-circuiting with {@link CqlEngine.Options#EnableCostOrderedEvaluation}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PopulationCriteriaBenchmark {
+
+    private static final VersionedIdentifier LIBRARY =
+            new VersionedIdentifier().withId("BenchmarkPopulationCriteria").withVersion("1.0.0");
+    private static final Set<String> CRITERIA =
+            Set.of("Initial Population", "Denominator Exclusion", "Numerator", "Stratification");
+    private static final ZonedDateTime EVALUATION_DATE_TIME = ZonedDateTime.parse("2024-01-01T00:00:00Z");
+
+    /**
+     * The number of encounters, conditions and observations per patient.
+     */
+    @Param({"10", "100"})
+    public int resourcesPerType;
+
+    /**
+     * A comma-separated list of {@link CqlEngine.Options}, or "none".
+     */
+    @Param({"none", "EnableCostOrderedEvaluation"})
+    public String options;
+
+    private Environment environment;
+    private EnumSet<CqlEngine.Options> engineOptions;
+    private List<String> patientIds;
+    private int next;
+
+    @Setup
+    public void setup() {
+        final var patients = new SyntheticPatients(100, resourcesPerType);
+        patientIds = patients.getPatientIds();
+
+        environment = new Environment(
+                BenchmarkSupport.newLibraryManager(new ModelManager()),
+                Map.of("http://hl7.org/fhir", new CompositeDataProvider(new R4FhirModelResolver(), patients)),
+                null);
+
+        engineOptions = EnumSet.noneOf(CqlEngine.Options.class);
+        if (!"none".equals(options)) {
+            for (var option : options.split(",")) {
+                engineOptions.add(CqlEngine.Options.valueOf(option.trim()));
+            }
+        }
+
+        // Compile the library and its includes.
+        evaluate();
+    }
+
+    @Benchmark
+    public EvaluationResult evaluate() {
+        final var patientId = patientIds.get(next);
+        next = (next + 1) % patientIds.size();
+        final Pair<String, Object> contextParameter = Pair.of("Patient", patientId);
+        return new CqlEngine(environment, engineOptions)
+                .evaluate(LIBRARY, CRITERIA, contextParameter, null, null, EVALUATION_DATE_TIME);
+    }
+}
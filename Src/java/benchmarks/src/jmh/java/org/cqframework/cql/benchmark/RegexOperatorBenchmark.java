@@ -0,0 +1,115 @@
+package org.cqframework.cql.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.opencds.cqf.cql.engine.elm.executing.MatchesEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.ReplaceMatchesEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.SplitOnMatchesEvaluator;
+import org.opencds.cqf.cql.engine.execution.PatternCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures Matches, ReplaceMatches and SplitOnMatches on identifiers with a pattern that is
+ * compiled on every evaluation (uncompiled), looked up in a pattern cache (cached) or compiled
+ * when the library is loaded because it is a literal (literal).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RegexOperatorBenchmark {
+
+    private static final String MATCHES_PATTERN = "(?i)mrn[- ]?[0-9]{3,8}";
+    private static final String REPLACE_PATTERN = "[^A-Z0-9]";
+    private static final String SPLIT_PATTERN = "[-| ]+";
+
+    @Param({"uncompiled", "cached", "literal"})
+    public String pattern;
+
+    private List<String> identifiers;
+    private PatternCache patternCache;
+    private Pattern matchesPattern;
+    private Pattern replacePattern;
+    private Pattern splitPattern;
+
+    @Setup
+    public void setup() {
+        final var random = new Random(0);
+        identifiers = new ArrayList<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            identifiers.add((random.nextBoolean() ? "MRN-" : "mrn ") + (100000 + random.nextInt(900000)) + "|site a");
+        }
+
+        patternCache = new PatternCache();
+        matchesPattern = Pattern.compile(MATCHES_PATTERN);
+        replacePattern = Pattern.compile(REPLACE_PATTERN);
+        splitPattern = Pattern.compile(SPLIT_PATTERN);
+    }
+
+    @Benchmark
+    public int matches() {
+        int count = 0;
+        for (var identifier : identifiers) {
+            final Object result;
+            switch (pattern) {
+                case "uncompiled":
+                    result = MatchesEvaluator.matches(identifier, MATCHES_PATTERN);
+                    break;
+                case "cached":
+                    result = MatchesEvaluator.matches(identifier, MATCHES_PATTERN, patternCache);
+                    break;
+                default:
+                    result = MatchesEvaluator.matches(identifier, matchesPattern);
+            }
+            if (Boolean.TRUE.equals(result)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public List<Object> replaceMatches() {
+        final var results = new ArrayList<>(identifiers.size());
+        for (var identifier : identifiers) {
+            switch (pattern) {
+                case "uncompiled":
+                    results.add(ReplaceMatchesEvaluator.replaceMatches(identifier, REPLACE_PATTERN, ""));
+                    break;
+                case "cached":
+                    results.add(ReplaceMatchesEvaluator.replaceMatches(identifier, REPLACE_PATTERN, "", patternCache));
+                    break;
+                default:
+                    results.add(ReplaceMatchesEvaluator.replaceMatches(identifier, replacePattern, ""));
+            }
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<Object> splitOnMatches() {
+        final var results = new ArrayList<>(identifiers.size());
+        for (var identifier : identifiers) {
+            switch (pattern) {
+                case "uncompiled":
+                    results.add(SplitOnMatchesEvaluator.splitOnMatches(identifier, SPLIT_PATTERN));
+                    break;
+                case "cached":
+                    results.add(SplitOnMatchesEvaluator.splitOnMatches(identifier, SPLIT_PATTERN, patternCache));
+                    break;
+                default:
+                    results.add(SplitOnMatchesEvaluator.splitOnMatches(identifier, splitPattern, null));
+            }
+        }
+        return results;
+    }
+}
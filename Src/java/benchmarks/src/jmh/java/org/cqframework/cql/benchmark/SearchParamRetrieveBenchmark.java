@@ -0,0 +1,106 @@
+package org.cqframework.cql.benchmark;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.opencds.cqf.cql.engine.fhir.model.R4FhirModelResolver;
+import org.opencds.cqf.cql.engine.fhir.retrieve.SearchParamFhirRetrieveProvider;
+import org.opencds.cqf.cql.engine.fhir.searchparam.SearchParameterMap;
+import org.opencds.cqf.cql.engine.fhir.searchparam.SearchParameterResolver;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the CPU spent generating the FHIR searches of a retrieve of the conditions with a code
+ * in a period of a patient, with a provider created for the retrieve, which resolves the search
+ * parameters and generates the query template again, and with a long-lived provider. The queries
+ * are not executed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchParamRetrieveBenchmark {
+
+    private static final Interval MEASUREMENT_PERIOD = new Interval(
+            new DateTime(OffsetDateTime.parse("2023-01-01T00:00:00Z")),
+            true,
+            new DateTime(OffsetDateTime.parse("2023-12-31T23:59:59.999Z")),
+            true);
+
+    @Param({"1", "50"})
+    public int codeCount;
+
+    private final FhirContext fhirContext = FhirContext.forCached(FhirVersionEnum.R4);
+    private final R4FhirModelResolver modelResolver = new R4FhirModelResolver();
+    private List<Code> codes;
+    private QueryCountingProvider provider;
+    private int next;
+
+    @Setup
+    public void setup() {
+        codes = IntStream.range(0, codeCount)
+                .mapToObj(i -> new Code().withSystem("http://snomed.info/sct").withCode(String.valueOf(44054006 + i)))
+                .collect(Collectors.toList());
+        provider = newProvider();
+    }
+
+    @Benchmark
+    public Object providerPerRetrieve() {
+        return retrieve(newProvider());
+    }
+
+    @Benchmark
+    public Object longLivedProvider() {
+        return retrieve(provider);
+    }
+
+    private QueryCountingProvider newProvider() {
+        final var result = new QueryCountingProvider(new SearchParameterResolver(fhirContext), modelResolver);
+        result.setMaxCodesPerQuery(20);
+        return result;
+    }
+
+    private Object retrieve(QueryCountingProvider retrieveProvider) {
+        return retrieveProvider.retrieve(
+                "Patient",
+                "subject",
+                "patient-" + next++ % 1000,
+                "Condition",
+                null,
+                "code",
+                codes,
+                null,
+                "onset",
+                null,
+                null,
+                MEASUREMENT_PERIOD);
+    }
+
+    /**
+     * Returns the generated queries instead of executing them.
+     */
+    private static class QueryCountingProvider extends SearchParamFhirRetrieveProvider {
+
+        QueryCountingProvider(SearchParameterResolver searchParameterResolver, R4FhirModelResolver modelResolver) {
+            super(searchParameterResolver, modelResolver);
+        }
+
+        @Override
+        protected Iterable<Object> executeQueries(String dataType, List<SearchParameterMap> queries) {
+            return List.of(queries);
+        }
+    }
+}
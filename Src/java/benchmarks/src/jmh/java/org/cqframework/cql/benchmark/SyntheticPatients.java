@@ -0,0 +1,113 @@
+package org.cqframework.cql.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveProvider;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+
+/**
+ * A deterministic population of R4 patients with encounters, conditions and observations, served
+ * by an in-memory {@link RetrieveProvider} so that engine benchmarks don't measure I/O.
+ */
+final class SyntheticPatients implements RetrieveProvider {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long START_OF_2023 = 1672531200000L;
+
+    private final List<String> patientIds = new ArrayList<>();
+    private final Map<String, Map<String, List<Object>>> resources = new HashMap<>();
+
+    SyntheticPatients(int patients, int resourcesPerType) {
+        final var random = new Random(patients * 31L + resourcesPerType);
+        for (int i = 0; i < patients; i++) {
+            final var id = "patient-" + i;
+            final var byType = new HashMap<String, List<Object>>();
+            final var subject = new Reference("Patient/" + id);
+
+            byType.put(
+                    "Patient",
+                    List.of(new Patient()
+                            .setBirthDate(new Date(START_OF_2023 - (10 + random.nextInt(70)) * 365 * DAY))
+                            .setId(id)));
+
+            final var encounters = new ArrayList<Object>();
+            final var conditions = new ArrayList<Object>();
+            final var observations = new ArrayList<Object>();
+            for (int j = 0; j < resourcesPerType; j++) {
+                final var start = new Date(START_OF_2023 + (random.nextInt(500) - 60) * DAY);
+                encounters.add(new Encounter()
+                        .setStatus(
+                                random.nextInt(4) == 0
+                                        ? Encounter.EncounterStatus.CANCELLED
+                                        : Encounter.EncounterStatus.FINISHED)
+                        .setPeriod(new Period().setStart(start).setEnd(new Date(start.getTime() + DAY)))
+                        .setSubject(subject)
+                        .setId(id + "-encounter-" + j));
+                conditions.add(new Condition()
+                        .setCode(concept(
+                                "http://snomed.info/sct", random.nextInt(3) == 0 ? "44054006" : "38341003"))
+                        .setRecordedDateElement(new DateTimeType(
+                                new Date(START_OF_2023 + (random.nextInt(730) - 365) * DAY)))
+                        .setSubject(subject)
+                        .setId(id + "-condition-" + j));
+                observations.add(new Observation()
+                        .setCode(concept("http://loinc.org", random.nextBoolean() ? "4548-4" : "2345-7"))
+                        .setEffective(new DateTimeType(new Date(START_OF_2023 + random.nextInt(400) * DAY)))
+                        .setValue(new Quantity()
+                                .setValue(5 + random.nextInt(80) / 10.0)
+                                .setUnit("%")
+                                .setSystem("http://unitsofmeasure.org")
+                                .setCode("%"))
+                        .setSubject(subject)
+                        .setId(id + "-observation-" + j));
+            }
+            byType.put("Encounter", encounters);
+            byType.put("Condition", conditions);
+            byType.put("Observation", observations);
+
+            patientIds.add(id);
+            resources.put(id, byType);
+        }
+    }
+
+    private static CodeableConcept concept(String system, String code) {
+        return new CodeableConcept().addCoding(new Coding(system, code, null));
+    }
+
+    List<String> getPatientIds() {
+        return patientIds;
+    }
+
+    @Override
+    public Iterable<Object> retrieve(
+            String context,
+            String contextPath,
+            Object contextValue,
+            String dataType,
+            String templateId,
+            String codePath,
+            Iterable<Code> codes,
+            String valueSet,
+            String datePath,
+            String dateLowPath,
+            String dateHighPath,
+            Interval dateRange) {
+        final var byType = resources.get((String) contextValue);
+        return byType != null ? byType.getOrDefault(dataType, List.of()) : List.of();
+    }
+}
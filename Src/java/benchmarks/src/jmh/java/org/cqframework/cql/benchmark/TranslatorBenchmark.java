@@ -0,0 +1,102 @@
+package org.cqframework.cql.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.TypeBuilder;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.cqframework.cql.cql2elm.model.SystemLibraryHelper;
+import org.cqframework.cql.cql2elm.model.SystemModel;
+import org.cqframework.cql.elm.IdObjectFactory;
+import org.hl7.elm.r1.Library;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures translation of CQL to ELM. Model info is loaded once, but every invocation uses a new
+ * library manager so that no compiled library is reused.
+ * <p>
+ * translateBundle translates many small libraries, whose translation time is dominated by
+ * setting up the System library. Compare buildSystemLibrary, which is what every translation
+ * used to do, with overlaySystemLibrary, which is what it does now that the System library is
+ * built once per model manager.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TranslatorBenchmark {
+
+    @Param({"100", "1000"})
+    public int definitions;
+
+    private ModelManager modelManager;
+    private String fhirHelpers;
+    private String syntheticLibrary;
+    private List<String> bundle;
+
+    @Setup
+    public void setup() {
+        modelManager = new ModelManager();
+        fhirHelpers = BenchmarkSupport.fhirHelpers();
+        syntheticLibrary = BenchmarkSupport.syntheticLibrary(definitions);
+        bundle = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            bundle.add(String.format(
+                    "library Bundle%d version '1.0.0'%n"
+                            + "define \"Value\": %d + 1%n"
+                            + "define \"Period\": Interval[@2020-01-01, @2021-01-01)%n"
+                            + "define \"In Period\": Today() in \"Period\" and \"Value\" > 1%n",
+                    i, i));
+        }
+
+        // Load the FHIR and System models up front.
+        translate(fhirHelpers);
+    }
+
+    private Library translate(String cql) {
+        final var translator = CqlTranslator.fromText(cql, BenchmarkSupport.newLibraryManager(modelManager));
+        if (!translator.getErrors().isEmpty()) {
+            throw new IllegalStateException(translator.getErrors().get(0).getMessage());
+        }
+        return translator.toELM();
+    }
+
+    @Benchmark
+    public Library translateFhirHelpers() {
+        return translate(fhirHelpers);
+    }
+
+    @Benchmark
+    public Library translateSyntheticLibrary() {
+        return translate(syntheticLibrary);
+    }
+
+    @Benchmark
+    public List<Library> translateBundle() {
+        final var libraries = new ArrayList<Library>();
+        for (var cql : bundle) {
+            libraries.add(translate(cql));
+        }
+        return libraries;
+    }
+
+    @Benchmark
+    public CompiledLibrary buildSystemLibrary() {
+        return SystemLibraryHelper.load(
+                (SystemModel) modelManager.resolveModel("System"),
+                new TypeBuilder(new IdObjectFactory(), modelManager));
+    }
+
+    @Benchmark
+    public CompiledLibrary overlaySystemLibrary() {
+        return modelManager.getSystemLibrary().newLibrary();
+    }
+}
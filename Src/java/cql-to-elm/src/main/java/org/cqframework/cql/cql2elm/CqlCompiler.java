@@ -21,6 +21,8 @@ import org.cqframework.cql.cql2elm.elm.ElmEditor;
 import org.cqframework.cql.cql2elm.elm.IElmEdit;
 import org.cqframework.cql.cql2elm.model.CompiledLibrary;
 import org.cqframework.cql.cql2elm.preprocessor.CqlPreprocessor;
+import org.cqframework.cql.cql2elm.preprocessor.IncludeDefinitionInfo;
+import org.cqframework.cql.cql2elm.preprocessor.LibraryInfo;
 import org.cqframework.cql.elm.IdObjectFactory;
 import org.cqframework.cql.elm.tracking.TrackBack;
 import org.cqframework.cql.gen.cqlLexer;
@@ -245,6 +247,9 @@ public class CqlCompiler {
         CqlPreprocessor preprocessor = new CqlPreprocessor(builder, tokens);
         preprocessor.visit(tree);
 
+        // Start compiling the included libraries, so that independent includes are compiled in parallel
+        compileIncludesInBackground(preprocessor.getLibraryInfo());
+
         // Phase 4: generate the ELM (the ELM is generated with full type information that can be used
         // for validation, optimization, rewriting, debugging, etc.)
         Cql2ElmVisitor visitor = new Cql2ElmVisitor(builder, tokens, preprocessor.getLibraryInfo());
@@ -270,6 +275,27 @@ public class CqlCompiler {
         return library;
     }
 
+    private void compileIncludesInBackground(LibraryInfo libraryInfo) {
+        if (libraryManager.getCompilationExecutor() == null) {
+            return;
+        }
+
+        var includeIdentifiers = new ArrayList<VersionedIdentifier>();
+        for (IncludeDefinitionInfo includeDefinition : libraryInfo.getIncludeDefinitions()) {
+            String namespaceName = includeDefinition.getNamespaceName() != null
+                    ? includeDefinition.getNamespaceName()
+                    : (namespaceInfo != null ? namespaceInfo.getName() : null);
+            String namespaceUri = namespaceName != null
+                    ? libraryManager.getNamespaceManager().resolveNamespaceUri(namespaceName)
+                    : null;
+            includeIdentifiers.add(new VersionedIdentifier()
+                    .withSystem(namespaceUri)
+                    .withId(includeDefinition.getName())
+                    .withVersion(StringEscapeUtils.unescapeCql(includeDefinition.getVersion())));
+        }
+        libraryManager.compileInBackground(includeIdentifiers);
+    }
+
     private List<IElmEdit> allNonNull(IElmEdit... ts) {
         return Arrays.stream(ts).filter(x -> x != null).collect(Collectors.toList());
     }
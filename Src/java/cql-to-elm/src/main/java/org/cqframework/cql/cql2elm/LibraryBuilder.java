@@ -531,7 +531,14 @@ public class LibraryBuilder {
     }
 
     private void loadSystemLibrary() {
-        CompiledLibrary systemLibrary = SystemLibraryHelper.load(getSystemModel(), typeBuilder);
+        // The System library is built once per model manager. Skip the local ids that building it
+        // would have used, so that the library gets the same local ids either way.
+        getSystemModel();
+        SystemLibraryHelper.Snapshot snapshot = modelManager.getSystemLibrary();
+        for (int i = 0; i < snapshot.getLocalIdCount(); i++) {
+            of.nextId();
+        }
+        CompiledLibrary systemLibrary = snapshot.newLibrary();
         libraries.put(systemLibrary.getIdentifier().getId(), systemLibrary);
         loadConversionMap(systemLibrary);
     }
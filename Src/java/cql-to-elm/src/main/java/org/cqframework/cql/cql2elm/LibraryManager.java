@@ -2,15 +2,25 @@ package org.cqframework.cql.cql2elm;
 
 import static org.cqframework.cql.cql2elm.CqlCompilerException.hasErrors;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import org.apache.commons.lang3.StringUtils;
 import org.cqframework.cql.cql2elm.model.CompiledLibrary;
 import org.cqframework.cql.elm.serializing.ElmLibraryReaderFactory;
@@ -37,6 +47,12 @@ import org.slf4j.LoggerFactory;
  * Manages a set of CQL libraries. As new library references are encountered
  * during compilation, the corresponding source is obtained via
  * librarySourceLoader, compiled and cached for later use.
+ * <p>
+ * A LibraryManager can be shared by threads that resolve libraries concurrently.
+ * Each library is compiled once: a thread that resolves a library another thread
+ * is compiling waits for that compilation. If a compilation executor is set, the
+ * libraries a library includes are compiled on the executor, in parallel with each
+ * other and with the including library.
  */
 public class LibraryManager {
     public enum CacheMode {
@@ -53,7 +69,14 @@ public class LibraryManager {
     private final Map<VersionedIdentifier, CompiledLibrary> compiledLibraries;
     private final LibrarySourceLoader librarySourceLoader;
 
-    private UcumService ucumService;
+    private final Map<VersionedIdentifier, Compilation> compilations = new ConcurrentHashMap<>();
+
+    private volatile UcumService ucumService;
+    private volatile Executor compilationExecutor;
+
+    private PersistentLibraryCache persistentLibraryCache;
+    private final Map<String, String> sourceHashes = new ConcurrentHashMap<>();
+    private final Map<String, Map<VersionedIdentifier, String>> dependencyHashes = new ConcurrentHashMap<>();
 
     private static final LibraryContentType[] supportedContentTypes = {
         LibraryContentType.JSON, LibraryContentType.XML, LibraryContentType.CQL
@@ -82,10 +105,12 @@ public class LibraryManager {
             this.namespaceManager = new NamespaceManager();
         }
 
-        if (libraryCache != null) {
+        if (libraryCache instanceof ConcurrentMap) {
             this.compiledLibraries = libraryCache;
+        } else if (libraryCache != null) {
+            this.compiledLibraries = Collections.synchronizedMap(libraryCache);
         } else {
-            this.compiledLibraries = new HashMap<>();
+            this.compiledLibraries = new ConcurrentHashMap<>();
         }
 
         this.librarySourceLoader = new PriorityLibrarySourceLoader();
@@ -108,11 +133,13 @@ public class LibraryManager {
     }
 
     public UcumService getUcumService() {
-        if (this.ucumService == null) {
-            this.ucumService = getDefaultUcumService();
+        var result = this.ucumService;
+        if (result == null) {
+            result = getDefaultUcumService();
+            this.ucumService = result;
         }
 
-        return ucumService;
+        return result;
     }
 
     protected synchronized UcumService getDefaultUcumService() {
@@ -133,6 +160,37 @@ public class LibraryManager {
         return librarySourceLoader;
     }
 
+    public PersistentLibraryCache getPersistentLibraryCache() {
+        return persistentLibraryCache;
+    }
+
+    /**
+     * Sets a cache in which libraries compiled from CQL source are stored, and from which they are
+     * loaded instead of being compiled again, for example by a later process.
+     *
+     * @param persistentLibraryCache the cache, or null to always compile
+     */
+    public void setPersistentLibraryCache(PersistentLibraryCache persistentLibraryCache) {
+        this.persistentLibraryCache = persistentLibraryCache;
+    }
+
+    public Executor getCompilationExecutor() {
+        return compilationExecutor;
+    }
+
+    /**
+     * Sets the executor on which included libraries are compiled. While a library is compiled,
+     * the libraries it includes are submitted to the executor, so that independent branches of
+     * the include graph are compiled in parallel, for example when warming up a large measure
+     * bundle. The thread that compiles the including library waits for them as it needs them.
+     *
+     * @param compilationExecutor the executor, or null to compile included libraries on the
+     *                            thread that needs them
+     */
+    public void setCompilationExecutor(Executor compilationExecutor) {
+        this.compilationExecutor = compilationExecutor;
+    }
+
     /*
      * A "well-known" library name is one that is allowed to resolve without a
      * namespace in a namespace-aware context
@@ -177,20 +235,179 @@ public class LibraryManager {
             throw new IllegalArgumentException("libraryIdentifier Id is null");
         }
 
-        CompiledLibrary library = null;
-        if (cacheMode != CacheMode.NONE) {
+        if (cacheMode == CacheMode.NONE) {
+            return compileLibrary(libraryIdentifier, errors);
+        }
+
+        CompiledLibrary library = compiledLibraries.get(libraryIdentifier);
+        if (library != null) {
+            return library;
+        }
+
+        // Source providers may set the namespace of the identifier while the library is compiled
+        final var key = new VersionedIdentifier()
+                .withSystem(libraryIdentifier.getSystem())
+                .withId(libraryIdentifier.getId())
+                .withVersion(libraryIdentifier.getVersion());
+        final var thread = CompilingThread.current();
+        final var compilation = new Compilation(thread);
+        final var inFlight = compilations.putIfAbsent(key, compilation);
+        if (inFlight != null) {
+            return awaitCompilation(libraryIdentifier, inFlight, thread, errors);
+        }
+
+        try {
+            // The library may have been cached after it was looked up above
             library = compiledLibraries.get(libraryIdentifier);
-            if (library != null) {
-                return library;
+            if (library == null) {
+                library = compileLibrary(libraryIdentifier, compilation.errors);
+                if (!hasErrors(compilation.errors) && cacheMode == CacheMode.READ_WRITE) {
+                    compiledLibraries.put(libraryIdentifier, library);
+                }
+            }
+            compilation.result.complete(library);
+        } catch (RuntimeException | Error e) {
+            compilation.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            compilations.remove(key, compilation);
+            if (errors != null) {
+                errors.addAll(compilation.errors);
             }
         }
 
-        library = compileLibrary(libraryIdentifier, errors);
-        if (!hasErrors(errors) && cacheMode == CacheMode.READ_WRITE) {
-            compiledLibraries.put(libraryIdentifier, library);
+        return library;
+    }
+
+    private CompiledLibrary awaitCompilation(
+            VersionedIdentifier libraryIdentifier,
+            Compilation compilation,
+            CompilingThread thread,
+            List<CqlCompilerException> errors) {
+        thread.waitingFor = compilation;
+        try {
+            if (isWaitingForItself(thread, compilation)) {
+                throw new CqlIncludeException(
+                        String.format(
+                                "Circular library reference %s, version %s.",
+                                NamespaceManager.getPath(libraryIdentifier.getSystem(), libraryIdentifier.getId()),
+                                libraryIdentifier.getVersion()),
+                        libraryIdentifier.getSystem(),
+                        libraryIdentifier.getId(),
+                        libraryIdentifier.getVersion());
+            }
+
+            final var library = compilation.result.join();
+            if (errors != null) {
+                errors.addAll(compilation.errors);
+            }
+            return library;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        } finally {
+            thread.waitingFor = null;
         }
+    }
 
-        return library;
+    /**
+     * Returns whether waiting for the given compilation would never end, because the thread that
+     * runs it is (transitively) waiting for a compilation of the given thread, as with libraries
+     * that include each other.
+     */
+    private static boolean isWaitingForItself(CompilingThread thread, Compilation compilation) {
+        final var visited = Collections.newSetFromMap(new IdentityHashMap<Compilation, Boolean>());
+        for (var next = compilation; next != null && visited.add(next); next = next.thread.waitingFor) {
+            if (next.thread == thread) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts compiling the given libraries on the compilation executor, if one is set. Libraries
+     * that are already compiled or being compiled are skipped, and failures are left to be
+     * reported when the library is resolved.
+     */
+    void compileInBackground(Collection<VersionedIdentifier> libraryIdentifiers) {
+        final var executor = compilationExecutor;
+        if (executor == null) {
+            return;
+        }
+
+        for (var libraryIdentifier : libraryIdentifiers) {
+            if (libraryIdentifier.getId() == null
+                    || compiledLibraries.containsKey(libraryIdentifier)
+                    || compilations.containsKey(libraryIdentifier)) {
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    if (compiledLibraries.containsKey(libraryIdentifier)
+                            || compilations.containsKey(libraryIdentifier)) {
+                        return;
+                    }
+                    try {
+                        resolveLibrary(libraryIdentifier, new ArrayList<>(), CacheMode.READ_WRITE);
+                    } catch (RuntimeException e) {
+                        logger.debug("Background compilation of library {} failed", libraryIdentifier.getId(), e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The library is compiled when it is resolved
+            }
+        }
+    }
+
+    private void compileIncludesInBackground(Library library) {
+        if (compilationExecutor == null || library.getIncludes() == null) {
+            return;
+        }
+
+        final var includeIdentifiers = new ArrayList<VersionedIdentifier>();
+        for (IncludeDef includeDef : library.getIncludes().getDef()) {
+            includeIdentifiers.add(toVersionedIdentifier(includeDef));
+        }
+        compileInBackground(includeIdentifiers);
+    }
+
+    private static VersionedIdentifier toVersionedIdentifier(IncludeDef includeDef) {
+        return new VersionedIdentifier()
+                .withSystem(NamespaceManager.getUriPart(includeDef.getPath()))
+                .withId(NamespaceManager.getNamePart(includeDef.getPath()))
+                .withVersion(includeDef.getVersion());
+    }
+
+    /**
+     * The compilation of a library by a thread, which other threads that resolve the library wait for.
+     */
+    private static final class Compilation {
+        private final CompilingThread thread;
+        private final CompletableFuture<CompiledLibrary> result = new CompletableFuture<>();
+        private final List<CqlCompilerException> errors = new ArrayList<>();
+
+        Compilation(CompilingThread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * The compilation a thread is waiting for, if any, used to detect circular waits.
+     */
+    private static final class CompilingThread {
+        private static final ThreadLocal<CompilingThread> CURRENT = ThreadLocal.withInitial(CompilingThread::new);
+
+        private volatile Compilation waitingFor;
+
+        static CompilingThread current() {
+            return CURRENT.get();
+        }
     }
 
     private CompiledLibrary compileLibrary(VersionedIdentifier libraryIdentifier, List<CqlCompilerException> errors) {
@@ -202,6 +419,7 @@ public class LibraryManager {
             result = tryCompiledLibraryElm(libraryIdentifier, this.cqlCompilerOptions);
             if (result != null) {
                 validateIdentifiers(libraryIdentifier, result, libraryPath);
+                compileIncludesInBackground(result.getLibrary());
 
                 sortStatements(result);
                 return result;
@@ -222,6 +440,21 @@ public class LibraryManager {
                         libraryIdentifier.getVersion());
             }
 
+            String sourceHash = null;
+            if (persistentLibraryCache != null) {
+                byte[] source = cqlSource.readAllBytes();
+                sourceHash = PersistentLibraryCache.hash(source);
+                sourceHashes.put(PersistentLibraryCache.libraryKey(libraryIdentifier), sourceHash);
+                result = persistentLibraryCache.load(libraryIdentifier, sourceHash, this);
+                if (result != null) {
+                    validateIdentifiers(libraryIdentifier, result, libraryPath);
+                    compileIncludesInBackground(result.getLibrary());
+                    sortStatements(result);
+                    return result;
+                }
+                cqlSource = new ByteArrayInputStream(source);
+            }
+
             CqlCompiler compiler = new CqlCompiler(
                     namespaceManager.getNamespaceInfoFromUri(libraryIdentifier.getSystem()), libraryIdentifier, this);
             compiler.run(cqlSource);
@@ -243,6 +476,11 @@ public class LibraryManager {
 
             validateIdentifiers(libraryIdentifier, result, libraryPath);
 
+            if (persistentLibraryCache != null && !hasErrors(compiler.getExceptions())) {
+                sortStatements(result);
+                persistentLibraryCache.store(libraryIdentifier, sourceHash, result, this);
+            }
+
         } catch (IOException e) {
             throw new CqlIncludeException(
                     String.format(
@@ -258,6 +496,77 @@ public class LibraryManager {
         return result;
     }
 
+    /**
+     * Returns the hash of the CQL source of the given library, reading the source if the library
+     * has not been compiled from source by this manager.
+     *
+     * @return the hash, or an empty string if the library has no CQL source
+     */
+    String getSourceHash(VersionedIdentifier libraryIdentifier) {
+        return sourceHashes.computeIfAbsent(PersistentLibraryCache.libraryKey(libraryIdentifier), key -> {
+            try (InputStream source = librarySourceLoader.getLibrarySource(libraryIdentifier)) {
+                return source != null ? PersistentLibraryCache.hash(source.readAllBytes()) : "";
+            } catch (IOException e) {
+                return "";
+            }
+        });
+    }
+
+    /**
+     * Returns the source hashes of the libraries the given library includes, directly or through
+     * other included libraries. Included libraries that aren't in the library cache, for example
+     * because they were compiled with {@link CacheMode#READ_ONLY}, are resolved again, from the
+     * persistent cache if it has them.
+     *
+     * @return the hashes, or null if an included library can't be resolved
+     */
+    Map<VersionedIdentifier, String> getDependencyHashes(Library library) {
+        final var key = PersistentLibraryCache.libraryKey(library.getIdentifier());
+        final var cached = dependencyHashes.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final var result = new LinkedHashMap<VersionedIdentifier, String>();
+        if (library.getIncludes() != null) {
+            for (IncludeDef includeDef : library.getIncludes().getDef()) {
+                final var includeIdentifier = toVersionedIdentifier(includeDef);
+                result.put(includeIdentifier, getSourceHash(includeIdentifier));
+                final var included = resolveIncludedLibrary(includeIdentifier);
+                final var includedHashes = included != null ? getDependencyHashes(included) : null;
+                if (includedHashes == null) {
+                    // Not memoized, so that the hashes are complete once the library can be resolved
+                    return null;
+                }
+                result.putAll(includedHashes);
+            }
+        }
+        dependencyHashes.put(key, result);
+        return result;
+    }
+
+    private Library resolveIncludedLibrary(VersionedIdentifier includeIdentifier) {
+        try {
+            var included = compiledLibraries.get(includeIdentifier);
+            if (included == null) {
+                included = resolveLibrary(includeIdentifier, new ArrayList<>(), CacheMode.READ_ONLY);
+            }
+            return included.getLibrary();
+        } catch (CqlIncludeException e) {
+            logger.warn("Could not resolve included library {}: {}", includeIdentifier.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds a compiled library from ELM whose definitions have result types.
+     *
+     * @return the compiled library, or null if a definition has no result type
+     */
+    CompiledLibrary toCompiledLibrary(Library library) {
+        return generateCompiledLibrary(library);
+    }
+
     private void validateIdentifiers(
             VersionedIdentifier libraryIdentifier, CompiledLibrary result, String libraryPath) {
 
@@ -366,8 +675,10 @@ public class LibraryManager {
                     compiledLibrary.add(codeSystemDef);
                 }
             }
-            for (ValueSetDef valueSetDef : library.getValueSets().getDef()) {
-                compiledLibrary.add(valueSetDef);
+            if (library.getValueSets() != null && library.getValueSets().getDef() != null) {
+                for (ValueSetDef valueSetDef : library.getValueSets().getDef()) {
+                    compiledLibrary.add(valueSetDef);
+                }
             }
 
             if (library.getCodes() != null && library.getCodes().getDef() != null) {
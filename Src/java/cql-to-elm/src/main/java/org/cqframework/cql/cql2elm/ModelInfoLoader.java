@@ -10,6 +10,10 @@ import org.hl7.cql.model.NamespaceAware;
 import org.hl7.cql.model.NamespaceManager;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
+/**
+ * Loads model infos from the registered providers. Instances are thread-safe: providers are
+ * registered and queried under the loader's lock.
+ */
 public class ModelInfoLoader implements NamespaceAware, PathAware {
 
     private Path path;
@@ -33,7 +37,7 @@ public class ModelInfoLoader implements NamespaceAware, PathAware {
         return providers;
     }
 
-    public ModelInfo getModelInfo(ModelIdentifier modelIdentifier) {
+    public synchronized ModelInfo getModelInfo(ModelIdentifier modelIdentifier) {
         checkModelIdentifier(modelIdentifier);
 
         ModelInfo modelInfo = null;
@@ -57,11 +61,11 @@ public class ModelInfoLoader implements NamespaceAware, PathAware {
         return modelInfo;
     }
 
-    public void registerModelInfoProvider(ModelInfoProvider provider) {
+    public synchronized void registerModelInfoProvider(ModelInfoProvider provider) {
         registerModelInfoProvider(provider, false);
     }
 
-    public void registerModelInfoProvider(ModelInfoProvider provider, boolean priority) {
+    public synchronized void registerModelInfoProvider(ModelInfoProvider provider, boolean priority) {
         if (provider == null) {
             throw new IllegalArgumentException("Provider is null");
         }
@@ -85,11 +89,11 @@ public class ModelInfoLoader implements NamespaceAware, PathAware {
         }
     }
 
-    public void unregisterModelInfoProvider(ModelInfoProvider provider) {
+    public synchronized void unregisterModelInfoProvider(ModelInfoProvider provider) {
         providers.remove(provider);
     }
 
-    public void clearModelInfoProviders() {
+    public synchronized void clearModelInfoProviders() {
         providers.clear();
         initialized = false;
     }
@@ -105,7 +109,7 @@ public class ModelInfoLoader implements NamespaceAware, PathAware {
     }
 
     @Override
-    public void setNamespaceManager(NamespaceManager namespaceManager) {
+    public synchronized void setNamespaceManager(NamespaceManager namespaceManager) {
         this.namespaceManager = namespaceManager;
 
         for (ModelInfoProvider provider : getProviders()) {
@@ -115,7 +119,7 @@ public class ModelInfoLoader implements NamespaceAware, PathAware {
         }
     }
 
-    public void setPath(Path path) {
+    public synchronized void setPath(Path path) {
         if (path == null || !path.toFile().isDirectory()) {
             throw new IllegalArgumentException(String.format("path '%s' is not a valid directory", path));
         }
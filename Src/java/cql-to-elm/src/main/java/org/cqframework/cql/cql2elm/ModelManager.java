@@ -3,12 +3,12 @@ package org.cqframework.cql.cql2elm;
 import static java.util.Objects.requireNonNull;
 
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import org.cqframework.cql.cql2elm.model.Model;
+import org.cqframework.cql.cql2elm.model.SystemLibraryHelper;
 import org.cqframework.cql.cql2elm.model.SystemModel;
 import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.cql.model.NamespaceManager;
@@ -16,16 +16,23 @@ import org.hl7.elm_modelinfo.r1.ModelInfo;
 
 /**
  * Created by Bryn on 12/29/2016.
+ * <p>
+ * Instances are thread-safe, so that the libraries of a {@link LibraryManager} can be compiled in
+ * parallel: models are resolved under the manager's lock, and resolved models can be looked up
+ * without it.
  */
 public class ModelManager {
     private final NamespaceManager namespaceManager;
     private Path path;
-    private ModelInfoLoader modelInfoLoader;
-    private final Map<String, Model> models = new HashMap<>();
+    private final ModelInfoLoader modelInfoLoader = new ModelInfoLoader();
+    private final Map<String, Model> models = new ConcurrentHashMap<>();
+    // Guarded by this
     private final Set<String> loadingModels = new HashSet<>();
-    private final Map<String, Model> modelsByUri = new HashMap<>();
+    private final Map<String, Model> modelsByUri = new ConcurrentHashMap<>();
     private final Map<ModelIdentifier, Model> globalCache;
-    private boolean enableDefaultModelInfoLoading = true;
+    private volatile boolean enableDefaultModelInfoLoading = true;
+    private volatile boolean enableLazyTypeImport;
+    private SystemLibraryHelper.Snapshot systemLibrary;
 
     public ModelManager() {
         this.namespaceManager = new NamespaceManager();
@@ -160,7 +167,6 @@ public class ModelManager {
     }
 
     private void initialize() {
-        modelInfoLoader = new ModelInfoLoader();
         modelInfoLoader.setNamespaceManager(namespaceManager);
         if (path != null) {
             modelInfoLoader.setPath(path);
@@ -179,6 +185,18 @@ public class ModelManager {
         return enableDefaultModelInfoLoading;
     }
 
+    /**
+     * Whether models loaded by this manager import their types on first reference rather than all at once,
+     * see {@link Model#Model(ModelInfo, ModelManager, boolean)}. Does not apply to the System model.
+     */
+    public boolean isLazyTypeImportEnabled() {
+        return enableLazyTypeImport;
+    }
+
+    public void setLazyTypeImportEnabled(boolean enableLazyTypeImport) {
+        this.enableLazyTypeImport = enableLazyTypeImport;
+    }
+
     /**
      * The global cache is by @{org.hl7.cql.model.ModelIdentifier}, while the local cache is by name. This is because the translator expects the ModelManager to only permit loading
      * of a single version of a given Model in a single translation context, while the global cache is for all versions of Models
@@ -222,7 +240,7 @@ public class ModelManager {
             if (identifier.getId().equals("System")) {
                 model = new SystemModel(modelInfo);
             } else {
-                model = new Model(modelInfo, this);
+                model = new Model(modelInfo, this, enableLazyTypeImport);
             }
         } catch (ClassNotFoundException e) {
             throw new IllegalArgumentException(String.format(
@@ -259,7 +277,7 @@ public class ModelManager {
      * @return the model
      * @throws IllegalArgumentException if an attempt to resolve multiple versions of the same model is made or if the model that resolved is not compatible with the requested version
      */
-    public Model resolveModel(ModelIdentifier modelIdentifier) {
+    public synchronized Model resolveModel(ModelIdentifier modelIdentifier) {
         String modelPath = NamespaceManager.getPath(modelIdentifier.getSystem(), modelIdentifier.getId());
         Model model = models.get(modelPath);
         if (model != null) {
@@ -268,21 +286,27 @@ public class ModelManager {
 
         if (model == null && this.globalCache.containsKey(modelIdentifier)) {
             model = this.globalCache.get(modelIdentifier);
-            models.put(modelPath, model);
-            modelsByUri.put(model.getModelInfo().getUrl(), model);
+            putModel(modelPath, model);
         }
 
         if (model == null) {
             model = buildModel(modelIdentifier);
             this.globalCache.put(modelIdentifier, model);
             checkModelVersion(modelIdentifier, model);
-            models.put(modelPath, model);
-            modelsByUri.put(model.getModelInfo().getUrl(), model);
+            putModel(modelPath, model);
         }
 
         return model;
     }
 
+    private void putModel(String modelPath, Model model) {
+        // Registered by URI first, so that a model that is found by path is also found by URI
+        if (model.getModelInfo().getUrl() != null) {
+            modelsByUri.put(model.getModelInfo().getUrl(), model);
+        }
+        models.put(modelPath, model);
+    }
+
     private void checkModelVersion(ModelIdentifier modelIdentifier, Model model) {
         if (modelIdentifier.getVersion() != null
                 && !modelIdentifier.getVersion().equals(model.getModelInfo().getVersion())) {
@@ -294,8 +318,20 @@ public class ModelManager {
         }
     }
 
+    /**
+     * Returns the System library, which is built on first use and shared by all translations that
+     * use this model manager.
+     */
+    public synchronized SystemLibraryHelper.Snapshot getSystemLibrary() {
+        if (systemLibrary == null) {
+            systemLibrary = SystemLibraryHelper.snapshot((SystemModel) resolveModel("System"), this);
+        }
+
+        return systemLibrary;
+    }
+
     public Model resolveModelByUri(String namespaceUri) {
-        Model model = modelsByUri.get(namespaceUri);
+        Model model = namespaceUri != null ? modelsByUri.get(namespaceUri) : null;
         if (model == null) {
             throw new IllegalArgumentException(
                     String.format("Could not resolve model with namespace %s", namespaceUri));
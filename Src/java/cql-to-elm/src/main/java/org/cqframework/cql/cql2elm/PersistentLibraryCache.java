@@ -0,0 +1,627 @@
+package org.cqframework.cql.cql2elm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.cqframework.cql.elm.serializing.ElmLibraryReaderFactory;
+import org.cqframework.cql.elm.serializing.ElmLibraryWriterFactory;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.cqframework.cql.gen.cqlParser;
+import org.hl7.cql.model.ChoiceType;
+import org.hl7.cql.model.DataType;
+import org.hl7.cql.model.IntervalType;
+import org.hl7.cql.model.ListType;
+import org.hl7.cql.model.ModelIdentifier;
+import org.hl7.cql.model.NamedType;
+import org.hl7.cql.model.NamespaceManager;
+import org.hl7.cql.model.TupleType;
+import org.hl7.cql.model.TupleTypeElement;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.FunctionDef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.UsingDef;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of compiled libraries in a directory, so that a process doesn't have to compile the CQL
+ * source of a library that an earlier process has already compiled.
+ * <p>
+ * Entries are keyed by the library identifier, a hash of the CQL source, the
+ * {@link CqlCompilerOptions} and a fingerprint of the build of the compiler, so an entry is not
+ * used once the source, the options or the compiler change. Each entry also records the source
+ * hashes of the libraries the library (transitively) includes and hashes of the model infos of the
+ * models it uses, and is not used if any of them changed either.
+ * <p>
+ * An entry holds the ELM of the library, serialized as JSON with the ELM writer on the classpath,
+ * and the result types of its definitions and function operands, from which the
+ * {@link CompiledLibrary} is rebuilt with the operator signatures that libraries including it need
+ * to compile. Only libraries that compiled without errors are stored. Entries are written to a
+ * temporary file and moved into place, so several processes can share a directory.
+ *
+ * @see LibraryManager#setPersistentLibraryCache(PersistentLibraryCache)
+ */
+public class PersistentLibraryCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PersistentLibraryCache.class);
+
+    private static final int MAGIC = 0x43514C43; // "CQLC"
+    private static final int FORMAT_VERSION = 2;
+    private static final String FILE_EXTENSION = ".elmc";
+
+    private static final byte NO_TYPE = 0;
+    private static final byte NAMED_TYPE = 1;
+    private static final byte LIST_TYPE = 2;
+    private static final byte INTERVAL_TYPE = 3;
+    private static final byte TUPLE_TYPE = 4;
+    private static final byte CHOICE_TYPE = 5;
+
+    /**
+     * Identifies the build of the compiler. Development builds all carry the same version, if any,
+     * so it is taken from the size and modification time of the jars or class files of the
+     * compiler, the parser and the ELM and model info classes. If they can't be read, entries are
+     * only used by the process that wrote them.
+     */
+    private static final String COMPILER_FINGERPRINT = compilerFingerprint();
+
+    private static final Map<Model, String> modelHashes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Path directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    /**
+     * @param directory the directory that holds the entries; it is created if it doesn't exist
+     */
+    public PersistentLibraryCache(Path directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory can not be null.");
+        }
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of libraries loaded from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of libraries that had to be compiled because the cache had no valid entry
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries written
+     */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * Returns the hash of the given library source that is part of the keys of the cache.
+     *
+     * @param source the source of a library
+     * @return the hash
+     */
+    public static String hash(byte[] source) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(source));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    static String libraryKey(VersionedIdentifier identifier) {
+        return identifier.getSystem() + "|" + identifier.getId() + "|" + identifier.getVersion();
+    }
+
+    private static String optionsKey(CqlCompilerOptions options) {
+        return String.join(
+                "|",
+                String.valueOf(new TreeSet<>(options.getOptions())),
+                String.valueOf(options.getCompatibilityLevel()),
+                String.valueOf(options.getVerifyOnly()),
+                String.valueOf(options.getEnableCqlOnly()),
+                String.valueOf(options.getValidateUnits()),
+                String.valueOf(options.getErrorLevel()),
+                String.valueOf(options.getSignatureLevel()),
+                String.valueOf(options.getCollapseDataRequirements()),
+                String.valueOf(options.getAnalyzeDataRequirements()));
+    }
+
+    private static String entryKey(VersionedIdentifier identifier, String sourceHash, CqlCompilerOptions options) {
+        return String.join(
+                "\n",
+                "format " + FORMAT_VERSION,
+                "compiler " + COMPILER_FINGERPRINT,
+                libraryKey(identifier),
+                sourceHash,
+                optionsKey(options));
+    }
+
+    private static String compilerFingerprint() {
+        final var locations = new LinkedHashSet<Path>();
+        final var fingerprint = new StringBuilder();
+        try {
+            for (var type : List.of(PersistentLibraryCache.class, cqlParser.class, Library.class, ModelInfo.class)) {
+                locations.add(Path.of(type.getProtectionDomain().getCodeSource().getLocation().toURI()));
+            }
+            for (var location : locations) {
+                try (var files = Files.walk(location)) {
+                    for (var file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+                        fingerprint
+                                .append(location.relativize(file))
+                                .append(' ')
+                                .append(Files.size(file))
+                                .append(' ')
+                                .append(Files.getLastModifiedTime(file).toMillis())
+                                .append('\n');
+                    }
+                }
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            logger.warn(
+                    "Cached libraries are only used by this process, the compiler can't be identified: {}",
+                    e.getMessage());
+            return UUID.randomUUID().toString();
+        }
+        return hash(fingerprint.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns a hash of the content of the model info of the given model.
+     */
+    private static String modelHash(Model model) {
+        return modelHashes.computeIfAbsent(model, m -> {
+            try {
+                final var digest = MessageDigest.getInstance("SHA-256");
+                update(digest, m.getModelInfo());
+                return HexFormat.of().formatHex(digest.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available.", e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Could not read the model info.", e);
+            }
+        });
+    }
+
+    /**
+     * Digests the fields of the given model info element, in the order of their names, recursively.
+     * Lists that haven't been accessed yet are null, and are digested as empty.
+     */
+    private static void update(MessageDigest digest, Object value) throws IllegalAccessException {
+        if (value instanceof Collection) {
+            digest.update((byte) '[');
+            for (var element : (Collection<?>) value) {
+                update(digest, element);
+                digest.update((byte) ',');
+            }
+            digest.update((byte) ']');
+        } else if (value == null
+                || value instanceof Enum
+                || !value.getClass().getPackageName().equals(ModelInfo.class.getPackageName())) {
+            digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        } else {
+            digest.update(value.getClass().getSimpleName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '{');
+            for (Class<?> type = value.getClass(); type != Object.class; type = type.getSuperclass()) {
+                final var fields = type.getDeclaredFields();
+                Arrays.sort(fields, Comparator.comparing(Field::getName));
+                for (var field : fields) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    digest.update(field.getName().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '=');
+                    final var fieldValue = field.get(value);
+                    update(
+                            digest,
+                            fieldValue == null && Collection.class.isAssignableFrom(field.getType())
+                                    ? List.of()
+                                    : fieldValue);
+                    digest.update((byte) ';');
+                }
+            }
+            digest.update((byte) '}');
+        }
+    }
+
+    private Path entryPath(String key) {
+        return directory.resolve(hash(key.getBytes(StandardCharsets.UTF_8)) + FILE_EXTENSION);
+    }
+
+    /**
+     * Loads the compiled library with the given identifier and source hash, if the cache has a
+     * valid entry for it.
+     *
+     * @return the compiled library, or null if it must be compiled
+     */
+    CompiledLibrary load(VersionedIdentifier identifier, String sourceHash, LibraryManager libraryManager) {
+        final var key = entryKey(identifier, sourceHash, libraryManager.getCqlCompilerOptions());
+        final var path = entryPath(key);
+        try {
+            final var compiledLibrary = read(path, key, libraryManager);
+            if (compiledLibrary != null) {
+                hits.incrementAndGet();
+                return compiledLibrary;
+            }
+        } catch (NoSuchFileException e) {
+            // Not cached yet
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring cached library {} in {}: {}", identifier.getId(), path, e.getMessage());
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the given compiled library under the given identifier and source hash. Failures are
+     * logged and otherwise ignored.
+     */
+    void store(
+            VersionedIdentifier identifier,
+            String sourceHash,
+            CompiledLibrary compiledLibrary,
+            LibraryManager libraryManager) {
+        final var key = entryKey(identifier, sourceHash, libraryManager.getCqlCompilerOptions());
+        final var path = entryPath(key);
+        try {
+            final var bytes = write(key, compiledLibrary, libraryManager);
+            Files.createDirectories(directory);
+            final var temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, bytes);
+                try {
+                    Files.move(
+                            temporary,
+                            path,
+                            StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            writes.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not cache library {} in {}: {}", identifier.getId(), path, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes all entries.
+     */
+    public void clear() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (var entries = Files.newDirectoryStream(directory, "*" + FILE_EXTENSION)) {
+            for (var entry : entries) {
+                Files.deleteIfExists(entry);
+            }
+        }
+    }
+
+    private byte[] write(String key, CompiledLibrary compiledLibrary, LibraryManager libraryManager)
+            throws IOException {
+        final var library = compiledLibrary.getLibrary();
+        final var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+
+            final Map<VersionedIdentifier, String> dependencies = libraryManager.getDependencyHashes(library);
+            if (dependencies == null) {
+                throw new IOException("The libraries it includes could not be resolved.");
+            }
+            out.writeInt(dependencies.size());
+            for (var dependency : dependencies.entrySet()) {
+                writeNullableUTF(out, dependency.getKey().getSystem());
+                out.writeUTF(dependency.getKey().getId());
+                writeNullableUTF(out, dependency.getKey().getVersion());
+                out.writeUTF(dependency.getValue());
+            }
+
+            final List<UsingDef> usings = library.getUsings() != null ? library.getUsings().getDef() : List.of();
+            out.writeInt(usings.size());
+            for (var usingDef : usings) {
+                out.writeUTF(usingDef.getUri());
+                writeNullableUTF(out, usingDef.getVersion());
+                out.writeUTF(modelHash(
+                        resolveModel(usingDef.getUri(), usingDef.getVersion(), libraryManager.getModelManager())));
+            }
+
+            final var typedElements = typedElements(library);
+            out.writeInt(typedElements.size());
+            for (var element : typedElements) {
+                writeType(out, element.getResultType());
+            }
+
+            final var elm = new ByteArrayOutputStream();
+            try (var writer = new OutputStreamWriter(elm, StandardCharsets.UTF_8)) {
+                ElmLibraryWriterFactory.getWriter(LibraryContentType.JSON.mimeType()).write(library, writer);
+            }
+            out.writeInt(elm.size());
+            elm.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private CompiledLibrary read(Path path, String key, LibraryManager libraryManager) throws IOException {
+        try (var in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+
+            final int dependencyCount = in.readInt();
+            for (int i = 0; i < dependencyCount; i++) {
+                final var dependency = new VersionedIdentifier()
+                        .withSystem(readNullableUTF(in))
+                        .withId(in.readUTF())
+                        .withVersion(readNullableUTF(in));
+                if (!in.readUTF().equals(libraryManager.getSourceHash(dependency))) {
+                    return null;
+                }
+            }
+
+            final int modelCount = in.readInt();
+            for (int i = 0; i < modelCount; i++) {
+                final var model = resolveModel(in.readUTF(), readNullableUTF(in), libraryManager.getModelManager());
+                if (!in.readUTF().equals(modelHash(model))) {
+                    return null;
+                }
+            }
+
+            final var types = new ArrayList<Object>();
+            final int typeCount = in.readInt();
+            for (int i = 0; i < typeCount; i++) {
+                types.add(readTypeDescription(in));
+            }
+
+            final var elm = new byte[in.readInt()];
+            in.readFully(elm);
+            final Library library = ElmLibraryReaderFactory.getReader(LibraryContentType.JSON.mimeType())
+                    .read(new InputStreamReader(new ByteArrayInputStream(elm), StandardCharsets.UTF_8));
+
+            final var typedElements = typedElements(library);
+            if (typedElements.size() != typeCount) {
+                return null;
+            }
+            for (int i = 0; i < typeCount; i++) {
+                typedElements.get(i).setResultType(resolveType(types.get(i), library, libraryManager));
+            }
+
+            return libraryManager.toCompiledLibrary(library);
+        }
+    }
+
+    /**
+     * Returns the elements whose result types a library that includes the given library needs,
+     * always in the same order.
+     */
+    private static List<Trackable> typedElements(Library library) {
+        final var elements = new ArrayList<Trackable>();
+        if (library.getParameters() != null) {
+            elements.addAll(library.getParameters().getDef());
+        }
+        if (library.getCodeSystems() != null) {
+            elements.addAll(library.getCodeSystems().getDef());
+        }
+        if (library.getValueSets() != null) {
+            elements.addAll(library.getValueSets().getDef());
+        }
+        if (library.getCodes() != null) {
+            elements.addAll(library.getCodes().getDef());
+        }
+        if (library.getConcepts() != null) {
+            elements.addAll(library.getConcepts().getDef());
+        }
+        if (library.getStatements() != null) {
+            for (ExpressionDef def : library.getStatements().getDef()) {
+                elements.add(def);
+                if (def instanceof FunctionDef) {
+                    elements.addAll(((FunctionDef) def).getOperand());
+                }
+            }
+        }
+        return elements;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeType(DataOutputStream out, DataType type) throws IOException {
+        if (type == null) {
+            out.writeByte(NO_TYPE);
+        } else if (type instanceof NamedType) {
+            out.writeByte(NAMED_TYPE);
+            out.writeUTF(((NamedType) type).getName());
+        } else if (type instanceof ListType) {
+            out.writeByte(LIST_TYPE);
+            writeType(out, ((ListType) type).getElementType());
+        } else if (type instanceof IntervalType) {
+            out.writeByte(INTERVAL_TYPE);
+            writeType(out, ((IntervalType) type).getPointType());
+        } else if (type instanceof TupleType) {
+            final var elements = new ArrayList<TupleTypeElement>();
+            ((TupleType) type).getElements().forEach(elements::add);
+            out.writeByte(TUPLE_TYPE);
+            out.writeInt(elements.size());
+            for (var element : elements) {
+                out.writeUTF(element.getName());
+                writeType(out, element.getType());
+            }
+        } else if (type instanceof ChoiceType) {
+            final var choices = new ArrayList<DataType>();
+            ((ChoiceType) type).getTypes().forEach(choices::add);
+            out.writeByte(CHOICE_TYPE);
+            out.writeInt(choices.size());
+            for (var choice : choices) {
+                writeType(out, choice);
+            }
+        } else {
+            throw new IOException(String.format("Unsupported result type %s.", type));
+        }
+    }
+
+    /**
+     * Reads a type as nested arrays, which are resolved once the library, and therefore the models
+     * it uses, has been read.
+     */
+    private static Object readTypeDescription(DataInputStream in) throws IOException {
+        final byte tag = in.readByte();
+        switch (tag) {
+            case NO_TYPE:
+                return null;
+            case NAMED_TYPE:
+                return in.readUTF();
+            case LIST_TYPE:
+            case INTERVAL_TYPE:
+                return new Object[] {tag, readTypeDescription(in)};
+            case TUPLE_TYPE: {
+                final int size = in.readInt();
+                final var description = new Object[1 + 2 * size];
+                description[0] = tag;
+                for (int i = 0; i < size; i++) {
+                    description[1 + 2 * i] = in.readUTF();
+                    description[2 + 2 * i] = readTypeDescription(in);
+                }
+                return description;
+            }
+            case CHOICE_TYPE: {
+                final int size = in.readInt();
+                final var description = new Object[1 + size];
+                description[0] = tag;
+                for (int i = 0; i < size; i++) {
+                    description[1 + i] = readTypeDescription(in);
+                }
+                return description;
+            }
+            default:
+                throw new IOException(String.format("Unknown type tag %d.", tag));
+        }
+    }
+
+    private static DataType resolveType(Object description, Library library, LibraryManager libraryManager)
+            throws IOException {
+        if (description == null) {
+            return null;
+        }
+
+        if (description instanceof String) {
+            return resolveNamedType((String) description, library, libraryManager.getModelManager());
+        }
+
+        final var parts = (Object[]) description;
+        switch ((Byte) parts[0]) {
+            case LIST_TYPE:
+                return new ListType(resolveType(parts[1], library, libraryManager));
+            case INTERVAL_TYPE:
+                return new IntervalType(resolveType(parts[1], library, libraryManager));
+            case TUPLE_TYPE: {
+                final var tupleType = new TupleType();
+                for (int i = 1; i < parts.length; i += 2) {
+                    final var elementType = resolveType(parts[i + 1], library, libraryManager);
+                    tupleType.addElement(new TupleTypeElement((String) parts[i], elementType));
+                }
+                return tupleType;
+            }
+            default: {
+                final var choices = new ArrayList<DataType>();
+                for (int i = 1; i < parts.length; i++) {
+                    choices.add(resolveType(parts[i], library, libraryManager));
+                }
+                return new ChoiceType(choices);
+            }
+        }
+    }
+
+    private static DataType resolveNamedType(String name, Library library, ModelManager modelManager)
+            throws IOException {
+        final int dot = name.indexOf('.');
+        final var modelName = dot >= 0 ? name.substring(0, dot) : "System";
+
+        Model model = null;
+        if (library.getUsings() != null) {
+            for (UsingDef usingDef : library.getUsings().getDef()) {
+                if (modelName.equals(usingDef.getLocalIdentifier())) {
+                    model = resolveModel(usingDef.getUri(), usingDef.getVersion(), modelManager);
+                    break;
+                }
+            }
+        }
+        if (model == null) {
+            model = modelManager.resolveModel(modelName);
+        }
+
+        var type = model.resolveTypeName(name);
+        if (type == null && dot >= 0) {
+            type = model.resolveTypeName(name.substring(dot + 1));
+        }
+        if (type == null) {
+            throw new IOException(String.format("Could not resolve type %s.", name));
+        }
+        return type;
+    }
+
+    private static Model resolveModel(String uri, String version, ModelManager modelManager) {
+        return modelManager.resolveModel(new ModelIdentifier()
+                .withSystem(NamespaceManager.getUriPart(uri))
+                .withId(NamespaceManager.getNamePart(uri))
+                .withVersion(version));
+    }
+}
@@ -12,10 +12,36 @@ public class CompiledLibrary {
     private VersionedIdentifier identifier;
     private Library library;
     private final Map<String, Element> namespace = new HashMap<>();
-    private final OperatorMap operators = new OperatorMap();
+    private final OperatorMap operators;
     private final Map<Operator, FunctionDef> functionDefs = new HashMap<>();
     private final java.util.List<Conversion> conversions = new ArrayList<>();
 
+    public CompiledLibrary() {
+        this.operators = new OperatorMap();
+    }
+
+    private CompiledLibrary(CompiledLibrary base) {
+        this.identifier = base.identifier;
+        this.library = base.library;
+        this.namespace.putAll(base.namespace);
+        this.operators = new OperatorMap(base.operators);
+        this.functionDefs.putAll(base.functionDefs);
+        this.conversions.addAll(base.conversions);
+    }
+
+    /**
+     * Returns a library with the contents of the given library, layered on it so that operators
+     * resolved or added through the returned library never modify the given library. This allows
+     * a library that is expensive to build, such as the System library, to be built once and
+     * shared.
+     *
+     * @param base the library, which must not be modified while the returned library is in use
+     * @return the layered library
+     */
+    public static CompiledLibrary overlay(CompiledLibrary base) {
+        return new CompiledLibrary(base);
+    }
+
     public VersionedIdentifier getIdentifier() {
         return identifier;
     }
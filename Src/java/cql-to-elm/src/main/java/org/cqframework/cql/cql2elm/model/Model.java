@@ -1,21 +1,39 @@
 package org.cqframework.cql.cql2elm.model;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.cqframework.cql.cql2elm.ModelManager;
 import org.hl7.cql.model.*;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
 public class Model {
     public Model(ModelInfo modelInfo, ModelManager modelManager) throws ClassNotFoundException {
+        this(modelInfo, modelManager, false);
+    }
+
+    /**
+     * Creates a model from the given model info. A lazy model imports its types on first reference, which
+     * avoids building the types of large models that a library does not use. Lazy models can be shared across
+     * threads like eagerly imported ones.
+     */
+    public Model(ModelInfo modelInfo, ModelManager modelManager, boolean lazy) throws ClassNotFoundException {
         info = modelInfo;
-        index = new HashMap<>();
-        nameIndex = new HashMap<>();
-        classIndex = new HashMap<>();
         conversions = new ArrayList<>();
         contexts = new ArrayList<>();
 
-        ModelImporter importer = new ModelImporter(info, modelManager);
-        index = importer.getTypes();
+        ModelImporter importer = new ModelImporter(info, modelManager, lazy);
+        if (lazy) {
+            // Types are added to the indexes once the importer has completely imported them
+            this.importer = importer;
+            index = new ConcurrentHashMap<>();
+            nameIndex = new ConcurrentHashMap<>();
+            classIndex = new ConcurrentHashMap<>();
+        } else {
+            index = importer.getTypes();
+            nameIndex = new HashMap<>();
+            classIndex = new HashMap<>();
+        }
+
         for (Conversion c : importer.getConversions()) {
             conversions.add(c);
         }
@@ -26,17 +44,21 @@ public class Model {
 
         defaultContext = importer.getDefaultContextName();
 
-        for (DataType t : index.values()) {
-            if (t instanceof ClassType && ((ClassType) t).getLabel() != null) {
-                classIndex.put(casify(((ClassType) t).getLabel()), (ClassType) t);
-            }
+        if (!lazy) {
+            for (DataType t : index.values()) {
+                if (t instanceof ClassType && ((ClassType) t).getLabel() != null) {
+                    classIndex.put(casify(((ClassType) t).getLabel()), (ClassType) t);
+                }
 
-            if (t instanceof NamedType) {
-                nameIndex.put(casify(((NamedType) t).getSimpleName()), t);
+                if (t instanceof NamedType) {
+                    nameIndex.put(casify(((NamedType) t).getSimpleName()), t);
+                }
             }
         }
     }
 
+    private ModelImporter importer;
+
     private ModelInfo info;
 
     public ModelInfo getModelInfo() {
@@ -47,6 +69,9 @@ public class Model {
     private Map<String, ClassType> classIndex;
     private Map<String, DataType> nameIndex;
 
+    /**
+     * Returns the types of the model by simple name. For lazy models, only contains the types resolved so far.
+     */
     protected Map<String, DataType> getNameIndex() {
         return nameIndex;
     }
@@ -70,6 +95,13 @@ public class Model {
             result = nameIndex.get(typeName);
         }
 
+        if (result == null && importer != null) {
+            result = importer.resolveModelType(typeName);
+            if (result != null) {
+                index.put(typeName, result);
+            }
+        }
+
         return result;
     }
 
@@ -110,7 +142,16 @@ public class Model {
     }
 
     public ClassType resolveLabel(String label) {
-        return classIndex.get(casify(label));
+        label = casify(label);
+        ClassType result = classIndex.get(label);
+        if (result == null && importer != null) {
+            result = importer.resolveModelLabel(label);
+            if (result != null) {
+                classIndex.put(label, result);
+            }
+        }
+
+        return result;
     }
 
     private String casify(String typeName) {
@@ -16,8 +16,26 @@ public class ModelImporter {
     private List<Conversion> conversions;
     private List<ModelContext> contexts;
     private ModelContext defaultContext;
+    private final boolean lazy;
+    private Map<String, TypeInfo> lazyTypeInfoIndex;
+    private Map<String, ClassInfo> lazyLabelIndex;
+    private Map<ClassType, ClassInfo> pendingRelationships;
 
     public ModelImporter(ModelInfo modelInfo, ModelManager modelManager) {
+        this(modelInfo, modelManager, false);
+    }
+
+    /**
+     * Creates an importer for the given model info. A lazy importer only imports the conversions and contexts of
+     * the model up front, the remaining types are imported when they are first resolved through
+     * {@link #resolveModelType(String)} or {@link #resolveModelLabel(String)}, and {@link #getTypes()} only
+     * contains the types imported so far.
+     *
+     * @param modelInfo the model info to import
+     * @param modelManager the model manager used to resolve required models
+     * @param lazy whether to import types on first reference rather than all at once
+     */
+    public ModelImporter(ModelInfo modelInfo, ModelManager modelManager, boolean lazy) {
         if (modelInfo == null) {
             throw new IllegalArgumentException("modelInfo is null");
         }
@@ -30,6 +48,12 @@ public class ModelImporter {
         this.dataTypes = new ArrayList<>();
         this.conversions = new ArrayList<>();
         this.contexts = new ArrayList<>();
+        this.lazy = lazy;
+        if (lazy) {
+            this.lazyTypeInfoIndex = new HashMap<>();
+            this.lazyLabelIndex = new HashMap<>();
+            this.pendingRelationships = new LinkedHashMap<>();
+        }
 
         if (modelManager != null) {
             // Import required models
@@ -64,6 +88,16 @@ public class ModelImporter {
             }
         }
 
+        if (lazy) {
+            for (Map.Entry<String, TypeInfo> entry : typeInfoIndex.entrySet()) {
+                lazyTypeInfoIndex.put(casify(entry.getKey()), entry.getValue());
+                if (entry.getValue() instanceof ClassInfo && ((ClassInfo) entry.getValue()).getLabel() != null) {
+                    lazyLabelIndex.put(
+                            casify(((ClassInfo) entry.getValue()).getLabel()), (ClassInfo) entry.getValue());
+                }
+            }
+        }
+
         // Import model conversions
         for (ConversionInfo c : this.modelInfo.getConversionInfo()) {
             DataType fromType = resolveTypeNameOrSpecifier(c.getFromType(), c.getFromTypeSpecifier());
@@ -113,12 +147,21 @@ public class ModelImporter {
             }
         }
 
-        for (TypeInfo t : this.modelInfo.getTypeInfo()) {
-            DataType type = resolveTypeInfo(t);
-            dataTypes.add(type);
+        if (lazy) {
+            // Relationships refer to contexts, so those of the classes imported so far could not be imported yet
+            Map<ClassType, ClassInfo> pending = pendingRelationships;
+            pendingRelationships = null;
+            for (Map.Entry<ClassType, ClassInfo> entry : pending.entrySet()) {
+                importRelationships(entry.getValue(), entry.getKey());
+            }
+        } else {
+            for (TypeInfo t : this.modelInfo.getTypeInfo()) {
+                DataType type = resolveTypeInfo(t);
+                dataTypes.add(type);
 
-            if (t instanceof ClassInfo) {
-                importRelationships((ClassInfo) t, (ClassType) type);
+                if (t instanceof ClassInfo) {
+                    importRelationships((ClassInfo) t, (ClassType) type);
+                }
             }
         }
     }
@@ -127,6 +170,35 @@ public class ModelImporter {
         return resolvedTypes;
     }
 
+    /**
+     * Resolves a type of the model by qualified or simple name, importing it if necessary.
+     *
+     * @param typeName the name of the type, cased as for the indexes of the model
+     * @return the type, or null if the model does not define a type with the given name
+     */
+    public synchronized DataType resolveModelType(String typeName) {
+        DataType result = resolvedTypes.get(typeName);
+        if (result != null || !lazy) {
+            return result;
+        }
+
+        String qualifier = casify(this.modelInfo.getName() + ".");
+        TypeInfo typeInfo = lazyTypeInfoIndex.get(
+                typeName.startsWith(qualifier) ? typeName.substring(qualifier.length()) : typeName);
+        return typeInfo != null ? resolveTypeInfo(typeInfo) : null;
+    }
+
+    /**
+     * Resolves a class of the model by label, importing it if necessary.
+     *
+     * @param label the label of the class, cased as for the indexes of the model
+     * @return the class, or null if the model does not define a class with the given label
+     */
+    public synchronized ClassType resolveModelLabel(String label) {
+        ClassInfo classInfo = lazy ? lazyLabelIndex.get(label) : null;
+        return classInfo != null ? resolveClassType(classInfo) : null;
+    }
+
     public Iterable<Conversion> getConversions() {
         return conversions;
     }
@@ -600,6 +672,14 @@ public class ModelImporter {
             result.setTarget(t.getTarget());
             result.setRetrievable(t.isRetrievable());
             result.setPrimaryCodePath(t.getPrimaryCodePath());
+
+            if (lazy) {
+                if (pendingRelationships != null) {
+                    pendingRelationships.put(result, t);
+                } else {
+                    importRelationships(t, result);
+                }
+            }
         }
 
         return result;
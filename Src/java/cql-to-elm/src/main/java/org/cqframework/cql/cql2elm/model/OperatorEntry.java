@@ -173,6 +173,12 @@ public class OperatorEntry {
 
         private SignatureNodes subSignatures = new SignatureNodes();
 
+        SignatureNode copy() {
+            SignatureNode result = new SignatureNode(operator);
+            result.subSignatures = subSignatures.copy();
+            return result;
+        }
+
         public boolean hasSubSignatures() {
             return subSignatures.hasSignatures();
         }
@@ -201,6 +207,14 @@ public class OperatorEntry {
     private static class SignatureNodes {
         private Map<Signature, SignatureNode> signatures = new HashMap<>();
 
+        SignatureNodes copy() {
+            SignatureNodes result = new SignatureNodes();
+            for (Map.Entry<Signature, SignatureNode> entry : signatures.entrySet()) {
+                result.signatures.put(entry.getKey(), entry.getValue().copy());
+            }
+            return result;
+        }
+
         public boolean hasSignatures() {
             return signatures.size() > 0;
         }
@@ -286,6 +300,19 @@ public class OperatorEntry {
         }
     }
 
+    /**
+     * Returns a copy of this entry that can be modified, for example by instantiating generic
+     * operators, without modifying this entry. Operators are shared.
+     */
+    public OperatorEntry copy() {
+        OperatorEntry result = new OperatorEntry(name);
+        result.signatures = signatures.copy();
+        for (Map.Entry<Signature, GenericOperator> entry : genericOperators.entrySet()) {
+            result.genericOperators.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
     public boolean containsOperator(Operator operator) {
         if (operator instanceof GenericOperator) {
             return containsGenericOperator((GenericOperator) operator);
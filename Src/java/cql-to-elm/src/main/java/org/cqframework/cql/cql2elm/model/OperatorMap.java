@@ -5,6 +5,22 @@ import org.hl7.cql.model.*;
 
 public class OperatorMap {
     private Map<String, OperatorEntry> operators = new HashMap<>();
+    private final OperatorMap base;
+
+    public OperatorMap() {
+        this.base = null;
+    }
+
+    /**
+     * Creates an operator map with the operators of the given map. Entries are copied from the
+     * given map when they are first used, so the given map is never modified and can be shared,
+     * as long as it isn't modified itself while it is in use.
+     *
+     * @param base the operators to start with
+     */
+    public OperatorMap(OperatorMap base) {
+        this.base = base;
+    }
 
     public boolean containsOperator(Operator operator) {
         OperatorEntry entry = getEntry(operator.getName());
@@ -23,7 +39,8 @@ public class OperatorMap {
 
         OperatorEntry entry = operators.get(operatorName);
         if (entry == null) {
-            entry = new OperatorEntry(operatorName);
+            OperatorEntry baseEntry = base != null ? base.operators.get(operatorName) : null;
+            entry = baseEntry != null ? baseEntry.copy() : new OperatorEntry(operatorName);
             operators.put(operatorName, entry);
         }
 
@@ -1,12 +1,53 @@
 package org.cqframework.cql.cql2elm.model;
 
+import org.cqframework.cql.cql2elm.ModelManager;
 import org.cqframework.cql.cql2elm.TypeBuilder;
+import org.cqframework.cql.elm.IdObjectFactory;
 import org.hl7.cql.model.*;
 import org.hl7.elm.r1.FunctionDef;
 import org.hl7.elm.r1.OperandDef;
 import org.hl7.elm.r1.VersionedIdentifier;
 
 public class SystemLibraryHelper {
+
+    /**
+     * A System library that is built once and shared by translations, each of which uses its own
+     * {@link CompiledLibrary#overlay(CompiledLibrary) overlay} of it.
+     */
+    public static final class Snapshot {
+        private final CompiledLibrary library;
+        private final int localIdCount;
+
+        private Snapshot(CompiledLibrary library, int localIdCount) {
+            this.library = library;
+            this.localIdCount = localIdCount;
+        }
+
+        /**
+         * @return a System library for one translation
+         */
+        public CompiledLibrary newLibrary() {
+            return CompiledLibrary.overlay(library);
+        }
+
+        /**
+         * @return the number of local ids that building the System library for a translation
+         * would have used
+         */
+        public int getLocalIdCount() {
+            return localIdCount;
+        }
+    }
+
+    /**
+     * Builds a System library to be shared by the translations that use the given model manager.
+     */
+    public static Snapshot snapshot(SystemModel systemModel, ModelManager modelManager) {
+        IdObjectFactory of = new IdObjectFactory();
+        CompiledLibrary library = load(systemModel, new TypeBuilder(of, modelManager));
+        return new Snapshot(library, Integer.parseInt(of.nextId()));
+    }
+
     public static CompiledLibrary load(SystemModel systemModel, TypeBuilder tb) {
         CompiledLibrary system = new CompiledLibrary();
         system.setIdentifier(new VersionedIdentifier().withId("System").withVersion("1.0"));
@@ -133,6 +133,10 @@ public class LibraryInfo extends BaseInfo {
         return includeDefinitions.get(identifier);
     }
 
+    public Iterable<IncludeDefinitionInfo> getIncludeDefinitions() {
+        return includeDefinitions.values();
+    }
+
     public String resolveLibraryName(String identifier) {
         IncludeDefinitionInfo includeDefinition = resolveLibraryReference(identifier);
         if (includeDefinition != null) {
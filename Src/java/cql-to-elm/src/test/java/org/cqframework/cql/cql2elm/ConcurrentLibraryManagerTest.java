@@ -0,0 +1,152 @@
+package org.cqframework.cql.cql2elm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentLibraryManagerTest {
+
+    private static final List<String> SOURCES = List.of(
+            "library Common version '1.0.0'\ndefine function \"Add\"(a Integer, b Integer): a + b",
+            "library A version '1.0.0'\ninclude Common version '1.0.0'\ndefine \"A\": Common.\"Add\"(1, 1)",
+            "library B version '1.0.0'\ninclude Common version '1.0.0'\ndefine \"B\": Common.\"Add\"(2, 2)",
+            "library C version '1.0.0'\ninclude Common version '1.0.0'\ndefine \"C\": Common.\"Add\"(3, 3)",
+            String.join(
+                    "\n",
+                    "library Main version '1.0.0'",
+                    "include A version '1.0.0'",
+                    "include B version '1.0.0'",
+                    "include C version '1.0.0'",
+                    "define \"Sum\": A.\"A\" + B.\"B\" + C.\"C\""),
+            "library Ping version '1.0.0'\ninclude Pong version '1.0.0'\ndefine \"Ping\": 1",
+            "library Pong version '1.0.0'\ninclude Ping version '1.0.0'\ndefine \"Pong\": 2");
+
+    /**
+     * Records which libraries were read, how often and by which threads.
+     */
+    private static class RecordingSourceProvider implements LibrarySourceProvider {
+        private final StringLibrarySourceProvider inner = new StringLibrarySourceProvider(SOURCES);
+        private final Map<String, AtomicInteger> reads = new ConcurrentHashMap<>();
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
+            reads.computeIfAbsent(libraryIdentifier.getId(), id -> new AtomicInteger()).incrementAndGet();
+            threads.add(Thread.currentThread());
+            return inner.getLibrarySource(libraryIdentifier);
+        }
+
+        int getReads(String id) {
+            final var count = reads.get(id);
+            return count != null ? count.get() : 0;
+        }
+    }
+
+    private ExecutorService executor;
+    private RecordingSourceProvider sourceProvider;
+    private LibraryManager libraryManager;
+
+    @BeforeEach
+    void setup() {
+        executor = Executors.newFixedThreadPool(4);
+        sourceProvider = new RecordingSourceProvider();
+        libraryManager = new LibraryManager(new ModelManager());
+        libraryManager.getLibrarySourceLoader().registerProvider(sourceProvider);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static VersionedIdentifier identifier(String id) {
+        return new VersionedIdentifier().withId(id).withVersion("1.0.0");
+    }
+
+    @Test
+    void compilesEachLibraryOnceForConcurrentRequests() throws Exception {
+        final var start = new CountDownLatch(1);
+        final var requests = new ArrayList<Callable<CompiledLibrary>>();
+        for (int i = 0; i < 8; i++) {
+            requests.add(() -> {
+                start.await();
+                return libraryManager.resolveLibrary(identifier("Main"));
+            });
+        }
+
+        final var requestExecutor = Executors.newFixedThreadPool(8);
+        try {
+            final var results = new ArrayList<Future<CompiledLibrary>>();
+            for (var request : requests) {
+                results.add(requestExecutor.submit(request));
+            }
+            start.countDown();
+
+            final var first = results.get(0).get();
+            for (var result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            requestExecutor.shutdownNow();
+        }
+
+        assertEquals(1, sourceProvider.getReads("Main"));
+        assertEquals(1, sourceProvider.getReads("Common"));
+    }
+
+    @Test
+    void compilesIncludesOnTheCompilationExecutor() {
+        libraryManager.setCompilationExecutor(executor);
+
+        final var errors = new ArrayList<CqlCompilerException>();
+        libraryManager.resolveLibrary(identifier("Main"), errors);
+        assertFalse(CqlCompilerException.hasErrors(errors), errors.toString());
+
+        for (var id : List.of("A", "B", "C", "Common")) {
+            assertTrue(libraryManager.getCompiledLibraries().containsKey(identifier(id)), id);
+            assertEquals(1, sourceProvider.getReads(id), id);
+        }
+        assertTrue(sourceProvider.threads.stream().anyMatch(thread -> thread != Thread.currentThread()));
+    }
+
+    @Test
+    void reportsCircularIncludes() {
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            final var errors = new ArrayList<CqlCompilerException>();
+            libraryManager.resolveLibrary(identifier("Ping"), errors);
+            assertTrue(CqlCompilerException.hasErrors(errors));
+        });
+    }
+
+    @Test
+    void reportsCircularIncludesCompiledInParallel() {
+        libraryManager.setCompilationExecutor(executor);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            final var errors = new ArrayList<CqlCompilerException>();
+            libraryManager.resolveLibrary(identifier("Ping"), errors);
+            assertTrue(CqlCompilerException.hasErrors(errors));
+        });
+    }
+}
@@ -0,0 +1,130 @@
+package org.cqframework.cql.cql2elm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.hl7.elm.r1.FunctionDef;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PersistentLibraryCacheTest {
+
+    private static final String COMMON = String.join(
+            "\n",
+            "library Common version '1.0.0'",
+            "define function \"Add\"(a Integer, b Integer): a + b",
+            "define \"Values\": { 1, 2, 3 }",
+            "define \"Period\": Interval[1, 10]");
+
+    private static final String CHANGED_COMMON = COMMON + "\ndefine \"Four\": 4";
+
+    private static final String MAIN = String.join(
+            "\n",
+            "library Main version '1.0.0'",
+            "include Common version '1.0.0'",
+            "define \"Sum\": Common.\"Add\"(1, 2)");
+
+    private static final String USES_COMMON = String.join(
+            "\n",
+            "library UsesCommon version '1.0.0'",
+            "include Common version '1.0.0'",
+            "define \"Total\": Common.\"Add\"(Count(Common.\"Values\"), end of Common.\"Period\")");
+
+    private static final String TOP = String.join(
+            "\n", "library Top version '1.0.0'", "include Main version '1.0.0'", "define \"Result\": Main.\"Sum\"");
+
+    @TempDir
+    Path directory;
+
+    private static VersionedIdentifier identifier(String id) {
+        return new VersionedIdentifier().withId(id).withVersion("1.0.0");
+    }
+
+    private LibraryManager newLibraryManager(PersistentLibraryCache cache, String common) {
+        return newLibraryManager(cache, common, CqlCompilerOptions.defaultOptions());
+    }
+
+    private LibraryManager newLibraryManager(PersistentLibraryCache cache, String common, CqlCompilerOptions options) {
+        final var libraryManager = new LibraryManager(new ModelManager(), options);
+        libraryManager
+                .getLibrarySourceLoader()
+                .registerProvider(new StringLibrarySourceProvider(List.of(common, MAIN, USES_COMMON, TOP)));
+        libraryManager.setPersistentLibraryCache(cache);
+        return libraryManager;
+    }
+
+    @Test
+    void loadsCompiledLibrariesInLaterManagers() {
+        final var cache = new PersistentLibraryCache(directory);
+        final var compiled = newLibraryManager(cache, COMMON).resolveLibrary(identifier("Main"));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getWriteCount());
+
+        final var loaded = newLibraryManager(cache, COMMON).resolveLibrary(identifier("Main"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(
+                compiled.getLibrary().getStatements().getDef().size(),
+                loaded.getLibrary().getStatements().getDef().size());
+        assertEquals("Sum", loaded.getLibrary().getStatements().getDef().get(0).getName());
+    }
+
+    @Test
+    void restoresSignaturesForIncludingLibraries() {
+        final var cache = new PersistentLibraryCache(directory);
+        newLibraryManager(cache, COMMON).resolveLibrary(identifier("Common"));
+
+        final var libraryManager = newLibraryManager(cache, COMMON);
+        final CompiledLibrary common = libraryManager.resolveLibrary(identifier("Common"));
+        assertEquals(1, cache.getHitCount());
+        final var add = (FunctionDef) common.resolveFunctionRef("Add").iterator().next();
+        assertNotNull(add.getResultType());
+        assertNotNull(add.getOperand().get(0).getResultType());
+
+        // UsesCommon is compiled from source against the cached Common.
+        final var errors = new ArrayList<CqlCompilerException>();
+        final var usesCommon = libraryManager.resolveLibrary(identifier("UsesCommon"), errors);
+        assertFalse(CqlCompilerException.hasErrors(errors), errors.toString());
+        assertNotNull(usesCommon.resolveExpressionRef("Total").getResultType());
+    }
+
+    @Test
+    void ignoresEntriesWhenSourcesOrOptionsChange() {
+        final var cache = new PersistentLibraryCache(directory);
+        newLibraryManager(cache, COMMON).resolveLibrary(identifier("Main"));
+
+        // Main is unchanged, but the library it includes changed.
+        newLibraryManager(cache, CHANGED_COMMON).resolveLibrary(identifier("Main"));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+
+        final var options = CqlCompilerOptions.defaultOptions();
+        options.getOptions().add(CqlCompilerOptions.Options.EnableResultTypes);
+        newLibraryManager(cache, COMMON, options).resolveLibrary(identifier("Main"));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(6, cache.getMissCount());
+
+        // The entry of the original Common is still valid.
+        newLibraryManager(cache, COMMON).resolveLibrary(identifier("Common"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void hashesIncludedLibrariesThatAreNotInTheLibraryCache() {
+        final var libraryManager = newLibraryManager(null, COMMON);
+        final var top = libraryManager.resolveLibrary(identifier("Top")).getLibrary();
+        libraryManager.getCompiledLibraries().clear();
+
+        final var hashes = libraryManager.getDependencyHashes(top);
+        assertEquals(
+                Set.of("Main", "Common"),
+                hashes.keySet().stream().map(VersionedIdentifier::getId).collect(Collectors.toSet()));
+    }
+}
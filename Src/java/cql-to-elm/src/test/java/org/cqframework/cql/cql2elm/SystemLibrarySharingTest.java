@@ -0,0 +1,58 @@
+package org.cqframework.cql.cql2elm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.cqframework.cql.cql2elm.model.SystemLibraryHelper;
+import org.cqframework.cql.cql2elm.model.SystemModel;
+import org.cqframework.cql.elm.IdObjectFactory;
+import org.junit.jupiter.api.Test;
+
+class SystemLibrarySharingTest {
+
+    private static final String GENERIC_OPERATORS = String.join(
+            "\n",
+            "library Generic version '1.0.0'",
+            "define \"Coalesced\": Coalesce(null, 1, 2)",
+            "define \"Flattened\": Flatten({ { 1, 2 }, { 3 } })",
+            "define \"Distinct\": distinct { 'a', 'b', 'a' }",
+            "define \"Included\": 2 in Interval[1, 3]");
+
+    private static final String OTHER_OPERATORS = String.join(
+            "\n",
+            "library Other version '1.0.0'",
+            "define \"Coalesced\": Coalesce(null, 'a')",
+            "define \"Flattened\": Flatten({ { 'a' }, { 'b' } })",
+            "define \"Included\": @2020-01-01 in Interval[@2019-01-01, @2021-01-01]");
+
+    private static String translate(String cql, ModelManager modelManager) {
+        final var translator = CqlTranslator.fromText(cql, new LibraryManager(modelManager));
+        assertTrue(translator.getErrors().isEmpty(), translator.getErrors().toString());
+        return translator.toJson();
+    }
+
+    @Test
+    void buildsTheSystemLibraryOncePerModelManager() {
+        final var modelManager = new ModelManager();
+        final var snapshot = modelManager.getSystemLibrary();
+        assertSame(snapshot, modelManager.getSystemLibrary());
+        assertNotSame(snapshot.newLibrary(), snapshot.newLibrary());
+
+        final var of = new IdObjectFactory();
+        SystemLibraryHelper.load((SystemModel) modelManager.resolveModel("System"), new TypeBuilder(of, modelManager));
+        assertEquals(Integer.parseInt(of.nextId()), snapshot.getLocalIdCount());
+    }
+
+    @Test
+    void translationsDoNotAffectEachOther() {
+        final var expected = translate(GENERIC_OPERATORS, new ModelManager());
+
+        // Instantiate generic operators for other types in the shared System library first.
+        final var modelManager = new ModelManager();
+        translate(OTHER_OPERATORS, modelManager);
+        assertEquals(expected, translate(GENERIC_OPERATORS, modelManager));
+        assertEquals(expected, translate(GENERIC_OPERATORS, modelManager));
+    }
+}
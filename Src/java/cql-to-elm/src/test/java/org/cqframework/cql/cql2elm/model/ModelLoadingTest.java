@@ -0,0 +1,114 @@
+package org.cqframework.cql.cql2elm.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.stream.Collectors;
+import org.cqframework.cql.cql2elm.CqlCompilerOptions;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.TestLibrarySourceProvider;
+import org.cqframework.cql.cql2elm.TestUtils;
+import org.hl7.cql.model.ClassType;
+import org.hl7.cql.model.DataType;
+import org.hl7.elm_modelinfo.r1.ClassInfo;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.elm_modelinfo.r1.TypeInfo;
+import org.hl7.elm_modelinfo.r1.serializing.BinaryModelInfo;
+import org.hl7.elm_modelinfo.r1.serializing.ModelInfoReaderFactory;
+import org.junit.jupiter.api.Test;
+
+class ModelLoadingTest {
+
+    private static final String QICORE_MODEL_INFO = "/org/hl7/fhir/qicore-modelinfo-6.0.0.xml";
+
+    private static ModelManager newModelManager(boolean lazy) {
+        final var modelManager = new ModelManager();
+        modelManager.setLazyTypeImportEnabled(lazy);
+        return modelManager;
+    }
+
+    private static String translate(ModelManager modelManager) throws IOException {
+        final var libraryManager = new LibraryManager(modelManager, CqlCompilerOptions.defaultOptions());
+        libraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider("qicore/v600"));
+        final var translator =
+                CqlTranslator.fromFile(TestUtils.getFileOrThrow("qicore/v600/TestQICore.cql"), libraryManager);
+        assertTrue(translator.getErrors().isEmpty(), translator.getErrors().toString());
+        return translator.toJson();
+    }
+
+    private static String describe(ClassType type) {
+        return type.getName() + type.getElements().stream()
+                .map(element -> element.getName() + ":" + element.getType())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void binaryModelInfoMatchesXml() throws IOException {
+        final ModelInfo xml = ModelInfoReaderFactory.getReader("application/xml")
+                .read(ModelLoadingTest.class.getResourceAsStream(QICORE_MODEL_INFO));
+
+        final var out = new ByteArrayOutputStream();
+        BinaryModelInfo.write(xml, out);
+        assertEquals(xml, BinaryModelInfo.read(new ByteArrayInputStream(out.toByteArray())));
+
+        // The quick module ships the binary form generated at build time
+        try (var binary =
+                ModelLoadingTest.class.getResourceAsStream(BinaryModelInfo.getBinaryName(QICORE_MODEL_INFO))) {
+            assertNotNull(binary);
+            assertEquals(xml, BinaryModelInfo.read(binary));
+        }
+    }
+
+    @Test
+    void lazyModelResolvesTheSameTypes() {
+        final var eager = newModelManager(false).resolveModel("QICore", "6.0.0");
+        final var lazy = newModelManager(true).resolveModel("QICore", "6.0.0");
+
+        for (TypeInfo typeInfo : eager.getModelInfo().getTypeInfo()) {
+            if (typeInfo instanceof ClassInfo) {
+                final var classInfo = (ClassInfo) typeInfo;
+                final DataType eagerType = eager.resolveTypeName(classInfo.getName());
+                final DataType lazyType = lazy.resolveTypeName(classInfo.getName());
+                assertNotNull(lazyType, classInfo.getName());
+                assertEquals(describe((ClassType) eagerType), describe((ClassType) lazyType));
+                if (classInfo.getLabel() != null) {
+                    assertEquals(
+                            eager.resolveLabel(classInfo.getLabel()).getName(),
+                            lazy.resolveLabel(classInfo.getLabel()).getName());
+                }
+            }
+        }
+
+        assertNull(lazy.resolveTypeName("NotAType"));
+        assertEquals(
+                eager.resolveContextName("Patient").getType().getName(),
+                lazy.resolveContextName("Patient").getType().getName());
+    }
+
+    @Test
+    void lazyModelImportsReferencedTypesOnly() {
+        final var modelManager = newModelManager(false);
+        final var info = modelManager.resolveModel("QICore", "6.0.0").getModelInfo();
+
+        final var eager = new ModelImporter(info, modelManager, false);
+        final var lazy = new ModelImporter(info, modelManager, true);
+        assertTrue(lazy.getTypes().size() < eager.getTypes().size());
+        assertFalse(lazy.getTypes().containsKey("QICore.AdverseEvent"));
+
+        assertNotNull(lazy.resolveModelType("QICore.AdverseEvent"));
+        assertTrue(lazy.getTypes().containsKey("QICore.AdverseEvent"));
+    }
+
+    @Test
+    void lazyModelTranslatesTheSame() throws IOException {
+        assertEquals(translate(newModelManager(false)), translate(newModelManager(true)));
+    }
+}
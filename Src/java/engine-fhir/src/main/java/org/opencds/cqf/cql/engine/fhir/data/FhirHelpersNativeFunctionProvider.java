@@ -0,0 +1,281 @@
+package org.opencds.cqf.cql.engine.fhir.data;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hl7.elm.r1.FunctionDef;
+import org.hl7.elm.r1.NamedTypeSpecifier;
+import org.hl7.elm.r1.OperandDef;
+import org.hl7.elm.r1.OperandRef;
+import org.hl7.elm.r1.Property;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.opencds.cqf.cql.engine.data.NativeFunctionProvider;
+import org.opencds.cqf.cql.engine.elm.executing.DistinctEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.MessageEvaluator;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.State;
+import org.opencds.cqf.cql.engine.fhir.model.FhirModelResolver;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Concept;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.runtime.Quantity;
+import org.opencds.cqf.cql.engine.runtime.Ratio;
+import org.opencds.cqf.cql.engine.runtime.ValueSet;
+
+/**
+ * Native implementations of the conversion functions of the FHIRHelpers 4.0.0 and 4.0.1 libraries,
+ * which are evaluated for almost every element of FHIR data that a library compares or returns.
+ * Each implementation navigates the FHIR structures with a {@link FhirModelResolver}, as the
+ * property expressions of the CQL definitions do, and returns the same results as its definition,
+ * including the messages raised for quantities that cannot be converted.
+ *
+ * <p>Functions without a native implementation, such as ToValue, are evaluated from their CQL
+ * definitions. Register the provider with
+ * {@link org.opencds.cqf.cql.engine.execution.Environment#registerNativeFunctionProvider} and use
+ * {@link CqlEngine.Options#DisableNativeFunctions} to evaluate the CQL definitions instead.</p>
+ */
+public class FhirHelpersNativeFunctionProvider implements NativeFunctionProvider {
+
+    private static final String LIBRARY_NAME = "FHIRHelpers";
+    private static final Set<String> LIBRARY_VERSIONS = Set.of("4.0.0", "4.0.1");
+
+    private static final String UCUM_SYSTEM = "http://unitsofmeasure.org";
+    private static final String CALENDAR_UNITS_SYSTEM = "http://hl7.org/fhirpath/CodeSystem/calendar-units";
+
+    private static final Map<String, String> CALENDAR_UNITS = Map.of(
+            "ms", "millisecond",
+            "s", "second",
+            "min", "minute",
+            "h", "hour",
+            "d", "day",
+            "wk", "week",
+            "mo", "month",
+            "a", "year");
+
+    private final FhirModelResolver<?, ?, ?, ?, ?, ?, ?, ?> modelResolver;
+
+    public FhirHelpersNativeFunctionProvider(FhirModelResolver<?, ?, ?, ?, ?, ?, ?, ?> modelResolver) {
+        this.modelResolver = modelResolver;
+    }
+
+    @Override
+    public NativeFunction resolve(VersionedIdentifier libraryIdentifier, FunctionDef functionDef) {
+        if (!LIBRARY_NAME.equals(libraryIdentifier.getId())
+                || !LIBRARY_VERSIONS.contains(libraryIdentifier.getVersion())
+                || functionDef.getOperand().size() != 1) {
+            return null;
+        }
+
+        // define function ToString(value FHIR.string): value.value, and likewise for the other primitives
+        if (isValueOfOperand(functionDef)) {
+            return (arguments, state) -> property(arguments.get(0), "value");
+        }
+
+        switch (functionDef.getName() + "(" + operandTypeName(functionDef.getOperand().get(0)) + ")") {
+            case "ToCalendarUnit(String)":
+                return (arguments, state) -> toCalendarUnit((String) arguments.get(0));
+            case "ToCode(Coding)":
+                return (arguments, state) -> toCode(arguments.get(0));
+            case "ToConcept(CodeableConcept)":
+                return (arguments, state) -> toConcept(arguments.get(0), state);
+            case "ToQuantity(Quantity)":
+                return (arguments, state) -> toQuantity(arguments.get(0), true, state);
+            case "ToQuantityIgnoringComparator(Quantity)":
+                return (arguments, state) -> toQuantity(arguments.get(0), false, state);
+            case "ToInterval(Quantity)":
+                return (arguments, state) -> toInterval(arguments.get(0), state);
+            case "ToInterval(Period)":
+                return (arguments, state) -> periodToInterval(arguments.get(0), state);
+            case "ToInterval(Range)":
+                return (arguments, state) -> rangeToInterval(arguments.get(0), state);
+            case "ToRatio(Ratio)":
+                return (arguments, state) -> toRatio(arguments.get(0), state);
+            case "ToValueSet(String)":
+                return (arguments, state) ->
+                        arguments.get(0) == null ? null : new ValueSet().withId((String) arguments.get(0));
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isValueOfOperand(FunctionDef functionDef) {
+        if (!(functionDef.getExpression() instanceof Property)) {
+            return false;
+        }
+
+        final var property = (Property) functionDef.getExpression();
+        return "value".equals(property.getPath())
+                && property.getScope() == null
+                && property.getSource() instanceof OperandRef
+                && functionDef.getOperand().get(0).getName().equals(((OperandRef) property.getSource()).getName());
+    }
+
+    private static String operandTypeName(OperandDef operandDef) {
+        if (operandDef.getOperandTypeSpecifier() instanceof NamedTypeSpecifier) {
+            return ((NamedTypeSpecifier) operandDef.getOperandTypeSpecifier()).getName().getLocalPart();
+        }
+
+        return operandDef.getOperandType() != null ? operandDef.getOperandType().getLocalPart() : null;
+    }
+
+    private Object property(Object source, String path) {
+        return source == null ? null : modelResolver.resolvePath(source, path);
+    }
+
+    private Object value(Object source, String path) {
+        return property(property(source, path), "value");
+    }
+
+    private static String toCalendarUnit(String unit) {
+        return unit == null ? null : CALENDAR_UNITS.getOrDefault(unit, unit);
+    }
+
+    private Code toCode(Object coding) {
+        if (coding == null) {
+            return null;
+        }
+
+        return new Code()
+                .withCode((String) value(coding, "code"))
+                .withSystem((String) value(coding, "system"))
+                .withVersion((String) value(coding, "version"))
+                .withDisplay((String) value(coding, "display"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Concept toConcept(Object codeableConcept, State state) {
+        if (codeableConcept == null) {
+            return null;
+        }
+
+        // codes: concept.coding C return ToCode(C), distinct unless HEDIS compatibility mode is enabled
+        List<Object> codes = null;
+        final var codings = property(codeableConcept, "coding");
+        if (codings instanceof Iterable) {
+            codes = new ArrayList<>();
+            for (Object coding : (Iterable<?>) codings) {
+                codes.add(toCode(coding));
+            }
+            if (!state.getEngineOptions().contains(CqlEngine.Options.EnableHedisCompatibilityMode)) {
+                codes = DistinctEvaluator.distinct(codes, state);
+            }
+        }
+
+        return new Concept()
+                .withCodes((List<Code>) (List<?>) codes)
+                .withDisplay((String) value(codeableConcept, "text"));
+    }
+
+    private Quantity toQuantity(Object quantity, boolean rejectComparator, State state) {
+        if (quantity == null) {
+            return null;
+        }
+
+        final var value = (BigDecimal) value(quantity, "value");
+        if (value == null) {
+            return null;
+        }
+
+        if (rejectComparator && property(quantity, "comparator") != null) {
+            MessageEvaluator.message(
+                    state,
+                    null,
+                    null,
+                    true,
+                    "FHIRHelpers.ToQuantity.ComparatorQuantityNotSupported",
+                    "Error",
+                    "FHIR Quantity value has a comparator and cannot be converted to a System.Quantity value.");
+        }
+
+        final var code = (String) value(quantity, "code");
+        final var unit = (String) value(quantity, "unit");
+        final var system = property(quantity, "system");
+        final var systemValue = (String) property(system, "value");
+        if (system == null || UCUM_SYSTEM.equals(systemValue) || CALENDAR_UNITS_SYSTEM.equals(systemValue)) {
+            final var quantityUnit = code != null ? code : unit != null ? unit : "1";
+            return new Quantity().withValue(value).withUnit(toCalendarUnit(quantityUnit));
+        }
+
+        // The & operator concatenates null as an empty string
+        MessageEvaluator.message(
+                state,
+                null,
+                null,
+                true,
+                "FHIRHelpers.ToQuantity.InvalidFHIRQuantity",
+                "Error",
+                "Invalid FHIR Quantity code: " + emptyIfNull(unit) + " (" + emptyIfNull(systemValue) + "|"
+                        + emptyIfNull(code) + ")");
+        return null;
+    }
+
+    private Interval toInterval(Object quantity, State state) {
+        if (quantity == null) {
+            return null;
+        }
+
+        final var comparator = value(quantity, "comparator");
+        if ("<".equals(comparator)) {
+            return interval(null, true, toQuantity(quantity, false, state), false, state);
+        } else if ("<=".equals(comparator)) {
+            return interval(null, true, toQuantity(quantity, false, state), true, state);
+        } else if (">=".equals(comparator)) {
+            return interval(toQuantity(quantity, false, state), true, null, true, state);
+        } else if (">".equals(comparator)) {
+            return interval(toQuantity(quantity, false, state), false, null, true, state);
+        }
+
+        return interval(toQuantity(quantity, true, state), true, toQuantity(quantity, true, state), true, state);
+    }
+
+    private Interval periodToInterval(Object period, State state) {
+        if (period == null) {
+            return null;
+        }
+
+        // A period without a start is open at the start
+        final var start = property(period, "start");
+        return interval(property(start, "value"), start != null, value(period, "end"), true, state);
+    }
+
+    private Interval rangeToInterval(Object range, State state) {
+        if (range == null) {
+            return null;
+        }
+
+        return interval(
+                toQuantity(property(range, "low"), true, state),
+                true,
+                toQuantity(property(range, "high"), true, state),
+                true,
+                state);
+    }
+
+    private Ratio toRatio(Object ratio, State state) {
+        if (ratio == null) {
+            return null;
+        }
+
+        return new Ratio()
+                .setNumerator(toQuantity(property(ratio, "numerator"), true, state))
+                .setDenominator(toQuantity(property(ratio, "denominator"), true, state));
+    }
+
+    /**
+     * Returns the interval with the given bounds or null if both bounds are null, as interval
+     * selectors do.
+     */
+    private static Interval interval(Object low, boolean lowClosed, Object high, boolean highClosed, State state) {
+        if (low == null && high == null) {
+            return null;
+        }
+
+        return new Interval(low, lowClosed, high, highClosed, state);
+    }
+
+    private static String emptyIfNull(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -1,6 +1,7 @@
 package org.opencds.cqf.cql.engine.fhir.model;
 
 import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition.IAccessor;
 import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
 import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
 import ca.uhn.fhir.context.FhirContext;
@@ -12,13 +13,15 @@ import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
 import java.lang.reflect.InvocationTargetException;
 import java.time.ZoneOffset;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.*;
 import org.opencds.cqf.cql.engine.exception.DataProviderException;
@@ -86,6 +89,10 @@ public abstract class FhirModelResolver<
 
     protected List<String> packageNames;
 
+    // Parsed property paths, and the child accessors resolved for each (runtime class, property name)
+    private final Map<String, PathSegment[]> paths = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Map<String, PropertyAccessor>> propertyAccessors = new ConcurrentHashMap<>();
+
     @Override
     public String resolveId(Object target) {
         if (target instanceof IBaseResource) {
@@ -186,6 +193,19 @@ public abstract class FhirModelResolver<
         return this.equalsDeep((BaseType) left, (BaseType) right);
     }
 
+    @Override
+    public Integer objectHashCode(Object value) {
+        // equalsDeep compares every element of the resources, so resources that are equal have equal
+        // ids. The hash only covers the id: resources that share it, such as those without an id, are
+        // compared pairwise. It doesn't cover the class, as a resource can be equal to one of a subclass.
+        if (value instanceof IBaseResource) {
+            var id = ((IBaseResource) value).getIdElement();
+            return id == null ? 0 : Objects.hashCode(id.getIdPart());
+        }
+
+        return null;
+    }
+
     @Override
     public Object createInstance(String typeName) {
         return createInstance(resolveType(typeName));
@@ -219,21 +239,49 @@ public abstract class FhirModelResolver<
 
     @Override
     public Object resolvePath(Object target, String path) {
-        String[] identifiers = path.split("\\.");
-        for (String identifier : identifiers) {
+        for (PathSegment segment : paths.computeIfAbsent(path, PathSegment::parse)) {
+            target = resolveProperty(target, segment.name);
             // handling indexes: i.e. item[0].code
-            if (identifier.contains("[")) {
-                int index = Character.getNumericValue(identifier.charAt(identifier.indexOf("[") + 1));
-                target = resolveProperty(target, identifier.replaceAll("\\[\\d\\]", ""));
-                target = ((ArrayList<?>) target).get(index);
-            } else {
-                target = resolveProperty(target, identifier);
+            if (segment.index >= 0) {
+                target = ((List<?>) target).get(segment.index);
             }
         }
 
         return target;
     }
 
+    /**
+     * A property of a path, with the index of the element to select if the path indexes the property.
+     */
+    private static class PathSegment {
+        private final String name;
+        private final int index;
+
+        private PathSegment(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        private static PathSegment[] parse(String path) {
+            String[] identifiers = path.split("\\.");
+            PathSegment[] segments = new PathSegment[identifiers.length];
+            for (int i = 0; i < identifiers.length; i++) {
+                String identifier = identifiers[i];
+                int open = identifier.indexOf('[');
+                if (open >= 0) {
+                    int close = identifier.indexOf(']', open);
+                    int index =
+                            Integer.parseInt(identifier.substring(open + 1, close < 0 ? identifier.length() : close));
+                    segments[i] = new PathSegment(identifier.substring(0, open), index);
+                } else {
+                    segments[i] = new PathSegment(identifier, -1);
+                }
+            }
+
+            return segments;
+        }
+    }
+
     @Override
     public Class<?> resolveType(String typeName) {
         // For Dstu2
@@ -414,51 +462,91 @@ public abstract class FhirModelResolver<
         }
 
         IBase base = (IBase) target;
-        BaseRuntimeElementCompositeDefinition<?> definition;
         if (base instanceof IPrimitiveType) {
             return toJavaPrimitive(path.equals("value") ? ((IPrimitiveType<?>) target).getValue() : target, base);
-        } else {
-            definition = resolveRuntimeDefinition(base);
         }
 
-        BaseRuntimeChildDefinition child = definition.getChildByName(path);
-        if (child == null) {
-            child = resolveChoiceProperty(definition, path);
+        Map<String, PropertyAccessor> accessors = propertyAccessors.get(base.getClass());
+        if (accessors == null) {
+            accessors = propertyAccessors.computeIfAbsent(base.getClass(), type -> new ConcurrentHashMap<>());
         }
 
-        if (child == null) {
-            return null;
+        PropertyAccessor accessor = accessors.get(path);
+        if (accessor == null) {
+            accessor = new PropertyAccessor(resolveRuntimeDefinition(base), path);
+            accessors.put(path, accessor);
         }
 
-        List<IBase> values = child.getAccessor().getValues(base);
+        Object result = accessor.getValue(base);
+        return result != null ? toJavaPrimitive(result, base) : null;
+    }
 
-        if (values == null || values.isEmpty()) {
-            return null;
+    /**
+     * Resolves a property of one runtime class, the child definition is looked up once and reused for every
+     * instance of the class.
+     */
+    private class PropertyAccessor {
+        private final IAccessor accessor;
+        private final boolean primitive;
+        private final boolean list;
+        // For a type-specific name of a choice property, i.e. valueQuantity, the simple name of the type
+        private final String choiceTypeName;
+
+        PropertyAccessor(BaseRuntimeElementCompositeDefinition<?> definition, String path) {
+            BaseRuntimeChildDefinition child = definition.getChildByName(path);
+            if (child == null) {
+                child = resolveChoiceProperty(definition, path);
+            }
+
+            if (child == null) {
+                accessor = null;
+                primitive = false;
+                list = false;
+                choiceTypeName = null;
+                return;
+            }
+
+            accessor = child.getAccessor();
+            primitive = child instanceof RuntimeChildPrimitiveDatatypeDefinition;
+            list = child.getMax() < 1;
+            if (child instanceof RuntimeChildChoiceDefinition
+                    && !child.getElementName().equalsIgnoreCase(path)) {
+                BaseRuntimeElementDefinition<?> choice = child.getChildByName(path);
+                choiceTypeName = choice != null ? choice.getImplementingClass().getSimpleName() : "";
+            } else {
+                choiceTypeName = null;
+            }
         }
 
-        // If the instance is a primitive (including (or even especially an enumeration), and it has no value, return
-        // null
-        if (child instanceof RuntimeChildPrimitiveDatatypeDefinition) {
-            IBase value = values.get(0);
-            if (value instanceof IPrimitiveType) {
-                if (!((IPrimitiveType<?>) value).hasValue()) {
-                    return null;
+        Object getValue(IBase base) {
+            if (accessor == null) {
+                return null;
+            }
+
+            List<IBase> values = accessor.getValues(base);
+
+            if (values == null || values.isEmpty()) {
+                return null;
+            }
+
+            // If the instance is a primitive (including (or even especially an enumeration), and it has no value,
+            // return null
+            if (primitive) {
+                IBase value = values.get(0);
+                if (value instanceof IPrimitiveType) {
+                    if (!((IPrimitiveType<?>) value).hasValue()) {
+                        return null;
+                    }
                 }
             }
-        }
 
-        if (child instanceof RuntimeChildChoiceDefinition
-                && !child.getElementName().equalsIgnoreCase(path)) {
-            if (!values.get(0)
-                    .getClass()
-                    .getSimpleName()
-                    .equalsIgnoreCase(
-                            child.getChildByName(path).getImplementingClass().getSimpleName())) {
+            if (choiceTypeName != null
+                    && !values.get(0).getClass().getSimpleName().equalsIgnoreCase(choiceTypeName)) {
                 return null;
             }
-        }
 
-        return toJavaPrimitive(child.getMax() < 1 ? values : values.get(0), base);
+            return list ? values : values.get(0);
+        }
     }
 
     protected BaseRuntimeElementCompositeDefinition<?> resolveRuntimeDefinition(IBase base) {
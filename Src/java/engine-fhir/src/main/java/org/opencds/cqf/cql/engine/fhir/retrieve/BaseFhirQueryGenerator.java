@@ -12,6 +12,7 @@ import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.param.TokenParamModifier;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang3.tuple.Pair;
 import org.hl7.fhir.instance.model.api.IBaseConformance;
 import org.hl7.fhir.instance.model.api.ICompositeType;
@@ -25,9 +26,25 @@ import org.opencds.cqf.cql.engine.runtime.Interval;
 import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
 import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
 
+/**
+ * Generates the FHIR search queries of retrieves. A generator is meant to be long-lived and shared
+ * by all retrieves of a provider, and can be used concurrently once configured.
+ * <p>
+ * The parts of the queries of a retrieve that only depend on its shape, that is its data type,
+ * template and code filters, are generated once per shape and reused as a template: the search
+ * parameters of the code paths and the code parameters, including the expansions of value sets.
+ * Only the context and date range parameters are generated per retrieve. Changing the code settings
+ * of the generator discards the templates.
+ */
 public abstract class BaseFhirQueryGenerator implements FhirVersionIntegrityChecker {
     protected static final boolean DEFAULT_SHOULD_EXPAND_VALUESETS = false;
 
+    /**
+     * The maximum number of query templates that are kept; the least recently used template is
+     * discarded when there are more.
+     */
+    public static final int MAX_QUERY_TEMPLATES = 1000;
+
     protected FhirContext fhirContext;
 
     protected TerminologyProvider terminologyProvider;
@@ -58,6 +75,7 @@ public abstract class BaseFhirQueryGenerator implements FhirVersionIntegrityChec
             throw new IllegalArgumentException("value must be non-null integer > 0");
         }
         this.maxCodesPerQuery = value;
+        queryTemplates.clear();
     }
 
     private Integer queryBatchThreshold;
@@ -71,6 +89,7 @@ public abstract class BaseFhirQueryGenerator implements FhirVersionIntegrityChec
             throw new IllegalArgumentException("value must be non-null integer > 0");
         }
         this.queryBatchThreshold = value;
+        queryTemplates.clear();
     }
 
     // TODO: Think about how to best handle the decision to expand value sets... Should it be part of the
@@ -83,6 +102,46 @@ public abstract class BaseFhirQueryGenerator implements FhirVersionIntegrityChec
 
     public void setExpandValueSets(boolean expandValueSets) {
         this.expandValueSets = expandValueSets;
+        queryTemplates.clear();
+    }
+
+    /**
+     * The parameters of the queries of a retrieve shape, see {@link #setupQueries}.
+     */
+    private static class QueryTemplate {
+        private final Pair<String, IQueryParameterType> templateParam;
+        private final List<Pair<String, List<TokenOrListParam>>> codeParams;
+
+        QueryTemplate(
+                Pair<String, IQueryParameterType> templateParam,
+                List<Pair<String, List<TokenOrListParam>>> codeParams) {
+            this.templateParam = templateParam;
+            this.codeParams = codeParams;
+        }
+    }
+
+    private final Map<List<Object>, QueryTemplate> queryTemplates =
+            Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, QueryTemplate> eldestEntry) {
+                    return size() > MAX_QUERY_TEMPLATES;
+                }
+            });
+    private final AtomicLong queryTemplateHits = new AtomicLong();
+    private final AtomicLong queryTemplateMisses = new AtomicLong();
+
+    /**
+     * @return the number of retrieves whose queries were set up from a query template
+     */
+    public long getQueryTemplateHitCount() {
+        return queryTemplateHits.get();
+    }
+
+    /**
+     * @return the number of retrieves for whose shape a query template was generated
+     */
+    public long getQueryTemplateMissCount() {
+        return queryTemplateMisses.get();
     }
 
     protected BaseFhirQueryGenerator(
@@ -285,6 +344,11 @@ public abstract class BaseFhirQueryGenerator implements FhirVersionIntegrityChec
         return codeParamsList;
     }
 
+    /**
+     * Sets up the queries of a retrieve from the query template of its shape, generating the
+     * template for the first retrieve of the shape. The queries share the parameters of the
+     * template, so they must not be modified.
+     */
     protected List<SearchParameterMap> setupQueries(
             String context,
             String contextPath,
@@ -293,7 +357,15 @@ public abstract class BaseFhirQueryGenerator implements FhirVersionIntegrityChec
             String templateId,
             List<CodeFilter> codeFilters,
             List<DateFilter> dateFilters) {
-        Pair<String, IQueryParameterType> templateParam = this.getTemplateParam(dataType, templateId);
+        final List<Object> shape = shapeOf(dataType, templateId, codeFilters);
+        QueryTemplate template = queryTemplates.get(shape);
+        if (template != null) {
+            queryTemplateHits.incrementAndGet();
+        } else {
+            queryTemplateMisses.incrementAndGet();
+            template = setupQueryTemplate(dataType, templateId, codeFilters);
+            queryTemplates.put(shape, template);
+        }
 
         Pair<String, IQueryParameterType> contextParam =
                 this.getContextParam(dataType, context, contextPath, contextValue);
@@ -309,6 +381,12 @@ public abstract class BaseFhirQueryGenerator implements FhirVersionIntegrityChec
             }
         }
 
+        return this.innerSetupQueries(template.templateParam, contextParam, dateRangeParams, template.codeParams);
+    }
+
+    private QueryTemplate setupQueryTemplate(String dataType, String templateId, List<CodeFilter> codeFilters) {
+        Pair<String, IQueryParameterType> templateParam = this.getTemplateParam(dataType, templateId);
+
         List<Pair<String, List<TokenOrListParam>>> codeParamList =
                 new ArrayList<Pair<String, List<TokenOrListParam>>>();
         if (codeFilters != null) {
@@ -322,7 +400,39 @@ public abstract class BaseFhirQueryGenerator implements FhirVersionIntegrityChec
             }
         }
 
-        return this.innerSetupQueries(templateParam, contextParam, dateRangeParams, codeParamList);
+        return new QueryTemplate(templateParam, codeParamList);
+    }
+
+    /**
+     * Returns the key of the query template of a retrieve: its data type, template and the path,
+     * codes and value set of each code filter. Codes are keyed by system and code, as the code
+     * parameters only include those.
+     */
+    private static List<Object> shapeOf(String dataType, String templateId, List<CodeFilter> codeFilters) {
+        final List<Object> shape = new ArrayList<>();
+        shape.add(dataType);
+        shape.add(templateId);
+        if (codeFilters != null) {
+            for (CodeFilter cf : codeFilters) {
+                shape.add(cf.getCodePath());
+                shape.add(cf.getValueSet());
+                if (cf.getCodes() == null) {
+                    shape.add(null);
+                    continue;
+                }
+
+                final List<Object> codes = new ArrayList<>();
+                for (Object code : cf.getCodes()) {
+                    if (code instanceof Code) {
+                        codes.add(Arrays.asList(((Code) code).getSystem(), ((Code) code).getCode()));
+                    } else {
+                        codes.add(code);
+                    }
+                }
+                shape.add(codes);
+            }
+        }
+        return shape;
     }
 
     protected List<SearchParameterMap> setupQueries(
@@ -5,6 +5,9 @@ import ca.uhn.fhir.util.BundleUtil;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
@@ -24,16 +27,29 @@ public class FhirBundleCursor implements Iterable<Object> {
     // If templateId is provided, this is a trusted cursor, meaning that it will only return results
     // for resources that declare they conform to the given profile
     public FhirBundleCursor(IGenericClient fhirClient, IBaseBundle results, String dataType, String templateId) {
+        this(fhirClient, results, dataType, templateId, null);
+    }
+
+    // If a page executor is provided, the next page is fetched on it once half of the current page is
+    // consumed; a page that is fetched for an iterator that is abandoned is discarded
+    public FhirBundleCursor(
+            IGenericClient fhirClient,
+            IBaseBundle results,
+            String dataType,
+            String templateId,
+            Executor pageExecutor) {
         this.fhirClient = fhirClient;
         this.results = results;
         this.dataType = dataType;
         this.templateId = templateId;
+        this.pageExecutor = pageExecutor;
     }
 
     private IGenericClient fhirClient;
     private IBaseBundle results;
     private String dataType;
     private String templateId;
+    private Executor pageExecutor;
 
     /**
      * Returns an iterator over elements of type {@code T}.
@@ -41,16 +57,22 @@ public class FhirBundleCursor implements Iterable<Object> {
      * @return an Iterator.
      */
     public Iterator<Object> iterator() {
-        return new FhirBundleIterator(fhirClient, results, dataType, templateId);
+        return new FhirBundleIterator(fhirClient, results, dataType, templateId, pageExecutor);
     }
 
     private class FhirBundleIterator implements Iterator<Object> {
-        public FhirBundleIterator(IGenericClient fhirClient, IBaseBundle results, String dataType, String templateId) {
+        public FhirBundleIterator(
+                IGenericClient fhirClient,
+                IBaseBundle results,
+                String dataType,
+                String templateId,
+                Executor pageExecutor) {
             this.fhirClient = fhirClient;
             this.results = results;
             this.current = -1;
             this.dataType = dataType;
             this.templateId = templateId;
+            this.pageExecutor = pageExecutor;
 
             // Do not test templateId for base resource "profiles"
             if (this.templateId != null
@@ -67,6 +89,9 @@ public class FhirBundleCursor implements Iterable<Object> {
             }
 
             this.currentEntry = this.getEntry();
+            if (pageExecutor != null) {
+                this.pendingRequests = PendingRequests.of(this);
+            }
         }
 
         private IGenericClient fhirClient;
@@ -76,6 +101,10 @@ public class FhirBundleCursor implements Iterable<Object> {
         private String templateId;
         private Class<? extends IBaseResource> dataTypeClass;
         private List<? extends IBaseResource> currentEntry;
+        private Executor pageExecutor;
+        private PendingRequests pendingRequests;
+        private boolean nextPageRequested;
+        private CompletableFuture<IBaseBundle> nextPage;
 
         /**
          * Returns {@code true} if the iteration has more elements.
@@ -85,7 +114,38 @@ public class FhirBundleCursor implements Iterable<Object> {
          * @return {@code true} if the iteration has more elements
          */
         public boolean hasNext() {
-            return current < this.currentEntry.size() - 1 || this.getLink() != null;
+            // Fetch the next page only once the current one is consumed, and skip pages without
+            // (conformant) entries, so that hasNext doesn't promise an element that isn't there.
+            while (current >= this.currentEntry.size() - 1 && this.getLink() != null) {
+                this.results = nextPage != null ? joinNextPage() : fhirClient.loadPage().next(results).execute();
+                this.currentEntry = getEntry();
+                current = -1;
+                nextPageRequested = false;
+            }
+            return current < this.currentEntry.size() - 1;
+        }
+
+        private void prefetchNextPage() {
+            nextPageRequested = true;
+            if (this.getLink() != null) {
+                final IBaseBundle page = this.results;
+                nextPage = pendingRequests.add(CompletableFuture.supplyAsync(
+                        () -> fhirClient.loadPage().next(page).execute(), pageExecutor));
+            }
+        }
+
+        private IBaseBundle joinNextPage() {
+            final CompletableFuture<IBaseBundle> page = nextPage;
+            nextPage = null;
+            pendingRequests.remove(page);
+            try {
+                return page.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
         }
 
         private List<? extends IBaseResource> getEntry() {
@@ -128,22 +188,16 @@ public class FhirBundleCursor implements Iterable<Object> {
          * @throws UnknownElement if the iteration has no more elements
          */
         public Object next() {
-            current++;
-            if (current < this.currentEntry.size()) {
-                return this.currentEntry.get(current);
-            } else {
-                this.results = fhirClient.loadPage().next(results).execute();
-                this.currentEntry = getEntry();
-                current = 0;
-                if (current < this.currentEntry.size()) {
-                    return this.currentEntry.get(current);
-                }
+            if (!hasNext()) {
+                throw new UnknownElement("The iteration has no more elements.");
             }
 
-            // TODO: It would be possible to get here if the next link was present, but the returned page had 0
-            // entries...
-            // NOTE: This is especially true if the page has only data that is not conformant to the given profile
-            throw new UnknownElement("The iteration has no more elements.");
+            current++;
+            // Only a page of which half is consumed is likely to be consumed to the end
+            if (pageExecutor != null && !nextPageRequested && current >= this.currentEntry.size() / 2) {
+                prefetchNextPage();
+            }
+            return this.currentEntry.get(current);
         }
     }
 }
@@ -0,0 +1,857 @@
+package org.opencds.cqf.cql.engine.fhir.retrieve;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseCoding;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.opencds.cqf.cql.engine.fhir.converter.FhirTypeConverter;
+import org.opencds.cqf.cql.engine.fhir.converter.FhirTypeConverterFactory;
+import org.opencds.cqf.cql.engine.fhir.model.FhirModelResolver;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveFilter;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveRequest;
+import org.opencds.cqf.cql.engine.retrieve.TerminologyAwareRetrieveProvider;
+import org.opencds.cqf.cql.engine.runtime.BaseTemporal;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+
+/**
+ * A retrieve provider for FHIR Bulk Data exports: files with one JSON resource per line (NDJSON),
+ * typically one file per resource type.
+ *
+ * <p>The files are read once, line by line, from memory-mapped segments where the file system
+ * supports it. Each resource is parsed to index it by resource type, patient compartment, code
+ * (system|code, and the code alone) at the primary code path of its type and the bounds of the
+ * date at the primary date path of its type. Only the position of a resource in its file is kept,
+ * so that retrieves are answered from the indexes and only the resources they return are parsed
+ * again. Filters on other code or date paths, and contexts other than Patient, are applied to the
+ * resources the indexes select.</p>
+ *
+ * <p>Patients can be sharded across workers: a provider created for a shard only indexes the
+ * resources in the compartments of the patients of that shard, see {@link #shardOf}, and the
+ * resources in no patient compartment. Files must be loaded before evaluation starts; the provider
+ * can then be used by engines evaluating concurrently.</p>
+ *
+ * <p>Codes are matched by system and code, and codes without a system by code only, as FHIR token
+ * searches do. Value sets are expanded with the terminology provider. Dates are matched if they
+ * overlap the date range, as FHIR date searches do, honouring whether its bounds are closed; dates
+ * without a time zone are taken to be at the evaluation offset, see {@link #setEvaluationOffset}.
+ * The same matching selects the resources of a narrower retrieve from the result of a broader one,
+ * see {@link #filter}.</p>
+ */
+public class NdjsonRetrieveProvider extends TerminologyAwareRetrieveProvider implements RetrieveFilter {
+
+    /**
+     * The primary code paths of the FHIR resource types, as defined by the FHIR ModelInfo.
+     */
+    private static final Map<String, String> PRIMARY_CODE_PATHS = Map.ofEntries(
+            Map.entry("AllergyIntolerance", "code"),
+            Map.entry("Condition", "code"),
+            Map.entry("Coverage", "type"),
+            Map.entry("Device", "type"),
+            Map.entry("DiagnosticReport", "code"),
+            Map.entry("Encounter", "type"),
+            Map.entry("Immunization", "vaccineCode"),
+            Map.entry("MedicationAdministration", "medication"),
+            Map.entry("MedicationDispense", "medication"),
+            Map.entry("MedicationRequest", "medication"),
+            Map.entry("MedicationStatement", "medication"),
+            Map.entry("Observation", "code"),
+            Map.entry("Procedure", "code"),
+            Map.entry("ServiceRequest", "code"));
+
+    /**
+     * The date paths by which the resources of a type are typically retrieved.
+     */
+    private static final Map<String, String> PRIMARY_DATE_PATHS = Map.ofEntries(
+            Map.entry("AllergyIntolerance", "onset"),
+            Map.entry("Condition", "onset"),
+            Map.entry("Coverage", "period"),
+            Map.entry("DiagnosticReport", "effective"),
+            Map.entry("Encounter", "period"),
+            Map.entry("Immunization", "occurrence"),
+            Map.entry("MedicationAdministration", "effective"),
+            Map.entry("MedicationDispense", "whenHandedOver"),
+            Map.entry("MedicationRequest", "authoredOn"),
+            Map.entry("MedicationStatement", "effective"),
+            Map.entry("Observation", "effective"),
+            Map.entry("Procedure", "performed"),
+            Map.entry("ServiceRequest", "authoredOn"));
+
+    private static final String NDJSON_EXTENSION = ".ndjson";
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    // Date bounds of resources without a date, which no date range overlaps
+    private static final long[] NO_DATE = {Long.MAX_VALUE, Long.MIN_VALUE};
+    // Date bounds of resources with a date that can't be indexed, which every date range overlaps
+    private static final long[] ANY_DATE = {Long.MIN_VALUE, Long.MAX_VALUE};
+
+    private final FhirModelResolver<?, ?, ?, ?, ?, ?, ?, ?> modelResolver;
+    private final FhirContext fhirContext;
+    private final FhirTypeConverter typeConverter;
+    private final int shard;
+    private final int shardCount;
+
+    private final Map<String, String> codePaths = new HashMap<>(PRIMARY_CODE_PATHS);
+    private final Map<String, String> datePaths = new HashMap<>(PRIMARY_DATE_PATHS);
+    private final Map<String, String> contextPaths = new HashMap<>();
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final Map<String, TypeIndex> types = new HashMap<>();
+    private final Map<String, String> patientIds = new LinkedHashMap<>();
+    private final Map<String, Integer> codeIds = new HashMap<>();
+    private final Map<String, Set<String>> valueSetExpansions = new ConcurrentHashMap<>();
+    private long segmentBytes;
+    private volatile ZoneOffset evaluationOffset = OffsetDateTime.now().getOffset();
+
+    public NdjsonRetrieveProvider(FhirModelResolver<?, ?, ?, ?, ?, ?, ?, ?> modelResolver) {
+        this(modelResolver, 0, 1);
+    }
+
+    /**
+     * Creates a provider for one shard of the patients.
+     *
+     * @param modelResolver the model resolver of the FHIR version of the files
+     * @param shard the shard, from 0 to shardCount - 1
+     * @param shardCount the number of shards
+     */
+    public NdjsonRetrieveProvider(
+            FhirModelResolver<?, ?, ?, ?, ?, ?, ?, ?> modelResolver, int shard, int shardCount) {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid shard %d of %d: shard must be >= 0 and < shardCount", shard, shardCount));
+        }
+
+        this.modelResolver = modelResolver;
+        this.fhirContext = modelResolver.getFhirContext();
+        this.typeConverter = new FhirTypeConverterFactory().create(fhirContext.getVersion().getVersion());
+        this.shard = shard;
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Returns the shard of the given patient.
+     *
+     * @param patientId the id of the patient
+     * @param shardCount the number of shards
+     * @return the shard, from 0 to shardCount - 1
+     */
+    public static int shardOf(String patientId, int shardCount) {
+        return Math.floorMod(patientId.hashCode(), shardCount);
+    }
+
+    /**
+     * Sets the code path by which the resources of the given type are indexed, instead of their
+     * primary code path. Must be called before the files are loaded.
+     *
+     * @param dataType the resource type
+     * @param codePath the code path, or null to not index the codes of the type
+     */
+    public void setCodePath(String dataType, String codePath) {
+        codePaths.put(dataType, codePath);
+    }
+
+    /**
+     * Sets the date path by which the resources of the given type are indexed. Must be called
+     * before the files are loaded.
+     *
+     * @param dataType the resource type
+     * @param datePath the date path, or null to not index the dates of the type
+     */
+    public void setDatePath(String dataType, String datePath) {
+        datePaths.put(dataType, datePath);
+    }
+
+    /**
+     * Sets the offset at which dates without a time zone are compared with date ranges, which
+     * should be the offset of the evaluation date time of the engines using this provider. Defaults
+     * to the current offset of the system time zone, as the evaluation date time of an engine does.
+     * Dates are indexed for any offset, so it can be set after the files are loaded.
+     *
+     * @param evaluationOffset the offset
+     */
+    public void setEvaluationOffset(ZoneOffset evaluationOffset) {
+        this.evaluationOffset = Objects.requireNonNull(evaluationOffset);
+    }
+
+    /**
+     * Loads the given NDJSON file, or all .ndjson files in the given directory.
+     *
+     * @param path the file or directory
+     * @throws IOException if the files can't be read
+     */
+    public void load(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            loadFile(path);
+            return;
+        }
+
+        final List<Path> files;
+        try (Stream<Path> children = Files.list(path)) {
+            files = children.filter(child -> child.getFileName().toString().endsWith(NDJSON_EXTENSION))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            loadFile(file);
+        }
+    }
+
+    private void loadFile(Path file) throws IOException {
+        final IParser parser = fhirContext.newJsonParser();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                ByteBuffer segment = readSegment(channel, position, Math.min(size - position, MAX_SEGMENT_SIZE));
+                if (position + segment.limit() < size) {
+                    // Segments end with a line, so that the resources don't span segments
+                    int end = segment.limit();
+                    while (end > 0 && segment.get(end - 1) != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        throw new IOException(String.format(
+                                "%s has a line longer than %d bytes at position %d.",
+                                file, MAX_SEGMENT_SIZE, position));
+                    }
+                    segment = segment.limit(end).slice();
+                }
+
+                segments.add(segment);
+                segmentBytes += segment.limit();
+                indexSegment(segments.size() - 1, segment, parser);
+                position += segment.limit();
+            }
+        }
+    }
+
+    private static ByteBuffer readSegment(FileChannel channel, long position, long size) throws IOException {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        } catch (UnsupportedOperationException e) {
+            // Not a file system that supports memory-mapping
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                // Read until the buffer is full
+            }
+            return buffer.flip();
+        }
+    }
+
+    private void indexSegment(int segment, ByteBuffer buffer, IParser parser) {
+        int start = 0;
+        final int limit = buffer.limit();
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && buffer.get(i) != '\n') {
+                continue;
+            }
+
+            int end = i;
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end > start) {
+                final String line = decode(buffer, start, end - start);
+                indexResource(segment, start, end - start, parser.parseResource(line));
+            }
+            start = i + 1;
+        }
+    }
+
+    private void indexResource(int segment, int offset, int length, IBaseResource resource) {
+        final String dataType = resource.fhirType();
+        String patientId = patientId(dataType, resource);
+        if (patientId != null) {
+            if (shardOf(patientId, shardCount) != shard) {
+                return;
+            }
+            patientId = patientIds.computeIfAbsent(patientId, id -> id);
+        }
+
+        final TypeIndex index =
+                types.computeIfAbsent(dataType, type -> new TypeIndex(codePaths.get(type), datePaths.get(type)));
+
+        int[] codes = null;
+        if (index.codePath != null) {
+            final var keys = new HashSet<String>();
+            collectCodeKeys(modelResolver.resolvePath(resource, index.codePath), keys);
+            codes = new int[keys.size()];
+            int i = 0;
+            for (String key : keys) {
+                codes[i++] = codeIds.computeIfAbsent(key, k -> codeIds.size());
+            }
+        }
+
+        // Dates without a time zone are indexed for any offset, and matched at the evaluation offset
+        final long[] dateBounds = index.datePath != null
+                ? dateBounds(modelResolver.resolvePath(resource, index.datePath), null)
+                : ANY_DATE;
+        index.add(segment, offset, length, patientId, codes, dateBounds);
+    }
+
+    private String patientId(String dataType, IBaseResource resource) {
+        if ("Patient".equals(dataType)) {
+            return resource.getIdElement().getIdPart();
+        }
+
+        final String contextPath =
+                contextPaths.computeIfAbsent(dataType, type -> (String) modelResolver.getContextPath("Patient", type));
+        return contextPath != null ? referencedId(modelResolver.resolvePath(resource, contextPath), "Patient") : null;
+    }
+
+    private static String referencedId(Object value, String resourceType) {
+        if (value instanceof Iterable) {
+            for (Object element : (Iterable<?>) value) {
+                final String id = referencedId(element, resourceType);
+                if (id != null) {
+                    return id;
+                }
+            }
+        } else if (value instanceof IBaseReference) {
+            final var reference = ((IBaseReference) value).getReferenceElement();
+            if (reference.getResourceType() == null || resourceType.equals(reference.getResourceType())) {
+                return reference.getIdPart();
+            }
+        }
+
+        return null;
+    }
+
+    private void collectCodeKeys(Object value, Set<String> keys) {
+        if (value instanceof Iterable) {
+            for (Object element : (Iterable<?>) value) {
+                collectCodeKeys(element, keys);
+            }
+        } else if (value instanceof IBaseCoding) {
+            final var coding = (IBaseCoding) value;
+            keys.add(codeKey(coding.getSystem(), coding.getCode()));
+            if (coding.getSystem() != null) {
+                // Matched by codes without a system
+                keys.add(codeKey(null, coding.getCode()));
+            }
+        } else if (value instanceof IBase && "CodeableConcept".equals(((IBase) value).fhirType())) {
+            collectCodeKeys(modelResolver.resolvePath(value, "coding"), keys);
+        } else if (value instanceof IPrimitiveType && ((IPrimitiveType<?>) value).hasValue()) {
+            keys.add(codeKey(null, ((IPrimitiveType<?>) value).getValueAsString()));
+        }
+    }
+
+    private static String codeKey(String system, String code) {
+        return (system != null ? system : "") + "|" + code;
+    }
+
+    /**
+     * Returns the earliest and latest instant, in milliseconds since the epoch, of the given FHIR
+     * date, date time, instant or period, or of all those in the given list. Dates without a time
+     * zone are taken to be at the given offset, or at any offset if it is null.
+     */
+    @SuppressWarnings("unchecked")
+    private long[] dateBounds(Object value, ZoneOffset offset) {
+        if (value instanceof Iterable) {
+            long[] bounds = NO_DATE;
+            for (Object element : (Iterable<?>) value) {
+                final long[] elementBounds = dateBounds(element, offset);
+                bounds = new long[] {Math.min(bounds[0], elementBounds[0]), Math.max(bounds[1], elementBounds[1])};
+            }
+            return bounds;
+        } else if (value instanceof IPrimitiveType) {
+            final Object date = ((IPrimitiveType<?>) value).getValue();
+            if (date == null) {
+                return NO_DATE;
+            }
+            return date instanceof java.util.Date
+                    ? temporalBounds(typeConverter.toCqlTemporal((IPrimitiveType<java.util.Date>) value), offset)
+                    : ANY_DATE;
+        } else if (value instanceof IBase && "Period".equals(((IBase) value).fhirType())) {
+            final long[] start = dateBounds(modelResolver.resolvePath(value, "start"), offset);
+            final long[] end = dateBounds(modelResolver.resolvePath(value, "end"), offset);
+            if (start == NO_DATE && end == NO_DATE) {
+                return NO_DATE;
+            }
+            // A period without a start or end is open at that end
+            return new long[] {start == NO_DATE ? Long.MIN_VALUE : start[0], end == NO_DATE ? Long.MAX_VALUE : end[1]};
+        }
+
+        return value == null ? NO_DATE : ANY_DATE;
+    }
+
+    private static long[] temporalBounds(BaseTemporal temporal, ZoneOffset offset) {
+        final ChronoUnit unit = temporal.getPrecision().toChronoUnit();
+        if (temporal instanceof DateTime) {
+            final OffsetDateTime start = ((DateTime) temporal).getDateTime();
+            return new long[] {
+                start.toInstant().toEpochMilli(), start.plus(1, unit).toInstant().toEpochMilli() - 1
+            };
+        }
+
+        // At any offset, a date starts at its start at the greatest offset and ends at its end at the least
+        final var date = ((Date) temporal).getDate().atStartOfDay();
+        final OffsetDateTime start = date.atOffset(offset != null ? offset : ZoneOffset.MAX);
+        final OffsetDateTime end = date.plus(1, unit).atOffset(offset != null ? offset : ZoneOffset.MIN);
+        return new long[] {start.toInstant().toEpochMilli(), end.toInstant().toEpochMilli() - 1};
+    }
+
+    private long[] rangeBounds(Interval dateRange) {
+        final var start = (BaseTemporal) dateRange.getStart();
+        final var end = (BaseTemporal) dateRange.getEnd();
+        final ZoneOffset offset = evaluationOffset;
+        long low = Long.MIN_VALUE;
+        if (start != null) {
+            // An open start excludes the whole of its precision
+            low = dateRange.getLowClosed() ? temporalBounds(start, offset)[0] : temporalBounds(start, offset)[1] + 1;
+        }
+        long high = Long.MAX_VALUE;
+        if (end != null) {
+            high = dateRange.getHighClosed() ? temporalBounds(end, offset)[1] : temporalBounds(end, offset)[0] - 1;
+        }
+        return new long[] {low, high};
+    }
+
+    private static boolean overlaps(long low, long high, long[] range) {
+        return low <= high && low <= range[1] && range[0] <= high;
+    }
+
+    @Override
+    public Iterable<Object> retrieve(
+            String context,
+            String contextPath,
+            Object contextValue,
+            String dataType,
+            String templateId,
+            String codePath,
+            Iterable<Code> codes,
+            String valueSet,
+            String datePath,
+            String dateLowPath,
+            String dateHighPath,
+            Interval dateRange) {
+        final TypeIndex index = types.get(dataType);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+
+        // The records selected by the indexes, or null for all records of the type
+        int[] records = null;
+        final var filters = new ArrayList<Predicate<Object>>();
+
+        if (contextPath != null && contextValue != null) {
+            final String id = idPart(contextValue.toString());
+            if ("Patient".equals(context)) {
+                final IntList patientRecords = index.byPatient.get(id);
+                if (patientRecords == null) {
+                    return Collections.emptyList();
+                }
+                records = patientRecords.toArray();
+            } else {
+                filters.add(resource ->
+                        id.equals(referencedId(modelResolver.resolvePath(resource, contextPath), context)));
+            }
+        }
+
+        final String effectiveCodePath = codePath != null ? codePath : index.codePath;
+        if ((codes != null || valueSet != null) && effectiveCodePath != null) {
+            final Set<String> keys = codeKeys(codes, valueSet);
+            if (effectiveCodePath.equals(index.codePath)) {
+                records = index.withCodes(records, codeIds(keys));
+            } else {
+                filters.add(codeFilter(effectiveCodePath, keys));
+            }
+        }
+
+        final String effectiveDatePath = datePath != null ? datePath : index.datePath;
+        if (dateRange != null) {
+            final long[] range = rangeBounds(dateRange);
+            if (dateLowPath == null && dateHighPath == null && effectiveDatePath != null) {
+                if (effectiveDatePath.equals(index.datePath)) {
+                    records = index.withDates(records, range);
+                }
+                // The index also selects dates without a time zone that overlap the range at other offsets
+                filters.add(dateFilter(effectiveDatePath, null, null, range));
+            } else if (dateLowPath != null || dateHighPath != null) {
+                filters.add(dateFilter(null, dateLowPath, dateHighPath, range));
+            }
+        }
+
+        if (records == null) {
+            records = index.all();
+        }
+
+        final IParser parser = fhirContext.newJsonParser();
+        final var resources = new ArrayList<Object>(records.length);
+        for (int record : records) {
+            final Object resource = parser.parseResource(
+                    decode(segments.get(index.segmentIds[record]), index.offsets[record], index.lengths[record]));
+            if (filters.stream().allMatch(filter -> filter.test(resource))) {
+                resources.add(resource);
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Selects the resources that match the codes and date range of the given request, as a retrieve
+     * of the request would, so that the request can be answered from the result of a broader one.
+     */
+    @Override
+    public Iterable<Object> filter(Iterable<Object> resources, RetrieveRequest request) {
+        final TypeIndex index = types.get(request.getDataType());
+        if (index == null) {
+            return Collections.emptyList();
+        }
+
+        final var filters = new ArrayList<Predicate<Object>>();
+        final String codePath = request.getCodePath() != null ? request.getCodePath() : index.codePath;
+        if ((request.getCodes() != null || request.getValueSet() != null) && codePath != null) {
+            filters.add(codeFilter(codePath, codeKeys(request.getCodes(), request.getValueSet())));
+        }
+
+        final String datePath = request.getDatePath() != null ? request.getDatePath() : index.datePath;
+        if (request.getDateRange() != null) {
+            final long[] range = rangeBounds(request.getDateRange());
+            if (request.getDateLowPath() != null || request.getDateHighPath() != null) {
+                filters.add(dateFilter(null, request.getDateLowPath(), request.getDateHighPath(), range));
+            } else if (datePath != null) {
+                filters.add(dateFilter(datePath, null, null, range));
+            }
+        }
+
+        final var selected = new ArrayList<Object>();
+        for (Object resource : resources) {
+            if (filters.stream().allMatch(filter -> filter.test(resource))) {
+                selected.add(resource);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Returns a filter for the resources with any of the given codes at the given path.
+     */
+    private Predicate<Object> codeFilter(String codePath, Set<String> keys) {
+        return resource -> {
+            final var resourceKeys = new HashSet<String>();
+            collectCodeKeys(modelResolver.resolvePath(resource, codePath), resourceKeys);
+            return !Collections.disjoint(keys, resourceKeys);
+        };
+    }
+
+    /**
+     * Returns a filter for the resources whose date at the given path, or whose dates at the given
+     * low and high paths, overlap the given range.
+     */
+    private Predicate<Object> dateFilter(String datePath, String dateLowPath, String dateHighPath, long[] range) {
+        final ZoneOffset offset = evaluationOffset;
+        if (datePath != null) {
+            return resource -> {
+                final long[] bounds = dateBounds(modelResolver.resolvePath(resource, datePath), offset);
+                return overlaps(bounds[0], bounds[1], range);
+            };
+        }
+
+        return resource -> {
+            final long low = dateLowPath != null
+                    ? dateBounds(modelResolver.resolvePath(resource, dateLowPath), offset)[0]
+                    : Long.MIN_VALUE;
+            final long high = dateHighPath != null
+                    ? dateBounds(modelResolver.resolvePath(resource, dateHighPath), offset)[1]
+                    : Long.MAX_VALUE;
+            return overlaps(low, high, range);
+        };
+    }
+
+    private static String idPart(String contextValue) {
+        return contextValue.substring(contextValue.lastIndexOf('/') + 1);
+    }
+
+    private Set<String> codeKeys(Iterable<Code> codes, String valueSet) {
+        final var keys = new HashSet<String>();
+        if (codes != null) {
+            for (Code code : codes) {
+                // A list of codes can hold nulls, which match no resource
+                if (code != null) {
+                    keys.add(codeKey(code.getSystem(), code.getCode()));
+                }
+            }
+        }
+        if (valueSet != null) {
+            keys.addAll(valueSetExpansions.computeIfAbsent(valueSet, this::expand));
+        }
+        return keys;
+    }
+
+    private Set<String> expand(String valueSet) {
+        if (terminologyProvider == null) {
+            throw new IllegalStateException(String.format(
+                    "A terminology provider is required to retrieve resources with codes in value set %s.",
+                    valueSet));
+        }
+
+        final var keys = new HashSet<String>();
+        for (Code code : terminologyProvider.expand(new ValueSetInfo().withId(valueSet))) {
+            keys.add(codeKey(code.getSystem(), code.getCode()));
+        }
+        return keys;
+    }
+
+    private BitSet codeIds(Set<String> keys) {
+        final var ids = new BitSet();
+        for (String key : keys) {
+            final Integer id = codeIds.get(key);
+            if (id != null) {
+                ids.set(id);
+            }
+        }
+        return ids;
+    }
+
+    private static String decode(ByteBuffer segment, int offset, int length) {
+        final byte[] bytes = new byte[length];
+        segment.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the ids of the patients with resources in this shard, in the order in which they were
+     * loaded, so that a worker can evaluate its patients.
+     *
+     * @return the ids of the patients
+     */
+    public List<String> getPatientIds() {
+        return new ArrayList<>(patientIds.keySet());
+    }
+
+    /**
+     * Returns the number of resources and the size of the indexes of this provider.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        int resourceCount = 0;
+        long indexBytes = 0;
+        for (TypeIndex index : types.values()) {
+            resourceCount += index.size;
+            indexBytes += index.estimateBytes();
+        }
+
+        // The patient ids and code keys, and the entries of the maps that intern them
+        for (String id : patientIds.keySet()) {
+            indexBytes += stringBytes(id) + 48;
+        }
+        for (String key : codeIds.keySet()) {
+            indexBytes += stringBytes(key) + 64;
+        }
+
+        return new Statistics(resourceCount, patientIds.size(), codeIds.size(), segmentBytes, indexBytes);
+    }
+
+    private static long stringBytes(String value) {
+        return 40L + align(value.length());
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * The size of the data and indexes of a provider. The mapped bytes are the size of the files,
+     * which are paged in and out by the operating system; the index bytes are an estimate of the
+     * heap used by the indexes.
+     */
+    public record Statistics(int resourceCount, int patientCount, int codeCount, long mappedBytes, long indexBytes) {
+
+        /**
+         * Returns the estimated heap used by the indexes per million resources.
+         *
+         * @return the estimated bytes per million resources
+         */
+        public long indexBytesPerMillionResources() {
+            return resourceCount == 0 ? 0 : indexBytes * 1_000_000 / resourceCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d resources of %d patients with %d codes: %d MB mapped, %d MB of indexes (%d MB per million"
+                            + " resources)",
+                    resourceCount,
+                    patientCount,
+                    codeCount,
+                    mappedBytes >> 20,
+                    indexBytes >> 20,
+                    indexBytesPerMillionResources() >> 20);
+        }
+    }
+
+    /**
+     * The indexes of the resources of one type. Records are numbered in the order in which they
+     * were loaded, so that the posting lists are sorted.
+     */
+    private static final class TypeIndex {
+        private final String codePath;
+        private final String datePath;
+        private final Map<String, IntList> byPatient = new HashMap<>();
+        private final Map<Integer, IntList> byCode = new HashMap<>();
+        private int size;
+        private int[] segmentIds = new int[16];
+        private int[] offsets = new int[16];
+        private int[] lengths = new int[16];
+        private long[] dateLows = new long[16];
+        private long[] dateHighs = new long[16];
+        private int[][] codes = new int[16][];
+
+        TypeIndex(String codePath, String datePath) {
+            this.codePath = codePath;
+            this.datePath = datePath;
+        }
+
+        void add(int segment, int offset, int length, String patientId, int[] codeIds, long[] dateBounds) {
+            if (size == segmentIds.length) {
+                final int capacity = size * 2;
+                segmentIds = Arrays.copyOf(segmentIds, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                dateLows = Arrays.copyOf(dateLows, capacity);
+                dateHighs = Arrays.copyOf(dateHighs, capacity);
+                codes = Arrays.copyOf(codes, capacity);
+            }
+
+            final int record = size++;
+            segmentIds[record] = segment;
+            offsets[record] = offset;
+            lengths[record] = length;
+            dateLows[record] = dateBounds[0];
+            dateHighs[record] = dateBounds[1];
+            codes[record] = codeIds;
+            if (patientId != null) {
+                byPatient.computeIfAbsent(patientId, id -> new IntList()).add(record);
+            }
+            if (codeIds != null) {
+                for (int codeId : codeIds) {
+                    byCode.computeIfAbsent(codeId, id -> new IntList()).add(record);
+                }
+            }
+        }
+
+        int[] all() {
+            final int[] records = new int[size];
+            Arrays.setAll(records, record -> record);
+            return records;
+        }
+
+        /**
+         * Returns the given records, or all records if null, with any of the given codes.
+         */
+        int[] withCodes(int[] records, BitSet codeIds) {
+            if (records != null) {
+                final var selected = new IntList();
+                for (int record : records) {
+                    if (codes[record] != null) {
+                        for (int codeId : codes[record]) {
+                            if (codeIds.get(codeId)) {
+                                selected.add(record);
+                                break;
+                            }
+                        }
+                    }
+                }
+                return selected.toArray();
+            }
+
+            // Merge the posting lists of the codes
+            final var selected = new BitSet(size);
+            for (int codeId = codeIds.nextSetBit(0); codeId >= 0; codeId = codeIds.nextSetBit(codeId + 1)) {
+                final IntList postings = byCode.get(codeId);
+                if (postings != null) {
+                    for (int i = 0; i < postings.size; i++) {
+                        selected.set(postings.values[i]);
+                    }
+                }
+            }
+            return selected.stream().toArray();
+        }
+
+        /**
+         * Returns the given records, or all records if null, with a date that overlaps the range.
+         */
+        int[] withDates(int[] records, long[] range) {
+            final var selected = new IntList();
+            final int count = records != null ? records.length : size;
+            for (int i = 0; i < count; i++) {
+                final int record = records != null ? records[i] : i;
+                if (overlaps(dateLows[record], dateHighs[record], range)) {
+                    selected.add(record);
+                }
+            }
+            return selected.toArray();
+        }
+
+        long estimateBytes() {
+            // The record arrays, and the code arrays of the records
+            long bytes = 5L * 16 + (long) segmentIds.length * (4 + 4 + 4 + 8 + 8 + 4);
+            for (int record = 0; record < size; record++) {
+                if (codes[record] != null) {
+                    bytes += 16 + align(4L * codes[record].length);
+                }
+            }
+
+            // The posting lists and the entries of the maps that hold them
+            for (IntList postings : byPatient.values()) {
+                bytes += postings.estimateBytes() + 48;
+            }
+            for (IntList postings : byCode.values()) {
+                bytes += postings.estimateBytes() + 64;
+            }
+            return bytes;
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        long estimateBytes() {
+            return 32 + align(4L * values.length);
+        }
+    }
+}
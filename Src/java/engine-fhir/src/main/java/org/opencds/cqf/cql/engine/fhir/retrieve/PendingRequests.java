@@ -0,0 +1,47 @@
+package org.opencds.cqf.cql.engine.fhir.retrieve;
+
+import java.lang.ref.Cleaner;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The requests that an iterator over the results of a retrieve has started on an executor and not
+ * yet consumed. They are cancelled once the iterator becomes unreachable, so that an iterator that
+ * is abandoned before it is exhausted, for example by an exists, doesn't leave requests queued on
+ * the executor. A request that is already running completes, but its result is discarded.
+ */
+final class PendingRequests {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Queue<CompletableFuture<?>> requests = new ConcurrentLinkedQueue<>();
+
+    private PendingRequests() {}
+
+    /**
+     * @param iterator the iterator that starts the requests
+     * @return the requests of the iterator, which are cancelled once it becomes unreachable
+     */
+    static PendingRequests of(Object iterator) {
+        final PendingRequests pending = new PendingRequests();
+        CLEANER.register(iterator, pending::cancel);
+        return pending;
+    }
+
+    <T> CompletableFuture<T> add(CompletableFuture<T> request) {
+        requests.add(request);
+        return request;
+    }
+
+    void remove(CompletableFuture<?> request) {
+        requests.remove(request);
+    }
+
+    void cancel() {
+        CompletableFuture<?> request;
+        while ((request = requests.poll()) != null) {
+            request.cancel(false);
+        }
+    }
+}
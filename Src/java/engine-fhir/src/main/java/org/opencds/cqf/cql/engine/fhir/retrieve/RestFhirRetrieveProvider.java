@@ -7,11 +7,20 @@ import ca.uhn.fhir.rest.gclient.ICriterion;
 import ca.uhn.fhir.rest.gclient.IQuery;
 import ca.uhn.fhir.rest.gclient.TokenClientParam;
 import ca.uhn.fhir.rest.param.TokenParam;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseCoding;
@@ -23,9 +32,13 @@ import org.opencds.cqf.cql.engine.model.ModelResolver;
 public class RestFhirRetrieveProvider extends SearchParamFhirRetrieveProvider {
 
     private static final SearchStyleEnum DEFAULT_SEARCH_STYLE = SearchStyleEnum.GET;
+    private static final int DEFAULT_MAX_CONCURRENT_QUERIES = 4;
 
     protected IGenericClient fhirClient;
     private SearchStyleEnum searchStyle;
+    private Executor queryExecutor;
+    private int maxConcurrentQueries = DEFAULT_MAX_CONCURRENT_QUERIES;
+    private boolean prefetchPages;
 
     public RestFhirRetrieveProvider(SearchParameterResolver searchParameterResolver, IGenericClient fhirClient) {
         super(searchParameterResolver);
@@ -50,30 +63,195 @@ public class RestFhirRetrieveProvider extends SearchParamFhirRetrieveProvider {
         return this.searchStyle;
     }
 
+    /**
+     * Sets the executor on which the queries of a retrieve are executed concurrently, for example
+     * the queries of a code list that is split by the maximum number of codes per query. If null,
+     * the default, the queries are executed one after another on the evaluating thread.
+     * <p>
+     * The evaluating thread waits for the queries, so the executor must not be the one on which the
+     * engine evaluates, such as the executor of a batch evaluation: once all of its threads wait
+     * for queries that are queued behind them, the evaluation never completes. Use a separate
+     * executor for the queries.
+     *
+     * @param queryExecutor the executor, or null
+     */
+    public void setQueryExecutor(Executor queryExecutor) {
+        this.queryExecutor = queryExecutor;
+    }
+
+    public Executor getQueryExecutor() {
+        return this.queryExecutor;
+    }
+
+    /**
+     * Sets the maximum number of queries of a retrieve that are executed concurrently on the query
+     * executor.
+     *
+     * @param value the maximum number of concurrent queries
+     */
+    public void setMaxConcurrentQueries(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("value must be an integer > 0");
+        }
+
+        this.maxConcurrentQueries = value;
+    }
+
+    public int getMaxConcurrentQueries() {
+        return this.maxConcurrentQueries;
+    }
+
+    /**
+     * Sets whether the next page of the results of a query is fetched on the query executor while
+     * the current page is consumed. Has no effect without a query executor.
+     *
+     * @param value whether to prefetch pages
+     */
+    public void setPrefetchPages(boolean value) {
+        this.prefetchPages = value;
+    }
+
+    public boolean isPrefetchPages() {
+        return this.prefetchPages;
+    }
+
     @Override
     protected Iterable<Object> executeQueries(String dataType, List<SearchParameterMap> queries) {
         if (queries == null || queries.isEmpty()) {
             return Collections.emptyList();
         }
 
-        List<Object> objects = new ArrayList<>();
-        List<IBaseBundle> bundles = new ArrayList<>();
-        for (SearchParameterMap map : queries) {
-            IBaseResource result = this.executeQuery(dataType, map);
-            if (result instanceof IBaseBundle) {
-                bundles.add((IBaseBundle) result);
-            } else {
-                objects.add(result);
+        final Iterable<Object> results = queryExecutor != null && queries.size() > 1
+                ? executeConcurrently(dataType, queries)
+                : executeSequentially(dataType, queries);
+
+        // A resource that matches several of the queries, such as a condition with codes in two
+        // chunks of a code list, is returned once
+        return queries.size() > 1 ? distinct(results) : results;
+    }
+
+    private Iterable<Object> executeSequentially(String dataType, List<SearchParameterMap> queries) {
+        // Queries are executed, and the pages of their results fetched, only as far as the results
+        // are consumed, so that the engine doesn't fetch everything to test whether anything exists.
+        return () -> new Iterator<>() {
+            private final Iterator<SearchParameterMap> remaining = queries.iterator();
+            private Iterator<Object> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && remaining.hasNext()) {
+                    current = iterate(dataType, executeQuery(dataType, remaining.next()));
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private Iterable<Object> executeConcurrently(String dataType, List<SearchParameterMap> queries) {
+        // Once the results are first consumed, up to maxConcurrentQueries queries are running at any
+        // time. Their results are returned in the order of the queries. The queries of an iterator
+        // that is abandoned, or of which a query fails, are cancelled.
+        return () -> new Iterator<>() {
+            private final Iterator<SearchParameterMap> remaining = queries.iterator();
+            private final Deque<CompletableFuture<IBaseResource>> running = new ArrayDeque<>();
+            private final PendingRequests pendingRequests = PendingRequests.of(this);
+            private Iterator<Object> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && (remaining.hasNext() || !running.isEmpty())) {
+                    startQueries();
+                    final CompletableFuture<IBaseResource> result = running.poll();
+                    startQueries();
+                    pendingRequests.remove(result);
+                    try {
+                        current = iterate(dataType, join(result));
+                    } catch (RuntimeException e) {
+                        pendingRequests.cancel();
+                        throw e;
+                    }
+                }
+                return current.hasNext();
             }
+
+            private void startQueries() {
+                while (running.size() < maxConcurrentQueries && remaining.hasNext()) {
+                    final SearchParameterMap query = remaining.next();
+                    running.add(pendingRequests.add(
+                            CompletableFuture.supplyAsync(() -> executeQuery(dataType, query), queryExecutor)));
+                }
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private Iterator<Object> iterate(String dataType, IBaseResource result) {
+        if (result instanceof IBaseBundle) {
+            final Executor pageExecutor = prefetchPages ? queryExecutor : null;
+            return new FhirBundleCursor(fhirClient, (IBaseBundle) result, dataType, null, pageExecutor).iterator();
         }
 
-        // TODO: evaluate this lazily in case the engine only needs the first element
-        for (IBaseBundle b : bundles) {
-            FhirBundleCursor cursor = new FhirBundleCursor(fhirClient, b, dataType);
-            cursor.forEach(objects::add);
+        return Collections.<Object>singletonList(result).iterator();
+    }
+
+    private static IBaseResource join(CompletableFuture<IBaseResource> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
+    }
 
-        return objects;
+    private static Iterable<Object> distinct(Iterable<Object> results) {
+        return () -> new Iterator<>() {
+            private final Iterator<Object> iterator = results.iterator();
+            private final Set<String> ids = new HashSet<>();
+            private Object next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && iterator.hasNext()) {
+                    final Object candidate = iterator.next();
+                    if (!(candidate instanceof IBaseResource)
+                            || ((IBaseResource) candidate).getIdElement().getIdPart() == null
+                            || ids.add(((IBaseResource) candidate)
+                                    .getIdElement()
+                                    .toUnqualifiedVersionless()
+                                    .getValue())) {
+                        next = candidate;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Object result = next;
+                next = null;
+                return result;
+            }
+        };
     }
 
     protected IBaseResource executeQuery(String dataType, SearchParameterMap map) {
@@ -10,7 +10,18 @@ import org.opencds.cqf.cql.engine.model.ModelResolver;
 import org.opencds.cqf.cql.engine.retrieve.TerminologyAwareRetrieveProvider;
 import org.opencds.cqf.cql.engine.runtime.Code;
 import org.opencds.cqf.cql.engine.runtime.Interval;
-
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+
+/**
+ * A retrieve provider that translates retrieves into FHIR searches.
+ * <p>
+ * The queries are generated by one query generator per provider, which is created for the FHIR
+ * version of the search parameter resolver on the first retrieve, unless one is set, and
+ * configured with the settings of the provider. Changing a setting reconfigures the generator, and
+ * changing the model resolver or terminology provider replaces a generator created by the provider.
+ * The generator keeps the query templates of the retrieve shapes it has seen, so the provider can be
+ * used by engines evaluating concurrently once it is configured.
+ */
 @SuppressWarnings("checkstyle:abstractclassname")
 public abstract class SearchParamFhirRetrieveProvider extends TerminologyAwareRetrieveProvider {
     protected FhirContext fhirContext;
@@ -20,6 +31,10 @@ public abstract class SearchParamFhirRetrieveProvider extends TerminologyAwareRe
     protected Integer queryBatchThreshold;
     private BaseFhirQueryGenerator fhirQueryGenerator;
     private ModelResolver modelResolver;
+    // Whether the generator was created by this provider, and the generator once configured with
+    // the settings of this provider
+    private boolean createdQueryGenerator;
+    private volatile BaseFhirQueryGenerator configuredQueryGenerator;
 
     protected SearchParamFhirRetrieveProvider(SearchParameterResolver searchParameterResolver) {
         this.searchParameterResolver = searchParameterResolver;
@@ -38,22 +53,26 @@ public abstract class SearchParamFhirRetrieveProvider extends TerminologyAwareRe
         }
 
         this.pageSize = value;
+        this.configuredQueryGenerator = null;
     }
 
     public Integer getPageSize() {
         return this.pageSize;
     }
 
-    public void setFhirQueryGenerator(BaseFhirQueryGenerator fhirQueryGenerator) {
+    public synchronized void setFhirQueryGenerator(BaseFhirQueryGenerator fhirQueryGenerator) {
         this.fhirQueryGenerator = fhirQueryGenerator;
+        this.createdQueryGenerator = false;
+        this.configuredQueryGenerator = null;
     }
 
     public BaseFhirQueryGenerator getFhirQueryGenerator() {
         return fhirQueryGenerator;
     }
 
-    public void setModelResolver(ModelResolver modelResolver) {
+    public synchronized void setModelResolver(ModelResolver modelResolver) {
         this.modelResolver = modelResolver;
+        discardCreatedQueryGenerator();
     }
 
     public ModelResolver getModelResolver() {
@@ -66,6 +85,7 @@ public abstract class SearchParamFhirRetrieveProvider extends TerminologyAwareRe
         }
 
         this.maxCodesPerQuery = value;
+        this.configuredQueryGenerator = null;
     }
 
     public Integer getMaxCodesPerQuery() {
@@ -78,6 +98,77 @@ public abstract class SearchParamFhirRetrieveProvider extends TerminologyAwareRe
         }
 
         this.queryBatchThreshold = value;
+        this.configuredQueryGenerator = null;
+    }
+
+    @Override
+    public TerminologyAwareRetrieveProvider setExpandValueSets(boolean expandValueSets) {
+        super.setExpandValueSets(expandValueSets);
+        this.configuredQueryGenerator = null;
+        return this;
+    }
+
+    @Override
+    public synchronized void setTerminologyProvider(TerminologyProvider terminologyProvider) {
+        super.setTerminologyProvider(terminologyProvider);
+        discardCreatedQueryGenerator();
+    }
+
+    private synchronized void discardCreatedQueryGenerator() {
+        if (this.createdQueryGenerator) {
+            this.fhirQueryGenerator = null;
+            this.createdQueryGenerator = false;
+        }
+        this.configuredQueryGenerator = null;
+    }
+
+    /**
+     * Returns the query generator configured with the settings of this provider, creating it for
+     * the FHIR version of the search parameter resolver if none is set.
+     *
+     * @return the query generator, or null if none is set and none can be created
+     */
+    protected BaseFhirQueryGenerator getConfiguredQueryGenerator() {
+        final BaseFhirQueryGenerator generator = this.configuredQueryGenerator;
+        return generator != null ? generator : configureQueryGenerator();
+    }
+
+    private synchronized BaseFhirQueryGenerator configureQueryGenerator() {
+        if (this.configuredQueryGenerator != null) {
+            return this.configuredQueryGenerator;
+        }
+
+        if (this.fhirQueryGenerator == null && this.fhirContext != null && this.modelResolver != null) {
+            try {
+                if (this.fhirContext.getVersion().getVersion().equals(FhirVersionEnum.DSTU3)) {
+                    this.fhirQueryGenerator = new Dstu3FhirQueryGenerator(
+                            searchParameterResolver, terminologyProvider, this.modelResolver);
+                } else if (this.fhirContext.getVersion().getVersion().equals(FhirVersionEnum.R4)) {
+                    this.fhirQueryGenerator =
+                            new R4FhirQueryGenerator(searchParameterResolver, terminologyProvider, this.modelResolver);
+                }
+            } catch (FhirVersionMisMatchException exception) {
+                throw new RuntimeException(exception.getMessage());
+            }
+            this.createdQueryGenerator = this.fhirQueryGenerator != null;
+        }
+
+        final BaseFhirQueryGenerator generator = this.fhirQueryGenerator;
+        if (generator != null) {
+            generator.setExpandValueSets(isExpandValueSets());
+            if (getMaxCodesPerQuery() != null && getMaxCodesPerQuery() > 0) {
+                generator.setMaxCodesPerQuery(getMaxCodesPerQuery());
+            }
+            if (getQueryBatchThreshold() != null && getQueryBatchThreshold() > 0) {
+                generator.setQueryBatchThreshold(getQueryBatchThreshold());
+            }
+            if (getPageSize() != null && getPageSize() > 0) {
+                generator.setPageSize(getPageSize());
+            }
+            this.configuredQueryGenerator = generator;
+        }
+
+        return generator;
     }
 
     public Integer getQueryBatchThreshold() {
@@ -103,32 +194,9 @@ public abstract class SearchParamFhirRetrieveProvider extends TerminologyAwareRe
 
         List<SearchParameterMap> queries = null;
 
-        if (this.fhirContext != null && modelResolver != null) {
-            try {
-                if (this.fhirContext.getVersion().getVersion().equals(FhirVersionEnum.DSTU3)) {
-                    fhirQueryGenerator = new Dstu3FhirQueryGenerator(
-                            searchParameterResolver, terminologyProvider, this.modelResolver);
-                } else if (this.fhirContext.getVersion().getVersion().equals(FhirVersionEnum.R4)) {
-                    fhirQueryGenerator =
-                            new R4FhirQueryGenerator(searchParameterResolver, terminologyProvider, this.modelResolver);
-                }
-            } catch (FhirVersionMisMatchException exception) {
-                throw new RuntimeException(exception.getMessage());
-            }
-        }
-        if (fhirQueryGenerator != null) {
-            fhirQueryGenerator.setExpandValueSets(isExpandValueSets());
-            if (getMaxCodesPerQuery() != null && getMaxCodesPerQuery() > 0) {
-                fhirQueryGenerator.setMaxCodesPerQuery(getMaxCodesPerQuery());
-            }
-            if (getQueryBatchThreshold() != null && getQueryBatchThreshold() > 0) {
-                fhirQueryGenerator.setQueryBatchThreshold(getQueryBatchThreshold());
-            }
-            if (getPageSize() != null && getPageSize() > 0) {
-                fhirQueryGenerator.setPageSize(getPageSize());
-            }
-
-            queries = fhirQueryGenerator.setupQueries(
+        final BaseFhirQueryGenerator generator = getConfiguredQueryGenerator();
+        if (generator != null) {
+            queries = generator.setupQueries(
                     context,
                     contextPath,
                     contextValue,
@@ -13,13 +13,27 @@ import ca.uhn.fhir.rest.param.UriParam;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang3.tuple.Pair;
 
+/**
+ * Resolves the search parameter of a FHIR resource type that searches a path of the type, for
+ * example {@code code} for {@code Condition.code}. Resolutions are cached by data type, path and
+ * parameter type, as resolving a path walks and normalizes the paths of all search parameters of
+ * the type; instances are thread-safe and meant to be shared by all retrieves.
+ */
 public class SearchParameterResolver {
 
     private FhirContext context;
 
+    private final Map<String, Optional<RuntimeSearchParam>> definitions = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
     public SearchParameterResolver(FhirContext context) {
         this.context = context;
     }
@@ -38,6 +52,35 @@ public class SearchParameterResolver {
             return null;
         }
 
+        final String key = dataType + "|" + path + "|" + paramType;
+        Optional<RuntimeSearchParam> definition = definitions.get(key);
+        if (definition != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            definition = Optional.ofNullable(resolveSearchParameterDefinition(dataType, path, paramType));
+            definitions.put(key, definition);
+        }
+
+        return definition.orElse(null);
+    }
+
+    /**
+     * @return the number of resolutions answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of resolutions that walked the search parameters of a type
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private RuntimeSearchParam resolveSearchParameterDefinition(
+            String dataType, String path, RestSearchParameterTypeEnum paramType) {
         // Special case for system params. They need to be resolved by name.
         // TODO: All the others like "_language"
         String name = null;
@@ -103,7 +146,6 @@ public class SearchParameterResolver {
         return null;
     }
 
-    // This is actually a lot of processing. We should cache search parameter resolutions.
     private String normalizePath(String path) {
         // TODO: What we really need is FhirPath parsing to just get the path
         // MedicationAdministration.medication.as(CodeableConcept)
@@ -7,6 +7,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 import org.hl7.fhir.r4.model.Condition;
 import org.hl7.fhir.r4.model.Encounter;
 import org.hl7.fhir.r4.model.Patient;
@@ -16,6 +18,7 @@ import org.opencds.cqf.cql.engine.execution.CqlEngine;
 import org.opencds.cqf.cql.engine.retrieve.RetrieveProvider;
 import org.opencds.cqf.cql.engine.runtime.Code;
 import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
 
 class EvaluatedResourcesTest extends FhirExecutionTestBase {
 
@@ -106,4 +109,60 @@ class EvaluatedResourcesTest extends FhirExecutionTestBase {
         assertThat(results.forExpression("Union").evaluatedResources().size(), is(2));
         engine.getState().clearEvaluatedResources();
     }
+
+    @Test
+    void lazyRetrieveRecordsConsumedResources() {
+        final var fetched = new AtomicInteger();
+        final RetrieveProvider lazyProvider = new RetrieveProvider() {
+            @Override
+            public Iterable<Object> retrieve(
+                    String context,
+                    String contextPath,
+                    Object contextValue,
+                    String dataType,
+                    String templateId,
+                    String codePath,
+                    Iterable<Code> codes,
+                    String valueSet,
+                    String datePath,
+                    String dateLowPath,
+                    String dateHighPath,
+                    Interval dateRange) {
+                // A non-list result, which the engine consumes lazily
+                return () -> Stream.generate(() -> {
+                            fetched.incrementAndGet();
+                            return (Object) new Encounter();
+                        })
+                        .limit(3)
+                        .iterator();
+            }
+        };
+
+        CqlEngine engine = getEngine();
+        engine.getState()
+                .getEnvironment()
+                .registerDataProvider("http://hl7.org/fhir", new CompositeDataProvider(r4ModelResolver, lazyProvider));
+
+        var results = engine.evaluate(library.getIdentifier(), Set.of("Exists Encounter"));
+        assertThat(results.forExpression("Exists Encounter").value(), is(true));
+        assertThat(fetched.get(), is(1));
+        assertThat(results.forExpression("Exists Encounter").evaluatedResources().size(), is(1));
+        engine.getState().clearEvaluatedResources();
+
+        results = engine.evaluate(library.getIdentifier(), Set.of("Encounter"));
+        Object value = results.forExpression("Encounter").value();
+        assertThat(value, instanceOf(List.class));
+        assertThat(((List<?>) value).size(), is(3));
+        assertThat(results.forExpression("Encounter").evaluatedResources().size(), is(3));
+        engine.getState().clearEvaluatedResources();
+
+        // Lazy results nested in lists and tuples are consumed before the evaluation ends too
+        results = engine.evaluate(library.getIdentifier(), Set.of("Encounter In Tuple"));
+        value = results.forExpression("Encounter In Tuple").value();
+        assertThat(value, instanceOf(Tuple.class));
+        Object encounters = ((List<?>) ((Tuple) value).getElement("encounters")).get(0);
+        assertThat(encounters, instanceOf(List.class));
+        assertThat(((List<?>) encounters).size(), is(3));
+        assertThat(results.forExpression("Encounter In Tuple").evaluatedResources().size(), is(3));
+    }
 }
@@ -0,0 +1,161 @@
+package org.opencds.cqf.cql.engine.fhir.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.data.CompositeDataProvider;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.opencds.cqf.cql.engine.execution.RetrieveCache;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveFilter;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveProvider;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveRequest;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+
+class RetrieveCacheTest extends FhirExecutionTestBase {
+
+    private static final String SNOMED = "http://snomed.info/sct";
+
+    /**
+     * Serves a patient, an encounter and a diabetes and a hypertension condition, filters the
+     * conditions by code, and counts the retrieves by data type.
+     */
+    private static class CountingRetrieveProvider implements RetrieveProvider, RetrieveFilter {
+        private final Map<String, AtomicInteger> retrieves = new ConcurrentHashMap<>();
+
+        @Override
+        public Iterable<Object> retrieve(
+                String context,
+                String contextPath,
+                Object contextValue,
+                String dataType,
+                String templateId,
+                String codePath,
+                Iterable<Code> codes,
+                String valueSet,
+                String datePath,
+                String dateLowPath,
+                String dateHighPath,
+                Interval dateRange) {
+            retrieves.computeIfAbsent(dataType, t -> new AtomicInteger()).incrementAndGet();
+            switch (dataType) {
+                case "Patient":
+                    return List.of(new Patient().setId("example"));
+                case "Encounter":
+                    return List.of(new Encounter());
+                case "Condition":
+                    return filter(List.<Object>of(condition("44054006"), condition("38341003")), codes);
+                default:
+                    return List.of();
+            }
+        }
+
+        @Override
+        public Iterable<Object> filter(Iterable<Object> resources, RetrieveRequest request) {
+            return request.getDateRange() == null ? filter(resources, request.getCodes()) : null;
+        }
+
+        private static List<Object> filter(Iterable<Object> conditions, Iterable<Code> codes) {
+            final var result = new ArrayList<>();
+            for (Object condition : conditions) {
+                if (codes == null || hasCode((Condition) condition, codes)) {
+                    result.add(condition);
+                }
+            }
+            return result;
+        }
+
+        private static boolean hasCode(Condition condition, Iterable<Code> codes) {
+            for (Code code : codes) {
+                if (condition.getCode().hasCoding(code.getSystem(), code.getCode())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Condition condition(String code) {
+            return new Condition().setCode(new CodeableConcept().addCoding(new Coding(SNOMED, code, null)));
+        }
+
+        int getRetrieves(String dataType) {
+            final var count = retrieves.get(dataType);
+            return count != null ? count.get() : 0;
+        }
+    }
+
+    private EvaluationResult evaluate(CountingRetrieveProvider retrieveProvider, Set<CqlEngine.Options> options) {
+        final var engine = new CqlEngine(getEnvironment(), options);
+        engine.getEnvironment()
+                .registerDataProvider(
+                        "http://hl7.org/fhir", new CompositeDataProvider(r4ModelResolver, retrieveProvider));
+        return engine.evaluate(library.getIdentifier(), Pair.of("Patient", "example"));
+    }
+
+    private static int size(Object value) {
+        return value instanceof List ? ((List<?>) value).size() : value != null ? 1 : 0;
+    }
+
+    private static void assertSameResults(EvaluationResult expected, EvaluationResult actual) {
+        for (var name : expected.expressionResults.keySet()) {
+            assertEquals(size(expected.forExpression(name).value()), size(actual.forExpression(name).value()), name);
+            assertEquals(
+                    expected.forExpression(name).evaluatedResources().size(),
+                    actual.forExpression(name).evaluatedResources().size(),
+                    name);
+        }
+    }
+
+    @Test
+    void issuesIdenticalRetrievesOnce() {
+        final var uncached = new CountingRetrieveProvider();
+        final var expected = evaluate(uncached, Set.of());
+        assertEquals(4, uncached.getRetrieves("Condition"));
+        assertEquals(2, uncached.getRetrieves("Encounter"));
+
+        final var caching = new CountingRetrieveProvider();
+        final var actual =
+                evaluate(caching, Set.of(CqlEngine.Options.EnableRetrieveCaching, CqlEngine.Options.EnableProfiling));
+        assertSameResults(expected, actual);
+        assertEquals(3, caching.getRetrieves("Condition"));
+        assertEquals(1, caching.getRetrieves("Encounter"));
+
+        final var profile = actual.getDebugResult().getProfile();
+        assertEquals(2L, profile.getCounter(RetrieveCache.HIT_COUNTER));
+        assertEquals(0L, profile.getCounter(RetrieveCache.SUBSUMED_HIT_COUNTER));
+        assertEquals(5L, profile.getCounter(RetrieveCache.MISS_COUNTER));
+    }
+
+    @Test
+    void answersNarrowerRetrievesFromBroaderOnes() {
+        final var expected = evaluate(new CountingRetrieveProvider(), Set.of());
+
+        final var subsuming = new CountingRetrieveProvider();
+        final var actual = evaluate(
+                subsuming, Set.of(CqlEngine.Options.EnableRetrieveSubsumption, CqlEngine.Options.EnableProfiling));
+        assertSameResults(expected, actual);
+        assertEquals(1, size(actual.forExpression("Diabetes").value()));
+        assertEquals(1, size(actual.forExpression("Hypertension").value()));
+
+        // The coded retrieves are selected from the result of the Condition retrieve
+        assertEquals(1, subsuming.getRetrieves("Condition"));
+
+        final var profile = actual.getDebugResult().getProfile();
+        assertEquals(2L, profile.getCounter(RetrieveCache.HIT_COUNTER));
+        assertEquals(2L, profile.getCounter(RetrieveCache.SUBSUMED_HIT_COUNTER));
+        assertEquals(3L, profile.getCounter(RetrieveCache.MISS_COUNTER));
+    }
+}
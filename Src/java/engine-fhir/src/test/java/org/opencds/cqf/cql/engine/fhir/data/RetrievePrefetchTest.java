@@ -0,0 +1,170 @@
+package org.opencds.cqf.cql.engine.fhir.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Procedure;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.data.CompositeDataProvider;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.opencds.cqf.cql.engine.execution.PrefetchPlan;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveProvider;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+
+class RetrievePrefetchTest extends FhirExecutionTestBase {
+
+    /**
+     * Serves one resource of each type, or three encounters that are fetched lazily, and counts the
+     * retrieves by data type.
+     */
+    private static class CountingRetrieveProvider implements RetrieveProvider {
+        private final Map<String, AtomicInteger> retrieves = new ConcurrentHashMap<>();
+        private final AtomicInteger fetchedEncounters = new AtomicInteger();
+        private boolean lazyEncounters;
+
+        @Override
+        public Iterable<Object> retrieve(
+                String context,
+                String contextPath,
+                Object contextValue,
+                String dataType,
+                String templateId,
+                String codePath,
+                Iterable<Code> codes,
+                String valueSet,
+                String datePath,
+                String dateLowPath,
+                String dateHighPath,
+                Interval dateRange) {
+            retrieves.computeIfAbsent(dataType, t -> new AtomicInteger()).incrementAndGet();
+            switch (dataType) {
+                case "Patient":
+                    return List.of(new Patient().setId("example"));
+                case "Encounter":
+                    if (lazyEncounters) {
+                        return () -> IntStream.range(0, 3)
+                                .mapToObj(i -> {
+                                    fetchedEncounters.incrementAndGet();
+                                    return (Object) new Encounter();
+                                })
+                                .iterator();
+                    }
+                    return List.of(new Encounter());
+                case "Condition":
+                    return List.of(new Condition());
+                case "Procedure":
+                    return List.of(new Procedure());
+                default:
+                    return List.of();
+            }
+        }
+
+        int getRetrieves(String dataType) {
+            final var count = retrieves.get(dataType);
+            return count != null ? count.get() : 0;
+        }
+    }
+
+    private EvaluationResult evaluate(CountingRetrieveProvider retrieveProvider, Set<CqlEngine.Options> options) {
+        return evaluate(retrieveProvider, options, null);
+    }
+
+    private EvaluationResult evaluate(
+            CountingRetrieveProvider retrieveProvider, Set<CqlEngine.Options> options, Set<String> expressions) {
+        final var engine = new CqlEngine(getEnvironment(), options);
+        engine.getEnvironment()
+                .registerDataProvider(
+                        "http://hl7.org/fhir", new CompositeDataProvider(r4ModelResolver, retrieveProvider));
+        return engine.evaluate(library.getIdentifier(), expressions, Pair.of("Patient", "example"), null, null);
+    }
+
+    private static int size(Object value) {
+        return value instanceof List ? ((List<?>) value).size() : value != null ? 1 : 0;
+    }
+
+    @Test
+    void answersRetrievesFromPrefetchedData() {
+        final var lazy = new CountingRetrieveProvider();
+        final var expected = evaluate(lazy, Set.of());
+        assertEquals(3, lazy.getRetrieves("Condition"));
+
+        final var prefetching = new CountingRetrieveProvider();
+        final var actual = evaluate(
+                prefetching, Set.of(CqlEngine.Options.EnableRetrievePrefetch, CqlEngine.Options.EnableProfiling));
+
+        for (var name : expected.expressionResults.keySet()) {
+            assertEquals(size(expected.forExpression(name).value()), size(actual.forExpression(name).value()), name);
+            assertEquals(
+                    expected.forExpression(name).evaluatedResources().size(),
+                    actual.forExpression(name).evaluatedResources().size(),
+                    name);
+        }
+
+        // The identical Condition retrieves are issued once, including the one of the function,
+        // whose request matches at evaluation time. The Procedure retrieve isn't planned because
+        // its code is a function operand.
+        assertEquals(1, prefetching.getRetrieves("Patient"));
+        assertEquals(1, prefetching.getRetrieves("Encounter"));
+        assertEquals(1, prefetching.getRetrieves("Condition"));
+        assertEquals(1, prefetching.getRetrieves("Procedure"));
+
+        final var profile = actual.getDebugResult().getProfile();
+        assertEquals(6L, profile.getCounter(PrefetchPlan.HIT_COUNTER));
+        assertEquals(1L, profile.getCounter(PrefetchPlan.MISS_COUNTER));
+    }
+
+    @Test
+    void prefetchesTheRetrievesOfTheRequestedExpressions() {
+        final var retrieveProvider = new CountingRetrieveProvider();
+        evaluate(retrieveProvider, Set.of(CqlEngine.Options.EnableRetrievePrefetch), Set.of("Encounters"));
+
+        assertEquals(1, retrieveProvider.getRetrieves("Encounter"));
+        assertEquals(0, retrieveProvider.getRetrieves("Condition"));
+    }
+
+    @Test
+    void keepsLazyResultsLazy() {
+        final var retrieveProvider = new CountingRetrieveProvider();
+        retrieveProvider.lazyEncounters = true;
+        final var result =
+                evaluate(retrieveProvider, Set.of(CqlEngine.Options.EnableRetrievePrefetch), Set.of("Has Encounter"));
+
+        assertTrue((Boolean) result.forExpression("Has Encounter").value());
+        assertEquals(1, retrieveProvider.getRetrieves("Encounter"));
+        assertEquals(1, retrieveProvider.fetchedEncounters.get());
+    }
+
+    @Test
+    void prefetchesConcurrently() {
+        final var executor = Executors.newFixedThreadPool(4);
+        try {
+            final var environment = getEnvironment();
+            environment.setPrefetchExecutor(executor);
+            final var retrieveProvider = new CountingRetrieveProvider();
+            environment.registerDataProvider(
+                    "http://hl7.org/fhir", new CompositeDataProvider(r4ModelResolver, retrieveProvider));
+
+            final var engine = new CqlEngine(environment, Set.of(CqlEngine.Options.EnableRetrievePrefetch));
+            final var result = engine.evaluate(library.getIdentifier(), Pair.of("Patient", "example"));
+
+            assertEquals(1, ((List<?>) result.forExpression("Diabetes").value()).size());
+            assertEquals(1, ((List<?>) result.forExpression("Appendectomies").value()).size());
+            assertEquals(1, retrieveProvider.getRetrieves("Condition"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.opencds.cqf.cql.engine.fhir.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.data.NativeFunctionProvider;
+import org.opencds.cqf.cql.engine.elm.executing.EquivalentEvaluator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Concept;
+
+class TestFhirHelpersNativeFunctions extends FhirExecutionTestBase {
+
+    private static final Set<String> FAILING_EXPRESSIONS =
+            Set.of("QuantityWithComparatorFails", "QuantityWithInvalidSystemFails");
+
+    private final Set<String> nativeFunctions = ConcurrentHashMap.newKeySet();
+
+    private CqlEngine getEngine(boolean nativeFunctionsEnabled) {
+        final var options = EnumSet.of(CqlEngine.Options.EnableExpressionCaching);
+        if (!nativeFunctionsEnabled) {
+            options.add(CqlEngine.Options.DisableNativeFunctions);
+        }
+
+        final var engine = new CqlEngine(getEnvironment(), options);
+        engine.getEnvironment().registerDataProvider("http://hl7.org/fhir", r4Provider);
+
+        // Record the functions that are evaluated natively
+        final NativeFunctionProvider provider = new FhirHelpersNativeFunctionProvider(r4ModelResolver);
+        engine.getEnvironment().registerNativeFunctionProvider((libraryIdentifier, functionDef) -> {
+            final var nativeFunction = provider.resolve(libraryIdentifier, functionDef);
+            if (nativeFunction != null) {
+                nativeFunctions.add(functionDef.getName());
+            }
+            return nativeFunction;
+        });
+        return engine;
+    }
+
+    private EvaluationResult evaluate(boolean nativeFunctionsEnabled) {
+        final var expressions = new HashSet<String>();
+        library.getStatements().getDef().forEach(def -> expressions.add(def.getName()));
+        expressions.removeAll(FAILING_EXPRESSIONS);
+        return getEngine(nativeFunctionsEnabled).evaluate(library.getIdentifier(), expressions);
+    }
+
+    private static void assertSameValue(String name, Object expected, Object actual) {
+        if (expected instanceof Concept) {
+            final var expectedConcept = (Concept) expected;
+            final var actualConcept = (Concept) actual;
+            assertEquals(expectedConcept.getDisplay(), actualConcept.getDisplay(), name);
+            final Iterator<Code> actualCodes = actualConcept.getCodes().iterator();
+            for (Code code : expectedConcept.getCodes()) {
+                assertTrue(actualCodes.hasNext(), name);
+                assertSameValue(name, code, actualCodes.next());
+            }
+            assertFalse(actualCodes.hasNext(), name);
+        } else if (expected instanceof Code) {
+            final var expectedCode = (Code) expected;
+            final var actualCode = (Code) actual;
+            assertEquals(expectedCode.getCode(), actualCode.getCode(), name);
+            assertEquals(expectedCode.getSystem(), actualCode.getSystem(), name);
+            assertEquals(expectedCode.getVersion(), actualCode.getVersion(), name);
+            assertEquals(expectedCode.getDisplay(), actualCode.getDisplay(), name);
+        } else {
+            assertTrue(EquivalentEvaluator.equivalent(expected, actual), name);
+        }
+    }
+
+    @Test
+    void nativeFunctionsMatchDefinitions() {
+        final var expected = evaluate(false);
+        assertTrue(nativeFunctions.isEmpty());
+
+        final var actual = evaluate(true);
+        assertTrue(nativeFunctions.containsAll(
+                Set.of("ToString", "ToBoolean", "ToDateTime", "ToCode", "ToConcept", "ToQuantity", "ToInterval")));
+
+        for (var entry : expected.expressionResults.entrySet()) {
+            final var name = entry.getKey();
+            assertNotNull(actual.forExpression(name), name);
+            assertSameValue(name, entry.getValue().value(), actual.forExpression(name).value());
+        }
+
+        // The duplicate coding is removed
+        final var concept = (Concept) actual.forExpression("CodeableConceptConverts").value();
+        assertEquals(2, ((List<Code>) concept.getCodes()).size());
+    }
+
+    @Test
+    void nativeFunctionsRaiseTheSameErrors() {
+        for (var name : FAILING_EXPRESSIONS) {
+            for (var nativeFunctionsEnabled : new boolean[] {false, true}) {
+                final var engine = getEngine(nativeFunctionsEnabled);
+                final var exception = assertThrows(
+                        CqlException.class, () -> engine.evaluate(library.getIdentifier(), Set.of(name)));
+                assertTrue(exception.getMessage().contains("FHIRHelpers.ToQuantity."), exception.getMessage());
+            }
+        }
+    }
+}
@@ -421,6 +421,35 @@ class TestR4ModelResolver {
         assertNull(value);
     }
 
+    @Test
+    void resolveIndexedPath() {
+        final var resolver = new R4FhirModelResolver(FhirContext.forCached(FhirVersionEnum.R4));
+
+        final var patient = new Patient();
+        for (int i = 0; i < 12; i++) {
+            patient.addName().setFamily("Family " + i);
+        }
+
+        assertEquals("Family 1", resolver.resolvePath(patient, "name[1].family"));
+        assertEquals("Family 11", resolver.resolvePath(patient, "name[11].family"));
+        assertEquals("Family 1", resolver.resolvePath(patient, "name[1].family"));
+    }
+
+    @Test
+    void resolveChoicePathForEachType() {
+        final var resolver = new R4FhirModelResolver(FhirContext.forCached(FhirVersionEnum.R4));
+
+        final var quantity = new Observation().setValue(new Quantity().setValue(5));
+        final var string = new Observation().setValue(new StringType("five"));
+
+        // The accessors resolved for the first observation must not leak its value type into the second
+        assertInstanceOf(Quantity.class, resolver.resolvePath(quantity, "valueQuantity"));
+        assertNull(resolver.resolvePath(string, "valueQuantity"));
+        assertInstanceOf(StringType.class, resolver.resolvePath(string, "value"));
+        assertInstanceOf(Quantity.class, resolver.resolvePath(quantity, "value"));
+        assertEquals("five", resolver.resolvePath(string, "valueString.value"));
+    }
+
     @Test
     void resolveIdPatient() {
         final String expectedId = "123";
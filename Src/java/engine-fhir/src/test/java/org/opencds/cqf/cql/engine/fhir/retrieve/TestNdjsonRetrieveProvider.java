@@ -0,0 +1,335 @@
+package org.opencds.cqf.cql.engine.fhir.retrieve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.uhn.fhir.parser.IParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Medication;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencds.cqf.cql.engine.fhir.model.R4FhirModelResolver;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveRequest;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.terminology.CodeSystemInfo;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+
+class TestNdjsonRetrieveProvider {
+
+    private static final String SNOMED = "http://snomed.info/sct";
+    private static final String DIABETES = "44054006";
+    private static final String HYPERTENSION = "38341003";
+    private static final int PATIENTS = 10;
+
+    private static final R4FhirModelResolver MODEL_RESOLVER = new R4FhirModelResolver();
+
+    @TempDir
+    static Path directory;
+
+    @BeforeAll
+    static void writeExport() throws IOException {
+        final IParser parser = MODEL_RESOLVER.getFhirContext().newJsonParser();
+        final var patients = new ArrayList<IBaseResource>();
+        final var conditions = new ArrayList<IBaseResource>();
+        final var encounters = new ArrayList<IBaseResource>();
+        for (int i = 0; i < PATIENTS; i++) {
+            final var id = "patient-" + i;
+            final var subject = new Reference("Patient/" + id);
+            patients.add(new Patient().setBirthDateElement(new DateType("2000-01-0" + (1 + i % 9))).setId(id));
+            conditions.add(new Condition()
+                    .setCode(new CodeableConcept().addCoding(new Coding(SNOMED, DIABETES, null)))
+                    .setOnset(new DateTimeType("2023-03-0" + (1 + i % 9)))
+                    .setSubject(subject)
+                    .setId(id + "-diabetes"));
+            if (i % 2 == 0) {
+                conditions.add(new Condition()
+                        .setCode(new CodeableConcept().addCoding(new Coding(SNOMED, HYPERTENSION, null)))
+                        .setOnset(new DateTimeType("2021"))
+                        .setSubject(subject)
+                        .setId(id + "-hypertension"));
+            }
+            encounters.add(new Encounter()
+                    .setPeriod(new Period()
+                            .setStartElement(new DateTimeType("2023-06-01T10:00:00Z"))
+                            .setEndElement(new DateTimeType("2023-06-01T11:00:00Z")))
+                    .setSubject(subject)
+                    .setId(id + "-encounter"));
+        }
+
+        write(directory.resolve("Patient.ndjson"), parser, patients, "\n");
+        // Exports written on Windows end their lines with CRLF
+        write(directory.resolve("Condition.ndjson"), parser, conditions, "\r\n");
+        write(directory.resolve("Encounter.ndjson"), parser, encounters, "\n");
+        write(directory.resolve("Medication.ndjson"), parser, List.of(new Medication().setId("medication")), "\n");
+        Files.writeString(directory.resolve("README.txt"), "Not an export file");
+    }
+
+    private static void write(Path file, IParser parser, List<IBaseResource> resources, String lineSeparator)
+            throws IOException {
+        final var lines = new StringBuilder();
+        for (IBaseResource resource : resources) {
+            lines.append(parser.encodeResourceToString(resource)).append(lineSeparator);
+        }
+        Files.writeString(file, lines.toString(), StandardCharsets.UTF_8);
+    }
+
+    private static NdjsonRetrieveProvider load(int shard, int shardCount) throws IOException {
+        final var provider = new NdjsonRetrieveProvider(MODEL_RESOLVER, shard, shardCount);
+        provider.load(directory);
+        return provider;
+    }
+
+    private static Set<String> ids(Iterable<Object> resources) {
+        final var ids = new HashSet<String>();
+        resources.forEach(resource -> ids.add(((IBaseResource) resource).getIdElement().getIdPart()));
+        return ids;
+    }
+
+    private static Iterable<Object> retrieve(
+            NdjsonRetrieveProvider provider,
+            String patientId,
+            String dataType,
+            Iterable<Code> codes,
+            String valueSet,
+            Interval dateRange) {
+        return provider.retrieve(
+                patientId != null ? "Patient" : "Unfiltered",
+                patientId != null ? (String) MODEL_RESOLVER.getContextPath("Patient", dataType) : null,
+                patientId,
+                dataType,
+                null,
+                codes != null || valueSet != null ? "code" : null,
+                codes,
+                valueSet,
+                dateRange != null ? (dataType.equals("Encounter") ? "period" : "onset") : null,
+                null,
+                null,
+                dateRange);
+    }
+
+    private static Interval dateRange(String start, String end) {
+        return new Interval(
+                new DateTime(OffsetDateTime.parse(start)), true, new DateTime(OffsetDateTime.parse(end)), true);
+    }
+
+    @Test
+    void retrievesByPatient() throws IOException {
+        final var provider = load(0, 1);
+        assertEquals(Set.of("patient-2"), ids(retrieve(provider, "patient-2", "Patient", null, null, null)));
+        assertEquals(
+                Set.of("patient-2-diabetes", "patient-2-hypertension"),
+                ids(retrieve(provider, "Patient/patient-2", "Condition", null, null, null)));
+        assertEquals(Set.of("patient-3-diabetes"), ids(retrieve(provider, "patient-3", "Condition", null, null, null)));
+        assertTrue(ids(retrieve(provider, "patient-42", "Condition", null, null, null)).isEmpty());
+        assertTrue(ids(retrieve(provider, "patient-2", "Observation", null, null, null)).isEmpty());
+
+        // Resources in no patient compartment are retrieved unfiltered
+        assertEquals(Set.of("medication"), ids(retrieve(provider, null, "Medication", null, null, null)));
+    }
+
+    @Test
+    void retrievesByCode() throws IOException {
+        final var provider = load(0, 1);
+        final var hypertension = List.of(new Code().withSystem(SNOMED).withCode(HYPERTENSION));
+        assertEquals(
+                Set.of("patient-4-hypertension"),
+                ids(retrieve(provider, "patient-4", "Condition", hypertension, null, null)));
+        assertTrue(ids(retrieve(provider, "patient-5", "Condition", hypertension, null, null)).isEmpty());
+        assertEquals(5, ids(retrieve(provider, null, "Condition", hypertension, null, null)).size());
+
+        // Codes are matched by system and code
+        final var otherSystem = List.of(new Code().withSystem("http://example.org").withCode(HYPERTENSION));
+        assertTrue(ids(retrieve(provider, null, "Condition", otherSystem, null, null)).isEmpty());
+
+        // Codes without a system are matched by code, in any system
+        final var anySystem = List.of(new Code().withCode(HYPERTENSION));
+        assertEquals(5, ids(retrieve(provider, null, "Condition", anySystem, null, null)).size());
+        final var all = retrieve(provider, null, "Condition", null, null, null);
+        assertEquals(5, ids(provider.filter(all, request("Condition", anySystem, null))).size());
+
+        // Null codes in the list are skipped
+        final var withNull = Arrays.asList(null, new Code().withSystem(SNOMED).withCode(HYPERTENSION));
+        assertEquals(5, ids(retrieve(provider, null, "Condition", withNull, null, null)).size());
+        assertEquals(5, ids(provider.filter(all, request("Condition", withNull, null))).size());
+    }
+
+    @Test
+    void retrievesByValueSet() throws IOException {
+        final var provider = load(0, 1);
+        assertThrows(
+                IllegalStateException.class,
+                () -> retrieve(provider, "patient-1", "Condition", null, "http://example.org/diabetes", null));
+
+        provider.setTerminologyProvider(new TerminologyProvider() {
+            @Override
+            public boolean in(Code code, ValueSetInfo valueSet) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Iterable<Code> expand(ValueSetInfo valueSet) {
+                return List.of(new Code().withSystem(SNOMED).withCode(DIABETES));
+            }
+
+            @Override
+            public Code lookup(Code code, CodeSystemInfo codeSystem) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        assertEquals(
+                Set.of("patient-1-diabetes"),
+                ids(retrieve(provider, "patient-1", "Condition", null, "http://example.org/diabetes", null)));
+        assertEquals(
+                PATIENTS,
+                ids(retrieve(provider, null, "Condition", null, "http://example.org/diabetes", null))
+                        .size());
+    }
+
+    @Test
+    void retrievesByDateRange() throws IOException {
+        final var provider = load(0, 1);
+        final var march = dateRange("2023-03-01T00:00:00Z", "2023-03-31T23:59:59.999Z");
+        assertEquals(
+                Set.of("patient-0-diabetes"), ids(retrieve(provider, "patient-0", "Condition", null, null, march)));
+        assertEquals(PATIENTS, ids(retrieve(provider, null, "Condition", null, null, march)).size());
+
+        // The year of the hypertension onset overlaps any range in 2021
+        final var summer2021 = dateRange("2021-06-01T00:00:00Z", "2021-08-31T00:00:00Z");
+        assertEquals(
+                Set.of("patient-0-hypertension"),
+                ids(retrieve(provider, "patient-0", "Condition", null, null, summer2021)));
+
+        // The encounter period overlaps the range
+        final var endOfVisit = dateRange("2023-06-01T10:30:00Z", "2023-06-02T00:00:00Z");
+        assertEquals(
+                Set.of("patient-7-encounter"),
+                ids(retrieve(provider, "patient-7", "Encounter", null, null, endOfVisit)));
+        final var afterVisit = dateRange("2023-06-01T11:00:01Z", "2023-06-02T00:00:00Z");
+        assertTrue(ids(retrieve(provider, "patient-7", "Encounter", null, null, afterVisit)).isEmpty());
+    }
+
+    private static Iterable<Object> retrieveByBirthDate(NdjsonRetrieveProvider provider, Interval dateRange) {
+        return provider.retrieve(
+                "Unfiltered", null, null, "Patient", null, null, null, null, "birthDate", null, null, dateRange);
+    }
+
+    @Test
+    void matchesDatesAtEvaluationOffset() throws IOException {
+        final var provider = new NdjsonRetrieveProvider(MODEL_RESOLVER);
+        provider.setDatePath("Patient", "birthDate");
+        provider.load(directory);
+
+        // At +10:00, 2000-01-01 is from 1999-12-31T14:00:00Z to 2000-01-01T13:59:59.999Z
+        provider.setEvaluationOffset(ZoneOffset.ofHours(10));
+        final var beforeUtcMidnight = dateRange("1999-12-31T15:00:00Z", "1999-12-31T16:00:00Z");
+        assertEquals(Set.of("patient-0", "patient-9"), ids(retrieveByBirthDate(provider, beforeUtcMidnight)));
+        provider.setEvaluationOffset(ZoneOffset.UTC);
+        assertTrue(ids(retrieveByBirthDate(provider, beforeUtcMidnight)).isEmpty());
+
+        // An open bound excludes its own instant
+        provider.setEvaluationOffset(ZoneOffset.ofHours(10));
+        final var lastInstant = new DateTime(OffsetDateTime.parse("2000-01-01T13:59:59.999Z"));
+        final var nextDay = new DateTime(OffsetDateTime.parse("2000-01-01T18:00:00Z"));
+        assertEquals(
+                Set.of("patient-0", "patient-9", "patient-1"),
+                ids(retrieveByBirthDate(provider, new Interval(lastInstant, true, nextDay, true))));
+        assertEquals(
+                Set.of("patient-1"),
+                ids(retrieveByBirthDate(provider, new Interval(lastInstant, false, nextDay, true))));
+    }
+
+    @Test
+    void filtersBroaderResults() throws IOException {
+        final var provider = load(0, 1);
+        final var all = retrieve(provider, null, "Condition", null, null, null);
+        final var hypertension = List.of(new Code().withSystem(SNOMED).withCode(HYPERTENSION));
+        final var march = dateRange("2023-03-01T00:00:00Z", "2023-03-31T23:59:59.999Z");
+
+        // The filtered results are those of the narrower retrieves
+        for (var request : List.of(
+                request("Condition", hypertension, null),
+                request("Condition", null, march),
+                request("Condition", hypertension, march))) {
+            assertEquals(
+                    ids(retrieve(provider, null, "Condition", request.getCodes(), null, request.getDateRange())),
+                    ids(provider.filter(all, request)));
+        }
+        assertEquals(5, ids(provider.filter(all, request("Condition", hypertension, null))).size());
+        assertTrue(ids(provider.filter(all, request("Condition", hypertension, march))).isEmpty());
+    }
+
+    private static RetrieveRequest request(String dataType, Iterable<Code> codes, Interval dateRange) {
+        return new RetrieveRequest(
+                "Unfiltered",
+                null,
+                null,
+                dataType,
+                null,
+                codes != null ? "code" : null,
+                codes,
+                null,
+                dateRange != null ? "onset" : null,
+                null,
+                null,
+                dateRange);
+    }
+
+    @Test
+    void shardsPatients() throws IOException {
+        final var patientIds = new ArrayList<String>();
+        for (int shard = 0; shard < 3; shard++) {
+            final var provider = load(shard, 3);
+            for (var patientId : provider.getPatientIds()) {
+                assertEquals(shard, NdjsonRetrieveProvider.shardOf(patientId, 3));
+                assertEquals(Set.of(patientId), ids(retrieve(provider, patientId, "Patient", null, null, null)));
+            }
+            patientIds.addAll(provider.getPatientIds());
+
+            // Every shard has the resources in no patient compartment
+            assertEquals(Set.of("medication"), ids(retrieve(provider, null, "Medication", null, null, null)));
+        }
+
+        assertEquals(PATIENTS, patientIds.size());
+        assertEquals(
+                load(0, 1).getPatientIds().stream().sorted().collect(Collectors.toList()),
+                patientIds.stream().sorted().collect(Collectors.toList()));
+        assertThrows(IllegalArgumentException.class, () -> new NdjsonRetrieveProvider(MODEL_RESOLVER, 3, 3));
+    }
+
+    @Test
+    void reportsStatistics() throws IOException {
+        final var statistics = load(0, 1).getStatistics();
+        assertEquals(PATIENTS + (PATIENTS + PATIENTS / 2) + PATIENTS + 1, statistics.resourceCount());
+        assertEquals(PATIENTS, statistics.patientCount());
+        // Each code is indexed by system and code, and by code alone
+        assertEquals(4, statistics.codeCount());
+        assertTrue(statistics.mappedBytes() > 0);
+        assertTrue(statistics.indexBytesPerMillionResources() > 0);
+    }
+}
@@ -2,16 +2,30 @@ package org.opencds.cqf.cql.engine.fhir.retrieve;
 
 import static ca.uhn.fhir.util.UrlUtil.escapeUrlParam;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Condition;
 import org.hl7.fhir.r4.model.Patient;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -45,6 +59,11 @@ class TestRestFhirRetrieveProvider extends R4FhirTest {
         this.provider = new RestFhirRetrieveProvider(RESOLVER, modelResolver, CLIENT);
     }
 
+    // Results are fetched lazily, so they must be consumed for the queries to be executed
+    private static void consume(Iterable<Object> results) {
+        results.forEach(result -> {});
+    }
+
     private FhirModelResolver<?, ?, ?, ?, ?, ?, ?, ?> getModelResolver(FhirVersionEnum fhirVersionEnum) {
         if (fhirVersionEnum.equals(FhirVersionEnum.DSTU3)) {
             return new CachedDstu3FhirModelResolver();
@@ -89,7 +108,8 @@ class TestRestFhirRetrieveProvider extends R4FhirTest {
                 + escapeUrlParam("Patient/123") + "&_count=500");
 
         provider.setPageSize(500);
-        provider.retrieve("Patient", "subject", "123", "Condition", null, "code", codes, null, null, null, null, null);
+        consume(provider.retrieve(
+                "Patient", "subject", "123", "Condition", null, "code", codes, null, null, null, null, null));
     }
 
     @Test
@@ -101,7 +121,7 @@ class TestRestFhirRetrieveProvider extends R4FhirTest {
                 + escapeUrlParam("Patient/123") + "&_count=500");
 
         provider.setPageSize(500);
-        provider.retrieve(
+        consume(provider.retrieve(
                 "Patient",
                 "subject",
                 "123",
@@ -113,7 +133,7 @@ class TestRestFhirRetrieveProvider extends R4FhirTest {
                 null,
                 null,
                 null,
-                null);
+                null));
     }
 
     @Test
@@ -140,8 +160,8 @@ class TestRestFhirRetrieveProvider extends R4FhirTest {
                 makeBundle());
 
         provider.setPageSize(500);
-        provider.retrieve(
-                "Patient", "subject", "123", "Condition", null, "code", null, null, "onset", null, null, interval);
+        consume(provider.retrieve(
+                "Patient", "subject", "123", "Condition", null, "code", null, null, "onset", null, null, interval));
     }
 
     @Test
@@ -149,7 +169,7 @@ class TestRestFhirRetrieveProvider extends R4FhirTest {
         mockFhirRead("/Patient/123", new Patient());
 
         provider.setPageSize(500);
-        provider.retrieve(
+        consume(provider.retrieve(
                 "Patient",
                 "id",
                 "123",
@@ -161,7 +181,7 @@ class TestRestFhirRetrieveProvider extends R4FhirTest {
                 null,
                 null,
                 null,
-                null);
+                null));
     }
 
     @Test
@@ -172,6 +192,158 @@ class TestRestFhirRetrieveProvider extends R4FhirTest {
         mockFhirSearch("/Condition?code=" + escapeUrlParam(code.getSystem() + "|" + code.getCode()) + "&subject="
                 + escapeUrlParam("Patient/123"));
 
-        provider.retrieve("Patient", "subject", "123", "Condition", null, "code", codes, null, null, null, null, null);
+        consume(provider.retrieve(
+                "Patient", "subject", "123", "Condition", null, "code", codes, null, null, null, null, null));
+    }
+
+    @Test
+    void pagesAreFetchedAsResultsAreConsumed() {
+        Code code = new Code().withSystem("http://mysystem.com").withCode("myCode");
+        List<Code> codes = Collections.singletonList(code);
+        String search = "/Condition?code=" + escapeUrlParam(code.getSystem() + "|" + code.getCode()) + "&subject="
+                + escapeUrlParam("Patient/123");
+        String nextPage = String.format("http://localhost:%d/Condition?page=2", getHttpPort());
+        String lastPage = String.format("http://localhost:%d/Condition?page=3", getHttpPort());
+
+        Bundle first = makeBundle(new Condition().setId("1"));
+        first.addLink().setRelation(IBaseBundle.LINK_NEXT).setUrl(nextPage);
+        mockFhirInteraction(get(urlEqualTo(search)), first);
+        // An empty page between two pages with entries
+        Bundle empty = makeBundle();
+        empty.addLink().setRelation(IBaseBundle.LINK_NEXT).setUrl(lastPage);
+        mockFhirInteraction(get(urlEqualTo("/Condition?page=2")), empty);
+        mockFhirInteraction(get(urlEqualTo("/Condition?page=3")), makeBundle(new Condition().setId("2")));
+
+        Iterable<Object> results = provider.retrieve(
+                "Patient", "subject", "123", "Condition", null, "code", codes, null, null, null, null, null);
+        verify(0, getRequestedFor(urlEqualTo(search)));
+
+        Iterator<Object> iterator = results.iterator();
+        assertTrue(iterator.hasNext());
+        assertEquals("1", ((Condition) iterator.next()).getIdElement().getIdPart());
+        verify(1, getRequestedFor(urlEqualTo(search)));
+        verify(0, getRequestedFor(urlEqualTo("/Condition?page=2")));
+
+        assertTrue(iterator.hasNext());
+        assertEquals("2", ((Condition) iterator.next()).getIdElement().getIdPart());
+        assertFalse(iterator.hasNext());
+        verify(1, getRequestedFor(urlEqualTo("/Condition?page=3")));
+    }
+
+    private String codeSearch(Code code) {
+        return "/Condition?code=" + escapeUrlParam(code.getSystem() + "|" + code.getCode()) + "&subject="
+                + escapeUrlParam("Patient/123");
+    }
+
+    private static List<String> ids(Iterable<Object> results) {
+        List<String> ids = new ArrayList<>();
+        results.forEach(result -> ids.add(((Condition) result).getIdElement().getIdPart()));
+        return ids;
+    }
+
+    @Test
+    void chunkedQueriesAreExecutedConcurrentlyAndDeduplicated() {
+        Code first = new Code().withSystem("http://mysystem.com").withCode("first");
+        Code second = new Code().withSystem("http://mysystem.com").withCode("second");
+        Code third = new Code().withSystem("http://mysystem.com").withCode("third");
+
+        // Condition 2 has both the first and the second code
+        mockFhirSearch(codeSearch(first), new Condition().setId("1"), new Condition().setId("2"));
+        mockFhirSearch(codeSearch(second), new Condition().setId("2"), new Condition().setId("3"));
+        mockFhirSearch(codeSearch(third), new Condition().setId("4"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            provider.setMaxCodesPerQuery(1);
+            provider.setQueryExecutor(executor);
+            provider.setMaxConcurrentQueries(2);
+            Iterable<Object> results = provider.retrieve(
+                    "Patient",
+                    "subject",
+                    "123",
+                    "Condition",
+                    null,
+                    "code",
+                    List.of(first, second, third),
+                    null,
+                    null,
+                    null,
+                    null,
+                    null);
+            verify(0, getRequestedFor(urlMatching("/Condition.*")));
+
+            assertEquals(List.of("1", "2", "3", "4"), ids(results));
+            verify(1, getRequestedFor(urlEqualTo(codeSearch(first))));
+            verify(1, getRequestedFor(urlEqualTo(codeSearch(second))));
+            verify(1, getRequestedFor(urlEqualTo(codeSearch(third))));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void nextPagesArePrefetched() {
+        Code code = new Code().withSystem("http://mysystem.com").withCode("myCode");
+        String nextPage = String.format("http://localhost:%d/Condition?page=2", getHttpPort());
+
+        Bundle first = makeBundle(new Condition().setId("1"));
+        first.addLink().setRelation(IBaseBundle.LINK_NEXT).setUrl(nextPage);
+        mockFhirInteraction(get(urlEqualTo(codeSearch(code))), first);
+        mockFhirInteraction(get(urlEqualTo("/Condition?page=2")), makeBundle(new Condition().setId("2")));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            provider.setQueryExecutor(executor);
+            provider.setPrefetchPages(true);
+            Iterable<Object> results = provider.retrieve(
+                    "Patient",
+                    "subject",
+                    "123",
+                    "Condition",
+                    null,
+                    "code",
+                    List.of(code),
+                    null,
+                    null,
+                    null,
+                    null,
+                    null);
+
+            // The next page is fetched only once the current page is being consumed
+            Iterator<Object> iterator = results.iterator();
+            assertTrue(iterator.hasNext());
+            verify(0, getRequestedFor(urlEqualTo("/Condition?page=2")));
+
+            assertEquals("1", ((Condition) iterator.next()).getIdElement().getIdPart());
+            assertEquals("2", ((Condition) iterator.next()).getIdElement().getIdPart());
+            assertFalse(iterator.hasNext());
+            verify(1, getRequestedFor(urlEqualTo(codeSearch(code))));
+            verify(1, getRequestedFor(urlEqualTo("/Condition?page=2")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void queryGeneratorIsReusedAcrossRetrieves() {
+        Code code = new Code().withSystem("http://mysystem.com").withCode("myCode");
+        List<Code> codes = Collections.singletonList(code);
+
+        for (String patientId : List.of("123", "456")) {
+            mockFhirSearch("/Condition?code=" + escapeUrlParam(code.getSystem() + "|" + code.getCode()) + "&subject="
+                    + escapeUrlParam("Patient/" + patientId));
+            consume(provider.retrieve(
+                    "Patient", "subject", patientId, "Condition", null, "code", codes, null, null, null, null, null));
+        }
+
+        BaseFhirQueryGenerator generator = provider.getConfiguredQueryGenerator();
+        assertEquals(1, generator.getQueryTemplateMissCount());
+        assertEquals(1, generator.getQueryTemplateHitCount());
+
+        provider.setPageSize(500);
+        assertSame(generator, provider.getConfiguredQueryGenerator());
+
+        provider.setTerminologyProvider(provider.getTerminologyProvider());
+        assertNotSame(generator, provider.getConfiguredQueryGenerator());
     }
 }
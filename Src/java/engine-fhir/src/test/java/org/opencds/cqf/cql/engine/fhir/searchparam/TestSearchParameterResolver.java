@@ -3,6 +3,7 @@ package org.opencds.cqf.cql.engine.fhir.searchparam;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
@@ -162,4 +163,17 @@ class TestSearchParameterResolver {
 
         assertEquals("123", actual.getRight().getValueAsQueryToken(context));
     }
+
+    @Test
+    void definitionsAreCached() {
+        SearchParameterResolver resolver = new SearchParameterResolver(FhirContext.forCached(FhirVersionEnum.R4));
+
+        RuntimeSearchParam param = resolver.getSearchParameterDefinition("Condition", "code");
+        assertSame(param, resolver.getSearchParameterDefinition("Condition", "code"));
+        assertNull(resolver.getSearchParameterDefinition("Condition", "unknown"));
+        assertNull(resolver.getSearchParameterDefinition("Condition", "unknown"));
+
+        assertEquals(2, resolver.getMissCount());
+        assertEquals(2, resolver.getHitCount());
+    }
 }
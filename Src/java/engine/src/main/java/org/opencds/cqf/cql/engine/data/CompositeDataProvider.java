@@ -2,11 +2,13 @@ package org.opencds.cqf.cql.engine.data;
 
 import java.util.List;
 import org.opencds.cqf.cql.engine.model.ModelResolver;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveFilter;
 import org.opencds.cqf.cql.engine.retrieve.RetrieveProvider;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveRequest;
 import org.opencds.cqf.cql.engine.runtime.Code;
 import org.opencds.cqf.cql.engine.runtime.Interval;
 
-public class CompositeDataProvider implements DataProvider {
+public class CompositeDataProvider implements DataProvider, RetrieveFilter {
 
     protected ModelResolver modelResolver;
     protected RetrieveProvider retrieveProvider;
@@ -88,6 +90,11 @@ public class CompositeDataProvider implements DataProvider {
         return this.modelResolver.objectEquivalent(left, right);
     }
 
+    @Override
+    public Integer objectHashCode(Object value) {
+        return this.modelResolver.objectHashCode(value);
+    }
+
     @Override
     public String resolveId(Object target) {
         return this.modelResolver.resolveId(target);
@@ -121,4 +128,16 @@ public class CompositeDataProvider implements DataProvider {
                 dateHighPath,
                 dateRange);
     }
+
+    /**
+     * Filters the given resources with the retrieve provider if it is a {@link RetrieveFilter}.
+     *
+     * @return the selected resources, or null if the retrieve provider can't select them
+     */
+    @Override
+    public Iterable<Object> filter(Iterable<Object> resources, RetrieveRequest request) {
+        return this.retrieveProvider instanceof RetrieveFilter
+                ? ((RetrieveFilter) this.retrieveProvider).filter(resources, request)
+                : null;
+    }
 }
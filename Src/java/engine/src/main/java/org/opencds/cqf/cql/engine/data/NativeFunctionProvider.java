@@ -0,0 +1,29 @@
+package org.opencds.cqf.cql.engine.data;
+
+import java.util.List;
+import org.hl7.elm.r1.FunctionDef;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.opencds.cqf.cql.engine.execution.State;
+
+/**
+ * Provides native implementations of functions defined in CQL, such as the helper functions of a
+ * well-known library, so that the engine can evaluate them without interpreting their definitions.
+ * A native implementation must return the same results as the CQL definition it replaces.
+ */
+public interface NativeFunctionProvider {
+
+    /**
+     * Returns the native implementation of the given function definition, or null if the
+     * definition should be evaluated as CQL. Called once per function definition.
+     *
+     * @param libraryIdentifier the identifier of the library that defines the function
+     * @param functionDef the function definition
+     * @return the native implementation or null
+     */
+    NativeFunction resolve(VersionedIdentifier libraryIdentifier, FunctionDef functionDef);
+
+    @FunctionalInterface
+    interface NativeFunction {
+        Object evaluate(List<Object> arguments, State state);
+    }
+}
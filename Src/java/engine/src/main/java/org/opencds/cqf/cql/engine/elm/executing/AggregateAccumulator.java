@@ -0,0 +1,87 @@
+package org.opencds.cqf.cql.engine.elm.executing;
+
+import org.hl7.elm.r1.AggregateExpression;
+import org.hl7.elm.r1.Avg;
+import org.hl7.elm.r1.Count;
+import org.hl7.elm.r1.Max;
+import org.hl7.elm.r1.Median;
+import org.hl7.elm.r1.Min;
+import org.hl7.elm.r1.Mode;
+import org.hl7.elm.r1.PopulationStdDev;
+import org.hl7.elm.r1.PopulationVariance;
+import org.hl7.elm.r1.StdDev;
+import org.hl7.elm.r1.Sum;
+import org.hl7.elm.r1.Variance;
+import org.opencds.cqf.cql.engine.execution.State;
+
+/**
+ * Computes an aggregate operator over the elements of a source as they are added, without
+ * collecting them first where the operator allows it, so that several aggregates of the same
+ * source can be computed in one pass over it, see {@link #accumulate}.
+ * <p>
+ * An accumulator is fed every element of the source, including nulls, and yields the result of its
+ * operator for the elements added so far. Accumulators are not thread-safe.
+ */
+public abstract class AggregateAccumulator {
+
+    /**
+     * Adds the next element of the source.
+     *
+     * @param element the element, which may be null
+     */
+    public abstract void add(Object element);
+
+    /**
+     * @return the result of the operator for the elements added so far
+     */
+    public abstract Object getResult();
+
+    /**
+     * Adds the elements of the given source to each of the given accumulators, in one pass over the
+     * source.
+     *
+     * @param source the elements to aggregate
+     * @param accumulators the accumulators
+     */
+    public static void accumulate(Iterable<?> source, AggregateAccumulator... accumulators) {
+        for (Object element : source) {
+            for (AggregateAccumulator accumulator : accumulators) {
+                accumulator.add(element);
+            }
+        }
+    }
+
+    /**
+     * Creates the accumulator of the given aggregate operator.
+     *
+     * @param elm the aggregate operator
+     * @param state the state
+     * @return the accumulator, or null if the operator is not computed by an accumulator
+     */
+    public static AggregateAccumulator of(AggregateExpression elm, State state) {
+        if (elm instanceof Count) {
+            return new CountEvaluator.Accumulator();
+        } else if (elm instanceof Sum) {
+            return new SumEvaluator.Accumulator(state);
+        } else if (elm instanceof Min) {
+            return new MinEvaluator.Accumulator(state);
+        } else if (elm instanceof Max) {
+            return new MaxEvaluator.Accumulator(state);
+        } else if (elm instanceof Avg) {
+            return new AvgEvaluator.Accumulator(state);
+        } else if (elm instanceof Median) {
+            return new MedianEvaluator.Accumulator(state);
+        } else if (elm instanceof Mode) {
+            return new ModeEvaluator.Accumulator(state);
+        } else if (elm instanceof Variance) {
+            return new VarianceEvaluator.Accumulator(state, false);
+        } else if (elm instanceof PopulationVariance) {
+            return new VarianceEvaluator.Accumulator(state, true);
+        } else if (elm instanceof StdDev) {
+            return new StdDevEvaluator.Accumulator(new VarianceEvaluator.Accumulator(state, false));
+        } else if (elm instanceof PopulationStdDev) {
+            return new StdDevEvaluator.Accumulator(new VarianceEvaluator.Accumulator(state, true));
+        }
+        return null;
+    }
+}
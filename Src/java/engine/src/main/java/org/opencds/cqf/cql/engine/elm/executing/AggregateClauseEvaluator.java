@@ -1,12 +1,15 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
 import org.hl7.elm.r1.AggregateClause;
+import org.hl7.elm.r1.AggregateExpression;
+import org.hl7.elm.r1.Count;
 import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
 import org.opencds.cqf.cql.engine.execution.State;
-import org.opencds.cqf.cql.engine.execution.Variable;
 import org.opencds.cqf.cql.engine.runtime.Tuple;
 
 /*
@@ -46,23 +49,95 @@ public class AggregateClauseEvaluator {
             int pushes = 0;
 
             try {
-                state.push(new Variable(elm.getIdentifier()).withValue(aggregatedValue));
+                state.pushVariable(elm.getIdentifier(), aggregatedValue, elm);
                 pushes++;
 
                 for (var p : tuple.getElements().entrySet()) {
-                    state.push(new Variable(p.getKey()).withValue(p.getValue()));
+                    state.pushVariable(p.getKey(), p.getValue(), null);
                     pushes++;
                 }
 
                 aggregatedValue = visitor.visitExpression(elm.getExpression(), state);
             } finally {
-                while (pushes > 0) {
-                    state.pop();
-                    pushes--;
-                }
+                state.popVariables(pushes);
             }
         }
 
         return aggregatedValue;
     }
+
+    /**
+     * Folds the rows of a query into its aggregate clause as the query produces them. The aggregate
+     * expression is evaluated with the aliases and lets of the current row in scope, so neither a
+     * tuple per row nor the list of rows is built. The accumulator is pushed when the fold is
+     * created and popped with the variables of the query.
+     */
+    public static class Fold {
+        private final AggregateClause elm;
+        private final State state;
+        private final ElmLibraryVisitor<Object, State> visitor;
+        private final int slot;
+        private Object aggregatedValue;
+
+        public Fold(AggregateClause elm, State state, ElmLibraryVisitor<Object, State> visitor) {
+            this.elm = Objects.requireNonNull(elm, "elm can not be null");
+            this.state = Objects.requireNonNull(state, "state can not be null");
+            this.visitor = Objects.requireNonNull(visitor, "visitor can not be null");
+            if (elm.getStarting() != null) {
+                aggregatedValue = visitor.visitExpression(elm.getStarting(), state);
+            }
+            this.slot = state.pushVariable(elm.getIdentifier(), aggregatedValue, elm);
+        }
+
+        /**
+         * Folds the current row, whose aliases and lets are assigned, into the aggregated value.
+         */
+        public void add() {
+            aggregatedValue = visitor.visitExpression(elm.getExpression(), state);
+            state.setVariable(slot, aggregatedValue);
+        }
+
+        public Object getResult() {
+            return aggregatedValue;
+        }
+    }
+
+    /**
+     * Computes several aggregate operators over the same source in one pass over it, for example
+     * the count, the average and the standard deviation of a list of measurements, rather than
+     * iterating the source once per operator.
+     *
+     * @param operators the aggregate operators; their source expressions are not evaluated
+     * @param source the list to aggregate
+     * @param state the state
+     * @return the results of the operators, in order
+     */
+    public static List<Object> aggregate(List<? extends AggregateExpression> operators, Object source, State state) {
+        Objects.requireNonNull(operators, "operators can not be null");
+        Objects.requireNonNull(state, "state can not be null");
+
+        final var accumulators = new AggregateAccumulator[operators.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i] = AggregateAccumulator.of(operators.get(i), state);
+            if (accumulators[i] == null) {
+                throw new CqlException(String.format(
+                        "%s can not be computed in one pass", operators.get(i).getClass().getSimpleName()));
+            }
+        }
+
+        if (source != null && !(source instanceof Iterable)) {
+            throw new InvalidOperatorArgument(
+                    "Aggregate(List<T>)", String.format("Aggregate(%s)", source.getClass().getName()));
+        }
+        if (source != null) {
+            AggregateAccumulator.accumulate((Iterable<?>) source, accumulators);
+        }
+
+        final var results = new ArrayList<>(accumulators.length);
+        for (int i = 0; i < accumulators.length; i++) {
+            // The aggregate of a null list is null, except for Count, which is 0.
+            results.add(source != null ? accumulators[i].getResult() : operators.get(i) instanceof Count ? 0 : null);
+        }
+        return results;
+    }
 }
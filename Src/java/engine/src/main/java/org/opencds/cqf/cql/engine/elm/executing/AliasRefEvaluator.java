@@ -1,9 +1,14 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import org.hl7.elm.r1.AliasRef;
 import org.opencds.cqf.cql.engine.execution.State;
 
 public class AliasRefEvaluator {
     public static Object internalEvaluate(String name, State state) {
         return state.resolveAlias(name);
     }
+
+    public static Object internalEvaluate(AliasRef elm, State state) {
+        return state.resolveAlias(elm, elm.getName());
+    }
 }
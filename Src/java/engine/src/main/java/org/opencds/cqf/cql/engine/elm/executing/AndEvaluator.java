@@ -1,6 +1,9 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
+import org.hl7.elm.r1.And;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
+import org.opencds.cqf.cql.engine.execution.State;
 
 /*
 and (left Boolean, right Boolean) Boolean
@@ -17,6 +20,29 @@ define IsNull = true and null
 
 public class AndEvaluator {
 
+    /**
+     * The name of the {@link org.opencds.cqf.cql.engine.execution.Profile} counter of the And
+     * operands that were not evaluated because the other operand was false.
+     */
+    public static final String SKIPPED_OPERANDS_COUNTER = "And.skippedOperands";
+
+    /**
+     * Evaluates the operands of the given And expression, skipping the second operand if the first
+     * is false. The first operand is the cheaper one if the evaluation is cost-ordered, see
+     * {@link State#isReordered}.
+     */
+    public static Object internalEvaluate(And elm, State state, ElmLibraryVisitor<Object, State> visitor) {
+        final boolean reordered = state.isReordered(elm);
+        final Object first = visitor.visitExpression(elm.getOperand().get(reordered ? 1 : 0), state);
+        if (Boolean.FALSE.equals(first)) {
+            state.incrementProfileCounter(SKIPPED_OPERANDS_COUNTER, 1);
+            return false;
+        }
+
+        final Object second = visitor.visitExpression(elm.getOperand().get(reordered ? 0 : 1), state);
+        return reordered ? and(second, first) : and(first, second);
+    }
+
     public static Boolean and(Object left, Object right) {
         if (left == null && right == null) {
             return null;
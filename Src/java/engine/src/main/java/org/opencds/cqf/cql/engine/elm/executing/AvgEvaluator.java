@@ -24,33 +24,44 @@ public class AvgEvaluator {
         }
 
         if (source instanceof Iterable<?> elements) {
-            Object avg = null;
-            int size = 1;
-
-            for (Object element : elements) {
-                if (element == null) {
-                    continue;
-                }
-
-                if (element instanceof BigDecimal || element instanceof Quantity) {
-                    if (avg == null) {
-                        avg = element;
-                    } else {
-                        ++size;
-                        avg = AddEvaluator.add(avg, element, state);
-                    }
-                } else {
-                    throw new InvalidOperatorArgument(
-                            "Avg(List<Decimal>), Avg(List<Quantity>)",
-                            String.format("Avg(List<%s>)", source.getClass().getName()));
-                }
-            }
-
-            return DivideEvaluator.divide(avg, new BigDecimal(size), state);
+            final var accumulator = new Accumulator(state);
+            AggregateAccumulator.accumulate(elements, accumulator);
+            return accumulator.getResult();
         }
 
         throw new InvalidOperatorArgument(
                 "Avg(List<Decimal>), Avg(List<Quantity>)",
                 String.format("Avg(%s)", source.getClass().getName()));
     }
+
+    static class Accumulator extends AggregateAccumulator {
+        private final State state;
+        private Object sum;
+        private int size;
+
+        Accumulator(State state) {
+            this.state = state;
+        }
+
+        @Override
+        public void add(Object element) {
+            if (element == null) {
+                return;
+            }
+
+            if (element instanceof BigDecimal || element instanceof Quantity) {
+                ++size;
+                sum = sum == null ? element : AddEvaluator.add(sum, element, state);
+            } else {
+                throw new InvalidOperatorArgument(
+                        "Avg(List<Decimal>), Avg(List<Quantity>)",
+                        String.format("Avg(List<%s>)", element.getClass().getName()));
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return DivideEvaluator.divide(sum, new BigDecimal(Math.max(size, 1)), state);
+        }
+    }
 }
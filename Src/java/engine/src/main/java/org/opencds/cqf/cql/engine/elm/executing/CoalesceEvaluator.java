@@ -1,6 +1,10 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import java.util.Collections;
 import java.util.List;
+import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
+import org.hl7.elm.r1.Coalesce;
+import org.opencds.cqf.cql.engine.execution.State;
 
 /*
 Coalesce<T>(argument1 T, argument2 T) T
@@ -16,6 +20,34 @@ The static type of the first argument determines the type of the result, and all
 
 public class CoalesceEvaluator {
 
+    /**
+     * The name of the {@link org.opencds.cqf.cql.engine.execution.Profile} counter of the Coalesce
+     * operands that were not evaluated because a previous operand was not null.
+     */
+    public static final String SKIPPED_OPERANDS_COUNTER = "Coalesce.skippedOperands";
+
+    /**
+     * Evaluates the operands of the given Coalesce expression in order up to the first one that
+     * isn't null.
+     */
+    public static Object internalEvaluate(Coalesce elm, State state, ElmLibraryVisitor<Object, State> visitor) {
+        final var operands = elm.getOperand();
+        if (operands.size() == 1) {
+            return coalesce(Collections.singletonList(visitor.visitExpression(operands.get(0), state)));
+        }
+
+        for (int i = 0; i < operands.size(); i++) {
+            final Object operand = visitor.visitExpression(operands.get(i), state);
+            if (operand != null) {
+                if (i < operands.size() - 1) {
+                    state.incrementProfileCounter(SKIPPED_OPERANDS_COUNTER, operands.size() - 1 - i);
+                }
+                return operand;
+            }
+        }
+        return null;
+    }
+
     public static Object coalesce(List<Object> operands) {
         for (Object operand : operands) {
 
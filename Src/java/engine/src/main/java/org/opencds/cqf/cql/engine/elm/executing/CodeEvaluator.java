@@ -1,5 +1,6 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import org.hl7.elm.r1.CodeSystemDef;
 import org.hl7.elm.r1.CodeSystemRef;
 import org.opencds.cqf.cql.engine.execution.Libraries;
 import org.opencds.cqf.cql.engine.execution.State;
@@ -21,9 +22,14 @@ public class CodeEvaluator {
         org.opencds.cqf.cql.engine.runtime.Code code =
                 new org.opencds.cqf.cql.engine.runtime.Code().withCode(c).withDisplay(display);
         if (codeSystemRef != null) {
-            boolean enteredLibrary = state.enterLibrary(codeSystemRef.getLibraryName());
+            final var link = state.resolveLink(codeSystemRef);
+            boolean enteredLibrary = link != null
+                    ? state.enterLibrary(link.library())
+                    : state.enterLibrary(codeSystemRef.getLibraryName());
             try {
-                var codeSystemDef = Libraries.resolveCodeSystemRef(codeSystemRef.getName(), state.getCurrentLibrary());
+                var codeSystemDef = link != null
+                        ? (CodeSystemDef) link.definition()
+                        : Libraries.resolveCodeSystemRef(codeSystemRef.getName(), state.getCurrentLibrary());
                 code.setSystem(codeSystemDef.getId());
                 code.setVersion(codeSystemDef.getVersion());
             } finally {
@@ -18,10 +18,14 @@ public class CodeRefEvaluator {
     }
 
     public static Code toCode(CodeRef cr, State state) {
-        var enteredLibrary = state.enterLibrary(cr.getLibraryName());
+        final var link = state.resolveLink(cr);
+        var enteredLibrary =
+                link != null ? state.enterLibrary(link.library()) : state.enterLibrary(cr.getLibraryName());
         try {
 
-            CodeDef cd = Libraries.resolveCodeRef(cr.getName(), state.getCurrentLibrary());
+            CodeDef cd = link != null
+                    ? (CodeDef) link.definition()
+                    : Libraries.resolveCodeRef(cr.getName(), state.getCurrentLibrary());
             CodeSystem cs = CodeSystemRefEvaluator.toCodeSystem(cd.getCodeSystem(), state);
             return toCode(cd, cs);
         } finally {
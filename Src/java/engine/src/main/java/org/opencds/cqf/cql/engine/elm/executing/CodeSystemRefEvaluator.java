@@ -11,9 +11,13 @@ import org.opencds.cqf.cql.engine.runtime.CodeSystem;
 public class CodeSystemRefEvaluator {
 
     public static CodeSystem toCodeSystem(CodeSystemRef csr, State state) {
-        boolean enteredLibrary = state.enterLibrary(csr.getLibraryName());
+        final var link = state.resolveLink(csr);
+        boolean enteredLibrary =
+                link != null ? state.enterLibrary(link.library()) : state.enterLibrary(csr.getLibraryName());
         try {
-            CodeSystemDef csd = Libraries.resolveCodeSystemRef(csr.getName(), state.getCurrentLibrary());
+            CodeSystemDef csd = link != null
+                    ? (CodeSystemDef) link.definition()
+                    : Libraries.resolveCodeSystemRef(csr.getName(), state.getCurrentLibrary());
             return new CodeSystem()
                     .withId(csd.getId())
                     .withVersion(csd.getVersion())
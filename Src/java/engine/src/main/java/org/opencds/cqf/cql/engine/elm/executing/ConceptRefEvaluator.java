@@ -14,13 +14,20 @@ import org.opencds.cqf.cql.engine.runtime.Concept;
 public class ConceptRefEvaluator {
 
     public static Concept toConcept(ConceptRef cr, State state) {
-        boolean enteredLibrary = state.enterLibrary(cr.getLibraryName());
+        final var link = state.resolveLink(cr);
+        boolean enteredLibrary =
+                link != null ? state.enterLibrary(link.library()) : state.enterLibrary(cr.getLibraryName());
         try {
-            ConceptDef cd = Libraries.resolveConceptRef(cr.getName(), state.getCurrentLibrary());
+            ConceptDef cd = link != null
+                    ? (ConceptDef) link.definition()
+                    : Libraries.resolveConceptRef(cr.getName(), state.getCurrentLibrary());
 
             var codeList = new ArrayList<Code>();
             for (CodeRef r : cd.getCode()) {
-                CodeDef codeDef = Libraries.resolveCodeRef(r.getName(), state.getCurrentLibrary());
+                final var codeLink = state.resolveLink(r);
+                CodeDef codeDef = codeLink != null && codeLink.library() == null
+                        ? (CodeDef) codeLink.definition()
+                        : Libraries.resolveCodeRef(r.getName(), state.getCurrentLibrary());
                 CodeSystem cs = CodeSystemRefEvaluator.toCodeSystem(codeDef.getCodeSystem(), state);
                 Code c = CodeRefEvaluator.toCode(codeDef, cs);
                 codeList.add(c);
@@ -18,20 +18,29 @@ public class CountEvaluator {
             return 0;
         }
 
-        Integer size = 0;
         if (source instanceof Iterable<?> iterable) {
-            if (!iterable.iterator().hasNext()) { // empty list
-                return size;
-            }
-            for (var element : iterable) {
-                if (element != null) { // skip null
-                    ++size;
-                }
-            }
-            return size;
+            final var accumulator = new Accumulator();
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
         }
 
         throw new InvalidOperatorArgument(
                 "Count(List<T>)", String.format("Count(%s)", source.getClass().getName()));
     }
+
+    static class Accumulator extends AggregateAccumulator {
+        private int size;
+
+        @Override
+        public void add(Object element) {
+            if (element != null) { // skip null
+                ++size;
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return size;
+        }
+    }
 }
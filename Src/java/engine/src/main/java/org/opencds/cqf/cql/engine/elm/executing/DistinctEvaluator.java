@@ -2,7 +2,6 @@ package org.opencds.cqf.cql.engine.elm.executing;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 import org.opencds.cqf.cql.engine.execution.State;
 
 /*
@@ -21,19 +20,18 @@ public class DistinctEvaluator {
         }
 
         List<Object> result = new ArrayList<>();
+        distinct(source, new EqualityHashHelper.EqualitySet(state), result);
+        return result;
+    }
+
+    /**
+     * Appends the elements of source that are not yet contained in seen to result, in order.
+     */
+    static void distinct(Iterable<?> source, EqualityHashHelper.EqualitySet seen, List<Object> result) {
         for (Object element : source) {
-            if (element == null && result.parallelStream().noneMatch(Objects::isNull)) {
-                result.add(null);
-                continue;
+            if (seen.add(element)) {
+                result.add(element);
             }
-
-            Object in = InEvaluator.in(element, result, null, state);
-
-            if (in == null) continue;
-
-            if (!(Boolean) in) result.add(element);
         }
-
-        return result;
     }
 }
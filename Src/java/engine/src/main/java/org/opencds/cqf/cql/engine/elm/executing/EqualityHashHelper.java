@@ -0,0 +1,324 @@
+package org.opencds.cqf.cql.engine.elm.executing;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.fhir.ucum.UcumException;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.State;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Concept;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.runtime.Precision;
+import org.opencds.cqf.cql.engine.runtime.Quantity;
+import org.opencds.cqf.cql.engine.runtime.Ratio;
+import org.opencds.cqf.cql.engine.runtime.Time;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
+
+/**
+ * Computes hash codes that are consistent with CQL equality semantics so that list operators
+ * (Distinct, Union, Intersect, Except) can avoid comparing every pair of elements.
+ * <p>
+ * The contract is: whenever {@link EqualEvaluator#equal(Object, Object, State)} returns {@code true}
+ * for two values whose hashes are both non-null, the hashes are identical. A {@code null} hash means
+ * that no such hash can be computed for the value (partial-precision temporals, uncertain intervals,
+ * values of unknown model types, HEDIS compatibility mode which uses equivalence instead of equality),
+ * and callers have to fall back to pairwise comparison for it.
+ */
+public class EqualityHashHelper {
+
+    private static final int MAXIMUM_CANONICAL_UNITS = 1000;
+
+    // The canonical units of the most recently hashed units; units can come from data, so they are bounded.
+    private static final Map<String, Optional<String>> canonicalUnits = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Optional<String>> eldestEntry) {
+            return size() > MAXIMUM_CANONICAL_UNITS;
+        }
+    };
+
+    private EqualityHashHelper() {}
+
+    public static Integer hash(Object value, State state) {
+        if (value == null) {
+            return 0;
+        }
+
+        if (value instanceof Boolean
+                || value instanceof Integer
+                || value instanceof Long
+                || value instanceof String) {
+            return value.hashCode();
+        } else if (value instanceof BigDecimal decimal) {
+            // Equal uses compareTo, so 1.0 and 1.00 must hash alike.
+            return decimal.stripTrailingZeros().hashCode();
+        } else if (value instanceof Iterable<?> iterable) {
+            return hashIterable(iterable, state);
+        } else if (value instanceof Code code) {
+            return Objects.hash(code.getCode(), code.getSystem(), code.getVersion(), code.getDisplay());
+        } else if (value instanceof Concept concept) {
+            var codesHash = hashIterable(concept.getCodes(), state);
+            return codesHash == null ? null : 31 * codesHash + Objects.hashCode(concept.getDisplay());
+        } else if (value instanceof DateTime dateTime) {
+            return hashDateTime(dateTime);
+        } else if (value instanceof Date || value instanceof Time) {
+            // Date and Time values are only equal at the same precision, comparing the same local fields.
+            return Objects.hash(value.getClass(), value.toString());
+        } else if (value instanceof Quantity quantity) {
+            return hashQuantity(quantity, state);
+        } else if (value instanceof Ratio ratio) {
+            var numerator = hashQuantity(ratio.getNumerator(), state);
+            var denominator = hashQuantity(ratio.getDenominator(), state);
+            return numerator == null || denominator == null ? null : 31 * numerator + denominator;
+        } else if (value instanceof Interval interval) {
+            return hashInterval(interval, state);
+        } else if (value instanceof Tuple tuple) {
+            return hashTuple(tuple, state);
+        }
+
+        if (state != null && !(value instanceof org.opencds.cqf.cql.engine.runtime.CqlType)) {
+            return state.getEnvironment().objectHashCode(value);
+        }
+
+        return null;
+    }
+
+    private static Integer hashIterable(Iterable<?> iterable, State state) {
+        int result = 1;
+        for (Object element : iterable) {
+            var elementHash = hash(element, state);
+            if (elementHash == null) {
+                return null;
+            }
+            result = 31 * result + elementHash;
+        }
+
+        return result;
+    }
+
+    private static Integer hashDateTime(DateTime dateTime) {
+        // Equal only yields true for DateTimes of the same precision. Millisecond values are compared as
+        // instants and date-only values by their local fields; for hour to second precision the comparison
+        // depends on the offset of the left operand, so no consistent hash exists.
+        if (dateTime.getPrecision() == Precision.MILLISECOND) {
+            return dateTime.getDateTime().toInstant().hashCode();
+        } else if (dateTime.getPrecision().toDateTimeIndex() <= Precision.DAY.toDateTimeIndex()) {
+            return Objects.hash(DateTime.class, dateTime.toString());
+        }
+
+        return null;
+    }
+
+    private static Integer hashInterval(Interval interval, State state) {
+        if (interval.isUncertain()) {
+            return null;
+        }
+
+        var start = interval.getStart();
+        if (start instanceof Integer) {
+            // Equal(Interval, Integer) compares the integer against both boundaries, so integer intervals
+            // must hash like their start point.
+            return start.hashCode();
+        }
+
+        var startHash = hash(start, state);
+        var endHash = hash(interval.getEnd(), state);
+        return startHash == null || endHash == null ? null : 31 * startHash + endHash;
+    }
+
+    private static Integer hashTuple(Tuple tuple, State state) {
+        // Tuple equality does not depend on element order.
+        int result = 0;
+        for (var entry : tuple.getElements().entrySet()) {
+            var valueHash = hash(entry.getValue(), state);
+            if (valueHash == null) {
+                return null;
+            }
+            result += entry.getKey().hashCode() ^ valueHash;
+        }
+
+        return result;
+    }
+
+    private static Integer hashQuantity(Quantity quantity, State state) {
+        if (quantity == null || quantity.getValue() == null) {
+            return 0;
+        }
+
+        if (state == null) {
+            return null;
+        }
+
+        // Quantities with different but convertible units can be equal, so only the dimension of the unit
+        // contributes to the hash. Quantities sharing a dimension are compared pairwise.
+        var unit = calendarUnitToUcum(quantity.getUnit());
+        Optional<String> canonical;
+        synchronized (canonicalUnits) {
+            canonical = canonicalUnits.get(unit);
+        }
+        if (canonical == null) {
+            // Resolve outside the lock, so that hashes of other units aren't blocked
+            canonical = canonicalUnit(unit, state);
+            synchronized (canonicalUnits) {
+                canonicalUnits.put(unit, canonical);
+            }
+        }
+
+        return canonical.orElse(unit).hashCode();
+    }
+
+    private static Optional<String> canonicalUnit(String unit, State state) {
+        try {
+            return Optional.ofNullable(
+                    state.getEnvironment().getLibraryManager().getUcumService().getCanonicalUnits(unit));
+        } catch (UcumException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static String calendarUnitToUcum(String unit) {
+        if (Quantity.isDefaultUnit(unit)) {
+            return "1";
+        }
+
+        switch (unit) {
+            case "year":
+            case "years":
+                return "a";
+            case "month":
+            case "months":
+                return "mo";
+            case "week":
+            case "weeks":
+                return "wk";
+            case "day":
+            case "days":
+                return "d";
+            case "hour":
+            case "hours":
+                return "h";
+            case "minute":
+            case "minutes":
+                return "min";
+            case "second":
+            case "seconds":
+                return "s";
+            case "millisecond":
+            case "milliseconds":
+                return "ms";
+            default:
+                return unit;
+        }
+    }
+
+    /**
+     * A set of CQL values using equality semantics, mirroring {@link InEvaluator} for lists. Values with a
+     * hash are bucketed, values without one are compared against every member.
+     */
+    public static class EqualitySet {
+        private final State state;
+        private final boolean useEquivalence;
+        private final Map<Integer, List<Object>> buckets = new HashMap<>();
+        private final List<Object> unhashed = new ArrayList<>();
+        private boolean containsNull = false;
+
+        public EqualitySet(State state) {
+            this.state = state;
+            this.useEquivalence = state != null
+                    && state.getEngineOptions().contains(CqlEngine.Options.EnableHedisCompatibilityMode);
+        }
+
+        /**
+         * Builds a membership index over the given values. Unlike {@link #add}, duplicates are retained
+         * so that {@link #contains} answers exactly like a pairwise scan of the values would.
+         */
+        public static EqualitySet of(Iterable<?> values, State state) {
+            var result = new EqualitySet(state);
+            for (Object value : values) {
+                result.insert(value, result.hashOf(value));
+            }
+            return result;
+        }
+
+        public boolean contains(Object value) {
+            return contains(value, hashOf(value));
+        }
+
+        /**
+         * Adds the value unless an equal value is already present.
+         *
+         * @return true if the value was added
+         */
+        public boolean add(Object value) {
+            var valueHash = hashOf(value);
+            if (contains(value, valueHash)) {
+                return false;
+            }
+
+            insert(value, valueHash);
+            return true;
+        }
+
+        private void insert(Object value, Integer valueHash) {
+            if (value == null) {
+                containsNull = true;
+            } else if (valueHash != null) {
+                buckets.computeIfAbsent(valueHash, k -> new ArrayList<>(1)).add(value);
+            } else {
+                unhashed.add(value);
+            }
+        }
+
+        private Integer hashOf(Object value) {
+            return value == null || useEquivalence ? null : hash(value, state);
+        }
+
+        private boolean contains(Object value, Integer valueHash) {
+            if (value == null) {
+                return containsNull;
+            }
+
+            if (valueHash != null) {
+                return anyMatch(value, buckets.get(valueHash)) || anyMatch(value, unhashed);
+            }
+
+            for (var bucket : buckets.values()) {
+                if (anyMatch(value, bucket)) {
+                    return true;
+                }
+            }
+
+            return anyMatch(value, unhashed);
+        }
+
+        private boolean anyMatch(Object value, List<Object> candidates) {
+            if (candidates == null) {
+                return false;
+            }
+
+            for (Object candidate : candidates) {
+                if (value == candidate) {
+                    return true;
+                }
+            }
+
+            for (Object candidate : candidates) {
+                var isMatch = useEquivalence
+                        ? EquivalentEvaluator.equivalent(value, candidate, state)
+                        : EqualEvaluator.equal(value, candidate, state);
+                if (Boolean.TRUE.equals(isMatch)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -113,15 +113,17 @@ public class ExceptEvaluator {
             Iterable<?> rightArr = (Iterable<?>) right;
 
             List<Object> result = new ArrayList<>();
-            Boolean in;
+            final var rightItems = rightArr == null
+                    ? new EqualityHashHelper.EqualitySet(state)
+                    : EqualityHashHelper.EqualitySet.of(rightArr, state);
+            final var seen = new EqualityHashHelper.EqualitySet(state);
             for (Object leftItem : leftArr) {
-                in = InEvaluator.in(leftItem, rightArr, null, state);
-                if (in != null && !in) {
+                if (!rightItems.contains(leftItem) && seen.add(leftItem)) {
                     result.add(leftItem);
                 }
             }
 
-            return DistinctEvaluator.distinct(result, state);
+            return result;
         }
 
         throw new InvalidOperatorArgument(
@@ -1,7 +1,5 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
-import org.opencds.cqf.cql.engine.runtime.CqlList;
-
 /*
 exists(argument List<T>) Boolean
 
@@ -19,6 +17,14 @@ public class ExistsEvaluator {
             return false;
         }
 
-        return !CqlList.toList(value, false).isEmpty();
+        // Stop at the first non-null element rather than consuming the whole list, which may be
+        // fetched lazily.
+        for (Object element : value) {
+            if (element != null) {
+                return true;
+            }
+        }
+
+        return false;
     }
 }
@@ -4,11 +4,21 @@ import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
 import org.hl7.elm.r1.ExpressionDef;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.opencds.cqf.cql.engine.execution.ExpressionResult;
+import org.opencds.cqf.cql.engine.execution.SharedExpressionCache;
 import org.opencds.cqf.cql.engine.execution.State;
+import org.opencds.cqf.cql.engine.runtime.iterators.MemoizingIterable;
 
 public class ExpressionDefEvaluator {
     public static Object internalEvaluate(
             ExpressionDef expressionDef, State state, ElmLibraryVisitor<Object, State> visitor) {
+        final var sharedCache = state.getEnvironment().getSharedExpressionCache();
+        if (sharedCache != null) {
+            final var key = sharedCache.createKey(expressionDef, state);
+            if (key != null) {
+                return evaluateWithSharedCache(expressionDef, state, visitor, sharedCache, key);
+            }
+        }
+
         final var cache = state.getCache();
         if (cache.isExpressionCachingEnabled()) {
             VersionedIdentifier libraryId = state.getCurrentLibrary().getIdentifier();
@@ -37,6 +47,36 @@ public class ExpressionDefEvaluator {
         }
     }
 
+    private static Object evaluateWithSharedCache(
+            final ExpressionDef expressionDef,
+            final State state,
+            final ElmLibraryVisitor<Object, State> visitor,
+            final SharedExpressionCache sharedCache,
+            final SharedExpressionCache.Key key) {
+        final var cached = sharedCache.get(key);
+        if (cached != null) {
+            state.incrementProfileCounter(SharedExpressionCache.HIT_COUNTER, 1);
+            final var frame = state.getTopActivationFrame();
+            assert frame.element == expressionDef;
+            frame.isCached = true;
+
+            state.getEvaluatedResources().addAll(cached.evaluatedResources());
+            return cached.value();
+        }
+
+        state.incrementProfileCounter(SharedExpressionCache.MISS_COUNTER, 1);
+        state.pushEvaluatedResourceStack();
+        try {
+            // Shared results are served to other engines, so lazily fetched results are consumed here,
+            // where their resources are recorded as evaluated by this engine.
+            final var value = MemoizingIterable.materialize(evaluateWithoutCache(expressionDef, state, visitor));
+            sharedCache.put(key, new ExpressionResult(value, state.getEvaluatedResources()));
+            return value;
+        } finally {
+            state.popEvaluatedResourceStack();
+        }
+    }
+
     private static Object evaluateWithoutCache(
             final ExpressionDef expressionDef, final State state, final ElmLibraryVisitor<Object, State> visitor) {
         boolean isEnteredContext = false;
@@ -1,6 +1,7 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
 import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
+import org.hl7.elm.r1.ExpressionDef;
 import org.hl7.elm.r1.ExpressionRef;
 import org.opencds.cqf.cql.engine.execution.Libraries;
 import org.opencds.cqf.cql.engine.execution.State;
@@ -8,9 +9,14 @@ import org.opencds.cqf.cql.engine.execution.State;
 public class ExpressionRefEvaluator {
     public static Object internalEvaluate(
             ExpressionRef expressionRef, State state, ElmLibraryVisitor<Object, State> visitor) {
-        boolean enteredLibrary = state.enterLibrary(expressionRef.getLibraryName());
+        final var link = state.resolveLink(expressionRef);
+        boolean enteredLibrary = link != null
+                ? state.enterLibrary(link.library())
+                : state.enterLibrary(expressionRef.getLibraryName());
         try {
-            var def = Libraries.resolveExpressionRef(expressionRef.getName(), state.getCurrentLibrary());
+            var def = link != null
+                    ? (ExpressionDef) link.definition()
+                    : Libraries.resolveExpressionRef(expressionRef.getName(), state.getCurrentLibrary());
             state.pushActivationFrame(def, def.getContext());
             try {
                 return visitor.visitExpressionDef(def, state);
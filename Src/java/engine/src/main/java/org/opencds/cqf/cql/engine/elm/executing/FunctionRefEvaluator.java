@@ -8,9 +8,9 @@ import org.cqframework.cql.elm.evaluating.SimpleElmEvaluator;
 import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
 import org.hl7.elm.r1.*;
 import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
 import org.opencds.cqf.cql.engine.execution.Libraries;
 import org.opencds.cqf.cql.engine.execution.State;
-import org.opencds.cqf.cql.engine.execution.Variable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,9 +25,22 @@ public class FunctionRefEvaluator {
             arguments.add(visitor.visitExpression(operand, state));
         }
 
-        boolean enteredLibrary = state.enterLibrary(functionRef.getLibraryName());
+        final var link = state.resolveLink(functionRef);
+        boolean enteredLibrary = link != null
+                ? state.enterLibrary(link.library())
+                : state.enterLibrary(functionRef.getLibraryName());
         try {
-            FunctionDef functionDef = resolveOrCacheFunctionDef(state, functionRef, arguments);
+            FunctionDef functionDef = link != null
+                    ? (FunctionDef) link.definition()
+                    : resolveOrCacheFunctionDef(state, functionRef, arguments);
+
+            if (!state.getEngineOptions().contains(CqlEngine.Options.DisableNativeFunctions)) {
+                final var nativeFunction = state.getEnvironment()
+                        .resolveNativeFunction(state.getCurrentLibrary().getIdentifier(), functionDef);
+                if (nativeFunction != null) {
+                    return nativeFunction.evaluate(arguments, state);
+                }
+            }
 
             if (Boolean.TRUE.equals(functionDef.isExternal())) {
                 return state.getEnvironment()
@@ -39,7 +52,8 @@ public class FunctionRefEvaluator {
                 state.pushActivationFrame(functionDef, functionDef.getContext());
                 try {
                     for (int i = 0; i < arguments.size(); i++) {
-                        state.push(new Variable(functionDef.getOperand().get(i).getName()).withValue(arguments.get(i)));
+                        final var operandDef = functionDef.getOperand().get(i);
+                        state.pushVariable(operandDef.getName(), arguments.get(i), operandDef);
                     }
                     return visitor.visitExpression(functionDef.getExpression(), state);
                 } finally {
@@ -102,7 +116,7 @@ public class FunctionRefEvaluator {
                 .collect(Collectors.toList());
     }
 
-    static boolean functionDefOperandsSignatureEqual(FunctionDef functionDef, List<TypeSpecifier> signature) {
+    public static boolean functionDefOperandsSignatureEqual(FunctionDef functionDef, List<TypeSpecifier> signature) {
         var operands = functionDef.getOperand();
 
         // Check if the number of operands match and if the type specifiers match
@@ -1,5 +1,9 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
+import org.hl7.elm.r1.Implies;
+import org.opencds.cqf.cql.engine.execution.State;
+
 /*
 
 implies (left Boolean, right Boolean) Boolean
@@ -20,6 +24,39 @@ NULL	| TRUE	NULL	NULL
 
 public class ImpliesEvaluator {
 
+    /**
+     * The name of the {@link org.opencds.cqf.cql.engine.execution.Profile} counter of the Implies
+     * operands that were not evaluated because the left operand was false or the right operand was
+     * true.
+     */
+    public static final String SKIPPED_OPERANDS_COUNTER = "Implies.skippedOperands";
+
+    /**
+     * Evaluates the operands of the given Implies expression, skipping the right operand if the
+     * left is false. If the evaluation is cost-ordered and the right operand is the cheaper one
+     * (see {@link State#isReordered}), the right operand is evaluated first and the left operand
+     * is skipped if the right is true.
+     */
+    public static Object internalEvaluate(Implies elm, State state, ElmLibraryVisitor<Object, State> visitor) {
+        if (state.isReordered(elm)) {
+            final Boolean right = (Boolean) visitor.visitExpression(elm.getOperand().get(1), state);
+            if (Boolean.TRUE.equals(right)) {
+                state.incrementProfileCounter(SKIPPED_OPERANDS_COUNTER, 1);
+                return true;
+            }
+
+            return implies((Boolean) visitor.visitExpression(elm.getOperand().get(0), state), right);
+        }
+
+        final Boolean left = (Boolean) visitor.visitExpression(elm.getOperand().get(0), state);
+        if (Boolean.FALSE.equals(left)) {
+            state.incrementProfileCounter(SKIPPED_OPERANDS_COUNTER, 1);
+            return true;
+        }
+
+        return implies(left, (Boolean) visitor.visitExpression(elm.getOperand().get(1), state));
+    }
+
     public static Object implies(Boolean left, Boolean right) {
         if (left == null) {
             return right == null || !right ? null : true;
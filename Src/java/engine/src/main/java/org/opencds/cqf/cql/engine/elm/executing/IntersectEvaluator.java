@@ -82,15 +82,15 @@ public class IntersectEvaluator {
             return new Interval(max, max != null, min, min != null, state);
         } else if (left instanceof Iterable<?> leftIterable && right instanceof Iterable<?> rightIterable) {
             final var result = new ArrayList<>();
-            Boolean in;
+            final var rightItems = EqualityHashHelper.EqualitySet.of(rightIterable, state);
+            final var seen = new EqualityHashHelper.EqualitySet(state);
             for (Object leftItem : leftIterable) {
-                in = InEvaluator.in(leftItem, rightIterable, null, state);
-                if (in != null && in) {
+                if (rightItems.contains(leftItem) && seen.add(leftItem)) {
                     result.add(leftItem);
                 }
             }
 
-            return DistinctEvaluator.distinct(result, state);
+            return result;
         }
 
         throw new InvalidOperatorArgument(
@@ -1,5 +1,8 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import java.util.regex.Pattern;
+import org.opencds.cqf.cql.engine.execution.PatternCache;
+
 public class MatchesEvaluator {
 
     public static Object matches(String argument, String pattern) {
@@ -9,4 +12,20 @@ public class MatchesEvaluator {
 
         return argument.matches(pattern);
     }
+
+    public static Object matches(String argument, String pattern, PatternCache patternCache) {
+        if (argument == null || pattern == null) {
+            return null;
+        }
+
+        return matches(argument, patternCache.get(pattern));
+    }
+
+    public static Object matches(String argument, Pattern pattern) {
+        if (argument == null || pattern == null) {
+            return null;
+        }
+
+        return pattern.matcher(argument).matches();
+    }
 }
@@ -29,33 +29,42 @@ public class MaxEvaluator {
         }
 
         if (source instanceof Iterable<?> iterable) {
-            final var itr = iterable.iterator();
-            if (!itr.hasNext()) { // empty list
-                return null;
-            }
+            final var accumulator = new Accumulator(state);
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
+        }
 
-            Object max = itr.next();
-            while (max == null && itr.hasNext()) {
-                max = itr.next();
-            }
+        throw new InvalidOperatorArgument(
+                "Max(List<Integer>), Max(List<Long>, Max(List<Decimal>, Max(List<Quantity>), Max(List<Date>), Max(List<DateTime>), Max(List<Time>) or Max(List<String>))",
+                String.format("Max(%s)", source.getClass().getName()));
+    }
 
-            while (itr.hasNext()) {
-                Object value = itr.next();
+    static class Accumulator extends AggregateAccumulator {
+        private final State state;
+        private Object max;
 
-                if (value == null) { // skip null
-                    continue;
-                }
+        Accumulator(State state) {
+            this.state = state;
+        }
 
-                Boolean greater = GreaterEvaluator.greater(value, max, state);
-                if (greater != null && greater) {
-                    max = value;
-                }
+        @Override
+        public void add(Object element) {
+            if (element == null) { // skip null
+                return;
+            }
+            if (max == null) {
+                max = element;
+                return;
+            }
+            Boolean greater = GreaterEvaluator.greater(element, max, state);
+            if (greater != null && greater) {
+                max = element;
             }
-            return max;
         }
 
-        throw new InvalidOperatorArgument(
-                "Max(List<Integer>), Max(List<Long>, Max(List<Decimal>, Max(List<Quantity>), Max(List<Date>), Max(List<DateTime>), Max(List<Time>) or Max(List<String>))",
-                String.format("Max(%s)", source.getClass().getName()));
+        @Override
+        public Object getResult() {
+            return max;
+        }
     }
 }
@@ -2,6 +2,7 @@ package org.opencds.cqf.cql.engine.elm.executing;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Comparator;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
 import org.opencds.cqf.cql.engine.execution.State;
 import org.opencds.cqf.cql.engine.runtime.CqlList;
@@ -24,41 +25,102 @@ public class MedianEvaluator {
         }
 
         if (source instanceof Iterable<?> iterable) {
-            if (!iterable.iterator().hasNext()) { // empty
+            final var accumulator = new Accumulator(state);
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
+        }
+
+        throw new InvalidOperatorArgument(
+                "Median(List<Decimal>) or Median(List<Quantity>)",
+                String.format("Median(%s)", source.getClass().getName()));
+    }
+
+    /**
+     * Collects the non-null elements and selects the middle ones with quickselect, in linear
+     * expected time, rather than sorting them.
+     */
+    static class Accumulator extends AggregateAccumulator {
+        private final State state;
+        private final ArrayList<Object> values = new ArrayList<>();
+
+        Accumulator(State state) {
+            this.state = state;
+        }
+
+        @Override
+        public void add(Object element) {
+            if (element != null) {
+                values.add(element);
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            if (values.isEmpty()) { // empty or all null
                 return null;
             }
 
-            ArrayList<Object> values = new ArrayList<>();
-            for (var element : iterable) {
-                if (element != null) {
-                    values.add(element);
+            final Comparator<Object> comparator = new CqlList(state).valueSort;
+            final var elements = values.toArray();
+            final int middle = elements.length / 2;
+            select(elements, middle, comparator);
+            if (elements.length % 2 != 0) {
+                return elements[middle];
+            }
+
+            // The elements before the middle one are not greater than it, so the greatest of them
+            // is the other middle element.
+            Object lower = elements[0];
+            for (int i = 1; i < middle; i++) {
+                if (comparator.compare(elements[i], lower) > 0) {
+                    lower = elements[i];
                 }
             }
-            if (values.isEmpty()) { // all null
-                return null;
+
+            if (elements[0] instanceof Integer) { // size of list is even
+                return TruncatedDivideEvaluator.div(AddEvaluator.add(elements[middle], lower, state), 2, state);
+            } else if (elements[0] instanceof BigDecimal || elements[0] instanceof Quantity) {
+                return DivideEvaluator.divide(
+                        AddEvaluator.add(elements[middle], lower, state), new BigDecimal("2.0"), state);
             }
 
-            values.sort(new CqlList(state).valueSort);
-
-            if (values.size() % 2 != 0) {
-                return values.get(values.size() / 2);
-            } else {
-                if (values.get(0) instanceof Integer) { // size of list is even
-                    return TruncatedDivideEvaluator.div(
-                            AddEvaluator.add(values.get(values.size() / 2), values.get((values.size() / 2) - 1), state),
-                            2,
-                            state);
-                } else if (values.get(0) instanceof BigDecimal || values.get(0) instanceof Quantity) {
-                    return DivideEvaluator.divide(
-                            AddEvaluator.add(values.get(values.size() / 2), values.get((values.size() / 2) - 1), state),
-                            new BigDecimal("2.0"),
-                            state);
+            throw new InvalidOperatorArgument(
+                    "Median(List<Decimal>) or Median(List<Quantity>)",
+                    String.format("Median(List<%s>)", elements[0].getClass().getName()));
+        }
+
+        /**
+         * Rearranges the elements so that the element at index k is the one that would be there if
+         * they were sorted, with no greater elements before it and no lesser elements after it.
+         */
+        private static void select(Object[] elements, int k, Comparator<Object> comparator) {
+            int from = 0;
+            int to = elements.length - 1;
+            while (from < to) {
+                final var pivot = elements[(from + to) >>> 1];
+                int i = from;
+                int j = to;
+                while (i <= j) {
+                    while (comparator.compare(elements[i], pivot) < 0) {
+                        i++;
+                    }
+                    while (comparator.compare(elements[j], pivot) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        final var swapped = elements[i];
+                        elements[i++] = elements[j];
+                        elements[j--] = swapped;
+                    }
+                }
+                if (k <= j) {
+                    to = j;
+                } else if (k >= i) {
+                    from = i;
+                } else {
+                    return;
                 }
             }
         }
-
-        throw new InvalidOperatorArgument(
-                "Median(List<Decimal>) or Median(List<Quantity>)",
-                String.format("Median(%s)", source.getClass().getName()));
     }
 }
@@ -29,25 +29,42 @@ public class MinEvaluator {
         }
 
         if (source instanceof Iterable<?> iterable) {
-            Object min = null;
-            for (var element : iterable) {
-                if (element == null) {
-                    continue;
-                }
-                if (min == null) {
-                    min = element;
-                    continue;
-                }
-                final var isLess = LessEvaluator.less(element, min, state);
-                if (isLess != null && isLess) {
-                    min = element;
-                }
-            }
-            return min;
+            final var accumulator = new Accumulator(state);
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
         }
 
         throw new InvalidOperatorArgument(
                 "Min(List<Integer>), Min(List<Long>), Min(List<Decimal>), Min(List<Quantity>), Min(List<Date>), Min(List<DateTime>), Min(List<Time>) or Min(List<String>)",
                 String.format("Min(%s)", source.getClass().getName()));
     }
+
+    static class Accumulator extends AggregateAccumulator {
+        private final State state;
+        private Object min;
+
+        Accumulator(State state) {
+            this.state = state;
+        }
+
+        @Override
+        public void add(Object element) {
+            if (element == null) {
+                return;
+            }
+            if (min == null) {
+                min = element;
+                return;
+            }
+            final var isLess = LessEvaluator.less(element, min, state);
+            if (isLess != null && isLess) {
+                min = element;
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return min;
+        }
+    }
 }
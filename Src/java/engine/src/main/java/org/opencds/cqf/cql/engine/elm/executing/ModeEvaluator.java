@@ -1,6 +1,10 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
 import org.opencds.cqf.cql.engine.execution.State;
 import org.opencds.cqf.cql.engine.runtime.CqlList;
@@ -21,37 +25,108 @@ public class ModeEvaluator {
         }
 
         if (source instanceof Iterable<?> iterable) {
-            final var values = new ArrayList<>();
-            for (var element : iterable) {
-                if (element != null) {
-                    values.add(element);
-                }
+            final var accumulator = new Accumulator(state);
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
+        }
+        throw new InvalidOperatorArgument(
+                "Mode(List<T>)", String.format("Mode(%s)", source.getClass().getName()));
+    }
+
+    /**
+     * Counts the elements by a hash key for the types Equal compares by value, and sorts the
+     * elements of other types so that equal elements are adjacent. Of several most frequent
+     * elements, the least one is the mode.
+     */
+    static class Accumulator extends AggregateAccumulator {
+        private final State state;
+        private final Map<Object, Occurrences> occurrences = new HashMap<>();
+        private List<Object> unhashed;
+
+        Accumulator(State state) {
+            this.state = state;
+        }
+
+        @Override
+        public void add(Object element) {
+            if (element == null) {
+                return;
             }
-            if (values.isEmpty()) { // all null (or empty List)
-                return null;
+
+            final var key = unhashed == null ? hashKey(element) : null;
+            if (key != null) {
+                occurrences.computeIfAbsent(key, k -> new Occurrences(element)).count++;
+                return;
             }
 
-            values.sort(new CqlList(state).valueSort);
+            if (unhashed == null) {
+                unhashed = new ArrayList<>();
+                for (var counted : occurrences.values()) {
+                    for (int i = 0; i < counted.count; i++) {
+                        unhashed.add(counted.element);
+                    }
+                }
+                occurrences.clear();
+            }
+            unhashed.add(element);
+        }
 
-            // TODO(jmoringe): optimize; since values are sorted, a linear scan is enough
-            int max = 0;
-            Object mode = new Object();
-            for (int i = 0; i < values.size(); ++i) {
-                int count = 0;
-                for (int j = i; j < values.size(); ++j) {
-                    Boolean equal = EqualEvaluator.equal(values.get(i), values.get(j), state);
-                    if (equal != null && equal) {
-                        ++count;
+        @Override
+        public Object getResult() {
+            final var comparator = new CqlList(state).valueSort;
+            if (unhashed == null) {
+                Occurrences mode = null;
+                for (var counted : occurrences.values()) {
+                    if (mode == null
+                            || counted.count > mode.count
+                            || (counted.count == mode.count && comparator.compare(counted.element, mode.element) < 0)) {
+                        mode = counted;
                     }
                 }
-                if (count > max) {
-                    mode = values.get(i);
-                    max = count;
+                return mode != null ? mode.element : null;
+            }
+
+            unhashed.sort(comparator);
+            int max = 0;
+            Object mode = null;
+            for (int i = 0; i < unhashed.size(); ) {
+                int next = i + 1;
+                while (next < unhashed.size()
+                        && Boolean.TRUE.equals(EqualEvaluator.equal(unhashed.get(i), unhashed.get(next), state))) {
+                    ++next;
+                }
+                if (next - i > max) {
+                    mode = unhashed.get(i);
+                    max = next - i;
                 }
+                i = next;
             }
             return mode;
         }
-        throw new InvalidOperatorArgument(
-                "Mode(List<T>)", String.format("Mode(%s)", source.getClass().getName()));
+
+        /**
+         * Returns a key that is equal for values that are Equal, or null if the value's type isn't
+         * compared by value.
+         */
+        private static Object hashKey(Object value) {
+            if (value instanceof String
+                    || value instanceof Integer
+                    || value instanceof Long
+                    || value instanceof Boolean) {
+                return value;
+            } else if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).stripTrailingZeros();
+            }
+            return null;
+        }
+    }
+
+    private static class Occurrences {
+        private final Object element;
+        private int count;
+
+        Occurrences(Object element) {
+            this.element = element;
+        }
     }
 }
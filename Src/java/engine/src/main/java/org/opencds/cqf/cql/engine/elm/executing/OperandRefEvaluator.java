@@ -9,7 +9,7 @@ public class OperandRefEvaluator {
 
     public static Object internalEvaluate(
             OperandRef operandRef, State state, ElmLibraryVisitor<Object, State> visitor) {
-        var variable = state.resolveVariable(operandRef.getName(), true).getValue();
+        var variable = state.resolveVariableValue(operandRef, operandRef.getName());
         // We're executing the logic here, so this is valid check in execution context
         if (variable instanceof ExpressionDef) {
             return visitor.visitExpressionDef((ExpressionDef) variable, state);
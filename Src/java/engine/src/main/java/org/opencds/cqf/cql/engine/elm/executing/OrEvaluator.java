@@ -1,6 +1,9 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
+import org.hl7.elm.r1.Or;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
+import org.opencds.cqf.cql.engine.execution.State;
 
 /*
 or (left Boolean, right Boolean) Boolean
@@ -11,6 +14,29 @@ If both arguments are false, the result is false. Otherwise, the result is null.
 
 public class OrEvaluator {
 
+    /**
+     * The name of the {@link org.opencds.cqf.cql.engine.execution.Profile} counter of the Or
+     * operands that were not evaluated because the other operand was true.
+     */
+    public static final String SKIPPED_OPERANDS_COUNTER = "Or.skippedOperands";
+
+    /**
+     * Evaluates the operands of the given Or expression, skipping the second operand if the first
+     * is true. The first operand is the cheaper one if the evaluation is cost-ordered, see
+     * {@link State#isReordered}.
+     */
+    public static Object internalEvaluate(Or elm, State state, ElmLibraryVisitor<Object, State> visitor) {
+        final boolean reordered = state.isReordered(elm);
+        final Object first = visitor.visitExpression(elm.getOperand().get(reordered ? 1 : 0), state);
+        if (Boolean.TRUE.equals(first)) {
+            state.incrementProfileCounter(SKIPPED_OPERANDS_COUNTER, 1);
+            return true;
+        }
+
+        final Object second = visitor.visitExpression(elm.getOperand().get(reordered ? 0 : 1), state);
+        return reordered ? or(second, first) : or(first, second);
+    }
+
     public static Boolean or(Object left, Object right) {
         if (left == null && right == null) {
             return null;
@@ -13,11 +13,15 @@ public class ParameterRefEvaluator {
 
     public static Object internalEvaluate(
             ParameterRef parameterRef, State state, ElmLibraryVisitor<Object, State> visitor) {
-        boolean enteredLibrary = state.enterLibrary(parameterRef.getLibraryName());
+        final var link = state.resolveLink(parameterRef);
+        boolean enteredLibrary = link != null
+                ? state.enterLibrary(link.library())
+                : state.enterLibrary(parameterRef.getLibraryName());
         try {
 
-            ParameterDef parameterDef =
-                    Libraries.resolveParameterRef(parameterRef.getName(), state.getCurrentLibrary());
+            ParameterDef parameterDef = link != null
+                    ? (ParameterDef) link.definition()
+                    : Libraries.resolveParameterRef(parameterRef.getName(), state.getCurrentLibrary());
             var name = parameterDef.getName();
             var libraryName = state.getCurrentLibrary().getIdentifier().getId();
 
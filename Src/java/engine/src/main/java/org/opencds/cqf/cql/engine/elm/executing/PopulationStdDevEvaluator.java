@@ -1,9 +1,7 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
-import java.math.BigDecimal;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
 import org.opencds.cqf.cql.engine.execution.State;
-import org.opencds.cqf.cql.engine.runtime.Quantity;
 
 /*
 PopulationStdDev(argument List<Decimal>) Decimal
@@ -24,22 +22,9 @@ public class PopulationStdDevEvaluator {
         }
 
         if (source instanceof Iterable<?> iterable) {
-            if (!iterable.iterator().hasNext()) {
-                return null;
-            }
-
-            Object variance = PopulationVarianceEvaluator.popVariance(source, state);
-            // The cases in which PopulationVariance returns null are the same as those where PopulationStdDev does.
-            if (variance == null) {
-                return null;
-            }
-
-            return variance instanceof BigDecimal
-                    ? PowerEvaluator.power(variance, new BigDecimal("0.5"))
-                    : new Quantity()
-                            .withValue((BigDecimal)
-                                    PowerEvaluator.power(((Quantity) variance).getValue(), new BigDecimal("0.5")))
-                            .withUnit(((Quantity) variance).getUnit());
+            final var accumulator = new StdDevEvaluator.Accumulator(new VarianceEvaluator.Accumulator(state, true));
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
         }
 
         throw new InvalidOperatorArgument(
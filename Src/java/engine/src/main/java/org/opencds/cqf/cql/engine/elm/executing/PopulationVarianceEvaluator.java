@@ -1,6 +1,5 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
-import java.util.ArrayList;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
 import org.opencds.cqf.cql.engine.execution.State;
 
@@ -23,18 +22,9 @@ public class PopulationVarianceEvaluator {
         }
 
         if (source instanceof Iterable<?> iterable) {
-            if (!iterable.iterator().hasNext()) {
-                return null;
-            }
-            final var mean = AvgEvaluator.avg(source, state);
-
-            final var newVals = new ArrayList<>();
-            iterable.forEach(element -> {
-                final var diff = SubtractEvaluator.subtract(element, mean, state);
-                newVals.add(MultiplyEvaluator.multiply(diff, diff, state));
-            });
-
-            return AvgEvaluator.avg(newVals, state);
+            final var accumulator = new VarianceEvaluator.Accumulator(state, true);
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
         }
 
         throw new InvalidOperatorArgument(
@@ -19,7 +19,7 @@ public class PropertyEvaluator {
                 return ((Tuple) target).getElements().get(elm.getPath());
             }
         } else if (elm.getScope() != null) {
-            target = state.resolveVariable(elm.getScope(), true).getValue();
+            target = state.resolveVariableValue(elm, elm.getScope());
         }
 
         if (target == null) {
@@ -1,19 +1,19 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.RandomAccess;
 import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
 import org.hl7.elm.r1.*;
 import org.opencds.cqf.cql.engine.exception.CqlException;
 import org.opencds.cqf.cql.engine.execution.CqlEngine;
 import org.opencds.cqf.cql.engine.execution.State;
-import org.opencds.cqf.cql.engine.execution.Variable;
 import org.opencds.cqf.cql.engine.runtime.CqlList;
 import org.opencds.cqf.cql.engine.runtime.Tuple;
-import org.opencds.cqf.cql.engine.runtime.iterators.QueryIterator;
+import org.opencds.cqf.cql.engine.runtime.iterators.ProductIterator;
 
 public class QueryEvaluator {
 
@@ -28,35 +28,45 @@ public class QueryEvaluator {
         }
     }
 
-    private static void evaluateLets(
-            Query elm, State state, List<Variable> letVariables, ElmLibraryVisitor<Object, State> visitor) {
-        for (int i = 0; i < elm.getLet().size(); i++) {
-            letVariables
-                    .get(i)
-                    .setValue(visitor.visitExpression(elm.getLet().get(i).getExpression(), state));
+    private static void evaluateLets(Query elm, State state, int[] letSlots, ElmLibraryVisitor<Object, State> visitor) {
+        for (int i = 0; i < letSlots.length; i++) {
+            state.setVariable(letSlots[i], visitor.visitExpression(elm.getLet().get(i).getExpression(), state));
         }
     }
 
-    private static boolean evaluateRelationships(Query elm, State state, ElmLibraryVisitor<Object, State> visitor) {
-        // TODO: This is the most naive possible implementation here, but it should
-        // perform okay with 1) caching and 2) small data sets
+    private static boolean evaluateRelationships(
+            Query elm,
+            State state,
+            RelationshipJoin[] joins,
+            RelationshipJoin.Index[] indexes,
+            ElmLibraryVisitor<Object, State> visitor) {
         boolean shouldInclude = true;
-        for (org.hl7.elm.r1.RelationshipClause relationship : elm.getRelationship()) {
+        for (int i = 0; i < joins.length; i++) {
+            org.hl7.elm.r1.RelationshipClause relationship = elm.getRelationship().get(i);
             boolean hasSatisfyingData = false;
-            Iterable<Object> relatedSourceData =
-                    ensureIterable(visitor.visitExpression(relationship.getExpression(), state));
-            for (Object relatedElement : relatedSourceData) {
-                state.push(new Variable(relationship.getAlias()).withValue(relatedElement));
-                try {
+            // Related sources that don't depend on the row are evaluated and indexed once per query
+            // evaluation, see RelationshipJoin
+            Iterable<Object> relatedSourceData = indexes[i] == null
+                    ? ensureIterable(visitor.visitExpression(relationship.getExpression(), state))
+                    : null;
+            int slot = state.pushVariable(relationship.getAlias(), null, relationship);
+            try {
+                if (indexes[i] == null && joins[i].isIndependent()) {
+                    indexes[i] = joins[i].index(relatedSourceData, slot, state, visitor);
+                }
+                Iterable<Object> candidates =
+                        indexes[i] != null ? indexes[i].candidates(state, visitor) : relatedSourceData;
+                for (Object relatedElement : candidates) {
+                    state.setVariable(slot, relatedElement);
                     Object satisfiesRelatedCondition = visitor.visitExpression(relationship.getSuchThat(), state);
                     if ((relationship instanceof org.hl7.elm.r1.With || relationship instanceof org.hl7.elm.r1.Without)
                             && Boolean.TRUE.equals(satisfiesRelatedCondition)) {
                         hasSatisfyingData = true;
                         break; // Once we have detected satisfying data, no need to continue testing
                     }
-                } finally {
-                    state.pop();
                 }
+            } finally {
+                state.pop();
             }
 
             if ((relationship instanceof org.hl7.elm.r1.With && !hasSatisfyingData)
@@ -70,9 +80,10 @@ public class QueryEvaluator {
         return shouldInclude;
     }
 
-    private static boolean evaluateWhere(Query elm, State state, ElmLibraryVisitor<Object, State> visitor) {
-        if (elm.getWhere() != null) {
-            Object satisfiesCondition = visitor.visitExpression(elm.getWhere(), state);
+    private static boolean evaluateWhere(
+            List<Expression> conditions, State state, ElmLibraryVisitor<Object, State> visitor) {
+        for (Expression condition : conditions) {
+            Object satisfiesCondition = visitor.visitExpression(condition, state);
             if (!(satisfiesCondition instanceof Boolean && (Boolean) satisfiesCondition)) {
                 return false;
             }
@@ -86,10 +97,10 @@ public class QueryEvaluator {
         return Collections.singletonList(AggregateClauseEvaluator.aggregate(elm, state, visitor, elements));
     }
 
-    private static Object constructTuple(State state, List<Variable> variables) {
+    private static Object constructTuple(Query elm, State state, Object[] row) {
         var elementMap = new LinkedHashMap<String, Object>();
-        for (var v : variables) {
-            elementMap.put(v.getName(), v.getValue());
+        for (int i = 0; i < row.length; i++) {
+            elementMap.put(elm.getSource().get(i).getAlias(), row[i]);
         }
 
         return new Tuple(state).withElements(elementMap);
@@ -100,27 +111,64 @@ public class QueryEvaluator {
 
         SortClause sortClause = elm.getSort();
 
-        if (sortClause != null) {
-
-            for (SortByItem byItem : sortClause.getBy()) {
+        if (sortClause == null || result.size() < 2) {
+            return;
+        }
 
-                if (byItem instanceof ByExpression) {
-                    result.sort(new CqlList(state, visitor, "$this", ((ByExpression) byItem).getExpression())
-                            .expressionSort);
-                } else if (byItem instanceof ByColumn) {
-                    result.sort(new CqlList(state, ((ByColumn) byItem).getPath()).columnSort);
-                } else {
-                    result.sort(new CqlList(state).valueSort);
+        // Evaluate the keys of each element once, rather than on every comparison, and then sort
+        // by all keys in a single stable sort.
+        List<SortByItem> byItems = sortClause.getBy();
+        SortRow[] rows = new SortRow[result.size()];
+        int slot = state.pushVariable("$this", null, null);
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                Object element = result.get(i);
+                state.setVariable(slot, element);
+                Object[] keys = new Object[byItems.size()];
+                for (int k = 0; k < keys.length; k++) {
+                    keys[k] = evaluateSortKey(byItems.get(k), element, state, visitor);
                 }
+                rows[i] = new SortRow(element, keys);
+            }
+        } finally {
+            state.pop();
+        }
+
+        boolean[] descending = new boolean[byItems.size()];
+        for (int k = 0; k < descending.length; k++) {
+            String direction = byItems.get(k).getDirection().value();
+            descending[k] = direction.equals("desc") || direction.equals("descending");
+        }
 
-                String direction = byItem.getDirection().value();
-                if (direction.equals("desc") || direction.equals("descending")) {
-                    java.util.Collections.reverse(result);
+        CqlList cqlList = new CqlList(state);
+        Arrays.sort(rows, (left, right) -> {
+            for (int k = 0; k < descending.length; k++) {
+                int comparison = cqlList.compareTo(left.keys()[k], right.keys()[k]);
+                if (comparison != 0) {
+                    return descending[k] ? -Integer.signum(comparison) : comparison;
                 }
             }
+            return 0;
+        });
+
+        for (int i = 0; i < rows.length; i++) {
+            result.set(i, rows[i].element());
         }
     }
 
+    private static Object evaluateSortKey(
+            SortByItem byItem, Object element, State state, ElmLibraryVisitor<Object, State> visitor) {
+        if (byItem instanceof ByExpression) {
+            return visitor.visitExpression(((ByExpression) byItem).getExpression(), state);
+        } else if (byItem instanceof ByColumn) {
+            return state.getEnvironment().resolvePath(element, ((ByColumn) byItem).getPath());
+        } else {
+            return element;
+        }
+    }
+
+    private record SortRow(Object element, Object[] keys) {}
+
     static class QuerySource {
         private String alias;
         private boolean isList;
@@ -145,75 +193,86 @@ public class QueryEvaluator {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public static Object internalEvaluate(Query elm, State state, ElmLibraryVisitor<Object, State> visitor) {
         if (elm.getAggregate() != null && elm.getReturn() != null) {
             throw new CqlException("aggregate and return are mutually exclusive");
         }
 
-        var sources = new ArrayList<Iterator<Object>>();
-        var variables = new ArrayList<Variable>();
-        var letVariables = new ArrayList<Variable>();
+        var sources = new ArrayList<Iterable<Object>>();
+        int[] sourceSlots = new int[elm.getSource().size()];
+        int[] letSlots = new int[elm.getLet().size()];
+        final var analysis = state.getEnvironment().getLibraryAnalysis(state.getCurrentLibrary());
+        RelationshipJoin[] joins = new RelationshipJoin[elm.getRelationship().size()];
+        for (int i = 0; i < joins.length; i++) {
+            joins[i] = analysis.getRelationshipJoin(elm, elm.getRelationship().get(i));
+        }
+        RelationshipJoin.Index[] indexes = new RelationshipJoin.Index[joins.length];
+        WherePushdown where = analysis.getWherePushdown(elm);
         List<Object> result = new ArrayList<>();
+        AggregateClauseEvaluator.Fold fold = null;
         boolean sourceIsList = false;
         int pushCount = 0;
         try {
-            for (AliasedQuerySource source : elm.getSource()) {
+            for (int i = 0; i < sourceSlots.length; i++) {
+                AliasedQuerySource source = elm.getSource().get(i);
                 Object obj = visitor.visitExpression(source.getExpression(), state);
                 QuerySource querySource = new QuerySource(source.getAlias(), obj);
-                sources.add(querySource.getData().iterator());
+                sources.add(querySource.getData());
                 if (querySource.getIsList()) {
                     sourceIsList = true;
                 }
-                Variable variable = new Variable(source.getAlias());
-                variables.add(variable);
-                state.push(variable);
+                sourceSlots[i] = state.pushVariable(source.getAlias(), null, source);
                 pushCount++;
             }
 
-            for (LetClause let : elm.getLet()) {
-                Variable letVariable = new Variable(let.getIdentifier());
-                letVariables.add(letVariable);
-                state.push(letVariable);
+            for (int i = 0; i < letSlots.length; i++) {
+                LetClause let = elm.getLet().get(i);
+                letSlots[i] = state.pushVariable(let.getIdentifier(), null, let);
                 pushCount++;
             }
 
-            QueryIterator iterator = new QueryIterator(state, sources);
-
-            while (iterator.hasNext()) {
-                List<Object> elements = (List<Object>) iterator.next();
-
-                // Assign  variables
-                assignVariables(variables, elements);
-
-                evaluateLets(elm, state, letVariables, visitor);
-
-                if (!evaluateRelationships(elm, state, visitor)) {
-                    continue;
-                }
-
-                if (!evaluateWhere(elm, state, visitor)) {
-                    continue;
-                }
+            // Rows are folded into the aggregate clause as they are produced, unless it aggregates
+            // distinct rows only
+            if (elm.getAggregate() != null && !elm.getAggregate().isDistinct()) {
+                fold = new AggregateClauseEvaluator.Fold(elm.getAggregate(), state, visitor);
+                pushCount++;
+            }
 
-                // There's a "return" clause in the CQL
-                if (elm.getReturn() != null) {
-                    result.add(visitor.visitExpression(elm.getReturn().getExpression(), state));
-                }
-                // There's an "aggregate" clause in the CQL OR there's an implicit multi-source return
-                else if (elm.getAggregate() != null || variables.size() > 1) {
-                    result.add(constructTuple(state, variables));
+            if (sourceSlots.length == 1) {
+                // A single source is iterated as it is produced
+                for (Object element : sources.get(0)) {
+                    state.setVariable(sourceSlots[0], element);
+                    if (!includeRow(elm, state, letSlots, joins, indexes, where, visitor)) {
+                        continue;
+                    }
+                    if (fold != null) {
+                        fold.add();
+                    } else {
+                        result.add(
+                                elm.getReturn() == null && elm.getAggregate() == null
+                                        ? element
+                                        : evaluateReturn(elm, state, new Object[] {element}, visitor));
+                    }
                 }
-                // implicit return with 1 source
-                else {
-                    result.add(elements.get(0));
+            } else {
+                // Multiple sources are collected, filtered by the where conditions that depend on a
+                // single source, and then combined, see WherePushdown
+                List<List<Object>> elements = materializeSources(sources, sourceSlots, where, state, visitor);
+                ProductIterator rows = new ProductIterator(state, elements, sourceSlots);
+                while (rows.hasNext()) {
+                    Object[] row = rows.next();
+                    if (!includeRow(elm, state, letSlots, joins, indexes, where, visitor)) {
+                        continue;
+                    }
+                    if (fold != null) {
+                        fold.add();
+                    } else {
+                        result.add(evaluateReturn(elm, state, row, visitor));
+                    }
                 }
             }
         } finally {
-            while (pushCount > 0) {
-                state.pop();
-                pushCount--;
-            }
+            state.popVariables(pushCount);
         }
 
         if (elm.getReturn() != null
@@ -222,7 +281,9 @@ public class QueryEvaluator {
             result = DistinctEvaluator.distinct(result, state);
         }
 
-        if (elm.getAggregate() != null) {
+        if (fold != null) {
+            result = Collections.singletonList(fold.getResult());
+        } else if (elm.getAggregate() != null) {
             result = evaluateAggregate(elm.getAggregate(), state, visitor, result);
         }
 
@@ -235,9 +296,83 @@ public class QueryEvaluator {
         return elm.getAggregate() != null || !sourceIsList ? result.get(0) : result;
     }
 
-    private static void assignVariables(List<Variable> variables, List<Object> elements) {
-        for (int i = 0; i < variables.size(); i++) {
-            variables.get(i).setValue(elements.get(i));
+    /**
+     * Collects the elements of the sources of a query with multiple sources, keeping only the
+     * elements that satisfy the where conditions pushed down to their source. If any source is
+     * empty, the product is empty and no conditions are evaluated.
+     */
+    private static List<List<Object>> materializeSources(
+            List<Iterable<Object>> sources,
+            int[] sourceSlots,
+            WherePushdown where,
+            State state,
+            ElmLibraryVisitor<Object, State> visitor) {
+        var materialized = new ArrayList<List<Object>>(sources.size());
+        for (Iterable<Object> source : sources) {
+            List<Object> elements;
+            if (source instanceof List && source instanceof RandomAccess) {
+                elements = (List<Object>) source;
+            } else {
+                elements = new ArrayList<>();
+                source.forEach(elements::add);
+            }
+            if (elements.isEmpty()) {
+                return Collections.emptyList();
+            }
+            materialized.add(elements);
+        }
+
+        if (where.hasSourceConditions()) {
+            for (int i = 0; i < materialized.size(); i++) {
+                List<Expression> conditions = where.getSourceConditions(i);
+                if (conditions.isEmpty()) {
+                    continue;
+                }
+                var satisfying = new ArrayList<Object>();
+                for (Object element : materialized.get(i)) {
+                    state.setVariable(sourceSlots[i], element);
+                    if (evaluateWhere(conditions, state, visitor)) {
+                        satisfying.add(element);
+                    }
+                }
+                state.setVariable(sourceSlots[i], null);
+                if (satisfying.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                materialized.set(i, satisfying);
+            }
+        }
+
+        return materialized;
+    }
+
+    private static boolean includeRow(
+            Query elm,
+            State state,
+            int[] letSlots,
+            RelationshipJoin[] joins,
+            RelationshipJoin.Index[] indexes,
+            WherePushdown where,
+            ElmLibraryVisitor<Object, State> visitor) {
+        evaluateLets(elm, state, letSlots, visitor);
+
+        return evaluateRelationships(elm, state, joins, indexes, visitor)
+                && evaluateWhere(where.getRowConditions(), state, visitor);
+    }
+
+    private static Object evaluateReturn(
+            Query elm, State state, Object[] row, ElmLibraryVisitor<Object, State> visitor) {
+        // There's a "return" clause in the CQL
+        if (elm.getReturn() != null) {
+            return visitor.visitExpression(elm.getReturn().getExpression(), state);
+        }
+        // There's an "aggregate" clause in the CQL OR there's an implicit multi-source return
+        else if (elm.getAggregate() != null || row.length > 1) {
+            return constructTuple(elm, state, row);
+        }
+        // implicit return with 1 source
+        else {
+            return row[0];
         }
     }
 }
@@ -5,6 +5,6 @@ import org.opencds.cqf.cql.engine.execution.State;
 
 public class QueryLetRefEvaluator {
     public static Object internalEvaluate(QueryLetRef elm, State state) {
-        return state.resolveVariable(elm.getName()).getValue();
+        return state.resolveVariableValue(elm, elm.getName());
     }
 }
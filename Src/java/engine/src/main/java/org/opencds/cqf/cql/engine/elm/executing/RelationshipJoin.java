@@ -0,0 +1,470 @@
+package org.opencds.cqf.cql.engine.elm.executing;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.cqframework.cql.elm.visiting.BaseElmLibraryVisitor;
+import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
+import org.hl7.elm.r1.AliasRef;
+import org.hl7.elm.r1.And;
+import org.hl7.elm.r1.BinaryExpression;
+import org.hl7.elm.r1.Contains;
+import org.hl7.elm.r1.Equal;
+import org.hl7.elm.r1.Expression;
+import org.hl7.elm.r1.IdentifierRef;
+import org.hl7.elm.r1.In;
+import org.hl7.elm.r1.IncludedIn;
+import org.hl7.elm.r1.Includes;
+import org.hl7.elm.r1.Overlaps;
+import org.hl7.elm.r1.ProperContains;
+import org.hl7.elm.r1.ProperIn;
+import org.hl7.elm.r1.ProperIncludedIn;
+import org.hl7.elm.r1.ProperIncludes;
+import org.hl7.elm.r1.Property;
+import org.hl7.elm.r1.Query;
+import org.hl7.elm.r1.QueryLetRef;
+import org.hl7.elm.r1.RelationshipClause;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.execution.State;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.runtime.TemporalHelper;
+
+/**
+ * The strategy with which a with or without relationship of a query is evaluated, planned once per
+ * relationship.
+ * <p>
+ * Evaluated naively, a relationship evaluates its related source for every row of the query and
+ * tests the such that condition against every related element. If the related source doesn't
+ * reference the aliases or lets of the query, it is instead evaluated once per evaluation of the
+ * query. If, in addition, the such that condition is (a conjunction containing) one of the
+ * following comparisons between an expression of the related alias and an expression of the row,
+ * the related elements are indexed by their expression:
+ * <ul>
+ *     <li>Equal: the elements are hashed by their key, and a row is tested against the elements with
+ *     an equal key only</li>
+ *     <li>In, Contains, IncludedIn, Includes, their proper variants and Overlaps without a precision:
+ *     these can only be true if the ranges covered by both operands intersect, so the elements are
+ *     sorted by the start of their range and a row is tested against the elements whose range
+ *     intersects its range only</li>
+ * </ul>
+ * The index only selects the candidates of a row; the such that condition is still evaluated for
+ * every candidate, so a relationship is satisfied by the same rows as with the nested loop.
+ * Elements whose key can't be indexed, for example codes or quantities, are candidates of every
+ * row, and rows whose key can't be indexed are tested against all elements.
+ *
+ * @see org.opencds.cqf.cql.engine.execution.LibraryAnalysis#getRelationshipJoin(Query, RelationshipClause)
+ */
+public class RelationshipJoin {
+
+    public enum Strategy {
+        NESTED_LOOP,
+        HASH,
+        INTERVAL
+    }
+
+    // Comparisons of DateTimes at day precision or coarser ignore their offsets, so DateTime ranges
+    // are widened by the largest possible offset on both sides.
+    private static final double MAX_OFFSET_MILLIS = 18 * 60 * 60 * 1000;
+
+    private static final Object UNSUPPORTED_KEY = new Object();
+
+    private final RelationshipClause relationship;
+    private final boolean independent;
+    private final Strategy strategy;
+    private final Expression relatedKey;
+    private final Expression rowKey;
+
+    private RelationshipJoin(
+            RelationshipClause relationship,
+            boolean independent,
+            Strategy strategy,
+            Expression relatedKey,
+            Expression rowKey) {
+        this.relationship = relationship;
+        this.independent = independent;
+        this.strategy = strategy;
+        this.relatedKey = relatedKey;
+        this.rowKey = rowKey;
+    }
+
+    /**
+     * @return true if the related source doesn't depend on the row and is evaluated once per
+     * evaluation of the query
+     */
+    public boolean isIndependent() {
+        return independent;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Plans the evaluation of a relationship of a query.
+     *
+     * @param query the query
+     * @param relationship a with or without relationship of the query
+     * @return the plan
+     */
+    public static RelationshipJoin plan(Query query, RelationshipClause relationship) {
+        final var rowNames = new HashSet<String>();
+        for (var source : query.getSource()) {
+            rowNames.add(source.getAlias());
+        }
+        for (var let : query.getLet()) {
+            rowNames.add(let.getIdentifier());
+        }
+
+        if (!Collections.disjoint(referencedNames(relationship.getExpression()), rowNames)) {
+            return new RelationshipJoin(relationship, false, Strategy.NESTED_LOOP, null, null);
+        }
+
+        final var alias = relationship.getAlias();
+        RelationshipJoin plan = new RelationshipJoin(relationship, true, Strategy.NESTED_LOOP, null, null);
+        for (var conjunct : conjuncts(relationship.getSuchThat(), new ArrayList<>())) {
+            final var strategy = strategyOf(conjunct);
+            if (strategy == null || (strategy == Strategy.INTERVAL && plan.strategy != Strategy.NESTED_LOOP)) {
+                continue;
+            }
+
+            final var operands = ((BinaryExpression) conjunct).getOperand();
+            for (int i = 0; i < 2; i++) {
+                final var relatedNames = referencedNames(operands.get(i));
+                final var rowOperandNames = referencedNames(operands.get(1 - i));
+                if (relatedNames.contains(alias)
+                        && Collections.disjoint(relatedNames, rowNames)
+                        && !rowOperandNames.contains(alias)) {
+                    plan = new RelationshipJoin(relationship, true, strategy, operands.get(i), operands.get(1 - i));
+                    break;
+                }
+            }
+
+            if (plan.strategy == Strategy.HASH) {
+                break;
+            }
+        }
+
+        return plan;
+    }
+
+    static List<Expression> conjuncts(Expression expression, List<Expression> conjuncts) {
+        if (expression instanceof And) {
+            for (var operand : ((And) expression).getOperand()) {
+                conjuncts(operand, conjuncts);
+            }
+        } else if (expression != null) {
+            conjuncts.add(expression);
+        }
+        return conjuncts;
+    }
+
+    private static Strategy strategyOf(Expression expression) {
+        if (expression instanceof Equal) {
+            return Strategy.HASH;
+        }
+
+        final boolean intersects = (expression instanceof In && ((In) expression).getPrecision() == null)
+                || (expression instanceof ProperIn && ((ProperIn) expression).getPrecision() == null)
+                || (expression instanceof Contains && ((Contains) expression).getPrecision() == null)
+                || (expression instanceof ProperContains && ((ProperContains) expression).getPrecision() == null)
+                || (expression instanceof IncludedIn && ((IncludedIn) expression).getPrecision() == null)
+                || (expression instanceof ProperIncludedIn && ((ProperIncludedIn) expression).getPrecision() == null)
+                || (expression instanceof Includes && ((Includes) expression).getPrecision() == null)
+                || (expression instanceof ProperIncludes && ((ProperIncludes) expression).getPrecision() == null)
+                || (expression instanceof Overlaps && ((Overlaps) expression).getPrecision() == null);
+        return intersects ? Strategy.INTERVAL : null;
+    }
+
+    static Set<String> referencedNames(Expression expression) {
+        final var names = new HashSet<String>();
+        if (expression != null) {
+            new ReferencedNames().visitExpression(expression, names);
+        }
+        return names;
+    }
+
+    /**
+     * Collects the names of the query variables an expression references. Names declared by
+     * queries nested in the expression are included, which errs on the side of not indexing.
+     */
+    private static class ReferencedNames extends BaseElmLibraryVisitor<Void, Set<String>> {
+        @Override
+        public Void visitAliasRef(AliasRef elm, Set<String> names) {
+            names.add(elm.getName());
+            return super.visitAliasRef(elm, names);
+        }
+
+        @Override
+        public Void visitQueryLetRef(QueryLetRef elm, Set<String> names) {
+            names.add(elm.getName());
+            return super.visitQueryLetRef(elm, names);
+        }
+
+        @Override
+        public Void visitIdentifierRef(IdentifierRef elm, Set<String> names) {
+            names.add(elm.getName());
+            return super.visitIdentifierRef(elm, names);
+        }
+
+        @Override
+        public Void visitProperty(Property elm, Set<String> names) {
+            if (elm.getScope() != null) {
+                names.add(elm.getScope());
+            }
+            return super.visitProperty(elm, names);
+        }
+    }
+
+    /**
+     * Indexes the elements of the related source for an evaluation of the query. Must be called
+     * with the related alias pushed in the given slot.
+     *
+     * @param relatedSourceData the evaluated related source
+     * @param slot the slot of the related alias
+     * @param state the state
+     * @param visitor the visitor with which keys are evaluated
+     * @return the index
+     */
+    Index index(
+            Iterable<Object> relatedSourceData, int slot, State state, ElmLibraryVisitor<Object, State> visitor) {
+        final var elements = new ArrayList<Object>();
+        relatedSourceData.forEach(elements::add);
+        switch (strategy) {
+            case HASH:
+                return new HashIndex(elements, slot, state, visitor);
+            case INTERVAL:
+                return new IntervalIndex(elements, slot, state, visitor);
+            default:
+                return new Index(elements);
+        }
+    }
+
+    /**
+     * The related elements of a relationship, evaluated once per evaluation of the query.
+     */
+    class Index {
+        final List<Object> elements;
+
+        Index(List<Object> elements) {
+            this.elements = elements;
+        }
+
+        /**
+         * Returns the related elements the such that condition has to be evaluated for, for the
+         * current row.
+         */
+        Iterable<Object> candidates(State state, ElmLibraryVisitor<Object, State> visitor) {
+            return elements;
+        }
+
+        Object evaluateKey(Expression key, State state, ElmLibraryVisitor<Object, State> visitor) {
+            try {
+                return visitor.visitExpression(key, state);
+            } catch (CqlException e) {
+                // The such that condition reports the error, if evaluating it gets this far.
+                return UNSUPPORTED_KEY;
+            }
+        }
+    }
+
+    private class HashIndex extends Index {
+        private final Map<Object, List<Object>> index = new HashMap<>();
+        private final List<Object> unindexed = new ArrayList<>();
+
+        HashIndex(List<Object> elements, int slot, State state, ElmLibraryVisitor<Object, State> visitor) {
+            super(elements);
+            for (var element : elements) {
+                state.setVariable(slot, element);
+                final var key = hashKey(evaluateKey(relatedKey, state, visitor));
+                if (key == UNSUPPORTED_KEY) {
+                    unindexed.add(element);
+                } else if (key != null) {
+                    // Equal is null if either operand is null, so elements without a key never match.
+                    index.computeIfAbsent(key, k -> new ArrayList<>()).add(element);
+                }
+            }
+        }
+
+        @Override
+        Iterable<Object> candidates(State state, ElmLibraryVisitor<Object, State> visitor) {
+            final var key = hashKey(evaluateKey(rowKey, state, visitor));
+            if (key == UNSUPPORTED_KEY) {
+                return elements;
+            }
+
+            final var matches = key != null ? index.get(key) : null;
+            if (matches == null) {
+                return unindexed;
+            } else if (unindexed.isEmpty()) {
+                return matches;
+            }
+
+            final var candidates = new ArrayList<>(matches);
+            candidates.addAll(unindexed);
+            return candidates;
+        }
+
+        /**
+         * Returns a key that is equal for values that are Equal, for the types Equal compares by
+         * value.
+         */
+        private Object hashKey(Object value) {
+            if (value == null || value == UNSUPPORTED_KEY) {
+                return value;
+            } else if (value instanceof String
+                    || value instanceof Integer
+                    || value instanceof Long
+                    || value instanceof Boolean) {
+                return value;
+            } else if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).stripTrailingZeros();
+            }
+            return UNSUPPORTED_KEY;
+        }
+    }
+
+    /**
+     * The range of values an operand covers, in a numeric domain that preserves the order of the
+     * values of its type.
+     */
+    private record Range(Class<?> domain, double low, double high) {}
+
+    private class IntervalIndex extends Index {
+        private final Class<?> domain;
+        private final Object[] sorted;
+        private final double[] lows;
+        private final double[] highs;
+        private final double maxWidth;
+        private final List<Object> unindexed = new ArrayList<>();
+
+        IntervalIndex(List<Object> elements, int slot, State state, ElmLibraryVisitor<Object, State> visitor) {
+            super(elements);
+            final var ranges = new ArrayList<Range>();
+            final var indexed = new ArrayList<Object>();
+            Class<?> indexDomain = null;
+            for (var element : elements) {
+                state.setVariable(slot, element);
+                final var range = range(evaluateKey(relatedKey, state, visitor));
+                if (range == null
+                        || Double.isInfinite(range.high - range.low)
+                        || (indexDomain != null && indexDomain != range.domain)) {
+                    unindexed.add(element);
+                } else {
+                    indexDomain = range.domain;
+                    ranges.add(range);
+                    indexed.add(element);
+                }
+            }
+
+            final var order = new Integer[ranges.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (left, right) -> Double.compare(ranges.get(left).low, ranges.get(right).low));
+
+            this.domain = indexDomain;
+            this.sorted = new Object[order.length];
+            this.lows = new double[order.length];
+            this.highs = new double[order.length];
+            double width = 0;
+            for (int i = 0; i < order.length; i++) {
+                final var range = ranges.get(order[i]);
+                sorted[i] = indexed.get(order[i]);
+                lows[i] = range.low;
+                highs[i] = range.high;
+                width = Math.max(width, range.high - range.low);
+            }
+            this.maxWidth = width;
+        }
+
+        @Override
+        Iterable<Object> candidates(State state, ElmLibraryVisitor<Object, State> visitor) {
+            final var range = range(evaluateKey(rowKey, state, visitor));
+            if (range == null || (domain != null && domain != range.domain)) {
+                return elements;
+            }
+
+            // Every indexed range is at most maxWidth wide, so the ranges that intersect the row's
+            // range start between its low minus maxWidth and its high.
+            final var candidates = new ArrayList<>(unindexed);
+            for (int i = lowerBound(range.low - maxWidth); i < lows.length && lows[i] <= range.high; i++) {
+                if (highs[i] >= range.low) {
+                    candidates.add(sorted[i]);
+                }
+            }
+            return candidates;
+        }
+
+        private int lowerBound(double low) {
+            int from = 0;
+            int to = lows.length;
+            while (from < to) {
+                final int middle = (from + to) >>> 1;
+                if (lows[middle] < low) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            return from;
+        }
+
+        /**
+         * Returns the range the given point or interval covers, or null if it can't be indexed.
+         * Null boundaries are unbounded, since In treats them as matching. The key null itself
+         * can't be indexed, since null can be in a list.
+         */
+        private Range range(Object value) {
+            if (value instanceof Interval) {
+                final var interval = (Interval) value;
+                final var low = interval.getLow() != null ? range(interval.getLow()) : null;
+                final var high = interval.getHigh() != null ? range(interval.getHigh()) : null;
+                if ((interval.getLow() != null && low == null) || (interval.getHigh() != null && high == null)) {
+                    return null;
+                }
+                if (low != null && high != null && low.domain != high.domain) {
+                    return null;
+                }
+                final var rangeDomain = low != null ? low.domain : high != null ? high.domain : null;
+                if (rangeDomain == null) {
+                    return null;
+                }
+                return new Range(
+                        rangeDomain,
+                        low != null ? low.low : Double.NEGATIVE_INFINITY,
+                        high != null ? high.high : Double.POSITIVE_INFINITY);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof BigDecimal) {
+                final double number = ((Number) value).doubleValue();
+                return new Range(Number.class, number, number);
+            } else if (value instanceof DateTime) {
+                final var dateTime = (DateTime) value;
+                final var low = TemporalHelper.truncateToPrecision(dateTime.getDateTime(), dateTime.getPrecision());
+                final var high = low.plus(1, dateTime.getPrecision().toChronoUnit());
+                return new Range(
+                        DateTime.class,
+                        low.toInstant().toEpochMilli() - MAX_OFFSET_MILLIS,
+                        high.toInstant().toEpochMilli() + MAX_OFFSET_MILLIS);
+            } else if (value instanceof Date) {
+                final var date = (Date) value;
+                final LocalDate low = TemporalHelper.truncateToPrecision(date.getDate(), date.getPrecision());
+                final LocalDate high = low.plus(1, date.getPrecision().toChronoUnit());
+                return new Range(Date.class, low.toEpochDay(), high.toEpochDay());
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s join of %s", strategy, relationship.getAlias());
+    }
+}
@@ -1,5 +1,8 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
+import java.util.regex.Pattern;
+import org.opencds.cqf.cql.engine.execution.PatternCache;
+
 public class ReplaceMatchesEvaluator {
 
     public static Object replaceMatches(String argument, String pattern, String substitution) {
@@ -9,4 +12,21 @@ public class ReplaceMatchesEvaluator {
 
         return argument.replaceAll(pattern, substitution);
     }
+
+    public static Object replaceMatches(
+            String argument, String pattern, String substitution, PatternCache patternCache) {
+        if (argument == null || pattern == null || substitution == null) {
+            return null;
+        }
+
+        return replaceMatches(argument, patternCache.get(pattern), substitution);
+    }
+
+    public static Object replaceMatches(String argument, Pattern pattern, String substitution) {
+        if (argument == null || pattern == null || substitution == null) {
+            return null;
+        }
+
+        return pattern.matcher(argument).replaceAll(substitution);
+    }
 }
@@ -7,15 +7,18 @@ import javax.xml.namespace.QName;
 import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
 import org.hl7.elm.r1.*;
 import org.opencds.cqf.cql.engine.data.DataProvider;
+import org.opencds.cqf.cql.engine.execution.PrefetchPlan;
 import org.opencds.cqf.cql.engine.execution.State;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveFilter;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveRequest;
 import org.opencds.cqf.cql.engine.runtime.Code;
 import org.opencds.cqf.cql.engine.runtime.Concept;
 import org.opencds.cqf.cql.engine.runtime.Interval;
 import org.opencds.cqf.cql.engine.runtime.ValueSet;
+import org.opencds.cqf.cql.engine.runtime.iterators.MemoizingIterable;
 
 public class RetrieveEvaluator {
 
-    @SuppressWarnings("unchecked")
     public static Object internalEvaluate(Retrieve elm, State state, ElmLibraryVisitor<Object, State> visitor) {
         final Expression context = elm.getContext();
 
@@ -44,64 +47,49 @@ public class RetrieveEvaluator {
 
             QName dataType = state.getEnvironment().fixupQName(elm.getDataType());
             DataProvider dataProvider = state.getEnvironment().resolveDataProvider(dataType);
-            Iterable<Code> codes = null;
-            String valueSet = null;
-            if (elm.getCodes() != null) {
-                if (elm.getCodes() instanceof ValueSetRef) {
-                    ValueSet vs = ValueSetRefEvaluator.toValueSet(state, (ValueSetRef) elm.getCodes());
-                    valueSet = vs.getId();
-                } else {
-                    Object codesResult = visitor.visitExpression(elm.getCodes(), state);
-                    if (codesResult instanceof ValueSet) {
-                        valueSet = ((ValueSet) codesResult).getId();
-                    } else if (codesResult instanceof String) {
-                        List<Code> codesList = new ArrayList<>();
-                        codesList.add(new Code().withCode((String) codesResult));
-                        codes = codesList;
-                    } else if (codesResult instanceof Code) {
-                        List<Code> codesList = new ArrayList<>();
-                        codesList.add((Code) codesResult);
-                        codes = codesList;
-                    } else if (codesResult instanceof Concept) {
-                        List<Code> codesList = new ArrayList<>();
-                        for (Code conceptCode : ((Concept) codesResult).getCodes()) {
-                            codesList.add(conceptCode);
-                        }
-                        codes = codesList;
-                    } else {
-                        codes = (Iterable<Code>) codesResult;
-                    }
-                }
+            RetrieveRequest request = toRequest(elm, dataType, dataProvider, state, visitor);
+
+            Iterable<Object> prefetched = null;
+            final var prefetchedRetrieves = state.getPrefetchedRetrieves();
+            if (prefetchedRetrieves != null) {
+                prefetched = prefetchedRetrieves.get(request);
+                state.incrementProfileCounter(
+                        prefetched != null ? PrefetchPlan.HIT_COUNTER : PrefetchPlan.MISS_COUNTER, 1);
             }
-            Interval dateRange = null;
-            if (elm.getDateRange() != null) {
-                dateRange = (Interval) visitor.visitExpression(elm.getDateRange(), state);
+            final var retrieveCache = state.getRetrieveCache();
+            Iterable<Object> cached = null;
+            if (prefetched == null && retrieveCache != null) {
+                cached = retrieveCache.get(
+                        request, dataProvider instanceof RetrieveFilter ? (RetrieveFilter) dataProvider : null, state);
             }
 
-            result = dataProvider.retrieve(
-                    state.getCurrentContext(),
-                    (String) dataProvider.getContextPath(state.getCurrentContext(), dataType.getLocalPart()),
-                    state.getCurrentContextValue(),
-                    dataType.getLocalPart(),
-                    elm.getTemplateId(),
-                    elm.getCodeProperty(),
-                    codes,
-                    valueSet,
-                    elm.getDateProperty(),
-                    elm.getDateLowProperty(),
-                    elm.getDateHighProperty(),
-                    dateRange);
-
-            // TODO: We probably shouldn't eagerly load this, but we need to track
-            // this throughout the engine and only add it to the list when it's actually used
-            var evaluatedResource = state.getEvaluatedResources();
-            if (result instanceof List) {
-                evaluatedResource.addAll((List<?>) result);
+            if (prefetched != null || cached != null) {
+                // Recorded as a hit in the profile node of the retrieve
+                state.getTopActivationFrame().isCached = true;
+                result = prefetched != null ? prefetched : cached;
+                if (prefetched != null && !(prefetched instanceof List)) {
+                    // A lazy prefetched result is shared by the retrieves it answers, which record
+                    // the resources they consume as evaluated like for any other lazy result
+                    result = new MemoizingIterable(
+                            prefetched, resource -> state.getEvaluatedResources().add(resource));
+                }
             } else {
-                for (var o : result) {
-                    evaluatedResource.add(o);
+                result = request.retrieve(dataProvider);
+                if (result != null && !(result instanceof List)) {
+                    // Other results are fetched as they are consumed, for example by the pages of a search,
+                    // so that Exists or First don't fetch everything. Consumed resources are recorded as
+                    // evaluated by the expression consuming them, and iterating the result again, also
+                    // from the retrieve cache, doesn't fetch them again.
+                    result = new MemoizingIterable(result, resource -> state.getEvaluatedResources().add(resource));
+                }
+                if (retrieveCache != null) {
+                    retrieveCache.put(request, result);
                 }
             }
+
+            if (result instanceof List) {
+                state.getEvaluatedResources().addAll((List<?>) result);
+            }
         } finally {
             // Need to effectively reverse the context change we did at the beginning of this method
             state.exitContext(isEnteredContext);
@@ -113,4 +101,71 @@ public class RetrieveEvaluator {
 
         return result;
     }
+
+    /**
+     * Evaluates the codes and date range of the given retrieve and returns the request to issue
+     * to the data provider, in the current context.
+     *
+     * @param elm the retrieve
+     * @param dataType the data type of the retrieve, with its namespace fixed up
+     * @param dataProvider the data provider of the data type
+     * @param state the state
+     * @param visitor the visitor with which the codes and date range are evaluated
+     * @return the request
+     */
+    @SuppressWarnings("unchecked")
+    public static RetrieveRequest toRequest(
+            Retrieve elm,
+            QName dataType,
+            DataProvider dataProvider,
+            State state,
+            ElmLibraryVisitor<Object, State> visitor) {
+        Iterable<Code> codes = null;
+        String valueSet = null;
+        if (elm.getCodes() != null) {
+            if (elm.getCodes() instanceof ValueSetRef) {
+                ValueSet vs = ValueSetRefEvaluator.toValueSet(state, (ValueSetRef) elm.getCodes());
+                valueSet = vs.getId();
+            } else {
+                Object codesResult = visitor.visitExpression(elm.getCodes(), state);
+                if (codesResult instanceof ValueSet) {
+                    valueSet = ((ValueSet) codesResult).getId();
+                } else if (codesResult instanceof String) {
+                    List<Code> codesList = new ArrayList<>();
+                    codesList.add(new Code().withCode((String) codesResult));
+                    codes = codesList;
+                } else if (codesResult instanceof Code) {
+                    List<Code> codesList = new ArrayList<>();
+                    codesList.add((Code) codesResult);
+                    codes = codesList;
+                } else if (codesResult instanceof Concept) {
+                    List<Code> codesList = new ArrayList<>();
+                    for (Code conceptCode : ((Concept) codesResult).getCodes()) {
+                        codesList.add(conceptCode);
+                    }
+                    codes = codesList;
+                } else {
+                    codes = (Iterable<Code>) codesResult;
+                }
+            }
+        }
+        Interval dateRange = null;
+        if (elm.getDateRange() != null) {
+            dateRange = (Interval) visitor.visitExpression(elm.getDateRange(), state);
+        }
+
+        return new RetrieveRequest(
+                state.getCurrentContext(),
+                (String) dataProvider.getContextPath(state.getCurrentContext(), dataType.getLocalPart()),
+                state.getCurrentContextValue(),
+                dataType.getLocalPart(),
+                elm.getTemplateId(),
+                elm.getCodeProperty(),
+                codes,
+                valueSet,
+                elm.getDateProperty(),
+                elm.getDateLowProperty(),
+                elm.getDateHighProperty(),
+                dateRange);
+    }
 }
@@ -3,7 +3,9 @@ package org.opencds.cqf.cql.engine.elm.executing;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
+import org.opencds.cqf.cql.engine.execution.PatternCache;
 
 /*
 
@@ -24,6 +26,14 @@ import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
 public class SplitOnMatchesEvaluator {
 
     public static Object splitOnMatches(Object stringToSplit, Object separator) {
+        return splitOnMatches(stringToSplit, separator, null);
+    }
+
+    /**
+     * Splits the string with the given separator, which is a String compiled with the given cache, or
+     * a compiled Pattern. The separator is compiled without a cache if none is given.
+     */
+    public static Object splitOnMatches(Object stringToSplit, Object separator, PatternCache patternCache) {
         if (stringToSplit == null) {
             return null;
         }
@@ -32,6 +42,10 @@ public class SplitOnMatchesEvaluator {
             List<Object> result = new ArrayList<>();
             if (separator == null) {
                 result.add(stringToSplit);
+            } else if (separator instanceof Pattern) {
+                Collections.addAll(result, ((Pattern) separator).split((String) stringToSplit));
+            } else if (patternCache != null) {
+                Collections.addAll(result, patternCache.get((String) separator).split((String) stringToSplit));
             } else {
                 Collections.addAll(result, (((String) stringToSplit).split((String) separator)));
             }
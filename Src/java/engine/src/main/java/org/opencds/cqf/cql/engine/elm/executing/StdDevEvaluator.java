@@ -24,27 +24,48 @@ public class StdDevEvaluator {
         }
 
         if (source instanceof Iterable<?> iterable) {
-
-            if (!iterable.iterator().hasNext()) {
-                return null;
-            }
-
-            Object variance = VarianceEvaluator.variance(source, state);
-            // The cases in which Variance returns null are the same as those where StdDev does.
-            if (variance == null) {
-                return null;
-            }
-
-            return variance instanceof BigDecimal
-                    ? PowerEvaluator.power(variance, new BigDecimal("0.5"))
-                    : new Quantity()
-                            .withValue((BigDecimal)
-                                    PowerEvaluator.power(((Quantity) variance).getValue(), new BigDecimal("0.5")))
-                            .withUnit(((Quantity) variance).getUnit());
+            final var accumulator = new Accumulator(new VarianceEvaluator.Accumulator(state, false));
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
         }
 
         throw new InvalidOperatorArgument(
                 "StdDev(List<Decimal>) or StdDev(List<Quantity>)",
                 String.format("StdDev(%s)", source.getClass().getName()));
     }
+
+    /**
+     * The square root of a sample or population variance.
+     */
+    static class Accumulator extends AggregateAccumulator {
+        private final VarianceEvaluator.Accumulator variance;
+
+        Accumulator(VarianceEvaluator.Accumulator variance) {
+            this.variance = variance;
+        }
+
+        @Override
+        public void add(Object element) {
+            variance.add(element);
+        }
+
+        @Override
+        public Object getResult() {
+            return squareRoot(variance.getResult());
+        }
+    }
+
+    static Object squareRoot(Object variance) {
+        // The cases in which Variance returns null are the same as those where StdDev does.
+        if (variance == null) {
+            return null;
+        }
+
+        return variance instanceof BigDecimal
+                ? PowerEvaluator.power(variance, new BigDecimal("0.5"))
+                : new Quantity()
+                        .withValue((BigDecimal)
+                                PowerEvaluator.power(((Quantity) variance).getValue(), new BigDecimal("0.5")))
+                        .withUnit(((Quantity) variance).getUnit());
+    }
 }
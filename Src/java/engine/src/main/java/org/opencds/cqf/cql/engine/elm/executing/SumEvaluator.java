@@ -23,24 +23,40 @@ public class SumEvaluator {
         }
 
         if (source instanceof Iterable<?> elements) {
-            Object sum = null;
-            for (Object element : elements) {
-                if (element == null) {
-                    continue;
-                }
-
-                if (sum == null) {
-                    sum = element;
-                } else {
-                    sum = AddEvaluator.add(sum, element, state);
-                }
-            }
-
-            return sum;
+            final var accumulator = new Accumulator(state);
+            AggregateAccumulator.accumulate(elements, accumulator);
+            return accumulator.getResult();
         }
 
         throw new InvalidOperatorArgument(
                 "Sum(List<Integer>), Sum(List<Long>), Sum(List<Decimal>) or Sum(List<Quantity>)",
                 String.format("Sum(%s)", source.getClass().getName()));
     }
+
+    static class Accumulator extends AggregateAccumulator {
+        private final State state;
+        private Object sum;
+
+        Accumulator(State state) {
+            this.state = state;
+        }
+
+        @Override
+        public void add(Object element) {
+            if (element == null) {
+                return;
+            }
+
+            if (sum == null) {
+                sum = element;
+            } else {
+                sum = AddEvaluator.add(sum, element, state);
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return sum;
+        }
+    }
 }
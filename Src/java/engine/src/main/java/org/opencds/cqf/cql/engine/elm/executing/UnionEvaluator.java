@@ -79,14 +79,10 @@ public class UnionEvaluator {
 
         // List Logic
         List<Object> result = new ArrayList<>();
-        for (Object leftElement : left) {
-            result.add(leftElement);
-        }
-
-        for (Object rightElement : right) {
-            result.add(rightElement);
-        }
-        return DistinctEvaluator.distinct(result, state);
+        var seen = new EqualityHashHelper.EqualitySet(state);
+        DistinctEvaluator.distinct(left, seen, result);
+        DistinctEvaluator.distinct(right, seen, result);
+        return result;
     }
 
     public static Object union(Object left, Object right, State state) {
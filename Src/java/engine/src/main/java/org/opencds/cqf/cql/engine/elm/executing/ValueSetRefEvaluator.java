@@ -13,9 +13,13 @@ import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
 public class ValueSetRefEvaluator {
 
     public static ValueSet toValueSet(State state, ValueSetRef vsr) {
-        boolean enteredLibrary = state.enterLibrary(vsr.getLibraryName());
+        final var link = state.resolveLink(vsr);
+        boolean enteredLibrary =
+                link != null ? state.enterLibrary(link.library()) : state.enterLibrary(vsr.getLibraryName());
         try {
-            ValueSetDef vsd = Libraries.resolveValueSetRef(vsr.getName(), state.getCurrentLibrary());
+            ValueSetDef vsd = link != null
+                    ? (ValueSetDef) link.definition()
+                    : Libraries.resolveValueSetRef(vsr.getName(), state.getCurrentLibrary());
             ValueSet vs = new ValueSet().withId(vsd.getId()).withVersion(vsd.getVersion());
             for (CodeSystemRef csr : vsd.getCodeSystem()) {
                 CodeSystem cs = CodeSystemRefEvaluator.toCodeSystem(csr, state);
@@ -1,11 +1,10 @@
 package org.opencds.cqf.cql.engine.elm.executing;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.List;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
 import org.opencds.cqf.cql.engine.execution.State;
 import org.opencds.cqf.cql.engine.runtime.Quantity;
+import org.opencds.cqf.cql.engine.runtime.Value;
 
 /*
 Variance(argument List<Decimal>) Decimal
@@ -26,36 +25,109 @@ public class VarianceEvaluator {
         }
 
         if (source instanceof Iterable<?> iterable) {
+            final var accumulator = new Accumulator(state, false);
+            AggregateAccumulator.accumulate(iterable, accumulator);
+            return accumulator.getResult();
+        }
 
-            if (!iterable.iterator().hasNext()) {
-                return null;
+        throw new InvalidOperatorArgument(
+                "Variance(List<Decimal>) or Variance(List<Quantity>)",
+                String.format("Variance(%s)", source.getClass().getName()));
+    }
+
+    /**
+     * Computes the sample or population variance in one pass from the count, the sum and the sum
+     * of the squares of the elements. Decimal addition and multiplication are exact, so unlike with
+     * floating point numbers, subtracting the square of the sum loses no precision, and the result
+     * is rounded once, by the final division. Quantities are converted to the unit of the first
+     * one, unless their units are equal; the variance of quantities is a quantity with the square of
+     * that unit, as the product of two of them, or the default unit if that unit is the default.
+     */
+    static class Accumulator extends AggregateAccumulator {
+        private final State state;
+        private final boolean population;
+        private int count;
+        private BigDecimal sum = BigDecimal.ZERO;
+        private BigDecimal sumOfSquares = BigDecimal.ZERO;
+        private Quantity first;
+        private boolean inconvertible;
+
+        Accumulator(State state, boolean population) {
+            this.state = state;
+            this.population = population;
+        }
+
+        @Override
+        public void add(Object element) {
+            if (element == null) {
+                return;
             }
 
-            Object mean = AvgEvaluator.avg(source, state);
-
-            List<Object> newVals = new ArrayList<>();
-            for (Object element : iterable) {
-                if (element != null) {
-                    if (element instanceof BigDecimal || element instanceof Quantity) {
-                        final var diff = SubtractEvaluator.subtract(element, mean, state);
-                        newVals.add(MultiplyEvaluator.multiply(diff, diff, state));
-                    } else {
-                        throw new InvalidOperatorArgument(
-                                "Variance(List<Decimal>) or Variance(List<Quantity>)",
-                                String.format(
-                                        "Variance(List<%s>)", element.getClass().getName()));
-                    }
+            final BigDecimal value;
+            if (element instanceof BigDecimal decimal) {
+                value = decimal;
+            } else if (element instanceof Quantity quantity) {
+                value = valueOf(quantity);
+                if (value == null) {
+                    inconvertible = true;
+                    return;
                 }
+            } else {
+                throw new InvalidOperatorArgument(
+                        population
+                                ? "PopulationVariance(List<Decimal>) or PopulationVariance(List<Quantity>)"
+                                : "Variance(List<Decimal>) or Variance(List<Quantity>)",
+                        String.format(
+                                "%s(List<%s>)",
+                                population ? "PopulationVariance" : "Variance",
+                                element.getClass().getName()));
             }
 
-            return DivideEvaluator.divide(
-                    SumEvaluator.sum(newVals, state),
-                    new BigDecimal(newVals.size() - 1),
-                    state); // slight variation to Avg
+            ++count;
+            sum = sum.add(value);
+            sumOfSquares = sumOfSquares.add(value.multiply(value));
         }
 
-        throw new InvalidOperatorArgument(
-                "Variance(List<Decimal>) or Variance(List<Quantity>)",
-                String.format("Variance(%s)", source.getClass().getName()));
+        private BigDecimal valueOf(Quantity quantity) {
+            if (first == null) {
+                first = quantity;
+            }
+            if (Quantity.unitsEqual(first.getUnit(), quantity.getUnit())) {
+                return quantity.getValue();
+            }
+
+            // The default unit is converted as UCUM unity
+            final var converted = (Quantity) ConvertQuantityEvaluator.convertQuantity(
+                    Quantity.isDefaultUnit(quantity.getUnit())
+                            ? new Quantity().withValue(quantity.getValue()).withDefaultUnit()
+                            : quantity,
+                    Quantity.isDefaultUnit(first.getUnit()) ? "1" : first.getUnit(),
+                    state.getEnvironment().getLibraryManager().getUcumService());
+            return converted != null ? converted.getValue() : null;
+        }
+
+        @Override
+        public Object getResult() {
+            if (count == 0 || inconvertible) {
+                return null;
+            }
+
+            // n * sum of squares - square of sum = n^2 * population variance = n * (n - 1) * variance
+            final var n = new BigDecimal(count);
+            final var numerator = n.multiply(sumOfSquares).subtract(sum.multiply(sum));
+            final var denominator = n.multiply(population ? n : new BigDecimal(count - 1));
+            final var variance = DivideEvaluator.divide(numerator, denominator, state);
+            if (variance == null || first == null) {
+                return variance;
+            } else if (Quantity.isDefaultUnit(first.getUnit())) {
+                return new Quantity().withValue((BigDecimal) variance).withDefaultUnit();
+            }
+
+            final var unitQuantity = new Quantity().withValue(BigDecimal.ONE).withUnit(first.getUnit());
+            final var squared = (Quantity) MultiplyEvaluator.multiply(unitQuantity, unitQuantity, state);
+            return new Quantity()
+                    .withValue(Value.verifyPrecision(((BigDecimal) variance).multiply(squared.getValue()), null))
+                    .withUnit(squared.getUnit());
+        }
     }
 }
@@ -0,0 +1,117 @@
+package org.opencds.cqf.cql.engine.elm.executing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.hl7.elm.r1.Expression;
+import org.hl7.elm.r1.Query;
+
+/**
+ * The conditions of the where clause of a query, split by the sources they depend on, planned once
+ * per query.
+ * <p>
+ * The where clause of a query with multiple sources is evaluated for every row of the product of
+ * its sources. Conjuncts of the where clause that reference a single alias of the query, and none
+ * of its lets, select elements of that source regardless of the other elements of the row. They are
+ * evaluated once per element of that source instead, before the product is formed, so that the
+ * product only ranges over the elements that satisfy them. The remaining conjuncts are evaluated
+ * for every row of the product, after the lets and relationships.
+ * <p>
+ * A row is included if every conjunct is true, whether it is evaluated for the source or for the
+ * row, so a query returns the same rows with and without pushdown. A conjunct evaluated for a
+ * source is however evaluated for every element of the source, including elements of which every
+ * row fails another conjunct, so a conjunct that raises an error, such as a Message with severity
+ * Error, can raise it for an element whose rows never evaluate it without pushdown.
+ * <p>
+ * The where clause of a query with a single source is evaluated as a whole, as is the where clause
+ * of a query with with or without relationships: those exclude rows before the where clause is
+ * evaluated, and the where clause may rely on that to avoid errors.
+ *
+ * @see org.opencds.cqf.cql.engine.execution.LibraryAnalysis#getWherePushdown(Query)
+ */
+public class WherePushdown {
+
+    private final List<List<Expression>> sourceConditions;
+    private final List<Expression> rowConditions;
+
+    private WherePushdown(List<List<Expression>> sourceConditions, List<Expression> rowConditions) {
+        this.sourceConditions = sourceConditions;
+        this.rowConditions = rowConditions;
+    }
+
+    /**
+     * @param source the index of a source of the query
+     * @return the conditions evaluated once per element of the source, in the order of the where
+     * clause
+     */
+    public List<Expression> getSourceConditions(int source) {
+        return sourceConditions.get(source);
+    }
+
+    /**
+     * @return the conditions evaluated for every row of the query, in the order of the where clause
+     */
+    public List<Expression> getRowConditions() {
+        return rowConditions;
+    }
+
+    /**
+     * @return true if any condition is evaluated per element of a source
+     */
+    public boolean hasSourceConditions() {
+        for (var conditions : sourceConditions) {
+            if (!conditions.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Plans the evaluation of the where clause of a query.
+     *
+     * @param query the query
+     * @return the plan
+     */
+    public static WherePushdown plan(Query query) {
+        final var sourceCount = query.getSource().size();
+        final var sourceConditions = new ArrayList<List<Expression>>(sourceCount);
+        for (int i = 0; i < sourceCount; i++) {
+            sourceConditions.add(new ArrayList<>());
+        }
+
+        if (query.getWhere() == null) {
+            return new WherePushdown(sourceConditions, Collections.emptyList());
+        } else if (sourceCount < 2 || !query.getRelationship().isEmpty()) {
+            return new WherePushdown(sourceConditions, Collections.singletonList(query.getWhere()));
+        }
+
+        final var letNames = new HashSet<String>();
+        for (var let : query.getLet()) {
+            letNames.add(let.getIdentifier());
+        }
+
+        final var rowConditions = new ArrayList<Expression>();
+        for (var conjunct : RelationshipJoin.conjuncts(query.getWhere(), new ArrayList<>())) {
+            final var names = RelationshipJoin.referencedNames(conjunct);
+            int source = -1;
+            if (Collections.disjoint(names, letNames)) {
+                for (int i = 0; i < sourceCount; i++) {
+                    if (names.contains(query.getSource().get(i).getAlias())) {
+                        // Conjuncts that reference more than one alias are evaluated per row
+                        source = source == -1 ? i : -2;
+                    }
+                }
+            }
+
+            if (source >= 0) {
+                sourceConditions.get(source).add(conjunct);
+            } else {
+                rowConditions.add(conjunct);
+            }
+        }
+
+        return new WherePushdown(sourceConditions, rowConditions);
+    }
+}
@@ -207,7 +207,7 @@ public class Backtrace {
                 } else {
                     parameterNames = List.of();
                 }
-                frame.variables.forEach(variable -> {
+                frame.getVariables().forEach(variable -> {
                     if (parameterNames.contains(variable.getName())) {
                         arguments.add(variable);
                     } else {
@@ -217,7 +217,7 @@ public class Backtrace {
                 arguments.sort(Comparator.comparing(argument -> parameterNames.indexOf(argument.getName())));
                 break;
             } else {
-                localVariables.addAll(frame.variables);
+                localVariables.addAll(frame.getVariables());
             }
         }
         addFrame(new FunctionoidFrame(
@@ -0,0 +1,156 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+/**
+ * The results of a batch evaluation started with {@link CqlEngine#evaluateBatch}.
+ * <p>
+ * The evaluation is driven by consumption: the context values are pulled from the source iterator
+ * and submitted to the executor only as results are taken, so that no more than a bounded number of
+ * evaluations are running or waiting to be consumed at any time. Instances must be consumed from a
+ * single thread.
+ * <p>
+ * If profiling is enabled, the profiles of all consumed evaluations are merged into
+ * {@link #getProfile()}.
+ */
+public class BatchEvaluation implements Iterator<BatchEvaluation.Result>, AutoCloseable {
+
+    /**
+     * The outcome of evaluating the library for a single context value. Exactly one of
+     * {@link #getEvaluationResult()} and {@link #getException()} is non-null.
+     */
+    public static class Result {
+        private final Object contextValue;
+        private final EvaluationResult evaluationResult;
+        private final RuntimeException exception;
+
+        Result(Object contextValue, EvaluationResult evaluationResult, RuntimeException exception) {
+            this.contextValue = contextValue;
+            this.evaluationResult = evaluationResult;
+            this.exception = exception;
+        }
+
+        public Object getContextValue() {
+            return contextValue;
+        }
+
+        public EvaluationResult getEvaluationResult() {
+            return evaluationResult;
+        }
+
+        public RuntimeException getException() {
+            return exception;
+        }
+    }
+
+    private final Iterator<?> contextValues;
+    private final int maxInFlight;
+    private final Function<Object, EvaluationResult> evaluation;
+    private final CompletionService<Result> completionService;
+    private final Set<Future<Result>> pending = new HashSet<>();
+    private final Profile profile = new Profile();
+    private boolean isClosed = false;
+
+    BatchEvaluation(
+            Iterator<?> contextValues,
+            Executor executor,
+            int maxInFlight,
+            Function<Object, EvaluationResult> evaluation) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1.");
+        }
+        this.contextValues = contextValues;
+        this.maxInFlight = maxInFlight;
+        this.evaluation = evaluation;
+        this.completionService = new ExecutorCompletionService<>(executor);
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public Result next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final Result result;
+        try {
+            final var future = completionService.take();
+            pending.remove(future);
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CqlException("Interrupted while waiting for a batch evaluation result.", e);
+        } catch (ExecutionException | CancellationException e) {
+            throw new CqlException("Batch evaluation failed: " + e.getMessage(), e);
+        }
+
+        if (result.getEvaluationResult() != null
+                && result.getEvaluationResult().getDebugResult() != null
+                && result.getEvaluationResult().getDebugResult().getProfile() != null) {
+            profile.merge(result.getEvaluationResult().getDebugResult().getProfile());
+        }
+
+        fill();
+        return result;
+    }
+
+    public Stream<Result> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Returns the merged profile of all results consumed so far. The profile is empty unless the
+     * engine has profiling enabled.
+     *
+     * @return the merged profile
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Stops submitting evaluations and cancels the ones that have not completed yet.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        for (var future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+    }
+
+    private void fill() {
+        while (!isClosed && pending.size() < maxInFlight && contextValues.hasNext()) {
+            final var contextValue = contextValues.next();
+            pending.add(completionService.submit(() -> {
+                try {
+                    return new Result(contextValue, evaluation.apply(contextValue), null);
+                } catch (RuntimeException e) {
+                    return new Result(contextValue, null, e);
+                }
+            }));
+        }
+    }
+}
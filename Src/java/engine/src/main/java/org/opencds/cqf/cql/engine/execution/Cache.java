@@ -16,7 +16,7 @@ public class Cache {
 
     private boolean enableExpressionCache = false;
 
-    private final Map<FunctionRef, FunctionDef> functionCache = new HashMap<>();
+    private final Map<FunctionRef, FunctionDef> functionCache;
 
     private final Map<VersionedIdentifier, Map<String, ExpressionResult>> expressions =
             new LinkedHashMap<VersionedIdentifier, Map<String, ExpressionResult>>(10, 0.9f, true) {
@@ -27,6 +27,21 @@ public class Cache {
                 }
             };
 
+    public Cache() {
+        this(new HashMap<>());
+    }
+
+    /**
+     * Creates a cache whose function resolutions are stored in the supplied map. Function resolutions
+     * do not depend on the context, so engines evaluating the same libraries concurrently can share a
+     * single thread-safe map.
+     *
+     * @param functionCache the map in which function resolutions are stored
+     */
+    public Cache(Map<FunctionRef, FunctionDef> functionCache) {
+        this.functionCache = functionCache;
+    }
+
     protected Map<String, ExpressionResult> constructLibraryExpressionHashMap() {
         return new LinkedHashMap<String, ExpressionResult>(15, 0.9f, true) {
             @Override
@@ -0,0 +1,207 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.cqframework.cql.elm.visiting.BaseElmLibraryVisitor;
+import org.hl7.elm.r1.CalculateAge;
+import org.hl7.elm.r1.ConvertsToDateTime;
+import org.hl7.elm.r1.DateTime;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.ExpressionRef;
+import org.hl7.elm.r1.FunctionDef;
+import org.hl7.elm.r1.FunctionRef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.Now;
+import org.hl7.elm.r1.ParameterRef;
+import org.hl7.elm.r1.Retrieve;
+import org.hl7.elm.r1.TimeOfDay;
+import org.hl7.elm.r1.ToDateTime;
+import org.hl7.elm.r1.Today;
+
+/**
+ * Determines what the result of an expression definition depends on besides the library, its
+ * parameters and its terminology, following expression and function references transitively
+ * (also into included libraries).
+ * <p>
+ * A definition depends on the context if it (transitively) retrieves data in any context other
+ * than Unfiltered or Population, or calls an external function. It depends on the evaluation time
+ * if it uses Now(), Today() or TimeOfDay(), or an operation that takes the evaluation offset or
+ * date when none is given: DateTime selectors without an offset, including DateTime literals,
+ * conversions to DateTime and CalculateAge without an as-of date. The dependencies of the
+ * definitions of a library are determined once, when the library is analyzed, see
+ * {@link LibraryAnalysis}.
+ */
+class ContextDependencyVisitor
+        extends BaseElmLibraryVisitor<ContextDependencyVisitor.Dependency, ContextDependencyVisitor.Scope> {
+
+    /**
+     * Dependencies of a definition, ordered from weakest to strongest.
+     */
+    enum Dependency {
+        NONE,
+        EVALUATION_TIME,
+        CONTEXT
+    }
+
+    record Scope(Environment environment, Library library, String context) {
+        Scope withLibrary(Library library, String context) {
+            return new Scope(environment, library, context);
+        }
+    }
+
+    private final Map<ExpressionDef, Map<String, Dependency>> dependencies = new IdentityHashMap<>();
+
+    /**
+     * Returns the dependencies of the expression definitions of the given library, excluding its
+     * functions, resolving included libraries in the given environment.
+     *
+     * @param library the library
+     * @param environment the environment
+     * @return the dependencies, which can't be modified
+     */
+    static Map<ExpressionDef, Dependency> analyze(Library library, Environment environment) {
+        final var visitor = new ContextDependencyVisitor();
+        final var result = new IdentityHashMap<ExpressionDef, Dependency>();
+        if (library.getStatements() != null) {
+            for (var expressionDef : library.getStatements().getDef()) {
+                if (!(expressionDef instanceof FunctionDef)) {
+                    result.put(
+                            expressionDef,
+                            visitor.analyze(
+                                    expressionDef, new Scope(environment, library, expressionDef.getContext())));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private Dependency analyze(ExpressionDef expressionDef, Scope scope) {
+        final var forContext = dependencies.computeIfAbsent(expressionDef, def -> new HashMap<>());
+        final var known = forContext.get(scope.context());
+        if (known != null) {
+            return known;
+        }
+
+        // Recursive references can't be proven independent, so treat them as dependent while analyzing.
+        forContext.put(scope.context(), Dependency.CONTEXT);
+        final var result = expressionDef.getExpression() != null
+                ? visitExpression(expressionDef.getExpression(), scope)
+                : Dependency.NONE;
+        forContext.put(scope.context(), result);
+        return result;
+    }
+
+    private static Library resolveLibrary(String libraryName, Scope scope) {
+        if (libraryName == null) {
+            return scope.library();
+        }
+
+        final var includeDef = Libraries.resolveLibraryRef(libraryName, scope.library());
+        return scope.environment().resolveLibrary(Libraries.toVersionedIdentifier(includeDef));
+    }
+
+    @Override
+    protected Dependency defaultResult(Trackable elm, Scope scope) {
+        return Dependency.NONE;
+    }
+
+    @Override
+    protected Dependency aggregateResult(Dependency aggregate, Dependency nextResult) {
+        if (aggregate == null) {
+            return nextResult;
+        }
+        if (nextResult == null) {
+            return aggregate;
+        }
+        return aggregate.compareTo(nextResult) >= 0 ? aggregate : nextResult;
+    }
+
+    @Override
+    public Dependency visitRetrieve(Retrieve elm, Scope scope) {
+        final var result = super.visitRetrieve(elm, scope);
+        if (elm.getContext() != null
+                || !("Unfiltered".equals(scope.context()) || "Population".equals(scope.context()))) {
+            return Dependency.CONTEXT;
+        }
+        return result;
+    }
+
+    @Override
+    public Dependency visitExpressionRef(ExpressionRef elm, Scope scope) {
+        if (elm instanceof FunctionRef) {
+            return visitFunctionRef((FunctionRef) elm, scope);
+        }
+
+        final var library = resolveLibrary(elm.getLibraryName(), scope);
+        final var expressionDef = Libraries.resolveExpressionRef(elm.getName(), library);
+        final var context = expressionDef.getContext() != null ? expressionDef.getContext() : scope.context();
+        return analyze(expressionDef, scope.withLibrary(library, context));
+    }
+
+    @Override
+    public Dependency visitFunctionRef(FunctionRef elm, Scope scope) {
+        var result = super.visitFunctionRef(elm, scope);
+
+        // Function bodies are evaluated in the context of the caller.
+        final var library = resolveLibrary(elm.getLibraryName(), scope);
+        final var functionDefs = Libraries.getFunctionDefs(elm.getName(), library);
+        if (functionDefs.isEmpty()) {
+            return Dependency.CONTEXT;
+        }
+        for (var functionDef : functionDefs) {
+            if (Boolean.TRUE.equals(functionDef.isExternal())) {
+                return Dependency.CONTEXT;
+            }
+            result = aggregateResult(result, analyze(functionDef, scope.withLibrary(library, scope.context())));
+        }
+        return result;
+    }
+
+    @Override
+    public Dependency visitParameterRef(ParameterRef elm, Scope scope) {
+        final var library = resolveLibrary(elm.getLibraryName(), scope);
+        final var parameterDef = Libraries.resolveParameterRef(elm.getName(), library);
+        return parameterDef.getDefault() != null
+                ? visitExpression(parameterDef.getDefault(), scope.withLibrary(library, scope.context()))
+                : Dependency.NONE;
+    }
+
+    @Override
+    public Dependency visitNow(Now elm, Scope scope) {
+        return Dependency.EVALUATION_TIME;
+    }
+
+    @Override
+    public Dependency visitToday(Today elm, Scope scope) {
+        return Dependency.EVALUATION_TIME;
+    }
+
+    @Override
+    public Dependency visitTimeOfDay(TimeOfDay elm, Scope scope) {
+        return Dependency.EVALUATION_TIME;
+    }
+
+    @Override
+    public Dependency visitDateTime(DateTime elm, Scope scope) {
+        final var result = super.visitDateTime(elm, scope);
+        return elm.getTimezoneOffset() == null ? aggregateResult(result, Dependency.EVALUATION_TIME) : result;
+    }
+
+    @Override
+    public Dependency visitToDateTime(ToDateTime elm, Scope scope) {
+        return aggregateResult(super.visitToDateTime(elm, scope), Dependency.EVALUATION_TIME);
+    }
+
+    @Override
+    public Dependency visitConvertsToDateTime(ConvertsToDateTime elm, Scope scope) {
+        return aggregateResult(super.visitConvertsToDateTime(elm, scope), Dependency.EVALUATION_TIME);
+    }
+
+    @Override
+    public Dependency visitCalculateAge(CalculateAge elm, Scope scope) {
+        return aggregateResult(super.visitCalculateAge(elm, scope), Dependency.EVALUATION_TIME);
+    }
+}
@@ -4,6 +4,8 @@ import static java.util.Objects.requireNonNull;
 
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
 import org.cqframework.cql.cql2elm.CqlCompilerException;
@@ -13,6 +15,7 @@ import org.opencds.cqf.cql.engine.debug.DebugAction;
 import org.opencds.cqf.cql.engine.debug.DebugMap;
 import org.opencds.cqf.cql.engine.debug.SourceLocator;
 import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.runtime.iterators.MemoizingIterable;
 
 /**
  * NOTE: We have updated CqlEngine to adopt a visitor pattern approach to traversing the ELM tree for execution:
@@ -38,6 +41,36 @@ public class CqlEngine {
         // ratio for certain elements such as expression and function
         // definitions and retrieves.
         EnableProfiling,
+        // Resolve the expression, function, parameter and terminology
+        // references of each library once, before its first evaluation,
+        // rather than looking up definitions by name on every evaluation
+        // of a reference.
+        EnableReferenceLinking,
+        // Evaluate the cheaper operand of And, Or and Implies expressions first, estimating the
+        // cost of each operand by whether it contains retrieves, terminology operations or only
+        // literals and parameters, so that the other operand can be skipped if the cheaper one
+        // decides the result. Operands are otherwise evaluated from left to right, skipping the
+        // right operand if the left one decides the result.
+        EnableCostOrderedEvaluation,
+        // Evaluate every function from its CQL definition, even when a native implementation
+        // has been registered for it with the environment (see NativeFunctionProvider). Used to
+        // check the native implementations against the definitions they replace.
+        DisableNativeFunctions,
+        // Before evaluating the expressions for a context value, issue the retrieves that the
+        // expressions reach, in the library and its includes, whose codes and date ranges can be
+        // evaluated up front, concurrently if the environment has a prefetch executor, and answer
+        // the retrieves the evaluation reaches from those results (see PrefetchPlan). Other
+        // retrieves are issued as they are reached.
+        EnableRetrievePrefetch,
+        // Cache the result of every retrieve for the duration of an evaluation, keyed by its
+        // context value, type, template, codes and date range, so that identical retrieves of
+        // different definitions and libraries are issued once (see RetrieveCache).
+        EnableRetrieveCaching,
+        // Like EnableRetrieveCaching, and also answer a retrieve from the cached result of a broader
+        // retrieve of the same type, without codes or with a superset of its codes, and without a
+        // date range or with one that includes its date range, filtered in memory by the data
+        // provider if it is a RetrieveFilter.
+        EnableRetrieveSubsumption,
     }
 
     private final Environment environment;
@@ -50,11 +83,15 @@ public class CqlEngine {
     }
 
     public CqlEngine(Environment environment, Set<Options> engineOptions) {
+        this(environment, engineOptions, new Cache());
+    }
+
+    CqlEngine(Environment environment, Set<Options> engineOptions, Cache cache) {
         requireNonNull(environment.getLibraryManager(), "Environment LibraryManager can not be null.");
         this.environment = environment;
 
         this.engineOptions = engineOptions != null ? engineOptions : EnumSet.of(Options.EnableExpressionCaching);
-        this.state = new State(environment, engineOptions);
+        this.state = new State(environment, this.engineOptions, cache);
 
         if (this.engineOptions.contains(CqlEngine.Options.EnableExpressionCaching)) {
             this.getCache().setExpressionCaching(true);
@@ -219,11 +256,107 @@ public class CqlEngine {
         }
 
         this.initializeState(library, debugMap, evaluationDateTime);
+        final var analysis = this.environment.getLibraryAnalysis(library);
+        this.state.setVariableSlots(analysis.getVariableSlots());
+        this.state.setLiteralPatterns(analysis.getLiteralPatterns());
         this.setParametersForContext(library, contextParameter, parameters);
+        if (this.engineOptions.contains(Options.EnableReferenceLinking)) {
+            this.state.setLinkedReferences(analysis.getLinkedReferences());
+        }
+        if (this.engineOptions.contains(Options.EnableCostOrderedEvaluation)) {
+            this.state.setEvaluationCosts(analysis.getEvaluationCosts());
+        }
+        this.state.setRetrieveCache(null);
+        if (this.engineOptions.contains(Options.EnableRetrieveCaching)
+                || this.engineOptions.contains(Options.EnableRetrieveSubsumption)) {
+            this.state.setRetrieveCache(
+                    new RetrieveCache(this.engineOptions.contains(Options.EnableRetrieveSubsumption)));
+        }
+        this.state.setPrefetchedRetrieves(null);
+        if (this.engineOptions.contains(Options.EnableRetrievePrefetch) && contextParameter != null) {
+            this.state.setPrefetchedRetrieves(analysis.getPrefetchPlan()
+                    .prefetch(
+                            contextParameter.getLeft(),
+                            expressions,
+                            this.state,
+                            this.evaluationVisitor,
+                            this.environment.getPrefetchExecutor()));
+        }
 
         return this.evaluateExpressions(expressions);
     }
 
+    /**
+     * Evaluates the given expressions once for each of the supplied context values (for example, one
+     * evaluation per patient). Each evaluation runs in its own engine with its own {@link State}, so
+     * evaluations are isolated from each other and from this engine. The compiled library, function
+     * resolutions and parameter values are shared across all evaluations, as are the results of
+     * context-independent definitions if the environment has a {@link SharedExpressionCache}.
+     * <p>
+     * Evaluations are submitted to the executor as results are consumed: at most maxInFlight
+     * evaluations are pending or unconsumed at any time, so the context values can be a lazily
+     * produced stream of arbitrary length. Results are returned in completion order.
+     * <p>
+     * The environment's data and terminology providers are used concurrently by the worker threads
+     * and therefore must be thread-safe.
+     *
+     * @param libraryIdentifier the library to evaluate
+     * @param expressions the expressions to evaluate, or null for all expressions in the library
+     * @param contextName the name of the context, for example Patient
+     * @param contextValues the context values, consumed on the thread that consumes the results
+     * @param parameters the parameter values, shared by all evaluations
+     * @param evaluationDateTime the value for "Now()", shared by all evaluations; defaults to the current time
+     * @param executor the executor on which evaluations run, for example a fixed thread pool or a virtual
+     *                 thread per task executor
+     * @param maxInFlight the maximum number of evaluations that are running or whose results have not been consumed
+     * @return the results, to be consumed as they complete
+     */
+    public BatchEvaluation evaluateBatch(
+            VersionedIdentifier libraryIdentifier,
+            Set<String> expressions,
+            String contextName,
+            Iterator<?> contextValues,
+            Map<String, Object> parameters,
+            ZonedDateTime evaluationDateTime,
+            Executor executor,
+            int maxInFlight) {
+        if (libraryIdentifier == null) {
+            throw new IllegalArgumentException("libraryIdentifier can not be null.");
+        }
+
+        // Load all libraries on this thread so that the workers only ever read the library cache.
+        Library library = this.loadAndValidate(libraryIdentifier);
+        final var analysis = this.environment.getLibraryAnalysis(library);
+        analysis.getVariableSlots();
+        analysis.getLiteralPatterns();
+        if (this.engineOptions.contains(Options.EnableReferenceLinking)) {
+            analysis.getLinkedReferences();
+        }
+        if (this.engineOptions.contains(Options.EnableCostOrderedEvaluation)) {
+            analysis.getEvaluationCosts();
+        }
+        if (this.engineOptions.contains(Options.EnableRetrievePrefetch)) {
+            analysis.getPrefetchPlan();
+        }
+        final var expressionSet =
+                expressions != null ? Collections.unmodifiableSet(expressions) : this.getExpressionSet(library);
+        final var sharedParameters =
+                parameters != null ? Collections.unmodifiableMap(new HashMap<>(parameters)) : null;
+        final var sharedEvaluationDateTime = evaluationDateTime != null ? evaluationDateTime : ZonedDateTime.now();
+        final var sharedFunctionCache = new ConcurrentHashMap<FunctionRef, FunctionDef>();
+
+        return new BatchEvaluation(contextValues, executor, maxInFlight, contextValue -> {
+            final var engine = new CqlEngine(this.environment, this.engineOptions, new Cache(sharedFunctionCache));
+            return engine.evaluate(
+                    libraryIdentifier,
+                    expressionSet,
+                    Pair.of(contextName, contextValue),
+                    sharedParameters,
+                    null,
+                    sharedEvaluationDateTime);
+        });
+    }
+
     private void initializeState(Library library, DebugMap debugMap, ZonedDateTime evaluationDateTime) {
         if (evaluationDateTime == null) {
             evaluationDateTime = ZonedDateTime.now();
@@ -257,7 +390,10 @@ public class CqlEngine {
                     final var action = state.shouldDebug(def);
                     state.pushActivationFrame(def, def.getContext());
                     try {
-                        final var object = this.evaluationVisitor.visitExpressionDef(def, state);
+                        // Lazily fetched retrieve results are consumed here so that the result is complete
+                        // and records all of its evaluated resources.
+                        final var object =
+                                MemoizingIterable.materialize(this.evaluationVisitor.visitExpressionDef(def, state));
                         result.expressionResults.put(
                                 expression, new ExpressionResult(object, state.getEvaluatedResources()));
                         // Do not call
@@ -1,8 +1,13 @@
 package org.opencds.cqf.cql.engine.execution;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import javax.xml.namespace.QName;
 import org.cqframework.cql.cql2elm.LibraryManager;
 import org.hl7.elm.r1.ChoiceTypeSpecifier;
@@ -16,6 +21,8 @@ import org.hl7.elm.r1.TypeSpecifier;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.opencds.cqf.cql.engine.data.DataProvider;
 import org.opencds.cqf.cql.engine.data.ExternalFunctionProvider;
+import org.opencds.cqf.cql.engine.data.NativeFunctionProvider;
+import org.opencds.cqf.cql.engine.data.NativeFunctionProvider.NativeFunction;
 import org.opencds.cqf.cql.engine.data.SystemDataProvider;
 import org.opencds.cqf.cql.engine.exception.CqlException;
 import org.opencds.cqf.cql.engine.runtime.Tuple;
@@ -70,6 +77,23 @@ public class Environment {
         return terminologyProvider;
     }
 
+    private SharedExpressionCache sharedExpressionCache;
+
+    public SharedExpressionCache getSharedExpressionCache() {
+        return sharedExpressionCache;
+    }
+
+    /**
+     * Sets the cache in which all engines using this environment share the results of
+     * context-independent expression definitions, or null (the default) to disable sharing.
+     * The data and terminology providers must not change while the cache is in use.
+     *
+     * @param sharedExpressionCache the shared cache, or null
+     */
+    public void setSharedExpressionCache(SharedExpressionCache sharedExpressionCache) {
+        this.sharedExpressionCache = sharedExpressionCache;
+    }
+
     // -- ExternalFunctionProviders -- TODO the registration of these... Should be
     // part of the LibraryManager?
     //
@@ -89,6 +113,46 @@ public class Environment {
         return provider;
     }
 
+    // -- NativeFunctionProviders
+
+    private static final NativeFunction NO_NATIVE_FUNCTION = (arguments, state) -> {
+        throw new IllegalStateException();
+    };
+
+    private final List<NativeFunctionProvider> nativeFunctionProviders = new CopyOnWriteArrayList<>();
+    private final Map<FunctionDef, NativeFunction> nativeFunctions =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    public void registerNativeFunctionProvider(NativeFunctionProvider provider) {
+        nativeFunctionProviders.add(provider);
+        nativeFunctions.clear();
+    }
+
+    /**
+     * Returns the native implementation of the given function definition from the registered
+     * native function providers, or null if the definition should be evaluated as CQL.
+     *
+     * @param libraryIdentifier the identifier of the library that defines the function
+     * @param functionDef the function definition
+     * @return the native implementation or null
+     */
+    public NativeFunction resolveNativeFunction(VersionedIdentifier libraryIdentifier, FunctionDef functionDef) {
+        if (nativeFunctionProviders.isEmpty()) {
+            return null;
+        }
+
+        final var nativeFunction = nativeFunctions.computeIfAbsent(functionDef, f -> {
+            for (var provider : nativeFunctionProviders) {
+                final var candidate = provider.resolve(libraryIdentifier, f);
+                if (candidate != null) {
+                    return candidate;
+                }
+            }
+            return NO_NATIVE_FUNCTION;
+        });
+        return nativeFunction != NO_NATIVE_FUNCTION ? nativeFunction : null;
+    }
+
     // -- DataProvider "Helpers"
 
     public Object resolvePath(Object target, String path) {
@@ -154,6 +218,20 @@ public class Environment {
         return dataProvider.objectEquivalent(left, right);
     }
 
+    public Integer objectHashCode(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        Package valuePackage = value.getClass().getPackage();
+        if (valuePackage == null) {
+            return null;
+        }
+
+        DataProvider dataProvider = resolveDataProvider(valuePackage.getName(), false);
+        return dataProvider != null ? dataProvider.objectHashCode(value) : null;
+    }
+
     public Object createInstance(QName typeName) {
         typeName = fixupQName(typeName);
         DataProvider dataProvider = resolveDataProvider(typeName);
@@ -337,4 +415,69 @@ public class Environment {
     public Library resolveLibrary(VersionedIdentifier identifier) {
         return this.libraryManager.resolveLibrary(identifier).getLibrary();
     }
+
+    // The analysis of the last library evaluated per library identifier
+    private final Map<VersionedIdentifier, LibraryAnalysis> libraryAnalyses = new ConcurrentHashMap<>();
+    private static final VersionedIdentifier ANONYMOUS_LIBRARY = new VersionedIdentifier();
+
+    /**
+     * Returns the analyses of the given library that the engines of this environment share. If a
+     * different library with the same identifier was analyzed before, for example because it was
+     * recompiled, its analyses are released.
+     *
+     * @param library a library resolved through this environment
+     * @return the analyses of the library
+     */
+    public LibraryAnalysis getLibraryAnalysis(Library library) {
+        final var identifier =
+                library != null && library.getIdentifier() != null ? library.getIdentifier() : ANONYMOUS_LIBRARY;
+        final var analysis = libraryAnalyses.get(identifier);
+        if (analysis != null && analysis.getLibrary() == library) {
+            return analysis;
+        }
+
+        return libraryAnalyses.compute(identifier, (key, current) -> {
+            if (current != null && current.getLibrary() == library) {
+                // Created by another engine in the meantime
+                return current;
+            }
+            return new LibraryAnalysis(library, this);
+        });
+    }
+
+    private volatile Executor prefetchExecutor;
+
+    public Executor getPrefetchExecutor() {
+        return prefetchExecutor;
+    }
+
+    /**
+     * Sets the executor on which prefetched retrieves are issued concurrently. The data providers
+     * are then used concurrently and therefore must be thread-safe.
+     *
+     * @param prefetchExecutor the executor, or null to issue prefetched retrieves one after the
+     *                         other on the evaluating thread
+     * @see CqlEngine.Options#EnableRetrievePrefetch
+     */
+    public void setPrefetchExecutor(Executor prefetchExecutor) {
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    private volatile PatternCache patternCache = new PatternCache();
+
+    /**
+     * Returns the cache of compiled regular expressions shared by the engines of this environment.
+     *
+     * @return the pattern cache
+     */
+    public PatternCache getPatternCache() {
+        return patternCache;
+    }
+
+    public void setPatternCache(PatternCache patternCache) {
+        if (patternCache == null) {
+            throw new IllegalArgumentException("patternCache can not be null.");
+        }
+        this.patternCache = patternCache;
+    }
 }
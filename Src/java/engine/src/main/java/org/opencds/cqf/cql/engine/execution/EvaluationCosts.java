@@ -0,0 +1,285 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.cqframework.cql.elm.visiting.BaseElmLibraryVisitor;
+import org.hl7.elm.r1.AliasRef;
+import org.hl7.elm.r1.And;
+import org.hl7.elm.r1.AnyInCodeSystem;
+import org.hl7.elm.r1.AnyInValueSet;
+import org.hl7.elm.r1.CodeRef;
+import org.hl7.elm.r1.CodeSystemRef;
+import org.hl7.elm.r1.ConceptRef;
+import org.hl7.elm.r1.Element;
+import org.hl7.elm.r1.ExpandValueSet;
+import org.hl7.elm.r1.Expression;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.ExpressionRef;
+import org.hl7.elm.r1.FunctionDef;
+import org.hl7.elm.r1.FunctionRef;
+import org.hl7.elm.r1.IdentifierRef;
+import org.hl7.elm.r1.Implies;
+import org.hl7.elm.r1.InCodeSystem;
+import org.hl7.elm.r1.InValueSet;
+import org.hl7.elm.r1.IncludeDef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.Literal;
+import org.hl7.elm.r1.Null;
+import org.hl7.elm.r1.OperandRef;
+import org.hl7.elm.r1.Or;
+import org.hl7.elm.r1.ParameterRef;
+import org.hl7.elm.r1.QueryLetRef;
+import org.hl7.elm.r1.Retrieve;
+import org.hl7.elm.r1.ValueSetRef;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+/**
+ * Static estimates of the cost of evaluating the operands of the And, Or and Implies expressions
+ * of a library and all libraries it (transitively) includes, computed once so that the evaluation
+ * can start with the cheaper operand and skip the expensive one if the cheaper one decides the
+ * result.
+ * <p>
+ * The cost of an expression is the most expensive {@link Cost} of any expression it contains,
+ * including the definitions of the expressions and functions it references. The estimate doesn't
+ * take caching into account. Instances are immutable and can be shared by engines evaluating
+ * concurrently.
+ *
+ * @see CqlEngine.Options#EnableCostOrderedEvaluation
+ */
+public class EvaluationCosts {
+
+    /**
+     * The classes of expressions, from the cheapest to the most expensive.
+     */
+    public enum Cost {
+        /**
+         * Literals, parameters, variables and code references.
+         */
+        CONSTANT,
+        /**
+         * Any other computation on values that are already available.
+         */
+        COMPUTATION,
+        /**
+         * Value set expansions and membership checks, which may call a terminology service.
+         */
+        TERMINOLOGY,
+        /**
+         * Retrieves, which may call a data service.
+         */
+        RETRIEVE;
+
+        Cost max(Cost other) {
+            return other != null && other.compareTo(this) > 0 ? other : this;
+        }
+    }
+
+    private final Map<Element, Cost> costs;
+    private final Set<Element> reordered;
+
+    private EvaluationCosts(Map<Element, Cost> costs, Set<Element> reordered) {
+        this.costs = costs;
+        this.reordered = reordered;
+    }
+
+    /**
+     * Returns whether the second operand of the given And, Or or Implies expression is estimated to
+     * be cheaper than the first and should be evaluated first.
+     *
+     * @param expression an And, Or or Implies expression
+     * @return true to evaluate the second operand first
+     */
+    public boolean isReordered(Expression expression) {
+        return reordered.contains(expression);
+    }
+
+    /**
+     * Returns the estimated cost of the given operand of an And, Or or Implies expression.
+     *
+     * @param operand an operand
+     * @return the cost, or null if the operand was not estimated
+     */
+    public Cost get(Expression operand) {
+        return costs.get(operand);
+    }
+
+    /**
+     * Estimates the costs of the operands of the given library and all libraries it includes.
+     *
+     * @param library the library
+     * @param environment the environment in which included libraries are resolved
+     * @return the costs
+     */
+    public static EvaluationCosts estimate(Library library, Environment environment) {
+        final var estimator = new Estimator(environment);
+        estimator.estimateLibrary(library);
+        return new EvaluationCosts(estimator.costs, estimator.reordered);
+    }
+
+    private static class Estimator extends BaseElmLibraryVisitor<Cost, Library> {
+        private final Environment environment;
+        private final Map<Element, Cost> costs = new IdentityHashMap<>();
+        private final Set<Element> reordered = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Map<ExpressionDef, Cost> definitionCosts = new IdentityHashMap<>();
+        private final Set<Library> estimatedLibraries = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Estimator(Environment environment) {
+            this.environment = environment;
+        }
+
+        void estimateLibrary(Library library) {
+            if (!estimatedLibraries.add(library)) {
+                return;
+            }
+
+            visitLibrary(library, library);
+            if (library.getIncludes() != null) {
+                for (IncludeDef includeDef : library.getIncludes().getDef()) {
+                    estimateLibrary(environment.resolveLibrary(Libraries.toVersionedIdentifier(includeDef)));
+                }
+            }
+        }
+
+        @Override
+        protected Cost defaultResult(Trackable elm, Library library) {
+            if (elm instanceof Retrieve) {
+                return Cost.RETRIEVE;
+            }
+            if (elm instanceof InValueSet
+                    || elm instanceof AnyInValueSet
+                    || elm instanceof InCodeSystem
+                    || elm instanceof AnyInCodeSystem
+                    || elm instanceof ExpandValueSet
+                    || elm instanceof ValueSetRef) {
+                return Cost.TERMINOLOGY;
+            }
+            if (!(elm instanceof Expression)
+                    || elm instanceof Literal
+                    || elm instanceof Null
+                    || elm instanceof ParameterRef
+                    || elm instanceof OperandRef
+                    || elm instanceof AliasRef
+                    || elm instanceof QueryLetRef
+                    || elm instanceof IdentifierRef
+                    || elm instanceof CodeSystemRef
+                    || elm instanceof CodeRef
+                    || elm instanceof ConceptRef) {
+                return Cost.CONSTANT;
+            }
+            return Cost.COMPUTATION;
+        }
+
+        @Override
+        protected Cost aggregateResult(Cost aggregate, Cost nextResult) {
+            return aggregate == null ? nextResult : aggregate.max(nextResult);
+        }
+
+        @Override
+        public Cost visitExpressionDef(ExpressionDef elm, Library library) {
+            final var cost = definitionCosts.get(elm);
+            if (cost != null) {
+                return cost;
+            }
+
+            // Recursive references are estimated as computations until the definition is estimated.
+            definitionCosts.put(elm, Cost.COMPUTATION);
+            final var result = orComputation(
+                    elm instanceof FunctionDef
+                            ? super.visitFunctionDef((FunctionDef) elm, library)
+                            : super.visitExpressionDef(elm, library));
+            definitionCosts.put(elm, result);
+            return result;
+        }
+
+        @Override
+        public Cost visitFunctionDef(FunctionDef elm, Library library) {
+            return visitExpressionDef(elm, library);
+        }
+
+        @Override
+        public Cost visitExpressionRef(ExpressionRef elm, Library library) {
+            if (elm instanceof FunctionRef) {
+                return visitFunctionRef((FunctionRef) elm, library);
+            }
+
+            var result = orComputation(super.visitExpressionRef(elm, library));
+            final var target = resolveLibrary(elm.getLibraryName(), library);
+            if (target != null) {
+                try {
+                    result = result.max(
+                            estimateDefinitions(Libraries.resolveAllExpressionRef(elm.getName(), target), target));
+                } catch (CqlException e) {
+                    // Leave the reference as a computation; evaluating it reports the error.
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Cost visitFunctionRef(FunctionRef elm, Library library) {
+            var result = orComputation(super.visitFunctionRef(elm, library));
+            final var target = resolveLibrary(elm.getLibraryName(), library);
+            if (target != null) {
+                // Overloads are resolved at runtime, so assume the most expensive one.
+                result = result.max(estimateDefinitions(Libraries.getFunctionDefs(elm.getName(), target), target));
+            }
+            return result;
+        }
+
+        private Cost estimateDefinitions(List<? extends ExpressionDef> definitions, Library library) {
+            var result = Cost.CONSTANT;
+            for (var definition : definitions) {
+                result = result.max(visitExpressionDef(definition, library));
+            }
+            return result;
+        }
+
+        private Library resolveLibrary(String libraryName, Library relativeTo) {
+            if (libraryName == null) {
+                return relativeTo.getStatements() != null ? relativeTo : null;
+            }
+
+            try {
+                final var library = environment.resolveLibrary(
+                        Libraries.toVersionedIdentifier(Libraries.resolveLibraryRef(libraryName, relativeTo)));
+                return library.getStatements() != null ? library : null;
+            } catch (CqlException e) {
+                return null;
+            }
+        }
+
+        private static Cost orComputation(Cost cost) {
+            return cost != null ? cost : Cost.COMPUTATION;
+        }
+
+        private Cost visitOperands(Expression elm, List<Expression> operands, Library library) {
+            final var first = orComputation(visitExpression(operands.get(0), library));
+            final var second = orComputation(visitExpression(operands.get(1), library));
+            costs.put(operands.get(0), first);
+            costs.put(operands.get(1), second);
+            if (second.compareTo(first) < 0) {
+                reordered.add(elm);
+            }
+            return defaultResult(elm, library).max(first).max(second);
+        }
+
+        @Override
+        public Cost visitAnd(And elm, Library library) {
+            return visitOperands(elm, elm.getOperand(), library);
+        }
+
+        @Override
+        public Cost visitOr(Or elm, Library library) {
+            return visitOperands(elm, elm.getOperand(), library);
+        }
+
+        @Override
+        public Cost visitImplies(Implies elm, Library library) {
+            return visitOperands(elm, elm.getOperand(), library);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.regex.Pattern;
 import org.cqframework.cql.elm.visiting.BaseElmLibraryVisitor;
 import org.hl7.cql.model.IntervalType;
 import org.hl7.cql.model.ListType;
@@ -51,6 +52,14 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
         }
     }
 
+    /**
+     * Returns the pattern compiled when the library was loaded if the given pattern operand is a
+     * literal, or null if it must be evaluated.
+     */
+    private static Pattern literalPattern(Expression pattern, State state) {
+        return state.getLiteralPatterns() != null ? state.getLiteralPatterns().get(pattern) : null;
+    }
+
     @Override
     public Object visitExpressionDef(ExpressionDef expressionDef, State state) {
         return ExpressionDefEvaluator.internalEvaluate(expressionDef, state, this);
@@ -92,7 +101,7 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
 
     @Override
     public Object visitAliasRef(AliasRef aliasRef, State state) {
-        return AliasRefEvaluator.internalEvaluate(aliasRef.getName(), state);
+        return AliasRefEvaluator.internalEvaluate(aliasRef, state);
     }
 
     @Override
@@ -103,10 +112,7 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
 
     @Override
     public Object visitAnd(And and, State state) {
-        Object left = visitExpression(and.getOperand().get(0), state);
-        Object right = visitExpression(and.getOperand().get(1), state);
-
-        return AndEvaluator.and(left, right);
+        return AndEvaluator.internalEvaluate(and, state, this);
     }
 
     @Override
@@ -345,9 +351,12 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
     @Override
     public Object visitSplitOnMatches(SplitOnMatches elm, State state) {
         Object stringToSplit = visitExpression(elm.getStringToSplit(), state);
-        Object separator = visitExpression(elm.getSeparatorPattern(), state);
+        Pattern literalSeparator = literalPattern(elm.getSeparatorPattern(), state);
+        Object separator =
+                literalSeparator != null ? literalSeparator : visitExpression(elm.getSeparatorPattern(), state);
 
-        return SplitOnMatchesEvaluator.splitOnMatches(stringToSplit, separator);
+        return SplitOnMatchesEvaluator.splitOnMatches(
+                stringToSplit, separator, state.getEnvironment().getPatternCache());
     }
 
     @Override
@@ -643,11 +652,7 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
 
     @Override
     public Object visitCoalesce(Coalesce elm, State state) {
-        List<Object> operands = new ArrayList<>();
-        for (Expression operand : elm.getOperand()) {
-            operands.add(visitExpression(operand, state));
-        }
-        return CoalesceEvaluator.coalesce(operands);
+        return CoalesceEvaluator.internalEvaluate(elm, state, this);
     }
 
     @Override
@@ -983,9 +988,7 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
 
     @Override
     public Object visitImplies(Implies elm, State state) {
-        Boolean left = (Boolean) visitExpression(elm.getOperand().get(0), state);
-        Boolean right = (Boolean) visitExpression(elm.getOperand().get(1), state);
-        return ImpliesEvaluator.implies(left, right);
+        return ImpliesEvaluator.internalEvaluate(elm, state, this);
     }
 
     @Override
@@ -1140,8 +1143,12 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
     @Override
     public Object visitMatches(Matches elm, State state) {
         String argument = (String) visitExpression(elm.getOperand().get(0), state);
+        Pattern literalPattern = literalPattern(elm.getOperand().get(1), state);
+        if (literalPattern != null) {
+            return MatchesEvaluator.matches(argument, literalPattern);
+        }
         String pattern = (String) visitExpression(elm.getOperand().get(1), state);
-        return MatchesEvaluator.matches(argument, pattern);
+        return MatchesEvaluator.matches(argument, pattern, state.getEnvironment().getPatternCache());
     }
 
     @Override
@@ -1227,9 +1234,7 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
 
     @Override
     public Object visitOr(Or elm, State state) {
-        Object left = visitExpression(elm.getOperand().get(0), state);
-        Object right = visitExpression(elm.getOperand().get(1), state);
-        return OrEvaluator.or(left, right);
+        return OrEvaluator.internalEvaluate(elm, state, this);
     }
 
     @Override
@@ -1371,9 +1376,15 @@ public class EvaluationVisitor extends BaseElmLibraryVisitor<Object, State> {
     @Override
     public Object visitReplaceMatches(ReplaceMatches elm, State state) {
         String argument = (String) visitExpression(elm.getOperand().get(0), state);
+        Pattern literalPattern = literalPattern(elm.getOperand().get(1), state);
+        if (literalPattern != null) {
+            String substitution = (String) visitExpression(elm.getOperand().get(2), state);
+            return ReplaceMatchesEvaluator.replaceMatches(argument, literalPattern, substitution);
+        }
         String pattern = (String) visitExpression(elm.getOperand().get(1), state);
         String substitution = (String) visitExpression(elm.getOperand().get(2), state);
-        return ReplaceMatchesEvaluator.replaceMatches(argument, pattern, substitution);
+        return ReplaceMatchesEvaluator.replaceMatches(
+                argument, pattern, substitution, state.getEnvironment().getPatternCache());
     }
 
     @Override
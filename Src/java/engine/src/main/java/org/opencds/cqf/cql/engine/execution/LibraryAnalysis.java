@@ -0,0 +1,123 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.Query;
+import org.hl7.elm.r1.RelationshipClause;
+import org.opencds.cqf.cql.engine.elm.executing.RelationshipJoin;
+import org.opencds.cqf.cql.engine.elm.executing.WherePushdown;
+
+/**
+ * The analyses of a library that the engines of an {@link Environment} share: the analyses of the
+ * library and the libraries it includes, such as its linked references, and the plans of its
+ * queries. Each analysis is computed on first use without holding a lock, so engines that use it
+ * concurrently for the first time may each compute it; the analyses are deterministic and
+ * immutable, and the first one computed is kept.
+ * <p>
+ * An environment keeps the analysis of one library per library identifier, so the analysis of a
+ * library that is recompiled or reloaded is released once the new library is evaluated.
+ *
+ * @see Environment#getLibraryAnalysis(Library)
+ */
+public class LibraryAnalysis {
+
+    private final Library library;
+    private final Environment environment;
+
+    private final AtomicReference<LinkedReferences> linkedReferences = new AtomicReference<>();
+    private final AtomicReference<VariableSlots> variableSlots = new AtomicReference<>();
+    private final AtomicReference<EvaluationCosts> evaluationCosts = new AtomicReference<>();
+    private final AtomicReference<PrefetchPlan> prefetchPlan = new AtomicReference<>();
+    private final AtomicReference<LiteralPatterns> literalPatterns = new AtomicReference<>();
+    private final AtomicReference<Map<ExpressionDef, ContextDependencyVisitor.Dependency>> contextDependencies =
+            new AtomicReference<>();
+    private final Map<Query, WherePushdown> wherePushdowns = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<RelationshipClause, RelationshipJoin> relationshipJoins =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    LibraryAnalysis(Library library, Environment environment) {
+        this.library = library;
+        this.environment = environment;
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    public LinkedReferences getLinkedReferences() {
+        return analyze(linkedReferences, LinkedReferences::link);
+    }
+
+    public VariableSlots getVariableSlots() {
+        return analyze(variableSlots, VariableSlots::resolve);
+    }
+
+    public EvaluationCosts getEvaluationCosts() {
+        return analyze(evaluationCosts, EvaluationCosts::estimate);
+    }
+
+    /**
+     * @return the retrieves of the library and the libraries it includes that can be prefetched
+     */
+    public PrefetchPlan getPrefetchPlan() {
+        return analyze(prefetchPlan, PrefetchPlan::plan);
+    }
+
+    public LiteralPatterns getLiteralPatterns() {
+        return analyze(literalPatterns, LiteralPatterns::compile);
+    }
+
+    /**
+     * @param expressionDef an expression definition of the library
+     * @return what the result of the definition depends on, see {@link SharedExpressionCache}
+     */
+    ContextDependencyVisitor.Dependency getContextDependency(ExpressionDef expressionDef) {
+        final var dependency = analyze(contextDependencies, ContextDependencyVisitor::analyze).get(expressionDef);
+        // Definitions of other libraries and functions aren't shared
+        return dependency != null ? dependency : ContextDependencyVisitor.Dependency.CONTEXT;
+    }
+
+    /**
+     * @param query a query of the library
+     * @return the plan with which the where clause of the query is evaluated
+     */
+    public WherePushdown getWherePushdown(Query query) {
+        return plan(wherePushdowns, query, WherePushdown::plan);
+    }
+
+    /**
+     * @param query a query of the library
+     * @param relationship a with or without relationship of the query
+     * @return the plan with which the relationship is evaluated
+     */
+    public RelationshipJoin getRelationshipJoin(Query query, RelationshipClause relationship) {
+        return plan(relationshipJoins, relationship, r -> RelationshipJoin.plan(query, r));
+    }
+
+    private <T> T analyze(AtomicReference<T> analysis, BiFunction<Library, Environment, T> analyzer) {
+        final T analyzed = analysis.get();
+        if (analyzed != null) {
+            return analyzed;
+        }
+
+        analysis.compareAndSet(null, analyzer.apply(library, environment));
+        return analysis.get();
+    }
+
+    private static <K, V> V plan(Map<K, V> plans, K element, Function<K, V> planner) {
+        final V planned = plans.get(element);
+        if (planned != null) {
+            return planned;
+        }
+
+        final V plan = planner.apply(element);
+        final V previous = plans.putIfAbsent(element, plan);
+        return previous != null ? previous : plan;
+    }
+}
@@ -0,0 +1,179 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import org.cqframework.cql.elm.visiting.BaseElmLibraryVisitor;
+import org.hl7.elm.r1.CodeRef;
+import org.hl7.elm.r1.CodeSystemRef;
+import org.hl7.elm.r1.ConceptRef;
+import org.hl7.elm.r1.Element;
+import org.hl7.elm.r1.ExpressionRef;
+import org.hl7.elm.r1.FunctionDef;
+import org.hl7.elm.r1.FunctionRef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.ParameterRef;
+import org.hl7.elm.r1.ValueSetRef;
+import org.opencds.cqf.cql.engine.elm.executing.FunctionRefEvaluator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+/**
+ * The references of a library and all libraries it (transitively) includes, resolved once so that
+ * evaluating a reference doesn't have to look up its definition by name.
+ * <p>
+ * Expression, parameter, value set, code system, code and concept references are linked to their
+ * definitions, as are function references whose ELM carries a signature or that have no operands.
+ * References that can't be resolved statically, for example function references that are
+ * resolved by the runtime types of their arguments, are not linked and are resolved by name as
+ * before. Instances are immutable and can be shared by engines evaluating concurrently.
+ *
+ * @see CqlEngine.Options#EnableReferenceLinking
+ */
+public class LinkedReferences {
+
+    /**
+     * The resolution of a reference.
+     *
+     * @param library the library that defines the definition if the reference names an included
+     *                library, or null if the definition is in the library of the reference
+     * @param definition the definition the reference refers to
+     */
+    public record Link(Library library, Element definition) {}
+
+    private final Map<Element, Link> links;
+
+    private LinkedReferences(Map<Element, Link> links) {
+        this.links = links;
+    }
+
+    /**
+     * Returns the resolution of the given reference.
+     *
+     * @param reference an expression, function, parameter or terminology reference
+     * @return the resolution, or null if the reference is not linked
+     */
+    public Link get(Element reference) {
+        return links.get(reference);
+    }
+
+    public int size() {
+        return links.size();
+    }
+
+    /**
+     * Resolves the references of the given library and all libraries it includes.
+     *
+     * @param library the library to link
+     * @param environment the environment in which included libraries are resolved
+     * @return the resolved references
+     */
+    public static LinkedReferences link(Library library, Environment environment) {
+        final var linker = new Linker(environment);
+        linker.linkLibrary(library);
+        return new LinkedReferences(linker.links);
+    }
+
+    private static class Linker extends BaseElmLibraryVisitor<Void, Library> {
+        private final Environment environment;
+        private final Map<Element, Link> links = new IdentityHashMap<>();
+        private final Set<Library> linkedLibraries = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Linker(Environment environment) {
+            this.environment = environment;
+        }
+
+        void linkLibrary(Library library) {
+            if (linkedLibraries.add(library)) {
+                visitLibrary(library, library);
+            }
+        }
+
+        private Library resolveLibrary(String libraryName, Library relativeTo) {
+            if (libraryName == null) {
+                return null;
+            }
+
+            final var library = environment.resolveLibrary(
+                    Libraries.toVersionedIdentifier(Libraries.resolveLibraryRef(libraryName, relativeTo)));
+            linkLibrary(library);
+            return library;
+        }
+
+        private void link(
+                Element reference, String libraryName, Library relativeTo, Function<Library, Element> resolver) {
+            try {
+                final var library = resolveLibrary(libraryName, relativeTo);
+                final var definition = resolver.apply(library != null ? library : relativeTo);
+                if (definition != null) {
+                    links.put(reference, new Link(library, definition));
+                }
+            } catch (CqlException e) {
+                // Leave the reference unlinked; evaluating it reports the error as before.
+            }
+        }
+
+        @Override
+        public Void visitExpressionRef(ExpressionRef elm, Library library) {
+            if (elm instanceof FunctionRef) {
+                return visitFunctionRef((FunctionRef) elm, library);
+            }
+
+            link(elm, elm.getLibraryName(), library, target -> Libraries.resolveExpressionRef(elm.getName(), target));
+            return super.visitExpressionRef(elm, library);
+        }
+
+        @Override
+        public Void visitFunctionRef(FunctionRef elm, Library library) {
+            if (!elm.getSignature().isEmpty() || elm.getOperand().isEmpty()) {
+                link(elm, elm.getLibraryName(), library, target -> {
+                    FunctionDef match = null;
+                    for (var functionDef : Libraries.getFunctionDefs(elm.getName(), target)) {
+                        if (elm.getSignature().isEmpty()
+                                ? functionDef.getOperand().isEmpty()
+                                : FunctionRefEvaluator.functionDefOperandsSignatureEqual(
+                                        functionDef, elm.getSignature())) {
+                            if (match != null) {
+                                return null;
+                            }
+                            match = functionDef;
+                        }
+                    }
+                    return match;
+                });
+            }
+            return super.visitFunctionRef(elm, library);
+        }
+
+        @Override
+        public Void visitParameterRef(ParameterRef elm, Library library) {
+            link(elm, elm.getLibraryName(), library, target -> Libraries.resolveParameterRef(elm.getName(), target));
+            return super.visitParameterRef(elm, library);
+        }
+
+        @Override
+        public Void visitValueSetRef(ValueSetRef elm, Library library) {
+            link(elm, elm.getLibraryName(), library, target -> Libraries.resolveValueSetRef(elm.getName(), target));
+            return super.visitValueSetRef(elm, library);
+        }
+
+        @Override
+        public Void visitCodeSystemRef(CodeSystemRef elm, Library library) {
+            link(elm, elm.getLibraryName(), library, target -> Libraries.resolveCodeSystemRef(elm.getName(), target));
+            return super.visitCodeSystemRef(elm, library);
+        }
+
+        @Override
+        public Void visitCodeRef(CodeRef elm, Library library) {
+            link(elm, elm.getLibraryName(), library, target -> Libraries.resolveCodeRef(elm.getName(), target));
+            return super.visitCodeRef(elm, library);
+        }
+
+        @Override
+        public Void visitConceptRef(ConceptRef elm, Library library) {
+            link(elm, elm.getLibraryName(), library, target -> Libraries.resolveConceptRef(elm.getName(), target));
+            return super.visitConceptRef(elm, library);
+        }
+    }
+}
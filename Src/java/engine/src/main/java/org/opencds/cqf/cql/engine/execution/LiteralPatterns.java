@@ -0,0 +1,123 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.cqframework.cql.elm.visiting.BaseElmLibraryVisitor;
+import org.hl7.elm.r1.Expression;
+import org.hl7.elm.r1.IncludeDef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.Literal;
+import org.hl7.elm.r1.Matches;
+import org.hl7.elm.r1.ReplaceMatches;
+import org.hl7.elm.r1.SplitOnMatches;
+
+/**
+ * The compiled patterns of the Matches, ReplaceMatches and SplitOnMatches operators of a library
+ * and all libraries it (transitively) includes whose pattern is a string literal, compiled once
+ * when the library is loaded rather than looked up in the {@link PatternCache} on every
+ * evaluation.
+ * <p>
+ * Literals that are not valid regular expressions are not compiled, so that they fail when, and
+ * only if, they are evaluated. Instances are immutable and can be shared by engines evaluating
+ * concurrently.
+ */
+public class LiteralPatterns {
+
+    private static final String STRING_TYPE = "{urn:hl7-org:elm-types:r1}String";
+
+    private final Map<Expression, Pattern> patterns;
+
+    private LiteralPatterns(Map<Expression, Pattern> patterns) {
+        this.patterns = patterns;
+    }
+
+    /**
+     * Returns the compiled pattern of the given pattern operand.
+     *
+     * @param pattern the pattern operand of a Matches, ReplaceMatches or SplitOnMatches operator
+     * @return the compiled pattern, or null if the operand must be evaluated
+     */
+    public Pattern get(Expression pattern) {
+        return patterns.get(pattern);
+    }
+
+    public int size() {
+        return patterns.size();
+    }
+
+    /**
+     * Compiles the literal patterns of the given library and all libraries it includes.
+     *
+     * @param library the library
+     * @param environment the environment in which included libraries are resolved and whose
+     *                    pattern cache compiles the patterns
+     * @return the compiled patterns
+     */
+    public static LiteralPatterns compile(Library library, Environment environment) {
+        final var compiler = new Compiler(environment);
+        compiler.compileLibrary(library);
+        return new LiteralPatterns(compiler.patterns);
+    }
+
+    private static class Compiler extends BaseElmLibraryVisitor<Void, Void> {
+        private final Environment environment;
+        private final Map<Expression, Pattern> patterns = new IdentityHashMap<>();
+        private final Set<Library> compiledLibraries = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Compiler(Environment environment) {
+            this.environment = environment;
+        }
+
+        void compileLibrary(Library library) {
+            if (!compiledLibraries.add(library)) {
+                return;
+            }
+
+            visitLibrary(library, null);
+            if (library.getIncludes() != null) {
+                for (IncludeDef includeDef : library.getIncludes().getDef()) {
+                    compileLibrary(environment.resolveLibrary(Libraries.toVersionedIdentifier(includeDef)));
+                }
+            }
+        }
+
+        private void compile(Expression pattern) {
+            if (pattern instanceof Literal
+                    && ((Literal) pattern).getValue() != null
+                    && ((Literal) pattern).getValueType() != null
+                    && STRING_TYPE.equals(((Literal) pattern).getValueType().toString())) {
+                try {
+                    patterns.put(pattern, environment.getPatternCache().get(((Literal) pattern).getValue()));
+                } catch (PatternSyntaxException e) {
+                    // Left to fail at evaluation
+                }
+            }
+        }
+
+        @Override
+        public Void visitMatches(Matches elm, Void context) {
+            if (elm.getOperand().size() == 2) {
+                compile(elm.getOperand().get(1));
+            }
+            return super.visitMatches(elm, context);
+        }
+
+        @Override
+        public Void visitReplaceMatches(ReplaceMatches elm, Void context) {
+            if (elm.getOperand().size() == 3) {
+                compile(elm.getOperand().get(1));
+            }
+            return super.visitReplaceMatches(elm, context);
+        }
+
+        @Override
+        public Void visitSplitOnMatches(SplitOnMatches elm, Void context) {
+            compile(elm.getSeparatorPattern());
+            return super.visitSplitOnMatches(elm, context);
+        }
+    }
+}
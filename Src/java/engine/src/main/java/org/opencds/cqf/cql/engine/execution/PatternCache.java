@@ -0,0 +1,113 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A cache of the compiled regular expressions of the Matches, ReplaceMatches and SplitOnMatches
+ * operators, so that a pattern is compiled once rather than on every evaluation.
+ * <p>
+ * Instances are thread-safe and are shared by all engines that use the same {@link Environment}.
+ * The cache holds at most {@link #getMaximumSize()} patterns, evicting the least recently used one
+ * when full. Patterns that are literals in the ELM are compiled when their library is loaded, see
+ * {@link LiteralPatterns}.
+ */
+public class PatternCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private final int maximumSize;
+    private final Map<String, Pattern> patterns;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PatternCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize the maximum number of patterns to keep; the least recently used pattern
+     *                    is evicted when the cache is full
+     */
+    public PatternCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1.");
+        }
+        this.maximumSize = maximumSize;
+        this.patterns = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldestEntry) {
+                if (size() > PatternCache.this.maximumSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled form of the given regular expression, compiling it on first use.
+     *
+     * @param regex the regular expression
+     * @return the compiled pattern
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is invalid
+     */
+    public Pattern get(String regex) {
+        synchronized (patterns) {
+            final var pattern = patterns.get(regex);
+            if (pattern != null) {
+                hits.incrementAndGet();
+                return pattern;
+            }
+        }
+
+        // Compile outside the lock, so that lookups of other patterns aren't blocked
+        misses.incrementAndGet();
+        final var compiled = Pattern.compile(regex);
+        synchronized (patterns) {
+            final var existing = patterns.putIfAbsent(regex, compiled);
+            return existing != null ? existing : compiled;
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int size() {
+        synchronized (patterns) {
+            return patterns.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups served by a compiled pattern
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that compiled a pattern
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of patterns evicted because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public void clear() {
+        synchronized (patterns) {
+            patterns.clear();
+        }
+    }
+}
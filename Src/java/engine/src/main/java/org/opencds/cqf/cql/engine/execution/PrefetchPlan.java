@@ -0,0 +1,334 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import javax.xml.namespace.QName;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.cqframework.cql.elm.visiting.BaseElmLibraryVisitor;
+import org.cqframework.cql.elm.visiting.ElmLibraryVisitor;
+import org.hl7.elm.r1.AliasRef;
+import org.hl7.elm.r1.Expression;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.ExpressionRef;
+import org.hl7.elm.r1.FunctionRef;
+import org.hl7.elm.r1.IdentifierRef;
+import org.hl7.elm.r1.IncludeDef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.OperandRef;
+import org.hl7.elm.r1.Property;
+import org.hl7.elm.r1.QueryLetRef;
+import org.hl7.elm.r1.Retrieve;
+import org.opencds.cqf.cql.engine.data.DataProvider;
+import org.opencds.cqf.cql.engine.elm.executing.RetrieveEvaluator;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveRequest;
+import org.opencds.cqf.cql.engine.runtime.iterators.MemoizingIterable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The retrieves of a library and all libraries it (transitively) includes that can be issued
+ * before evaluation starts, computed once so that the data a context value needs can be fetched up
+ * front instead of one retrieve at a time as evaluation reaches them.
+ * <p>
+ * A retrieve is planned if it is evaluated in the context of the definition that contains it and
+ * its codes and date range don't depend on query variables, function operands or other
+ * definitions, so that they can be evaluated before any definition is. An evaluation issues the
+ * planned retrieves of the expressions it evaluates and of the definitions and functions they
+ * reference, and issues identical requests once. Retrieves that are not planned, or whose request
+ * differs at evaluation time, are issued by the
+ * {@link org.opencds.cqf.cql.engine.elm.executing.RetrieveEvaluator} as usual. Instances are
+ * immutable and can be shared by engines evaluating concurrently.
+ *
+ * @see CqlEngine.Options#EnableRetrievePrefetch
+ */
+public class PrefetchPlan {
+
+    public static final String HIT_COUNTER = "RetrievePrefetch.hits";
+    public static final String MISS_COUNTER = "RetrievePrefetch.misses";
+
+    private static final Logger logger = LoggerFactory.getLogger(PrefetchPlan.class);
+
+    private record PlannedRetrieve(Library library, String context, Retrieve retrieve) {}
+
+    private final Library library;
+    // The planned retrieves each definition contains, and the definitions it references
+    private final Map<ExpressionDef, List<PlannedRetrieve>> retrieves;
+    private final Map<ExpressionDef, List<ExpressionDef>> references;
+
+    private PrefetchPlan(
+            Library library,
+            Map<ExpressionDef, List<PlannedRetrieve>> retrieves,
+            Map<ExpressionDef, List<ExpressionDef>> references) {
+        this.library = library;
+        this.retrieves = retrieves;
+        this.references = references;
+    }
+
+    /**
+     * Returns the number of planned retrieves, in all contexts.
+     *
+     * @return the number of planned retrieves
+     */
+    public int size() {
+        int size = 0;
+        for (var planned : retrieves.values()) {
+            size += planned.size();
+        }
+        return size;
+    }
+
+    /**
+     * Plans the retrieves of the given library and all libraries it includes.
+     *
+     * @param library the library
+     * @param environment the environment in which included libraries are resolved
+     * @return the plan
+     */
+    public static PrefetchPlan plan(Library library, Environment environment) {
+        final var planner = new Planner(environment);
+        planner.planLibrary(library);
+        return new PrefetchPlan(library, planner.retrieves, planner.references);
+    }
+
+    /**
+     * Returns the planned retrieves of the given expressions of the library and of the definitions
+     * and functions they reference, in all libraries.
+     */
+    private List<PlannedRetrieve> retrievesOf(Collection<String> expressions) {
+        final var result = new ArrayList<PlannedRetrieve>();
+        final var reached = Collections.newSetFromMap(new IdentityHashMap<ExpressionDef, Boolean>());
+        final var pending = new ArrayDeque<ExpressionDef>();
+        if (library.getStatements() != null) {
+            // Expressions that don't exist fail when they are evaluated
+            for (var expressionDef : library.getStatements().getDef()) {
+                if (expressions.contains(expressionDef.getName()) && reached.add(expressionDef)) {
+                    pending.add(expressionDef);
+                }
+            }
+        }
+        while (!pending.isEmpty()) {
+            final var expressionDef = pending.poll();
+            result.addAll(retrieves.getOrDefault(expressionDef, Collections.emptyList()));
+            for (var reference : references.getOrDefault(expressionDef, Collections.emptyList())) {
+                if (reached.add(reference)) {
+                    pending.add(reference);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Issues the planned retrieves of the given context that the given expressions reach for the
+     * current context value of the given state and returns their results. The requests are built
+     * on the calling thread, where the codes and date ranges are evaluated; the data is fetched on
+     * the executor, if there is one. Results that the data provider returns lazily stay lazy: only
+     * their first element is fetched up front, and the rest as evaluation consumes them. Retrieves
+     * whose request can't be built or whose data can't be fetched are left out, so that they fail
+     * when, and only if, evaluation reaches them.
+     *
+     * @param context the name of the context, for example Patient
+     * @param expressions the names of the expressions of the library that are evaluated
+     * @param state the state of the evaluation, with its context value and parameters set
+     * @param visitor the visitor with which codes and date ranges are evaluated
+     * @param executor the executor on which the data is fetched, or null to fetch it on the
+     *                 calling thread
+     * @return the results of the retrieves
+     */
+    public Map<RetrieveRequest, Iterable<Object>> prefetch(
+            String context,
+            Collection<String> expressions,
+            State state,
+            ElmLibraryVisitor<Object, State> visitor,
+            Executor executor) {
+        final var requests = new LinkedHashMap<RetrieveRequest, DataProvider>();
+        for (var planned : retrievesOf(expressions)) {
+            if (!planned.context().equals(context)) {
+                continue;
+            }
+
+            final boolean enteredLibrary = state.enterLibrary(planned.library());
+            final boolean enteredContext = state.enterContext(context);
+            state.pushActivationFrame(planned.retrieve());
+            try {
+                final QName dataType = state.getEnvironment().fixupQName(planned.retrieve().getDataType());
+                final DataProvider dataProvider = state.getEnvironment().resolveDataProvider(dataType);
+                requests.putIfAbsent(
+                        RetrieveEvaluator.toRequest(planned.retrieve(), dataType, dataProvider, state, visitor),
+                        dataProvider);
+            } catch (RuntimeException e) {
+                logger.debug("Not prefetching retrieve of {}: {}", planned.retrieve().getDataType(), e.getMessage());
+            } finally {
+                state.popActivationFrame();
+                state.exitContext(enteredContext);
+                state.exitLibrary(enteredLibrary);
+            }
+        }
+
+        final var fetches = new LinkedHashMap<RetrieveRequest, CompletableFuture<Iterable<Object>>>();
+        for (var request : requests.entrySet()) {
+            fetches.put(request.getKey(), fetch(request.getKey(), request.getValue(), executor));
+        }
+
+        final var results = new HashMap<RetrieveRequest, Iterable<Object>>();
+        for (var fetch : fetches.entrySet()) {
+            try {
+                final var result = fetch.getValue().join();
+                if (result != null) {
+                    results.put(fetch.getKey(), result);
+                }
+            } catch (CompletionException e) {
+                logger.debug("Not prefetching {}: {}", fetch.getKey(), e.getCause().getMessage());
+            }
+        }
+
+        return results;
+    }
+
+    private static CompletableFuture<Iterable<Object>> fetch(
+            RetrieveRequest request, DataProvider dataProvider, Executor executor) {
+        if (executor != null) {
+            return CompletableFuture.supplyAsync(() -> start(request.retrieve(dataProvider)), executor);
+        }
+
+        try {
+            return CompletableFuture.completedFuture(start(request.retrieve(dataProvider)));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static Iterable<Object> start(Iterable<Object> result) {
+        if (result == null || result instanceof List) {
+            return result;
+        }
+
+        // Issues the first request of a lazy result, such as the first page of a search, and keeps
+        // the elements that are fetched so that the retrieves the result answers share them
+        final var memoized = new MemoizingIterable(result);
+        memoized.iterator().hasNext();
+        return memoized;
+    }
+
+    private static class Planner extends BaseElmLibraryVisitor<Void, String> {
+        private final Environment environment;
+        private final Map<ExpressionDef, List<PlannedRetrieve>> retrieves = new IdentityHashMap<>();
+        private final Map<ExpressionDef, List<ExpressionDef>> references = new IdentityHashMap<>();
+        private final Set<Library> plannedLibraries = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final IndependenceChecker independenceChecker = new IndependenceChecker();
+        private Library library;
+        private ExpressionDef expressionDef;
+
+        Planner(Environment environment) {
+            this.environment = environment;
+        }
+
+        void planLibrary(Library library) {
+            if (!plannedLibraries.add(library)) {
+                return;
+            }
+
+            this.library = library;
+            visitLibrary(library, null);
+            if (library.getIncludes() != null) {
+                for (IncludeDef includeDef : library.getIncludes().getDef()) {
+                    planLibrary(environment.resolveLibrary(Libraries.toVersionedIdentifier(includeDef)));
+                }
+            }
+        }
+
+        @Override
+        public Void visitExpressionDef(ExpressionDef elm, String context) {
+            expressionDef = elm;
+            try {
+                return super.visitExpressionDef(elm, elm.getContext());
+            } finally {
+                expressionDef = null;
+            }
+        }
+
+        @Override
+        public Void visitRetrieve(Retrieve elm, String context) {
+            if (context != null
+                    && expressionDef != null
+                    && elm.getContext() == null
+                    && isIndependent(elm.getCodes())
+                    && isIndependent(elm.getDateRange())) {
+                retrieves
+                        .computeIfAbsent(expressionDef, def -> new ArrayList<>())
+                        .add(new PlannedRetrieve(library, context, elm));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionRef(ExpressionRef elm, String context) {
+            if (elm instanceof FunctionRef) {
+                return visitFunctionRef((FunctionRef) elm, context);
+            }
+
+            addReference(Libraries.resolveExpressionRef(elm.getName(), resolveLibrary(elm.getLibraryName())));
+            return super.visitExpressionRef(elm, context);
+        }
+
+        @Override
+        public Void visitFunctionRef(FunctionRef elm, String context) {
+            // Every overload is referenced, as the one that is called is resolved at evaluation time
+            Libraries.getFunctionDefs(elm.getName(), resolveLibrary(elm.getLibraryName())).forEach(this::addReference);
+            return super.visitFunctionRef(elm, context);
+        }
+
+        private void addReference(ExpressionDef referenced) {
+            if (expressionDef != null) {
+                references.computeIfAbsent(expressionDef, def -> new ArrayList<>()).add(referenced);
+            }
+        }
+
+        private Library resolveLibrary(String libraryName) {
+            if (libraryName == null) {
+                return library;
+            }
+
+            final var includeDef = Libraries.resolveLibraryRef(libraryName, library);
+            return environment.resolveLibrary(Libraries.toVersionedIdentifier(includeDef));
+        }
+
+        private boolean isIndependent(Expression expression) {
+            return expression == null || !Boolean.FALSE.equals(independenceChecker.visitExpression(expression, null));
+        }
+    }
+
+    /**
+     * Determines whether an expression can be evaluated outside of any definition: it may use
+     * literals, parameters and terminology, but no query variables, function operands, properties
+     * or references to other definitions.
+     */
+    private static class IndependenceChecker extends BaseElmLibraryVisitor<Boolean, Void> {
+        @Override
+        protected Boolean defaultResult(Trackable elm, Void context) {
+            return !(elm instanceof AliasRef
+                    || elm instanceof QueryLetRef
+                    || elm instanceof IdentifierRef
+                    || elm instanceof OperandRef
+                    || elm instanceof Property
+                    || elm instanceof ExpressionRef
+                    || elm instanceof Retrieve);
+        }
+
+        @Override
+        protected Boolean aggregateResult(Boolean aggregate, Boolean nextResult) {
+            return !Boolean.FALSE.equals(aggregate) && !Boolean.FALSE.equals(nextResult);
+        }
+    }
+}
@@ -201,6 +201,10 @@ public class Profile {
 
     private final Node tree = new Node(null, null);
 
+    // Named event counts that are not associated with a particular
+    // node, for example hits and misses of shared caches.
+    private final Map<String, Long> counters = new TreeMap<>();
+
     // Tracks the stack of nodes which correspond to currently active
     // ActivationFrames for incremental profile construction.
     private final Deque<Node> stack = new ArrayDeque<>();
@@ -238,6 +242,35 @@ public class Profile {
         return tree.time;
     }
 
+    /**
+     * Adds the given amount to the named counter of this profile.
+     *
+     * @param name The name of the counter.
+     * @param amount The amount to add.
+     */
+    public void incrementCounter(final String name, final long amount) {
+        this.counters.merge(name, amount, Long::sum);
+    }
+
+    /**
+     * Returns the value of the named counter of this profile.
+     *
+     * @param name The name of the counter.
+     * @return The value of the counter, 0 if it has never been incremented.
+     */
+    public long getCounter(final String name) {
+        return this.counters.getOrDefault(name, 0L);
+    }
+
+    /**
+     * Returns all counters of this profile, sorted by name.
+     *
+     * @return An unmodifiable view of the counters.
+     */
+    public Map<String, Long> getCounters() {
+        return Collections.unmodifiableMap(this.counters);
+    }
+
     /**
      * Records in the profile the fact that the evaluator has entered the supplied activation frame.
      * <p>
@@ -300,6 +333,7 @@ public class Profile {
      */
     public Profile merge(final Profile other) {
         this.tree.merge(other.tree);
+        other.counters.forEach(this::incrementCounter);
         return this;
     }
 
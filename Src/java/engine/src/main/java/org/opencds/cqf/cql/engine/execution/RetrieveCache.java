@@ -0,0 +1,124 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.opencds.cqf.cql.engine.elm.executing.IncludesEvaluator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveFilter;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveRequest;
+
+/**
+ * The results of the retrieves of an evaluation, keyed by their {@link RetrieveRequest}, so that
+ * identical retrieves of different definitions, functions or included libraries are issued once
+ * per evaluation. The expression cache only avoids repeating the retrieves of a definition that is
+ * referenced again.
+ * <p>
+ * With subsumption, a retrieve that is not cached can also be answered from the cached result of a
+ * broader retrieve of the same type, template and context: one without codes or with a superset of
+ * its codes, and without a date range or with a date range that includes its date range. The
+ * cached result is filtered in memory by the data provider, if it is a {@link RetrieveFilter}. Only
+ * results that were returned as lists are filtered, as filtering a result that is fetched as it is
+ * consumed would fetch all of it.
+ * <p>
+ * When profiling is enabled, lookups are counted in the {@link Profile} under {@link #HIT_COUNTER},
+ * {@link #SUBSUMED_HIT_COUNTER} and {@link #MISS_COUNTER}, and the retrieve of a hit is recorded
+ * as cached in its profile node. A cache belongs to one {@link State} and is not thread-safe.
+ *
+ * @see CqlEngine.Options#EnableRetrieveCaching
+ * @see CqlEngine.Options#EnableRetrieveSubsumption
+ */
+public class RetrieveCache {
+
+    public static final String HIT_COUNTER = "RetrieveCache.hits";
+    public static final String SUBSUMED_HIT_COUNTER = "RetrieveCache.subsumedHits";
+    public static final String MISS_COUNTER = "RetrieveCache.misses";
+
+    private final boolean subsumption;
+    private final Map<RetrieveRequest, Iterable<Object>> results = new HashMap<>();
+    private final Map<String, List<RetrieveRequest>> requestsByDataType = new HashMap<>();
+
+    /**
+     * @param subsumption whether retrieves are answered from the cached results of broader
+     *                    retrieves
+     */
+    public RetrieveCache(boolean subsumption) {
+        this.subsumption = subsumption;
+    }
+
+    /**
+     * Returns the cached result of the given request, or selects it from the cached result of a
+     * broader request and caches it.
+     *
+     * @param request the request
+     * @param filter the filter of the data provider of the request, or null if results can't be
+     *               filtered
+     * @param state the state in which date ranges are compared and lookups are counted
+     * @return the result, or null if the request must be retrieved
+     */
+    public Iterable<Object> get(RetrieveRequest request, RetrieveFilter filter, State state) {
+        Iterable<Object> result = results.get(request);
+        if (result != null) {
+            state.incrementProfileCounter(HIT_COUNTER, 1);
+            return result;
+        }
+
+        if (subsumption && filter != null) {
+            for (var broader : requestsByDataType.getOrDefault(request.getDataType(), List.of())) {
+                final var broaderResult = results.get(broader);
+                if (broaderResult instanceof List && subsumes(broader, request, state)) {
+                    result = filter.filter(broaderResult, request);
+                    if (result != null) {
+                        put(request, result);
+                        state.incrementProfileCounter(SUBSUMED_HIT_COUNTER, 1);
+                        return result;
+                    }
+                }
+            }
+        }
+
+        state.incrementProfileCounter(MISS_COUNTER, 1);
+        return null;
+    }
+
+    /**
+     * Caches the result of the given request.
+     *
+     * @param request the request
+     * @param result the retrieved result
+     */
+    public void put(RetrieveRequest request, Iterable<Object> result) {
+        if (result != null && results.put(request, result) == null) {
+            requestsByDataType
+                    .computeIfAbsent(request.getDataType(), dataType -> new ArrayList<>())
+                    .add(request);
+        }
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    private static boolean subsumes(RetrieveRequest broader, RetrieveRequest narrower, State state) {
+        if (!broader.hasSameTarget(narrower) || !broader.includesCodesOf(narrower)) {
+            return false;
+        } else if (broader.getDateRange() == null) {
+            return true;
+        } else if (narrower.getDateRange() == null
+                || !Objects.equals(broader.getDatePath(), narrower.getDatePath())
+                || !Objects.equals(broader.getDateLowPath(), narrower.getDateLowPath())
+                || !Objects.equals(broader.getDateHighPath(), narrower.getDateHighPath())) {
+            return false;
+        }
+
+        try {
+            return Boolean.TRUE.equals(
+                    IncludesEvaluator.includes(broader.getDateRange(), narrower.getDateRange(), null, state));
+        } catch (CqlException e) {
+            // Date ranges of different point types
+            return false;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.FunctionDef;
+
+/**
+ * A thread-safe cache for the results of expression definitions that do not depend on the context,
+ * shared by all engines that use the same {@link Environment}. For example, when evaluating a
+ * measure for many patients, definitions such as value set expansions, parameter-derived intervals
+ * or Unfiltered-context retrieves are evaluated once and served to all subsequent evaluations.
+ * <p>
+ * A definition is shared if neither it nor any definition or function it (transitively) references
+ * retrieves data in a context other than Unfiltered or Population, or calls an external function.
+ * Results are keyed by library, definition name and parameter values, and additionally by the
+ * evaluation date-time for definitions that use Now(), Today() or TimeOfDay().
+ * <p>
+ * The cache holds at most {@link #getMaximumSize()} results and evicts the least recently used
+ * result when full. It is consulted before the per-engine expression cache; when profiling is
+ * enabled, hits and misses are counted in the {@link Profile} under {@link #HIT_COUNTER} and
+ * {@link #MISS_COUNTER}.
+ *
+ * @see Environment#setSharedExpressionCache(SharedExpressionCache)
+ */
+public class SharedExpressionCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+    public static final String HIT_COUNTER = "SharedExpressionCache.hits";
+    public static final String MISS_COUNTER = "SharedExpressionCache.misses";
+
+    /**
+     * The supplied parameter values of an evaluation, copied once per evaluation rather than once
+     * per key.
+     */
+    static final class ParameterValues {
+        private final Map<String, Object> values;
+        private final int hashCode;
+
+        ParameterValues(Map<String, Object> values) {
+            this.values = new HashMap<>(values);
+            this.hashCode = this.values.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            return other instanceof ParameterValues
+                    && hashCode == ((ParameterValues) other).hashCode
+                    && values.equals(((ParameterValues) other).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Identifies a cached result. Keys are created with {@link #createKey} and capture the
+     * supplied parameter values at creation time; default values are derived from those.
+     */
+    public static final class Key {
+        private final String librarySystem;
+        private final String libraryId;
+        private final String libraryVersion;
+        private final String name;
+        private final ParameterValues parameters;
+        private final ZonedDateTime evaluationDateTime;
+        private final int hashCode;
+
+        private Key(State state, ExpressionDef expressionDef, ZonedDateTime evaluationDateTime) {
+            final var identifier = state.getCurrentLibrary().getIdentifier();
+            this.librarySystem = identifier.getSystem();
+            this.libraryId = identifier.getId();
+            this.libraryVersion = identifier.getVersion();
+            this.name = expressionDef.getName();
+            this.parameters = state.getSharedParameterValues();
+            this.evaluationDateTime = evaluationDateTime;
+            this.hashCode = Objects.hash(libraryId, libraryVersion, name, parameters, evaluationDateTime);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final var that = (Key) other;
+            return hashCode == that.hashCode
+                    && Objects.equals(librarySystem, that.librarySystem)
+                    && Objects.equals(libraryId, that.libraryId)
+                    && Objects.equals(libraryVersion, that.libraryVersion)
+                    && Objects.equals(name, that.name)
+                    && Objects.equals(evaluationDateTime, that.evaluationDateTime)
+                    && Objects.equals(parameters, that.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private final int maximumSize;
+    private final Map<Key, ExpressionResult> results;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SharedExpressionCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize the maximum number of results to keep; the least recently used result is
+     *                    evicted when the cache is full
+     */
+    public SharedExpressionCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1.");
+        }
+        this.maximumSize = maximumSize;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ExpressionResult> eldestEntry) {
+                return size() > SharedExpressionCache.this.maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Creates the key under which the result of the given definition, evaluated in the current
+     * library of the given state, is shared.
+     *
+     * @param expressionDef the definition about to be evaluated
+     * @param state the state of the evaluating engine
+     * @return the key, or null if the result of the definition can't be shared
+     */
+    public Key createKey(ExpressionDef expressionDef, State state) {
+        if (expressionDef instanceof FunctionDef) {
+            return null;
+        }
+
+        final var dependency = state.getEnvironment()
+                .getLibraryAnalysis(state.getCurrentLibrary())
+                .getContextDependency(expressionDef);
+        switch (dependency) {
+            case NONE:
+                return new Key(state, expressionDef, null);
+            case EVALUATION_TIME:
+                return new Key(state, expressionDef, state.getEvaluationZonedDateTime());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the cached result for the given key, counting the lookup as a hit or a miss.
+     *
+     * @param key a key created by {@link #createKey}
+     * @return the cached result or null
+     */
+    public ExpressionResult get(Key key) {
+        final ExpressionResult result;
+        synchronized (results) {
+            result = results.get(key);
+        }
+        (result != null ? hits : misses).incrementAndGet();
+        return result;
+    }
+
+    public void put(Key key, ExpressionResult result) {
+        synchronized (results) {
+            results.put(key, result);
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import static java.util.Objects.requireNonNull;
 
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.List;
 import org.hl7.elm.r1.*;
 import org.opencds.cqf.cql.engine.debug.DebugAction;
 import org.opencds.cqf.cql.engine.debug.DebugMap;
@@ -11,6 +12,7 @@ import org.opencds.cqf.cql.engine.debug.DebugResult;
 import org.opencds.cqf.cql.engine.debug.SourceLocator;
 import org.opencds.cqf.cql.engine.exception.CqlException;
 import org.opencds.cqf.cql.engine.exception.Severity;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveRequest;
 import org.opencds.cqf.cql.engine.runtime.DateTime;
 
 /**
@@ -21,11 +23,32 @@ public class State {
     public static class ActivationFrame {
 
         // Arguments and/or local variables of the active function
-        // call or expression definition evaluation. This is the only
-        // field that is strictly required for evaluation. The other
-        // fields are for pragmatic purposes like friendly backtraces
-        // and profiling.
-        public Deque<Variable> variables = new ArrayDeque<>(4);
+        // call or expression definition evaluation, stored in slots
+        // that are numbered from the bottom of the frame. These are
+        // the only fields that are strictly required for evaluation.
+        // The other fields are for pragmatic purposes like friendly
+        // backtraces and profiling.
+        private String[] variableNames = new String[4];
+        private Object[] variableValues = new Object[4];
+        // The element that declared the variable in each slot, if
+        // known. Used to verify slots resolved by VariableSlots.
+        private Element[] variableDeclarations = new Element[4];
+        // The Variable object of each slot that was pushed as one, or
+        // that was resolved by name. The value of such a slot is kept
+        // in its Variable object, so that changes to the value of the
+        // object are seen by the frame and vice versa.
+        private Variable[] variableObjects = new Variable[4];
+        private int variableCount = 0;
+
+        /**
+         * A view of the variables of this frame, most recently pushed first.
+         *
+         * @deprecated Use {@link #getVariables()} to inspect the variables, and
+         * {@link State#push(Variable)} and {@link State#pop()} to push and pop them. The view
+         * supports only adding and removing variables at its head.
+         */
+        @Deprecated
+        public final Deque<Variable> variables = new VariablesView();
 
         // The expression that is being evaluated in this activation
         // frame. Either null for the "root" activation frame, an ExpressionDef (which can be a FunctionDef)
@@ -51,6 +74,234 @@ public class State {
             this.startTime = startTime;
         }
 
+        public int getVariableCount() {
+            return this.variableCount;
+        }
+
+        /**
+         * Returns the variables of this frame, most recently pushed first.
+         */
+        public List<Variable> getVariables() {
+            final var result = new ArrayList<Variable>(this.variableCount);
+            for (int i = this.variableCount - 1; i >= 0; i--) {
+                result.add(getVariable(i));
+            }
+            return result;
+        }
+
+        Variable getVariable(int slot) {
+            var variable = this.variableObjects[slot];
+            if (variable == null) {
+                variable = new Variable(this.variableNames[slot]).withValue(this.variableValues[slot]);
+                this.variableObjects[slot] = variable;
+            }
+            return variable;
+        }
+
+        Object getValue(int slot) {
+            final var variable = this.variableObjects[slot];
+            return variable != null ? variable.getValue() : this.variableValues[slot];
+        }
+
+        void setValue(int slot, Object value) {
+            final var variable = this.variableObjects[slot];
+            if (variable != null) {
+                variable.setValue(value);
+            } else {
+                this.variableValues[slot] = value;
+            }
+        }
+
+        int pushVariable(Variable variable) {
+            final int slot = pushVariable(variable.getName(), null, null);
+            this.variableObjects[slot] = variable;
+            return slot;
+        }
+
+        int pushVariable(String name, Object value, Element declaration) {
+            requireNonNull(name, "name can not be null");
+            if (this.variableCount == this.variableNames.length) {
+                final int capacity = this.variableCount * 2;
+                this.variableNames = Arrays.copyOf(this.variableNames, capacity);
+                this.variableValues = Arrays.copyOf(this.variableValues, capacity);
+                this.variableDeclarations = Arrays.copyOf(this.variableDeclarations, capacity);
+                this.variableObjects = Arrays.copyOf(this.variableObjects, capacity);
+            }
+            final int slot = this.variableCount++;
+            this.variableNames[slot] = name;
+            this.variableValues[slot] = value;
+            this.variableDeclarations[slot] = declaration;
+            return slot;
+        }
+
+        void popVariables(int count) {
+            if (count > this.variableCount) {
+                throw new NoSuchElementException("Variable stack underflow");
+            }
+            for (int i = 0; i < count; i++) {
+                final int slot = --this.variableCount;
+                this.variableNames[slot] = null;
+                this.variableValues[slot] = null;
+                this.variableDeclarations[slot] = null;
+                this.variableObjects[slot] = null;
+            }
+        }
+
+        /**
+         * Returns the slot of the most recently pushed variable with the given name, or -1.
+         */
+        int findVariable(String name) {
+            for (int i = this.variableCount - 1; i >= 0; i--) {
+                if (this.variableNames[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        boolean isDeclaredAt(int slot, Element declaration) {
+            return slot < this.variableCount && this.variableDeclarations[slot] == declaration;
+        }
+
+        private class VariablesView extends AbstractCollection<Variable> implements Deque<Variable> {
+
+            @Override
+            public int size() {
+                return variableCount;
+            }
+
+            @Override
+            public Iterator<Variable> iterator() {
+                return Collections.unmodifiableList(getVariables()).iterator();
+            }
+
+            @Override
+            public Iterator<Variable> descendingIterator() {
+                final var result = getVariables();
+                Collections.reverse(result);
+                return Collections.unmodifiableList(result).iterator();
+            }
+
+            @Override
+            public void addFirst(Variable variable) {
+                pushVariable(requireNonNull(variable, "variable can not be null"));
+            }
+
+            @Override
+            public boolean offerFirst(Variable variable) {
+                addFirst(variable);
+                return true;
+            }
+
+            @Override
+            public void push(Variable variable) {
+                addFirst(variable);
+            }
+
+            @Override
+            public boolean add(Variable variable) {
+                throw new UnsupportedOperationException("Variables can only be added at the head");
+            }
+
+            @Override
+            public void addLast(Variable variable) {
+                throw new UnsupportedOperationException("Variables can only be added at the head");
+            }
+
+            @Override
+            public boolean offerLast(Variable variable) {
+                throw new UnsupportedOperationException("Variables can only be added at the head");
+            }
+
+            @Override
+            public boolean offer(Variable variable) {
+                throw new UnsupportedOperationException("Variables can only be added at the head");
+            }
+
+            @Override
+            public Variable removeFirst() {
+                final var result = getFirst();
+                popVariables(1);
+                return result;
+            }
+
+            @Override
+            public Variable pollFirst() {
+                return variableCount == 0 ? null : removeFirst();
+            }
+
+            @Override
+            public Variable pop() {
+                return removeFirst();
+            }
+
+            @Override
+            public Variable remove() {
+                return removeFirst();
+            }
+
+            @Override
+            public Variable poll() {
+                return pollFirst();
+            }
+
+            @Override
+            public Variable removeLast() {
+                throw new UnsupportedOperationException("Variables can only be removed at the head");
+            }
+
+            @Override
+            public Variable pollLast() {
+                throw new UnsupportedOperationException("Variables can only be removed at the head");
+            }
+
+            @Override
+            public boolean removeFirstOccurrence(Object o) {
+                throw new UnsupportedOperationException("Variables can only be removed at the head");
+            }
+
+            @Override
+            public boolean removeLastOccurrence(Object o) {
+                throw new UnsupportedOperationException("Variables can only be removed at the head");
+            }
+
+            @Override
+            public Variable getFirst() {
+                if (variableCount == 0) {
+                    throw new NoSuchElementException();
+                }
+                return getVariable(variableCount - 1);
+            }
+
+            @Override
+            public Variable getLast() {
+                if (variableCount == 0) {
+                    throw new NoSuchElementException();
+                }
+                return getVariable(0);
+            }
+
+            @Override
+            public Variable peekFirst() {
+                return variableCount == 0 ? null : getFirst();
+            }
+
+            @Override
+            public Variable peekLast() {
+                return variableCount == 0 ? null : getLast();
+            }
+
+            @Override
+            public Variable element() {
+                return getFirst();
+            }
+
+            @Override
+            public Variable peek() {
+                return peekFirst();
+            }
+        }
+
         @Override
         public String toString() {
             final var result = new StringBuilder().append("Frame{element=");
@@ -80,12 +331,17 @@ public class State {
     }
 
     public State(Environment environment, Set<CqlEngine.Options> engineOptions) {
+        this(environment, engineOptions, new Cache());
+    }
+
+    public State(Environment environment, Set<CqlEngine.Options> engineOptions, Cache cache) {
         this.environment = requireNonNull(environment);
         this.engineOptions = requireNonNull(engineOptions);
+        this.cache = requireNonNull(cache);
         this.setEvaluationDateTime(ZonedDateTime.now());
     }
 
-    private final Cache cache = new Cache();
+    private final Cache cache;
     private final Set<CqlEngine.Options> engineOptions;
 
     private final Environment environment;
@@ -99,6 +355,8 @@ public class State {
     private final Deque<HashSet<Object>> evaluatedResourceStack = new ArrayDeque<>();
 
     private final Map<String, Object> parameters = new HashMap<>();
+    private final Map<String, Object> suppliedParameters = new HashMap<>();
+    private SharedExpressionCache.ParameterValues sharedParameterValues;
     private Map<String, Object> contextValues = new HashMap<>();
 
     private ZonedDateTime evaluationZonedDateTime;
@@ -106,6 +364,18 @@ public class State {
 
     private DebugMap debugMap;
 
+    private LinkedReferences linkedReferences;
+
+    private VariableSlots variableSlots;
+
+    private EvaluationCosts evaluationCosts;
+
+    private LiteralPatterns literalPatterns;
+
+    private Map<RetrieveRequest, Iterable<Object>> prefetchedRetrieves;
+
+    private RetrieveCache retrieveCache;
+
     public Cache getCache() {
         return this.cache;
     }
@@ -122,6 +392,27 @@ public class State {
         return parameters;
     }
 
+    /**
+     * Returns the parameter values set with {@link #setParameter}, excluding the default values that
+     * were stored in {@link #getParameters()} when parameter references were evaluated.
+     *
+     * @return the supplied parameter values, which can't be modified
+     */
+    public Map<String, Object> getSuppliedParameters() {
+        return Collections.unmodifiableMap(suppliedParameters);
+    }
+
+    /**
+     * @return the supplied parameter values as part of a shared cache key, copied once until a
+     * parameter is set
+     */
+    SharedExpressionCache.ParameterValues getSharedParameterValues() {
+        if (sharedParameterValues == null) {
+            sharedParameterValues = new SharedExpressionCache.ParameterValues(suppliedParameters);
+        }
+        return sharedParameterValues;
+    }
+
     public Set<CqlEngine.Options> getEngineOptions() {
         return engineOptions;
     }
@@ -141,6 +432,8 @@ public class State {
                     ? String.format("%s.%s", getCurrentLibrary().getIdentifier().getId(), name)
                     : name;
             parameters.put(fullName, value);
+            suppliedParameters.put(fullName, value);
+            sharedParameterValues = null;
         } finally {
             exitLibrary(enteredLibrary);
         }
@@ -163,6 +456,22 @@ public class State {
         return false;
     }
 
+    /**
+     * Makes the given library, typically the library of a {@link LinkedReferences.Link}, the
+     * current library.
+     *
+     * @param library the library to enter, or null to stay in the current library
+     * @return whether the library was entered and must be exited with {@link #exitLibrary}
+     */
+    public boolean enterLibrary(Library library) {
+        if (library != null) {
+            currentLibrary.push(library);
+            return true;
+        }
+
+        return false;
+    }
+
     public void exitLibrary(boolean enteredLibrary) {
         if (enteredLibrary) {
             currentLibrary.pop();
@@ -180,7 +489,7 @@ public class State {
     @Deprecated
     public Deque<Deque<Variable>> getWindows() {
         final var result = new ArrayDeque<Deque<Variable>>();
-        this.stack.forEach(frame -> result.push(frame.variables));
+        this.stack.forEach(frame -> result.push(new ArrayDeque<>(frame.getVariables())));
         return result;
     }
 
@@ -189,6 +498,90 @@ public class State {
         throw new RuntimeException("Not supported");
     }
 
+    public LinkedReferences getLinkedReferences() {
+        return linkedReferences;
+    }
+
+    public void setLinkedReferences(LinkedReferences linkedReferences) {
+        this.linkedReferences = linkedReferences;
+    }
+
+    /**
+     * Returns the resolution of the given reference if references have been linked.
+     *
+     * @param reference an expression, function, parameter or terminology reference
+     * @return the resolution, or null if the reference must be resolved by name
+     */
+    public LinkedReferences.Link resolveLink(Element reference) {
+        return linkedReferences != null ? linkedReferences.get(reference) : null;
+    }
+
+    public VariableSlots getVariableSlots() {
+        return variableSlots;
+    }
+
+    public void setVariableSlots(VariableSlots variableSlots) {
+        this.variableSlots = variableSlots;
+    }
+
+    public LiteralPatterns getLiteralPatterns() {
+        return literalPatterns;
+    }
+
+    public void setLiteralPatterns(LiteralPatterns literalPatterns) {
+        this.literalPatterns = literalPatterns;
+    }
+
+    public EvaluationCosts getEvaluationCosts() {
+        return evaluationCosts;
+    }
+
+    public void setEvaluationCosts(EvaluationCosts evaluationCosts) {
+        this.evaluationCosts = evaluationCosts;
+    }
+
+    /**
+     * Returns the results of the retrieves issued before the evaluation started, or null if no
+     * retrieves were prefetched.
+     *
+     * @return the prefetched results by request
+     * @see CqlEngine.Options#EnableRetrievePrefetch
+     */
+    public Map<RetrieveRequest, Iterable<Object>> getPrefetchedRetrieves() {
+        return prefetchedRetrieves;
+    }
+
+    public void setPrefetchedRetrieves(Map<RetrieveRequest, Iterable<Object>> prefetchedRetrieves) {
+        this.prefetchedRetrieves = prefetchedRetrieves;
+    }
+
+    /**
+     * Returns the results of the retrieves of the current evaluation, or null if retrieves are not
+     * cached.
+     *
+     * @return the retrieve cache
+     * @see CqlEngine.Options#EnableRetrieveCaching
+     */
+    public RetrieveCache getRetrieveCache() {
+        return retrieveCache;
+    }
+
+    public void setRetrieveCache(RetrieveCache retrieveCache) {
+        this.retrieveCache = retrieveCache;
+    }
+
+    /**
+     * Returns whether the second operand of the given And, Or or Implies expression should be
+     * evaluated first because it is estimated to be cheaper than the first.
+     *
+     * @param expression an And, Or or Implies expression
+     * @return true if the evaluation is cost-ordered and the second operand is cheaper
+     * @see CqlEngine.Options#EnableCostOrderedEvaluation
+     */
+    public boolean isReordered(Expression expression) {
+        return evaluationCosts != null && evaluationCosts.isReordered(expression);
+    }
+
     public DebugMap getDebugMap() {
         return this.debugMap;
     }
@@ -210,6 +603,21 @@ public class State {
         return debugResult;
     }
 
+    /**
+     * Adds the given amount to the named counter of the profile, if a profile is being built.
+     *
+     * @param name the name of the counter
+     * @param amount the amount to add
+     */
+    public void incrementProfileCounter(String name, long amount) {
+        if (this.debugResult != null) {
+            final var profile = this.debugResult.getProfile();
+            if (profile != null) {
+                profile.incrementCounter(name, amount);
+            }
+        }
+    }
+
     public DebugAction shouldDebug(Exception e) {
         if (this.debugMap == null) {
             return DebugAction.NONE;
@@ -251,20 +659,76 @@ public class State {
         return this.stack;
     }
 
-    public void pop() {
+    /**
+     * Pushes a variable onto the top activation frame.
+     *
+     * @param name the name of the variable
+     * @param value the value of the variable
+     * @param declaration the element that declares the variable, such as an AliasedQuerySource,
+     *                    LetClause or OperandDef, or null if there is none
+     * @return the slot of the variable in the top activation frame
+     * @see VariableSlots
+     */
+    public int pushVariable(String name, Object value, Element declaration) {
+        return getTopActivationFrame().pushVariable(name, value, declaration);
+    }
+
+    /**
+     * Sets the value of a variable of the top activation frame.
+     *
+     * @param slot the slot returned by {@link #pushVariable}
+     * @param value the new value
+     */
+    public void setVariable(int slot, Object value) {
+        getTopActivationFrame().setValue(slot, value);
+    }
+
+    /**
+     * Pops the given number of variables from the top activation frame.
+     */
+    public void popVariables(int count) {
         final var topActivationFrame = this.stack.peek();
         if (topActivationFrame == null) {
             throw new IllegalStateException("Stack underflow");
         }
-        topActivationFrame.variables.pop();
+        topActivationFrame.popVariables(count);
+    }
+
+    public void pop() {
+        popVariables(1);
     }
 
+    /**
+     * Pushes the given variable onto the top activation frame. The frame holds the variable itself,
+     * so later changes to its value are seen by the frame.
+     */
     public void push(Variable variable) {
         final var topActivationFrame = this.stack.peek();
         if (topActivationFrame == null) {
             throw new IllegalStateException("Stack underflow: No activation frame available.");
         }
-        topActivationFrame.variables.push(variable);
+        topActivationFrame.pushVariable(variable);
+    }
+
+    /**
+     * Returns the slot in the top activation frame that holds the variable the given reference
+     * refers to, if the reference was resolved by {@link VariableSlots} and the frame holds the
+     * variable of the resolved declaration in that slot.
+     *
+     * @return the slot, or -1 if the variable must be looked up by name
+     */
+    private int resolveSlot(Element reference) {
+        if (this.variableSlots == null) {
+            return -1;
+        }
+        final var slot = this.variableSlots.get(reference);
+        final var topActivationFrame = this.stack.peek();
+        if (slot == null
+                || topActivationFrame == null
+                || !topActivationFrame.isDeclaredAt(slot.index(), slot.declaration())) {
+            return -1;
+        }
+        return slot.index();
     }
 
     public void beginEvaluation() {
@@ -278,17 +742,16 @@ public class State {
 
     public void endEvaluation() {
         assert this.stack.size() == 1;
-        // TODO(jmoringe): maybe assert this.stack.getLast().variables.isEmpty();
+        // TODO(jmoringe): maybe assert this.stack.getLast().getVariableCount() == 0;
         // Pop (and possibly process) the root activation frame.
         popActivationFrame();
     }
 
     public Variable resolveVariable(String name) {
         for (var frame : this.stack) {
-            for (var v : frame.variables) {
-                if (v.getName().equals(name)) {
-                    return v;
-                }
+            final int slot = frame.findVariable(name);
+            if (slot >= 0) {
+                return frame.getVariable(slot);
             }
         }
 
@@ -304,6 +767,25 @@ public class State {
         return result;
     }
 
+    /**
+     * Returns the value of the variable the given operand, let or scope reference refers to. The
+     * variable is read from its slot if the reference is resolved by {@link VariableSlots}, and
+     * otherwise looked up by name in all activation frames.
+     *
+     * @param reference the reference
+     * @param name the name of the variable
+     * @return the value of the variable
+     * @throws CqlException if there is no variable with the given name
+     */
+    public Object resolveVariableValue(Element reference, String name) {
+        final int slot = resolveSlot(reference);
+        if (slot >= 0) {
+            return this.stack.peek().getValue(slot);
+        }
+
+        return resolveVariable(name, true).getValue();
+    }
+
     public void pushActivationFrame(Element element, String contextName, long startTime) {
         final var newActivationFrame = new ActivationFrame(element, contextName, startTime);
         this.stack.push(newActivationFrame);
@@ -424,23 +906,36 @@ public class State {
 
     public Object resolveAlias(String name) {
         // This method needs to account for multiple variables on the stack with the same name
-        for (Variable v : getTopActivationFrame().variables) {
-            if (v.getName().equals(name)) {
-                return v.getValue();
-            }
+        final var topActivationFrame = getTopActivationFrame();
+        final int slot = topActivationFrame.findVariable(name);
+        if (slot >= 0) {
+            return topActivationFrame.getValue(slot);
         }
 
         throw new IllegalStateException("Could not resolve alias reference %s in the current context".formatted(name));
     }
 
+    /**
+     * Returns the value of the alias the given reference refers to, reading it from its slot if the
+     * reference is resolved by {@link VariableSlots}.
+     */
+    public Object resolveAlias(Element reference, String name) {
+        final int slot = resolveSlot(reference);
+        if (slot >= 0) {
+            return this.stack.peek().getValue(slot);
+        }
+
+        return resolveAlias(name);
+    }
+
     public Object resolveIdentifierRef(String name) {
         for (var frame : this.stack) {
-            for (var v : frame.variables) {
-                if (v.getName().equals(name)) {
-                    return v.getValue();
+            for (int i = frame.variableCount - 1; i >= 0; i--) {
+                var value = frame.getValue(i);
+                if (frame.variableNames[i].equals(name)) {
+                    return value;
                 }
 
-                var value = v.getValue();
                 if (value instanceof org.opencds.cqf.cql.engine.runtime.Tuple) {
                     for (String key : ((org.opencds.cqf.cql.engine.runtime.Tuple) value)
                             .getElements()
@@ -0,0 +1,264 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.cqframework.cql.elm.visiting.BaseElmLibraryVisitor;
+import org.hl7.elm.r1.AliasRef;
+import org.hl7.elm.r1.ByExpression;
+import org.hl7.elm.r1.Element;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.FunctionDef;
+import org.hl7.elm.r1.IncludeDef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.OperandRef;
+import org.hl7.elm.r1.ParameterDef;
+import org.hl7.elm.r1.Property;
+import org.hl7.elm.r1.Query;
+import org.hl7.elm.r1.QueryLetRef;
+import org.hl7.elm.r1.Retrieve;
+
+/**
+ * The activation frame slots of the variables that alias, let, operand and scoped property
+ * references of a library and all libraries it (transitively) includes refer to, computed once so
+ * that evaluating a reference doesn't have to search the activation frames by name.
+ * <p>
+ * Slots are numbered from the bottom of an activation frame and follow the order in which
+ * functions push their operands and queries push their aliases, lets and relationship aliases.
+ * A slot is only used if the frame holds a variable declared by the expected declaration in that
+ * slot, so references that are evaluated in a different frame layout, for example in parameter
+ * defaults, fall back to the name-based lookup. Instances are immutable and can be shared by
+ * engines evaluating concurrently.
+ *
+ * @see State#pushVariable
+ */
+public class VariableSlots {
+
+    /**
+     * The slot of a variable.
+     *
+     * @param index the index of the slot in the activation frame
+     * @param declaration the element that declares the variable
+     */
+    public record Slot(int index, Element declaration) {}
+
+    private final Map<Element, Slot> slots;
+
+    private VariableSlots(Map<Element, Slot> slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Returns the slot of the variable the given reference refers to.
+     *
+     * @param reference an alias, let, operand or scoped property reference
+     * @return the slot, or null if the variable must be looked up by name
+     */
+    public Slot get(Element reference) {
+        return slots.get(reference);
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Computes the slots of the references of the given library and all libraries it includes.
+     *
+     * @param library the library
+     * @param environment the environment in which included libraries are resolved
+     * @return the slots
+     */
+    public static VariableSlots resolve(Library library, Environment environment) {
+        final var resolver = new Resolver(environment);
+        resolver.resolveLibrary(library);
+        return new VariableSlots(resolver.slots);
+    }
+
+    /**
+     * The variables of an activation frame at a point in the evaluation.
+     */
+    private static class Frame {
+        private final List<String> names = new ArrayList<>();
+        private final List<Element> declarations = new ArrayList<>();
+
+        int size() {
+            return names.size();
+        }
+
+        void push(String name, Element declaration) {
+            names.add(name);
+            declarations.add(declaration);
+        }
+
+        void truncate(int size) {
+            names.subList(size, names.size()).clear();
+            declarations.subList(size, declarations.size()).clear();
+        }
+    }
+
+    private static class Resolver extends BaseElmLibraryVisitor<Void, Frame> {
+        private final Environment environment;
+        private final Map<Element, Slot> slots = new IdentityHashMap<>();
+        private final Set<Library> resolvedLibraries = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Resolver(Environment environment) {
+            this.environment = environment;
+        }
+
+        void resolveLibrary(Library library) {
+            if (!resolvedLibraries.add(library)) {
+                return;
+            }
+
+            visitLibrary(library, new Frame());
+            if (library.getIncludes() != null) {
+                for (IncludeDef includeDef : library.getIncludes().getDef()) {
+                    resolveLibrary(environment.resolveLibrary(Libraries.toVersionedIdentifier(includeDef)));
+                }
+            }
+        }
+
+        private void resolve(Element reference, String name, Frame frame) {
+            for (int i = frame.size() - 1; i >= 0; i--) {
+                if (Objects.equals(frame.names.get(i), name)) {
+                    if (frame.declarations.get(i) != null) {
+                        slots.put(reference, new Slot(i, frame.declarations.get(i)));
+                    }
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public Void visitExpressionDef(ExpressionDef elm, Frame frame) {
+            if (elm instanceof FunctionDef) {
+                return visitFunctionDef((FunctionDef) elm, frame);
+            }
+
+            // Expression definitions are evaluated in their own activation frame.
+            return super.visitExpressionDef(elm, new Frame());
+        }
+
+        @Override
+        public Void visitFunctionDef(FunctionDef elm, Frame frame) {
+            final var functionFrame = new Frame();
+            for (var operand : elm.getOperand()) {
+                functionFrame.push(operand.getName(), operand);
+            }
+            return super.visitFunctionDef(elm, functionFrame);
+        }
+
+        @Override
+        public Void visitParameterDef(ParameterDef elm, Frame frame) {
+            // Defaults are evaluated in the frame of the first reference to the parameter.
+            return super.visitParameterDef(elm, new Frame());
+        }
+
+        @Override
+        public Void visitRetrieve(Retrieve elm, Frame frame) {
+            // Retrieves push their own activation frame before evaluating their operands.
+            return super.visitRetrieve(elm, new Frame());
+        }
+
+        @Override
+        public Void visitQuery(Query elm, Frame frame) {
+            // Mirrors the order in which QueryEvaluator pushes and pops variables.
+            final int size = frame.size();
+            for (var source : elm.getSource()) {
+                visitExpression(source.getExpression(), frame);
+                frame.push(source.getAlias(), source);
+            }
+            for (var let : elm.getLet()) {
+                frame.push(let.getIdentifier(), let);
+            }
+            for (var let : elm.getLet()) {
+                visitExpression(let.getExpression(), frame);
+            }
+            for (var relationship : elm.getRelationship()) {
+                visitExpression(relationship.getExpression(), frame);
+                frame.push(relationship.getAlias(), relationship);
+                if (relationship.getSuchThat() != null) {
+                    visitExpression(relationship.getSuchThat(), frame);
+                }
+                frame.truncate(frame.size() - 1);
+            }
+            if (elm.getWhere() != null) {
+                visitExpression(elm.getWhere(), frame);
+            }
+            if (elm.getReturn() != null) {
+                visitExpression(elm.getReturn().getExpression(), frame);
+            }
+            frame.truncate(size);
+
+            final var aggregate = elm.getAggregate();
+            if (aggregate != null) {
+                if (aggregate.getStarting() != null) {
+                    visitExpression(aggregate.getStarting(), frame);
+                }
+                if (aggregate.isDistinct()) {
+                    // The aggregate expression sees the accumulator and the elements of each row.
+                    frame.push(aggregate.getIdentifier(), aggregate);
+                    for (var source : elm.getSource()) {
+                        frame.push(source.getAlias(), null);
+                    }
+                } else {
+                    // Rows are folded as they are produced, with the accumulator pushed after the
+                    // aliases and lets of the row.
+                    for (var source : elm.getSource()) {
+                        frame.push(source.getAlias(), source);
+                    }
+                    for (var let : elm.getLet()) {
+                        frame.push(let.getIdentifier(), let);
+                    }
+                    frame.push(aggregate.getIdentifier(), aggregate);
+                }
+                visitExpression(aggregate.getExpression(), frame);
+                frame.truncate(size);
+            }
+
+            if (elm.getSort() != null) {
+                // Sort keys are evaluated with the element pushed as $this.
+                frame.push("$this", null);
+                for (var byItem : elm.getSort().getBy()) {
+                    if (byItem instanceof ByExpression) {
+                        visitExpression(((ByExpression) byItem).getExpression(), frame);
+                    }
+                }
+                frame.truncate(size);
+            }
+
+            return null;
+        }
+
+        @Override
+        public Void visitAliasRef(AliasRef elm, Frame frame) {
+            resolve(elm, elm.getName(), frame);
+            return super.visitAliasRef(elm, frame);
+        }
+
+        @Override
+        public Void visitQueryLetRef(QueryLetRef elm, Frame frame) {
+            resolve(elm, elm.getName(), frame);
+            return super.visitQueryLetRef(elm, frame);
+        }
+
+        @Override
+        public Void visitOperandRef(OperandRef elm, Frame frame) {
+            resolve(elm, elm.getName(), frame);
+            return super.visitOperandRef(elm, frame);
+        }
+
+        @Override
+        public Void visitProperty(Property elm, Frame frame) {
+            if (elm.getSource() == null && elm.getScope() != null) {
+                resolve(elm, elm.getScope(), frame);
+            }
+            return super.visitProperty(elm, frame);
+        }
+    }
+}
@@ -122,6 +122,11 @@ public class CachingModelResolverDecorator implements ModelResolver {
         return this.innerResolver.objectEquivalent(left, right);
     }
 
+    @Override
+    public Integer objectHashCode(Object value) {
+        return this.innerResolver.objectHashCode(value);
+    }
+
     @Override
     public String resolveId(Object target) {
         return innerResolver.resolveId(target);
@@ -150,6 +150,19 @@ public interface ModelResolver {
      */
     Boolean objectEquivalent(Object left, Object right);
 
+    /**
+     * Compute a hash code for the given object that is consistent with {@link #objectEqual}: if two
+     * objects are equal, their hash codes must be the same. This allows the engine to use hash-based
+     * algorithms for list operations such as Distinct and Union.
+     *
+     * @param value model object instance
+     * @return a hash code for the object, or null if the model cannot compute one consistent with
+     * {@link #objectEqual}, in which case the engine falls back to pairwise comparison.
+     */
+    default Integer objectHashCode(Object value) {
+        return null;
+    }
+
     /**
      * Ensure that for a given object each implementation can introspect that object in its own way to resolve a String ID.
      *
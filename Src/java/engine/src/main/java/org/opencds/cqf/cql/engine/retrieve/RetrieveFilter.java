@@ -0,0 +1,24 @@
+package org.opencds.cqf.cql.engine.retrieve;
+
+/**
+ * Implemented by retrieve providers that can select, in memory, the resources of a retrieve that
+ * satisfy the codes and date range of a narrower request, with the same semantics as their
+ * retrieve. The engine uses it to answer a retrieve from the cached result of a broader retrieve
+ * of the same type in the same context.
+ *
+ * @see org.opencds.cqf.cql.engine.execution.CqlEngine.Options#EnableRetrieveSubsumption
+ */
+public interface RetrieveFilter {
+
+    /**
+     * Selects the resources that the given request would retrieve from the result of a broader
+     * request, that is a request of the same type and context without codes or with a superset of
+     * its codes, and without a date range or with a date range that includes its date range.
+     *
+     * @param resources the result of the broader request
+     * @param request the narrower request
+     * @return the selected resources, in their order in the given result, or null if they can't be
+     * selected in memory and the request must be retrieved
+     */
+    Iterable<Object> filter(Iterable<Object> resources, RetrieveRequest request);
+}
@@ -0,0 +1,245 @@
+package org.opencds.cqf.cql.engine.retrieve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+
+/**
+ * The arguments of a {@link RetrieveProvider#retrieve} call, with the codes and date range already
+ * evaluated. Requests are equal if they would retrieve the same data: codes are compared by system,
+ * version and code, and date ranges by whether their boundaries are closed and by the values and
+ * precisions of their boundaries.
+ */
+public final class RetrieveRequest {
+    private final String context;
+    private final String contextPath;
+    private final Object contextValue;
+    private final String dataType;
+    private final String templateId;
+    private final String codePath;
+    private final Iterable<Code> codes;
+    private final String valueSet;
+    private final String datePath;
+    private final String dateLowPath;
+    private final String dateHighPath;
+    private final Interval dateRange;
+
+    private final List<String> codeKeys;
+    private final List<Object> dateRangeKey;
+    private final int hashCode;
+
+    public RetrieveRequest(
+            String context,
+            String contextPath,
+            Object contextValue,
+            String dataType,
+            String templateId,
+            String codePath,
+            Iterable<Code> codes,
+            String valueSet,
+            String datePath,
+            String dateLowPath,
+            String dateHighPath,
+            Interval dateRange) {
+        this.context = context;
+        this.contextPath = contextPath;
+        this.contextValue = contextValue;
+        this.dataType = dataType;
+        this.templateId = templateId;
+        this.codePath = codePath;
+        this.codes = codes;
+        this.valueSet = valueSet;
+        this.datePath = datePath;
+        this.dateLowPath = dateLowPath;
+        this.dateHighPath = dateHighPath;
+        this.dateRange = dateRange;
+
+        if (codes != null) {
+            codeKeys = new ArrayList<>();
+            for (Code code : codes) {
+                codeKeys.add(code == null ? null : code.getSystem() + "|" + code.getVersion() + "|" + code.getCode());
+            }
+        } else {
+            codeKeys = null;
+        }
+        dateRangeKey = dateRange != null
+                ? Arrays.asList(
+                        dateRange.getLowClosed(),
+                        dateRange.getHighClosed(),
+                        boundaryKey(dateRange.getLow()),
+                        boundaryKey(dateRange.getHigh()))
+                : null;
+        hashCode = Objects.hash(
+                context,
+                contextPath,
+                contextValue,
+                dataType,
+                templateId,
+                codePath,
+                codeKeys,
+                valueSet,
+                datePath,
+                dateLowPath,
+                dateHighPath,
+                dateRangeKey);
+    }
+
+    private static Object boundaryKey(Object boundary) {
+        // Dates don't implement equals; DateTimes compare their value, offset and precision
+        if (boundary instanceof Date) {
+            final var date = (Date) boundary;
+            return Arrays.asList(date.getDate(), date.getPrecision());
+        }
+        return boundary;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    public Object getContextValue() {
+        return contextValue;
+    }
+
+    public String getDataType() {
+        return dataType;
+    }
+
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public String getCodePath() {
+        return codePath;
+    }
+
+    public Iterable<Code> getCodes() {
+        return codes;
+    }
+
+    public String getValueSet() {
+        return valueSet;
+    }
+
+    public String getDatePath() {
+        return datePath;
+    }
+
+    public String getDateLowPath() {
+        return dateLowPath;
+    }
+
+    public String getDateHighPath() {
+        return dateHighPath;
+    }
+
+    public Interval getDateRange() {
+        return dateRange;
+    }
+
+    /**
+     * Returns whether this request retrieves data of the same type and template as the given
+     * request, in the same context.
+     *
+     * @param other the other request
+     * @return true if the requests differ at most in their codes and date range
+     */
+    public boolean hasSameTarget(RetrieveRequest other) {
+        return Objects.equals(context, other.context)
+                && Objects.equals(contextPath, other.contextPath)
+                && Objects.equals(contextValue, other.contextValue)
+                && Objects.equals(dataType, other.dataType)
+                && Objects.equals(templateId, other.templateId);
+    }
+
+    /**
+     * Returns whether every code the given request retrieves is retrieved by this request, that is
+     * whether this request has no codes, or has the same value set, or a superset of the codes of
+     * the given request at the same code path.
+     *
+     * @param other the other request
+     * @return true if the codes of this request include the codes of the other request
+     */
+    public boolean includesCodesOf(RetrieveRequest other) {
+        if (codeKeys == null && valueSet == null) {
+            return true;
+        } else if (!Objects.equals(codePath, other.codePath)) {
+            return false;
+        } else if (valueSet != null) {
+            return valueSet.equals(other.valueSet) && other.codeKeys == null;
+        }
+        return other.valueSet == null && other.codeKeys != null && codeKeys.containsAll(other.codeKeys);
+    }
+
+    /**
+     * Retrieves the requested data from the given provider.
+     *
+     * @param retrieveProvider the provider
+     * @return the retrieved data
+     */
+    public Iterable<Object> retrieve(RetrieveProvider retrieveProvider) {
+        return retrieveProvider.retrieve(
+                context,
+                contextPath,
+                contextValue,
+                dataType,
+                templateId,
+                codePath,
+                codes,
+                valueSet,
+                datePath,
+                dateLowPath,
+                dateHighPath,
+                dateRange);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof RetrieveRequest)) {
+            return false;
+        }
+
+        final var that = (RetrieveRequest) other;
+        return hashCode == that.hashCode
+                && Objects.equals(context, that.context)
+                && Objects.equals(contextPath, that.contextPath)
+                && Objects.equals(contextValue, that.contextValue)
+                && Objects.equals(dataType, that.dataType)
+                && Objects.equals(templateId, that.templateId)
+                && Objects.equals(codePath, that.codePath)
+                && Objects.equals(codeKeys, that.codeKeys)
+                && Objects.equals(valueSet, that.valueSet)
+                && Objects.equals(datePath, that.datePath)
+                && Objects.equals(dateLowPath, that.dateLowPath)
+                && Objects.equals(dateHighPath, that.dateHighPath)
+                && Objects.equals(dateRangeKey, that.dateRangeKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "[%s%s%s%s] in %s %s",
+                dataType,
+                codePath != null ? ": " + codePath : "",
+                valueSet != null ? " in " + valueSet : codeKeys != null ? " in " + codeKeys : "",
+                dateRange != null ? ", " + datePath + " during " + dateRange : "",
+                context,
+                contextValue);
+    }
+}
@@ -11,7 +11,6 @@ import org.opencds.cqf.cql.engine.elm.executing.EquivalentEvaluator;
 import org.opencds.cqf.cql.engine.elm.executing.UnitConversionHelper;
 import org.opencds.cqf.cql.engine.exception.InvalidComparison;
 import org.opencds.cqf.cql.engine.execution.State;
-import org.opencds.cqf.cql.engine.execution.Variable;
 
 public class CqlList {
     private State state;
@@ -45,7 +44,7 @@ public class CqlList {
 
             Object leftResult = null;
             try {
-                state.push(new Variable(alias).withValue(left));
+                state.pushVariable(alias, left, null);
                 leftResult = visitor.visitExpression(expression, state);
             } finally {
                 state.pop();
@@ -53,7 +52,7 @@ public class CqlList {
 
             Object rightResult = null;
             try {
-                state.push(new Variable(alias).withValue(right));
+                state.pushVariable(alias, right, null);
                 rightResult = visitor.visitExpression(expression, state);
             } finally {
                 state.pop();
@@ -0,0 +1,132 @@
+package org.opencds.cqf.cql.engine.runtime.iterators;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
+
+/**
+ * An Iterable that pulls the elements of a source on demand and remembers them, so that a source
+ * that is expensive to iterate, for example the pages of a FHIR search, is iterated at most once
+ * and only as far as the furthest iteration has got. Every iteration yields the same elements.
+ * <p>
+ * Each element an iteration yields is passed to the consumer, if any, which the engine uses to
+ * record the resources a retrieve returns as evaluated only once they are actually used. As the
+ * engine's consumer updates its state, results are {@link #materialize materialized} before they
+ * leave the evaluation.
+ */
+public class MemoizingIterable implements Iterable<Object> {
+
+    private final Iterable<?> source;
+    private final Consumer<Object> consumer;
+    private final List<Object> elements = new ArrayList<>();
+    private Iterator<?> sourceIterator;
+    private boolean exhausted;
+
+    public MemoizingIterable(Iterable<?> source) {
+        this(source, null);
+    }
+
+    public MemoizingIterable(Iterable<?> source, Consumer<Object> consumer) {
+        this.source = source;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Returns whether the element with the given index exists, pulling elements from the source
+     * up to that index if necessary.
+     */
+    private synchronized boolean fetch(int index) {
+        while (elements.size() <= index && !exhausted) {
+            if (sourceIterator == null) {
+                sourceIterator = source.iterator();
+            }
+
+            if (sourceIterator.hasNext()) {
+                elements.add(sourceIterator.next());
+            } else {
+                exhausted = true;
+                sourceIterator = null;
+            }
+        }
+
+        return index < elements.size();
+    }
+
+    private synchronized Object get(int index) {
+        return elements.get(index);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return fetch(index);
+            }
+
+            @Override
+            public Object next() {
+                if (!fetch(index)) {
+                    throw new NoSuchElementException();
+                }
+
+                final var element = get(index++);
+                if (consumer != null) {
+                    consumer.accept(element);
+                }
+                return element;
+            }
+        };
+    }
+
+    /**
+     * Iterates the MemoizingIterables in the given value to the end, passing each element to their
+     * consumers, and replaces them by lists of their elements. The elements of lists and tuples are
+     * materialized too, so that no MemoizingIterable is left in the value.
+     *
+     * @param value any value
+     * @return the value, or a copy of it in which MemoizingIterables are replaced by lists
+     */
+    public static Object materialize(Object value) {
+        if (value instanceof MemoizingIterable) {
+            final var list = new ArrayList<Object>();
+            ((MemoizingIterable) value).forEach(element -> list.add(materialize(element)));
+            return list;
+        } else if (value instanceof List) {
+            final var list = (List<?>) value;
+            List<Object> copy = null;
+            for (int i = 0; i < list.size(); i++) {
+                final var element = list.get(i);
+                final var materialized = materialize(element);
+                if (materialized != element && copy == null) {
+                    copy = new ArrayList<>(list);
+                }
+                if (copy != null) {
+                    copy.set(i, materialized);
+                }
+            }
+            return copy != null ? copy : value;
+        } else if (value instanceof Tuple) {
+            final var tuple = (Tuple) value;
+            LinkedHashMap<String, Object> copy = null;
+            for (var entry : tuple.getElements().entrySet()) {
+                final var materialized = materialize(entry.getValue());
+                if (materialized != entry.getValue() && copy == null) {
+                    copy = new LinkedHashMap<>(tuple.getElements());
+                }
+                if (copy != null) {
+                    copy.put(entry.getKey(), materialized);
+                }
+            }
+            return copy != null ? new Tuple(tuple.getState()).withElements(copy) : value;
+        }
+
+        return value;
+    }
+}
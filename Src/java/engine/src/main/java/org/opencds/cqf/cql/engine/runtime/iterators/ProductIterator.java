@@ -0,0 +1,82 @@
+package org.opencds.cqf.cql.engine.runtime.iterators;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.opencds.cqf.cql.engine.execution.State;
+
+/**
+ * Iterates the cartesian product of the sources of a query, in the order of nested loops over the
+ * sources with the last source innermost.
+ * <p>
+ * The product is tracked by the index of the current element of every source, so no objects are
+ * allocated per row. Every row assigns the elements that changed since the previous row to the
+ * variable slots of their aliases, and the returned row is the same array every time, overwritten
+ * by the next row.
+ */
+public class ProductIterator implements Iterator<Object[]> {
+
+    private final State state;
+    private final List<List<Object>> sources;
+    private final int[] slots;
+    private final int[] indexes;
+    private final Object[] row;
+    private boolean started;
+    private boolean hasNext;
+
+    /**
+     * @param state the state whose top activation frame holds the slots
+     * @param sources the elements of the sources; random access lists, as they are iterated by
+     *                index repeatedly
+     * @param slots the variable slots of the aliases of the sources
+     */
+    public ProductIterator(State state, List<List<Object>> sources, int[] slots) {
+        this.state = state;
+        this.sources = sources;
+        this.slots = slots;
+        this.indexes = new int[sources.size()];
+        this.row = new Object[sources.size()];
+        this.hasNext = !sources.isEmpty();
+        for (var source : sources) {
+            if (source.isEmpty()) {
+                hasNext = false;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+
+        int changed = 0;
+        if (started) {
+            changed = indexes.length - 1;
+            while (++indexes[changed] == sources.get(changed).size()) {
+                indexes[changed--] = 0;
+            }
+        }
+        started = true;
+
+        for (int i = changed; i < indexes.length; i++) {
+            row[i] = sources.get(i).get(indexes[i]);
+            state.setVariable(slots[i], row[i]);
+        }
+
+        hasNext = false;
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i] < sources.get(i).size() - 1) {
+                hasNext = true;
+                break;
+            }
+        }
+
+        return row;
+    }
+}
@@ -8,7 +8,11 @@ import org.opencds.cqf.cql.engine.execution.State;
 
 /**
  * Created by Bryn on 8/11/2019.
+ *
+ * @deprecated The engine no longer uses this class; queries iterate their sources with
+ * {@link ProductIterator}.
  */
+@Deprecated
 public class QueryIterator implements Iterator<Object> {
 
     private Iterator<Object> sourceIterator;
@@ -5,7 +5,10 @@ import java.util.Iterator;
 
 /**
  * Created by Bryn on 8/11/2019.
+ *
+ * @deprecated The engine no longer uses this class.
  */
+@Deprecated
 public class ResetIterator<E> implements Iterator<E> {
     private Iterator<E> source;
     private ArrayList<E> data = new ArrayList<E>();
@@ -5,7 +5,10 @@ import java.util.Iterator;
 
 /**
  * Created by Bryn on 8/11/2019.
+ *
+ * @deprecated The engine no longer uses this class; see {@link ProductIterator}.
  */
+@Deprecated
 public class TimesIterator implements Iterator<Object> {
 
     private Iterator<Object> left;
@@ -0,0 +1,260 @@
+package org.opencds.cqf.cql.engine.terminology;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.opencds.cqf.cql.engine.exception.TerminologyProviderException;
+import org.opencds.cqf.cql.engine.runtime.Code;
+
+/**
+ * A TerminologyProvider that expands each value set once and answers membership checks from the
+ * expansion, rather than asking the decorated provider for every code. For example, a FHIR
+ * terminology provider otherwise issues a $validate-code request per membership check and an
+ * $expand request per value set reference.
+ * <p>
+ * Membership checks look a code up by system and code in a hash index of the expansion; codes
+ * without a system match any code of the expansion with the same code, and code versions are
+ * ignored. Lookups are passed to the decorated provider.
+ * <p>
+ * Instances are thread-safe and are meant to be shared by all engines that use the same
+ * terminology, so that each value set is expanded once however many engines need it. Concurrent
+ * requests for a value set that is being expanded wait for that expansion. The cache holds at most
+ * {@link #getMaximumSize()} expansions, evicting the least recently used one when full, and
+ * optionally expires expansions after a time to live.
+ */
+public class CachingTerminologyProvider implements TerminologyProvider {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    /**
+     * Identifies a value set by its id, version and code system versions, as the decorated
+     * provider would.
+     */
+    private record Key(String id, String version, List<String> codeSystems) {
+        static Key of(ValueSetInfo valueSet) {
+            final var codeSystems = new ArrayList<String>();
+            for (var codeSystem : valueSet.getCodeSystems()) {
+                codeSystems.add(codeSystem.getId() + "|" + codeSystem.getVersion());
+            }
+            return new Key(valueSet.getId(), valueSet.getVersion(), codeSystems);
+        }
+    }
+
+    private static final class Expansion {
+        private final List<Code> codes;
+        private final Set<String> systemCodes = new HashSet<>();
+        private final Set<String> codesWithoutSystem = new HashSet<>();
+
+        Expansion(Iterable<Code> expanded) {
+            final var list = new ArrayList<Code>();
+            if (expanded != null) {
+                for (var code : expanded) {
+                    list.add(code);
+                    if (code != null && code.getCode() != null) {
+                        systemCodes.add(code.getSystem() + "|" + code.getCode());
+                        codesWithoutSystem.add(code.getCode());
+                    }
+                }
+            }
+            this.codes = Collections.unmodifiableList(list);
+        }
+
+        boolean contains(Code code) {
+            if (code == null || code.getCode() == null) {
+                return false;
+            }
+            return code.getSystem() != null
+                    ? systemCodes.contains(code.getSystem() + "|" + code.getCode())
+                    : codesWithoutSystem.contains(code.getCode());
+        }
+    }
+
+    private record Entry(FutureTask<Expansion> expansion, long createdAt) {}
+
+    private final TerminologyProvider innerProvider;
+    private final int maximumSize;
+    private final long timeToLiveNanos;
+    private final LongSupplier ticker;
+    private final Map<Key, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expansions = new AtomicLong();
+    private final AtomicLong expansionNanos = new AtomicLong();
+
+    public CachingTerminologyProvider(TerminologyProvider terminologyProvider) {
+        this(terminologyProvider, DEFAULT_MAXIMUM_SIZE, null);
+    }
+
+    /**
+     * @param terminologyProvider the provider to decorate
+     * @param maximumSize the maximum number of expansions to keep; the least recently used
+     *                    expansion is evicted when the cache is full
+     * @param timeToLive how long an expansion is used before the value set is expanded again, or
+     *                   null to keep expansions until they are evicted
+     */
+    public CachingTerminologyProvider(TerminologyProvider terminologyProvider, int maximumSize, Duration timeToLive) {
+        this(terminologyProvider, maximumSize, timeToLive, System::nanoTime);
+    }
+
+    CachingTerminologyProvider(
+            TerminologyProvider terminologyProvider, int maximumSize, Duration timeToLive, LongSupplier ticker) {
+        if (terminologyProvider == null) {
+            throw new IllegalArgumentException("terminologyProvider can not be null.");
+        }
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1.");
+        }
+        this.innerProvider = terminologyProvider;
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = timeToLive != null && !timeToLive.isZero() ? timeToLive.toNanos() : Long.MAX_VALUE;
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldestEntry) {
+                return size() > CachingTerminologyProvider.this.maximumSize;
+            }
+        };
+    }
+
+    @Override
+    public boolean in(Code code, ValueSetInfo valueSet) {
+        return getExpansion(valueSet).contains(code);
+    }
+
+    @Override
+    public Iterable<Code> expand(ValueSetInfo valueSet) {
+        return getExpansion(valueSet).codes;
+    }
+
+    @Override
+    public Code lookup(Code code, CodeSystemInfo codeSystem) {
+        return innerProvider.lookup(code, codeSystem);
+    }
+
+    /**
+     * Expands the given value sets ahead of their first use, for example at startup.
+     *
+     * @param valueSets the value sets to expand
+     */
+    public void preload(Iterable<ValueSetInfo> valueSets) {
+        for (var valueSet : valueSets) {
+            getExpansion(valueSet);
+        }
+    }
+
+    private Expansion getExpansion(ValueSetInfo valueSet) {
+        final var key = Key.of(valueSet);
+        final FutureTask<Expansion> task;
+        boolean expand = false;
+        synchronized (entries) {
+            final var now = ticker.getAsLong();
+            final var entry = entries.get(key);
+            if (entry != null && !isExpired(entry, now)) {
+                hits.incrementAndGet();
+                task = entry.expansion();
+            } else {
+                misses.incrementAndGet();
+                task = new FutureTask<>(() -> expandAndIndex(valueSet));
+                entries.put(key, new Entry(task, now));
+                expand = true;
+            }
+        }
+
+        // Expand outside the lock, so that requests for other value sets aren't blocked
+        if (expand) {
+            task.run();
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TerminologyProviderException(
+                    String.format("Interrupted while expanding ValueSet: %s", valueSet.getId()), e);
+        } catch (ExecutionException e) {
+            synchronized (entries) {
+                // Don't cache failures; the next request expands the value set again.
+                final var entry = entries.get(key);
+                if (entry != null && entry.expansion() == task) {
+                    entries.remove(key);
+                }
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TerminologyProviderException(
+                    String.format("Error performing expansion of ValueSet: %s", valueSet.getId()), e.getCause());
+        }
+    }
+
+    private Expansion expandAndIndex(ValueSetInfo valueSet) {
+        final var start = System.nanoTime();
+        try {
+            return new Expansion(innerProvider.expand(valueSet));
+        } finally {
+            expansions.incrementAndGet();
+            expansionNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return timeToLiveNanos != Long.MAX_VALUE && now - entry.createdAt() >= timeToLiveNanos;
+    }
+
+    public TerminologyProvider getInnerProvider() {
+        return innerProvider;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of membership checks and expansions served by an existing expansion
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of membership checks and expansions that required expanding a value set
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of value sets the decorated provider expanded
+     */
+    public long getExpansionCount() {
+        return expansions.get();
+    }
+
+    /**
+     * @return the total time the decorated provider spent expanding value sets
+     */
+    public Duration getExpansionTime() {
+        return Duration.ofNanos(expansionNanos.get());
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.opencds.cqf.cql.engine.elm.executing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.Environment;
+import org.opencds.cqf.cql.engine.execution.State;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Quantity;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
+
+class DistinctEvaluatorTest {
+
+    private static State newState(Set<CqlEngine.Options> options) {
+        return new State(new Environment(new LibraryManager(new ModelManager())), options);
+    }
+
+    @Test
+    void distinctUsesEqualitySemantics() {
+        var state = newState(Set.of());
+        var actual = DistinctEvaluator.distinct(
+                Arrays.asList(1, null, new BigDecimal("1.0"), new BigDecimal("1.00"), 1, null, "a"), state);
+        assertEquals(Arrays.asList(1, null, new BigDecimal("1.0"), "a"), actual);
+    }
+
+    @Test
+    void distinctQuantitiesWithConvertibleUnits() {
+        var state = newState(Set.of());
+        var gram = new Quantity().withValue(new BigDecimal("1")).withUnit("g");
+        var milligrams = new Quantity().withValue(new BigDecimal("1000")).withUnit("mg");
+        var meter = new Quantity().withValue(new BigDecimal("1")).withUnit("m");
+        var actual = DistinctEvaluator.distinct(List.of(gram, milligrams, meter), state);
+        assertEquals(List.of(gram, meter), actual);
+    }
+
+    @Test
+    void distinctDateTimesOfDifferentPrecisions() {
+        var state = newState(Set.of());
+        var day = new DateTime(BigDecimal.ZERO, 2020, 1, 1);
+        var sameDay = new DateTime(BigDecimal.ZERO, 2020, 1, 1);
+        var hour = new DateTime(BigDecimal.ZERO, 2020, 1, 1, 10);
+        var sameHour = new DateTime(BigDecimal.ZERO, 2020, 1, 1, 10);
+        var actual = DistinctEvaluator.distinct(List.of(day, hour, sameDay, sameHour), state);
+        assertEquals(List.of(day, hour), actual);
+    }
+
+    @Test
+    void distinctTuplesAndCodes() {
+        var state = newState(Set.of());
+        var first = new LinkedHashMap<String, Object>();
+        first.put("a", 1);
+        first.put("b", null);
+        var second = new LinkedHashMap<String, Object>();
+        second.put("b", null);
+        second.put("a", 1);
+        var code = new Code().withCode("123").withSystem("http://loinc.org");
+        var sameCode = new Code().withCode("123").withSystem("http://loinc.org");
+        var actual = DistinctEvaluator.distinct(
+                List.of(new Tuple(state).withElements(first), new Tuple(state).withElements(second), code, sameCode),
+                state);
+        assertEquals(2, actual.size());
+    }
+
+    @Test
+    void intersectAndExcept() {
+        var state = newState(Set.of());
+        assertEquals(
+                Arrays.asList(2, null),
+                IntersectEvaluator.intersect(Arrays.asList(1, 2, 2, null), Arrays.asList(null, 2, 3), state));
+        assertEquals(List.of(1), ExceptEvaluator.except(Arrays.asList(1, 1, 2, null), Arrays.asList(null, 2), state));
+        assertEquals(
+                List.of(1, 2, 3),
+                UnionEvaluator.unionIterable(Arrays.asList(1, 2, 2), Arrays.asList(3, 1), state));
+    }
+
+    @Test
+    void hedisCompatibilityModeUsesEquivalence() {
+        var state = newState(Set.of(CqlEngine.Options.EnableHedisCompatibilityMode));
+        var actual = DistinctEvaluator.distinct(List.of("abc", "ABC"), state);
+        assertEquals(List.of("abc"), actual);
+    }
+}
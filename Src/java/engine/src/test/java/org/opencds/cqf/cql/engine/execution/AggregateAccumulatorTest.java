@@ -0,0 +1,165 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.hl7.elm.r1.AllTrue;
+import org.hl7.elm.r1.Avg;
+import org.hl7.elm.r1.Count;
+import org.hl7.elm.r1.Max;
+import org.hl7.elm.r1.StdDev;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.elm.executing.AggregateClauseEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.MedianEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.ModeEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.PopulationStdDevEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.PopulationVarianceEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.StdDevEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.VarianceEvaluator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.Quantity;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
+
+class AggregateAccumulatorTest extends CqlTestBase {
+
+    private static List<Object> decimals(String... values) {
+        final var decimals = new ArrayList<Object>();
+        for (var value : values) {
+            decimals.add(value != null ? new BigDecimal(value) : null);
+        }
+        return decimals;
+    }
+
+    @Test
+    void modeCountsEqualValues() {
+        final var state = engine.getState();
+        assertEquals(2, ModeEvaluator.mode(Arrays.asList(3, 1, null, 2, 2, 3), state));
+        assertEquals("b", ModeEvaluator.mode(List.of("a", "b", "c", "b"), state));
+        // 1.0 and 1.00 are equal, and the first of them is the mode
+        assertEquals("1.0", ModeEvaluator.mode(decimals("2", "1.0", "1.00"), state).toString());
+        assertEquals(
+                new Date(2024, 2, 1).toString(),
+                ModeEvaluator.mode(
+                                List.of(new Date(2024, 3, 1), new Date(2024, 2, 1), new Date(2024, 2, 1)), state)
+                        .toString());
+        assertNull(ModeEvaluator.mode(Arrays.asList(null, null), state));
+    }
+
+    @Test
+    void medianSelectsMiddleValues() {
+        final var state = engine.getState();
+        final var random = new Random(42);
+        for (int size = 1; size < 50; size++) {
+            final var values = new ArrayList<Object>();
+            for (int i = 0; i < size; i++) {
+                values.add(new BigDecimal(random.nextInt(20)));
+            }
+            final var sorted = new ArrayList<>(values);
+            sorted.sort((left, right) -> ((BigDecimal) left).compareTo((BigDecimal) right));
+
+            final var median = (BigDecimal) MedianEvaluator.median(values, state);
+            final var expected = size % 2 != 0
+                    ? (BigDecimal) sorted.get(size / 2)
+                    : ((BigDecimal) sorted.get(size / 2))
+                            .add((BigDecimal) sorted.get(size / 2 - 1))
+                            .divide(new BigDecimal(2));
+            assertEquals(0, expected.compareTo(median), "median of " + values);
+        }
+
+        assertEquals(2, MedianEvaluator.median(List.of(4, 1, 3, 2), state));
+        assertNull(MedianEvaluator.median(Arrays.asList(null, null), state));
+    }
+
+    @Test
+    void varianceIsRoundedOnce() {
+        final var state = engine.getState();
+        // The mean, 1/3, has no exact decimal representation, but the variance does.
+        final var values = decimals("1", "1", "1", "0", "0", "0", "0", "0", "0");
+        assertEquals(0, new BigDecimal("0.25").compareTo((BigDecimal) VarianceEvaluator.variance(values, state)));
+        assertEquals(
+                0,
+                new BigDecimal("0.22222222")
+                        .compareTo((BigDecimal) PopulationVarianceEvaluator.popVariance(values, state)));
+
+        final var withNull = decimals("1", null, "2", "3", "4", "5");
+        assertEquals(0, new BigDecimal("2.5").compareTo((BigDecimal) VarianceEvaluator.variance(withNull, state)));
+
+        final var single = decimals("7");
+        assertNull(VarianceEvaluator.variance(single, state));
+        assertEquals(0, BigDecimal.ZERO.compareTo((BigDecimal) PopulationVarianceEvaluator.popVariance(single, state)));
+        assertNull(StdDevEvaluator.stdDev(decimals((String) null), state));
+    }
+
+    private static Quantity quantity(String value, String unit) {
+        return new Quantity().withValue(new BigDecimal(value)).withUnit(unit);
+    }
+
+    @Test
+    void varianceOfUnitlessQuantities() {
+        final var state = engine.getState();
+        final var unitless = List.<Object>of(quantity("1", null), quantity("2", null), quantity("3", null));
+        final var variance = (Quantity) VarianceEvaluator.variance(unitless, state);
+        assertEquals(0, BigDecimal.ONE.compareTo(variance.getValue()));
+        assertTrue(Quantity.isDefaultUnit(variance.getUnit()));
+
+        final var standardDeviation = (Quantity) StdDevEvaluator.stdDev(unitless, state);
+        assertEquals(0, BigDecimal.ONE.compareTo(standardDeviation.getValue()));
+        assertTrue(Quantity.isDefaultUnit(standardDeviation.getUnit()));
+
+        // null, "" and "1" are all the default unit
+        final var mixed = List.<Object>of(quantity("1", null), quantity("2", ""), quantity("3", "1"));
+        final var populationVariance = (Quantity) PopulationVarianceEvaluator.popVariance(mixed, state);
+        assertEquals(0, new BigDecimal("0.66666667").compareTo(populationVariance.getValue()));
+        assertTrue(Quantity.isDefaultUnit(populationVariance.getUnit()));
+        assertTrue(PopulationStdDevEvaluator.popStdDev(mixed, state) instanceof Quantity);
+    }
+
+    @Test
+    void varianceOfQuantitiesHasSquaredUnit() {
+        final var state = engine.getState();
+        final var values = List.<Object>of(quantity("1", "cm"), quantity("2", "cm"), quantity("3", "cm"));
+        final var variance = (Quantity) VarianceEvaluator.variance(values, state);
+        assertEquals(0, BigDecimal.ONE.compareTo(variance.getValue()));
+        assertFalse(Quantity.isDefaultUnit(variance.getUnit()));
+    }
+
+    @Test
+    void aggregatesInOnePass() {
+        final var state = engine.getState();
+        final var results = AggregateClauseEvaluator.aggregate(
+                List.of(new Count(), new Max(), new Avg(), new StdDev()), decimals("2", null, "4", "6"), state);
+        assertEquals(3, results.get(0));
+        assertEquals(new BigDecimal("6"), results.get(1));
+        assertEquals(0, new BigDecimal("4").compareTo((BigDecimal) results.get(2)));
+        assertEquals(0, new BigDecimal("2").compareTo((BigDecimal) results.get(3)));
+
+        final var ofNull = AggregateClauseEvaluator.aggregate(List.of(new Count(), new Avg()), null, state);
+        assertEquals(Arrays.asList(0, null), ofNull);
+        assertThrows(
+                CqlException.class, () -> AggregateClauseEvaluator.aggregate(List.of(new AllTrue()), List.of(), state));
+    }
+
+    @Test
+    void foldsQueryRows() {
+        final var result = engine.evaluate(toElmIdentifier("AggregateAccumulatorTest"));
+        assertEquals(24, result.forExpression("Folded").value());
+        assertEquals(90, result.forExpression("Folded Multiple Sources").value());
+        assertEquals(6, result.forExpression("Folded Distinct").value());
+        assertEquals(5, result.forExpression("Folded Empty").value());
+
+        final var statistics = (Tuple) result.forExpression("Statistics").value();
+        assertEquals(2, statistics.getElement("mode"));
+        assertEquals(0, new BigDecimal("3").compareTo((BigDecimal) statistics.getElement("median")));
+        assertEquals(0, new BigDecimal("0.25").compareTo((BigDecimal) statistics.getElement("variance")));
+        assertEquals(0, new BigDecimal("2").compareTo((BigDecimal) statistics.getElement("populationVariance")));
+    }
+}
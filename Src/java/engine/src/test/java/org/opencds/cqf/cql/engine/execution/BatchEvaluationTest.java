@@ -0,0 +1,70 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class BatchEvaluationTest extends CqlTestBase {
+
+    @Test
+    void evaluatesEachContextValueInIsolation() {
+        final var batchEngine = new CqlEngine(
+                new Environment(getLibraryManager()),
+                Set.of(CqlEngine.Options.EnableExpressionCaching, CqlEngine.Options.EnableProfiling));
+        final var executor = Executors.newFixedThreadPool(4);
+        try (var batch = batchEngine.evaluateBatch(
+                toElmIdentifier("ProfilingTest"),
+                Set.of("E1", "E3"),
+                "Patient",
+                IntStream.range(0, 20).boxed().iterator(),
+                null,
+                null,
+                executor,
+                3)) {
+            final var contextValues = new HashSet<Object>();
+            while (batch.hasNext()) {
+                final var result = batch.next();
+                assertNull(result.getException());
+                assertNotNull(result.getEvaluationResult());
+                assertEquals(12, ((List<?>) result.getEvaluationResult().forExpression("E1").value()).size());
+                assertEquals(22, ((List<?>) result.getEvaluationResult().forExpression("E3").value()).size());
+                assertTrue(contextValues.add(result.getContextValue()));
+            }
+            assertEquals(20, contextValues.size());
+            assertEquals(20L, batch.getProfile().getTree().count);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void reportsErrorsPerContextValue() {
+        final var executor = Executors.newSingleThreadExecutor();
+        try (var batch = engine.evaluateBatch(
+                toElmIdentifier("ProfilingTest"),
+                Set.of("NoSuchExpression"),
+                "Patient",
+                List.of("a", "b").iterator(),
+                null,
+                null,
+                executor,
+                1)) {
+            final var results = batch.stream().toList();
+            assertEquals(2, results.size());
+            results.forEach(result -> {
+                assertNull(result.getEvaluationResult());
+                assertNotNull(result.getException());
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
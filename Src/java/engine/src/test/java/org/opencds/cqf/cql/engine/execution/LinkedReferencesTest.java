@@ -0,0 +1,84 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.ZonedDateTime;
+import java.util.Set;
+import java.util.TimeZone;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.ParameterDef;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.opencds.cqf.cql.engine.elm.executing.EquivalentEvaluator;
+
+class LinkedReferencesTest extends CqlTestBase {
+
+    @Test
+    void linksReferencesIntoIncludedLibraries() {
+        final var library = getLibrary(toElmIdentifier("IncludedParameterTest"));
+        final var links = environment.getLibraryAnalysis(library).getLinkedReferences();
+        assertSame(links, environment.getLibraryAnalysis(library).getLinkedReferences());
+
+        final var included = links.get(Libraries.resolveExpressionRef("Included Parameter", library).getExpression());
+        assertNotNull(included);
+        assertEquals("IncludedParameterTestCommon", included.library().getIdentifier().getId());
+        assertEquals("Measurement Period", ((ParameterDef) included.definition()).getName());
+
+        final var local = links.get(Libraries.resolveExpressionRef("Local Parameter", library).getExpression());
+        assertNotNull(local);
+        assertNull(local.library());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"IncludedCodeRefTest", "IncludedConceptRefTest", "IncludedValueSetRefTest"})
+    void linkedEvaluationMatchesUnlinkedEvaluation(String libraryName) {
+        final var linkedEngine = new CqlEngine(
+                new Environment(getLibraryManager()), Set.of(CqlEngine.Options.EnableReferenceLinking));
+        final var expected = engine.evaluate(toElmIdentifier(libraryName));
+        final var actual = linkedEngine.evaluate(toElmIdentifier(libraryName));
+
+        assertTrue(linkedEngine.getState().getLinkedReferences().size() > 0);
+        for (var entry : expected.expressionResults.entrySet()) {
+            assertTrue(EquivalentEvaluator.equivalent(
+                    entry.getValue().value(),
+                    actual.forExpression(entry.getKey()).value(),
+                    engine.getState()));
+        }
+    }
+
+    @Test
+    void replacesAnalysesOfReloadedLibraries() {
+        final var library = getLibrary(toElmIdentifier("IncludedParameterTest"));
+        final var analysis = environment.getLibraryAnalysis(library);
+        assertSame(analysis, environment.getLibraryAnalysis(library));
+
+        // A recompiled library with the same identifier replaces the analyses of the previous one
+        final var reloaded = new Library().withIdentifier(library.getIdentifier());
+        final var reloadedAnalysis = environment.getLibraryAnalysis(reloaded);
+        assertNotSame(analysis, reloadedAnalysis);
+        assertSame(reloaded, reloadedAnalysis.getLibrary());
+        assertNotSame(analysis, environment.getLibraryAnalysis(library));
+    }
+
+    @Test
+    void portableTestSuitePassesWithLinkedReferences() {
+        final var linkedEngine = new CqlEngine(
+                new Environment(getLibraryManager(new CqlMainSuiteTest().testCompilerOptions())),
+                Set.of(CqlEngine.Options.EnableReferenceLinking));
+        final var result = linkedEngine.evaluate(
+                toElmIdentifier("CqlTestSuite"),
+                ZonedDateTime.of(2018, 1, 1, 7, 0, 0, 0, TimeZone.getDefault().toZoneId()));
+
+        for (var entry : result.expressionResults.entrySet()) {
+            if (entry.getKey().startsWith("test") && entry.getValue().value() != null) {
+                assertEquals(entry.getKey().replaceAll("test_", "") + " TEST PASSED", entry.getValue().value());
+            }
+        }
+    }
+}
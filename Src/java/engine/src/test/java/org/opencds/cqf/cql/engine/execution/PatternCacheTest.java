@@ -0,0 +1,71 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+class PatternCacheTest extends CqlTestBase {
+
+    private static final Set<String> VALID_EXPRESSIONS = Set.of("Normalized", "Valid", "Parts", "Dynamic");
+
+    @Test
+    void compilesLiteralPatternsOnLoad() {
+        final var result = engine.evaluate(toElmIdentifier("PatternCacheTest"), VALID_EXPRESSIONS);
+        final var literalPatterns = engine.getState().getLiteralPatterns();
+        assertSame(
+                literalPatterns,
+                environment.getLibraryAnalysis(engine.getState().getCurrentLibrary()).getLiteralPatterns());
+
+        // The invalid literal is left to fail at evaluation
+        assertEquals(3, literalPatterns.size());
+
+        assertEquals(List.of("MRN001", "MRN002", "X3"), result.forExpression("Normalized").value());
+        assertEquals(List.of("MRN-001", "mrn 002"), result.forExpression("Valid").value());
+        assertEquals(List.of("a", "b", "c"), result.forExpression("Parts").value());
+        assertEquals(true, result.forExpression("Dynamic").value());
+    }
+
+    @Test
+    void cachesEvaluatedPatterns() {
+        final var patternCache = environment.getPatternCache();
+        engine.evaluate(toElmIdentifier("PatternCacheTest"), VALID_EXPRESSIONS);
+
+        // The three literals and the evaluated pattern
+        assertEquals(4, patternCache.getMissCount());
+        assertEquals(0, patternCache.getHitCount());
+
+        engine.evaluate(toElmIdentifier("PatternCacheTest"), Set.of("Dynamic"));
+        assertEquals(4, patternCache.getMissCount());
+        assertEquals(1, patternCache.getHitCount());
+    }
+
+    @Test
+    void invalidPatternsFailAtEvaluation() {
+        final var exception = assertThrows(
+                CqlException.class, () -> engine.evaluate(toElmIdentifier("PatternCacheTest"), Set.of("Invalid")));
+        assertTrue(exception.getMessage().contains("Unclosed group"), exception.getMessage());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedPatterns() {
+        final var patternCache = new PatternCache(2);
+        final var first = patternCache.get("a+");
+        patternCache.get("b+");
+        assertSame(first, patternCache.get("a+"));
+
+        patternCache.get("c+");
+        assertEquals(2, patternCache.size());
+        assertEquals(1, patternCache.getEvictionCount());
+        assertSame(first, patternCache.get("a+"));
+        assertEquals(3, patternCache.getMissCount());
+        assertNotSame(patternCache.get("b+"), patternCache.get("c+"));
+        assertThrows(IllegalArgumentException.class, () -> new PatternCache(0));
+    }
+}
@@ -0,0 +1,52 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.hl7.elm.r1.FunctionDef;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
+
+class QuerySortTest extends CqlTestBase {
+
+    private static List<Object> elements(EvaluationResult result, String expression, String element) {
+        return ((List<?>) result.forExpression(expression).value())
+                .stream()
+                .map(tuple -> ((Tuple) tuple).getElement(element))
+                .toList();
+    }
+
+    private static long countInvocations(Profile.Node node, String functionName) {
+        long count = node.expression instanceof FunctionDef functionDef
+                        && functionDef.getName().equals(functionName)
+                ? node.count
+                : 0L;
+        for (var children : node.children.values()) {
+            for (var child : children.values()) {
+                count += countInvocations(child, functionName);
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void sortsByAllKeysInOrder() {
+        final var result = engine.evaluate(toElmIdentifier("QuerySortTest"));
+
+        assertEquals(List.of(1, 1, 2, 2), elements(result, "Multiple Keys", "a"));
+        assertEquals(List.of(2, 1, 3, 1), elements(result, "Multiple Keys", "b"));
+        assertEquals(List.of("ccc", "bb", "dd", "a"), elements(result, "Expression Keys", "name"));
+        assertEquals(Arrays.asList(3, 1, null), elements(result, "Descending With Nulls", "a"));
+    }
+
+    @Test
+    void evaluatesSortKeysOncePerElement() {
+        final var profilingEngine = new CqlEngine(environment, Set.of(CqlEngine.Options.EnableProfiling));
+        final var result = profilingEngine.evaluate(toElmIdentifier("QuerySortTest"), Set.of("Function Keys"));
+
+        assertEquals(List.of(1, 2, 3, 4, 5), elements(result, "Function Keys", "a"));
+        assertEquals(5L, countInvocations(result.getDebugResult().getProfile().getTree(), "Key"));
+    }
+}
@@ -0,0 +1,47 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.hl7.elm.r1.Query;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.elm.executing.RelationshipJoin;
+
+class RelationshipJoinTest extends CqlTestBase {
+
+    private RelationshipJoin plan(String expression) {
+        final var library = getLibrary(toElmIdentifier("RelationshipJoinTest"));
+        final var query = (Query) Libraries.resolveExpressionRef(expression, library).getExpression();
+        return environment.getLibraryAnalysis(library).getRelationshipJoin(query, query.getRelationship().get(0));
+    }
+
+    @Test
+    void plansJoinStrategies() {
+        assertEquals(RelationshipJoin.Strategy.HASH, plan("With Equal").getStrategy());
+        assertEquals(RelationshipJoin.Strategy.HASH, plan("Without Equal").getStrategy());
+        assertEquals(RelationshipJoin.Strategy.INTERVAL, plan("With During").getStrategy());
+        assertEquals(RelationshipJoin.Strategy.HASH, plan("With Equal And During").getStrategy());
+        assertEquals(RelationshipJoin.Strategy.INTERVAL, plan("With Integer In").getStrategy());
+        assertTrue(plan("With Equal").isIndependent());
+
+        final var correlated = plan("With Correlated Source");
+        assertFalse(correlated.isIndependent());
+        assertEquals(RelationshipJoin.Strategy.NESTED_LOOP, correlated.getStrategy());
+    }
+
+    @Test
+    void joinsMatchNestedLoopResults() {
+        final var result = engine.evaluate(toElmIdentifier("RelationshipJoinTest"));
+
+        assertEquals(List.of("e1", "e2"), result.forExpression("With Equal").value());
+        assertEquals(List.of("e3", "e4"), result.forExpression("Without Equal").value());
+        // c2 has month precision, so whether it's during e2 is uncertain; e3 has an unknown end.
+        assertEquals(List.of("e1", "e3"), result.forExpression("With During").value());
+        assertEquals(List.of("e2", "e4"), result.forExpression("Without During").value());
+        assertEquals(List.of("e1"), result.forExpression("With Equal And During").value());
+        assertEquals(List.of(1, 7), result.forExpression("With Integer In").value());
+        assertEquals(List.of("e1"), result.forExpression("With Correlated Source").value());
+    }
+}
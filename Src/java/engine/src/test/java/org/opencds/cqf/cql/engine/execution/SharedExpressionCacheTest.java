@@ -0,0 +1,129 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+
+class SharedExpressionCacheTest extends CqlTestBase {
+
+    private static final ZonedDateTime EVALUATION_DATE_TIME = ZonedDateTime.parse("2024-01-01T00:00:00Z");
+
+    private EvaluationResult evaluate(
+            SharedExpressionCache cache, Map<String, Object> parameters, ZonedDateTime evaluationDateTime) {
+        return evaluate(cache, Set.of("Independent", "UsesToday"), parameters, evaluationDateTime);
+    }
+
+    private EvaluationResult evaluate(
+            SharedExpressionCache cache,
+            Set<String> expressions,
+            Map<String, Object> parameters,
+            ZonedDateTime evaluationDateTime) {
+        final var sharedEnvironment = new Environment(getLibraryManager());
+        sharedEnvironment.setSharedExpressionCache(cache);
+        final var sharedEngine = new CqlEngine(
+                sharedEnvironment,
+                Set.of(CqlEngine.Options.EnableExpressionCaching, CqlEngine.Options.EnableProfiling));
+        return sharedEngine.evaluate(
+                toElmIdentifier("SharedExpressionCacheTest"),
+                expressions,
+                null,
+                parameters,
+                null,
+                evaluationDateTime);
+    }
+
+    private static long counter(EvaluationResult result, String name) {
+        return result.getDebugResult().getProfile().getCounter(name);
+    }
+
+    @Test
+    void sharesResultsAcrossEngines() {
+        final var cache = new SharedExpressionCache();
+
+        final var first = evaluate(cache, null, EVALUATION_DATE_TIME);
+        assertEquals(5, first.forExpression("Independent").value());
+        // "Independent", "UsesToday" and the included "Common"."Expression"
+        assertEquals(3L, counter(first, SharedExpressionCache.MISS_COUNTER));
+        assertEquals(0L, counter(first, SharedExpressionCache.HIT_COUNTER));
+
+        final var second = evaluate(cache, null, EVALUATION_DATE_TIME);
+        assertEquals(5, second.forExpression("Independent").value());
+        assertEquals(first.forExpression("UsesToday").value(), second.forExpression("UsesToday").value());
+        assertEquals(0L, counter(second, SharedExpressionCache.MISS_COUNTER));
+        assertEquals(2L, counter(second, SharedExpressionCache.HIT_COUNTER));
+
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(3L, cache.getMissCount());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void keysResultsByParametersAndEvaluationTime() {
+        final var cache = new SharedExpressionCache();
+        evaluate(cache, null, EVALUATION_DATE_TIME);
+
+        final var otherParameters = evaluate(cache, Map.of("Offset", 10), EVALUATION_DATE_TIME);
+        assertEquals(14, otherParameters.forExpression("Independent").value());
+        assertEquals(0L, counter(otherParameters, SharedExpressionCache.HIT_COUNTER));
+
+        final var otherTime = evaluate(cache, null, EVALUATION_DATE_TIME.plusDays(1));
+        assertEquals(5, otherTime.forExpression("Independent").value());
+        assertEquals(1L, counter(otherTime, SharedExpressionCache.HIT_COUNTER));
+        assertEquals(1L, counter(otherTime, SharedExpressionCache.MISS_COUNTER));
+    }
+
+    @Test
+    void keysResultsThatTakeTheEvaluationOffsetByEvaluationTime() {
+        final var cache = new SharedExpressionCache();
+        final var expressions = Set.of("Period Start", "Converted Start");
+
+        final var utc = evaluate(cache, expressions, null, EVALUATION_DATE_TIME);
+        final var otherOffset = evaluate(
+                cache, expressions, null, EVALUATION_DATE_TIME.withZoneSameInstant(ZoneOffset.ofHours(2)));
+        assertEquals(0L, counter(otherOffset, SharedExpressionCache.HIT_COUNTER));
+
+        for (var expression : expressions) {
+            assertEquals(
+                    ZoneOffset.UTC,
+                    ((DateTime) utc.forExpression(expression).value()).getZoneOffset(),
+                    expression);
+            assertEquals(
+                    ZoneOffset.ofHours(2),
+                    ((DateTime) otherOffset.forExpression(expression).value()).getZoneOffset(),
+                    expression);
+        }
+    }
+
+    @Test
+    void doesNotShareContextDependentDefinitions() {
+        final var cache = new SharedExpressionCache();
+        engine.evaluate(toElmIdentifier("SharedExpressionCacheTest"), Set.of("Independent"));
+        final var state = engine.getState();
+
+        final var independent = Libraries.resolveExpressionRef("Independent", state.getCurrentLibrary());
+        assertNotNull(cache.createKey(independent, state));
+
+        final var usesExternal = Libraries.resolveExpressionRef("UsesExternal", state.getCurrentLibrary());
+        assertNull(cache.createKey(usesExternal, state));
+
+        final var function = Libraries.getFunctionDefs("Increment", state.getCurrentLibrary()).get(0);
+        assertNull(cache.createKey(function, state));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedResults() {
+        final var cache = new SharedExpressionCache(1);
+        evaluate(cache, null, EVALUATION_DATE_TIME);
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,101 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import org.hl7.elm.r1.BinaryExpression;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.elm.executing.AndEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.CoalesceEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.ImpliesEvaluator;
+import org.opencds.cqf.cql.engine.elm.executing.OrEvaluator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+class ShortCircuitTest extends CqlTestBase {
+
+    private static final Set<String> LOGIC = Set.of(
+            "And False",
+            "And Null",
+            "And True",
+            "Or True",
+            "Or Null",
+            "Or False",
+            "Implies False",
+            "Implies Null",
+            "Implies True",
+            "Coalesce First",
+            "Coalesce Second",
+            "Coalesce List");
+
+    private static final Set<String> COST_ORDERED =
+            Set.of("Cost Ordered And", "Cost Ordered Or", "Cost Ordered Implies");
+
+    private static long counter(EvaluationResult result, String name) {
+        return result.getDebugResult().getProfile().getCounter(name);
+    }
+
+    @Test
+    void skipsOperandsThatCannotChangeTheResult() {
+        final var profilingEngine = new CqlEngine(environment, Set.of(CqlEngine.Options.EnableProfiling));
+        final var result = profilingEngine.evaluate(toElmIdentifier("ShortCircuitTest"), LOGIC);
+
+        assertEquals(false, result.forExpression("And False").value());
+        assertEquals(false, result.forExpression("And Null").value());
+        assertNull(result.forExpression("And True").value());
+        assertEquals(true, result.forExpression("Or True").value());
+        assertEquals(true, result.forExpression("Or Null").value());
+        assertNull(result.forExpression("Or False").value());
+        assertEquals(true, result.forExpression("Implies False").value());
+        assertEquals(true, result.forExpression("Implies Null").value());
+        assertEquals(false, result.forExpression("Implies True").value());
+        assertEquals(1, result.forExpression("Coalesce First").value());
+        assertEquals(2, result.forExpression("Coalesce Second").value());
+        assertEquals(3, result.forExpression("Coalesce List").value());
+
+        assertEquals(1L, counter(result, AndEvaluator.SKIPPED_OPERANDS_COUNTER));
+        assertEquals(1L, counter(result, OrEvaluator.SKIPPED_OPERANDS_COUNTER));
+        assertEquals(1L, counter(result, ImpliesEvaluator.SKIPPED_OPERANDS_COUNTER));
+        assertEquals(3L, counter(result, CoalesceEvaluator.SKIPPED_OPERANDS_COUNTER));
+    }
+
+    @Test
+    void estimatesOperandCosts() {
+        final var library = getLibrary(toElmIdentifier("ShortCircuitTest"));
+        final var costs = environment.getLibraryAnalysis(library).getEvaluationCosts();
+
+        final var and = (BinaryExpression)
+                Libraries.resolveExpressionRef("Cost Ordered And", library).getExpression();
+        assertEquals(EvaluationCosts.Cost.TERMINOLOGY, costs.get(and.getOperand().get(0)));
+        assertEquals(EvaluationCosts.Cost.CONSTANT, costs.get(and.getOperand().get(1)));
+        assertTrue(costs.isReordered(and));
+
+        final var andFalse =
+                (BinaryExpression) Libraries.resolveExpressionRef("And False", library).getExpression();
+        assertEquals(EvaluationCosts.Cost.COMPUTATION, costs.get(andFalse.getOperand().get(1)));
+        assertFalse(costs.isReordered(andFalse));
+    }
+
+    @Test
+    void evaluatesCheaperOperandsFirst() {
+        // Without a terminology provider, evaluating the value set membership fails.
+        assertThrows(
+                CqlException.class,
+                () -> engine.evaluate(toElmIdentifier("ShortCircuitTest"), Set.of("Cost Ordered And")));
+
+        final var costOrderedEngine = new CqlEngine(
+                environment,
+                Set.of(CqlEngine.Options.EnableCostOrderedEvaluation, CqlEngine.Options.EnableProfiling));
+        final var result = costOrderedEngine.evaluate(toElmIdentifier("ShortCircuitTest"), COST_ORDERED);
+
+        assertEquals(false, result.forExpression("Cost Ordered And").value());
+        assertEquals(true, result.forExpression("Cost Ordered Or").value());
+        assertEquals(true, result.forExpression("Cost Ordered Implies").value());
+        assertEquals(1L, counter(result, AndEvaluator.SKIPPED_OPERANDS_COUNTER));
+        assertEquals(1L, counter(result, OrEvaluator.SKIPPED_OPERANDS_COUNTER));
+        assertEquals(1L, counter(result, ImpliesEvaluator.SKIPPED_OPERANDS_COUNTER));
+    }
+}
@@ -0,0 +1,99 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import org.hl7.elm.r1.AliasedQuerySource;
+import org.hl7.elm.r1.LetClause;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
+
+class VariableSlotsTest extends CqlTestBase {
+
+    @Test
+    void evaluatesQueriesAndFunctionsWithSlots() {
+        final var result = engine.evaluate(toElmIdentifier("VariableSlotsTest"));
+        final var slots = engine.getState().getVariableSlots();
+        assertSame(slots, environment.getLibraryAnalysis(engine.getState().getCurrentLibrary()).getVariableSlots());
+        assertTrue(slots.size() > 0);
+
+        assertEquals(List.of(31, 53, 75), result.forExpression("Nested").value());
+        assertEquals(List.of(2, 4), result.forExpression("With").value());
+        assertEquals(List.of(1, 3), result.forExpression("Without").value());
+        assertEquals(List.of(List.of(3, 6), List.of(6, 12)), result.forExpression("Function").value());
+        assertEquals(List.of(11, 22), result.forExpression("Multiple Sources").value());
+        assertEquals(10, result.forExpression("Aggregate").value());
+
+        final var sorted = (List<?>) result.forExpression("Sorted").value();
+        assertEquals(3, sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(i + 1, ((Tuple) sorted.get(i)).getElement("v"));
+        }
+    }
+
+    @Test
+    void fallsBackToNamesInOtherFrameLayouts() {
+        // The default of "Threshold" is evaluated on top of the variables of the referencing query.
+        final var result = engine.evaluate(toElmIdentifier("VariableSlotsTest"), Set.of("Parameter In Query"));
+        assertEquals(List.of(7), result.forExpression("Parameter In Query").value());
+    }
+
+    @Test
+    void resolvesVariablesBySlotAndByName() {
+        final var state = new State(environment);
+        final var source = new AliasedQuerySource().withAlias("A");
+        final var let = new LetClause().withIdentifier("B");
+        state.pushActivationFrame(null);
+
+        final int sourceSlot = state.pushVariable("A", 1, source);
+        final int letSlot = state.pushVariable("B", null, let);
+        state.setVariable(letSlot, 2);
+        state.push(new Variable("A").withValue(3));
+
+        assertEquals(0, sourceSlot);
+        assertEquals(1, letSlot);
+        assertEquals(3, state.getTopActivationFrame().getVariableCount());
+        assertEquals(3, state.resolveAlias("A"));
+        assertEquals(2, state.resolveVariable("B").getValue());
+        assertEquals("A", state.getTopActivationFrame().getVariables().get(0).getName());
+
+        state.popVariables(2);
+        assertEquals(1, state.resolveAlias("A"));
+        assertThrows(IllegalStateException.class, () -> state.resolveAlias("B"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void keepsTheIdentityOfPushedAndResolvedVariables() {
+        final var state = new State(environment);
+        state.pushActivationFrame(null);
+
+        final var pushed = new Variable("A").withValue(1);
+        state.push(pushed);
+        pushed.setValue(2);
+        assertSame(pushed, state.resolveVariable("A"));
+        assertEquals(2, state.resolveAlias("A"));
+
+        final int slot = state.pushVariable("B", 1, null);
+        final var resolved = state.resolveVariable("B");
+        assertSame(resolved, state.resolveVariable("B"));
+        resolved.setValue(2);
+        assertEquals(2, state.resolveAlias("B"));
+        state.setVariable(slot, 3);
+        assertEquals(3, resolved.getValue());
+
+        final var variables = state.getTopActivationFrame().variables;
+        assertSame(resolved, variables.peek());
+        assertSame(pushed, variables.getLast());
+        final var added = new Variable("C");
+        variables.push(added);
+        assertSame(added, state.resolveVariable("C"));
+        assertSame(added, variables.pop());
+        assertEquals(2, variables.size());
+        assertThrows(UnsupportedOperationException.class, () -> variables.addLast(added));
+    }
+}
@@ -0,0 +1,68 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.hl7.elm.r1.Query;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.elm.executing.WherePushdown;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
+
+class WherePushdownTest extends CqlTestBase {
+
+    private WherePushdown plan(String expression) {
+        final var library = getLibrary(toElmIdentifier("WherePushdownTest"));
+        final var query = (Query) Libraries.resolveExpressionRef(expression, library).getExpression();
+        return environment.getLibraryAnalysis(library).getWherePushdown(query);
+    }
+
+    @Test
+    void plansSourceConditions() {
+        final var singleAlias = plan("Single Alias Conjuncts");
+        assertEquals(1, singleAlias.getSourceConditions(0).size());
+        assertEquals(1, singleAlias.getSourceConditions(1).size());
+        assertEquals(1, singleAlias.getRowConditions().size());
+
+        final var threeSources = plan("Three Sources");
+        assertEquals(0, threeSources.getSourceConditions(0).size());
+        assertEquals(0, threeSources.getSourceConditions(1).size());
+        assertEquals(1, threeSources.getSourceConditions(2).size());
+        assertEquals(2, threeSources.getRowConditions().size());
+
+        // Lets are evaluated per row, so conditions on them are too
+        final var let = plan("Let Conjunct");
+        assertEquals(0, let.getSourceConditions(0).size());
+        assertEquals(1, let.getSourceConditions(1).size());
+        assertEquals(1, let.getRowConditions().size());
+
+        assertFalse(plan("Or Condition").hasSourceConditions());
+        assertFalse(plan("Relationship Guard").hasSourceConditions());
+        assertTrue(plan("Filtered Out").hasSourceConditions());
+    }
+
+    @Test
+    void pushdownMatchesRowResults() {
+        final var result = engine.evaluate(toElmIdentifier("WherePushdownTest"));
+
+        assertEquals(List.of("e1c1"), result.forExpression("Single Alias Conjuncts").value());
+        assertEquals(List.of(123, 133, 233), result.forExpression("Three Sources").value());
+        assertEquals(List.of("e1c1", "e3c1"), result.forExpression("Let Conjunct").value());
+        assertEquals(List.of("e1c1", "e2c1", "e3c1", "e3c2", "e3c3"), result.forExpression("Or Condition").value());
+        assertEquals(
+                List.of("a1p", "a1q", "a2p", "a2q", "b1p", "b1q", "b2p", "b2q"),
+                result.forExpression("Product Order").value());
+        assertEquals(List.of(), result.forExpression("Empty Source").value());
+        assertEquals(List.of(), result.forExpression("Filtered Out").value());
+        // The where clause is evaluated only for the rows the relationship includes
+        assertEquals(List.of("e1", "e2", "e3"), result.forExpression("Relationship Guard").value());
+
+        final var tuples = (List<?>) result.forExpression("Implicit Tuple").value();
+        assertEquals(
+                List.of(Map.of("A", 1, "B", 4), Map.of("A", 2, "B", 4)),
+                tuples.stream().map(tuple -> ((Tuple) tuple).getElements()).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,138 @@
+package org.opencds.cqf.cql.engine.terminology;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.opencds.cqf.cql.engine.exception.TerminologyProviderException;
+import org.opencds.cqf.cql.engine.runtime.Code;
+
+class CachingTerminologyProviderTest {
+
+    private static final String SYSTEM = "http://test.com/system";
+
+    private static class CountingTerminologyProvider implements TerminologyProvider {
+        final AtomicInteger expansions = new AtomicInteger();
+        final AtomicInteger membershipChecks = new AtomicInteger();
+        boolean fail;
+
+        @Override
+        public boolean in(Code code, ValueSetInfo valueSet) {
+            membershipChecks.incrementAndGet();
+            return false;
+        }
+
+        @Override
+        public Iterable<Code> expand(ValueSetInfo valueSet) {
+            expansions.incrementAndGet();
+            if (fail) {
+                throw new TerminologyProviderException("Expansion failed");
+            }
+            return List.of(
+                    new Code().withSystem(SYSTEM).withCode(valueSet.getId() + "-1"),
+                    new Code().withSystem(SYSTEM).withCode(valueSet.getId() + "-2"));
+        }
+
+        @Override
+        public Code lookup(Code code, CodeSystemInfo codeSystem) {
+            return code;
+        }
+    }
+
+    private static ValueSetInfo valueSet(String id) {
+        return new ValueSetInfo().withId(id);
+    }
+
+    @Test
+    void expandsEachValueSetOnce() {
+        final var inner = new CountingTerminologyProvider();
+        final var provider = new CachingTerminologyProvider(inner);
+
+        assertTrue(provider.in(new Code().withSystem(SYSTEM).withCode("a-1"), valueSet("a")));
+        assertFalse(provider.in(new Code().withSystem("http://other.com").withCode("a-1"), valueSet("a")));
+        assertTrue(provider.in(new Code().withCode("a-2"), valueSet("a")));
+        assertFalse(provider.in(new Code().withSystem(SYSTEM).withCode("b-1"), valueSet("a")));
+        assertEquals(2, ((List<?>) provider.expand(valueSet("a"))).size());
+
+        assertEquals(1, inner.expansions.get());
+        assertEquals(0, inner.membershipChecks.get());
+        assertEquals(1L, provider.getMissCount());
+        assertEquals(4L, provider.getHitCount());
+        assertEquals(1L, provider.getExpansionCount());
+    }
+
+    @Test
+    void sharesExpansionsAcrossThreads() {
+        final var inner = new CountingTerminologyProvider();
+        final var provider = new CachingTerminologyProvider(inner);
+
+        IntStream.range(0, 64)
+                .parallel()
+                .forEach(i -> assertTrue(provider.in(new Code().withSystem(SYSTEM).withCode("a-1"), valueSet("a"))));
+
+        assertEquals(1, inner.expansions.get());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedExpansions() {
+        final var inner = new CountingTerminologyProvider();
+        final var provider = new CachingTerminologyProvider(inner, 1, null);
+
+        provider.expand(valueSet("a"));
+        provider.expand(valueSet("b"));
+        assertEquals(1, provider.size());
+
+        provider.expand(valueSet("a"));
+        assertEquals(3, inner.expansions.get());
+    }
+
+    @Test
+    void expiresExpansionsAfterTimeToLive() {
+        final var inner = new CountingTerminologyProvider();
+        final var now = new AtomicLong();
+        final var provider = new CachingTerminologyProvider(inner, 10, Duration.ofMinutes(5), now::get);
+
+        provider.expand(valueSet("a"));
+        now.addAndGet(Duration.ofMinutes(4).toNanos());
+        provider.expand(valueSet("a"));
+        assertEquals(1, inner.expansions.get());
+
+        now.addAndGet(Duration.ofMinutes(2).toNanos());
+        provider.expand(valueSet("a"));
+        assertEquals(2, inner.expansions.get());
+    }
+
+    @Test
+    void preloadsValueSets() {
+        final var inner = new CountingTerminologyProvider();
+        final var provider = new CachingTerminologyProvider(inner);
+
+        provider.preload(List.of(valueSet("a"), valueSet("b")));
+        assertEquals(2, inner.expansions.get());
+
+        provider.in(new Code().withSystem(SYSTEM).withCode("b-1"), valueSet("b"));
+        assertEquals(2, inner.expansions.get());
+        assertEquals(1L, provider.getHitCount());
+    }
+
+    @Test
+    void doesNotCacheFailedExpansions() {
+        final var inner = new CountingTerminologyProvider();
+        final var provider = new CachingTerminologyProvider(inner);
+
+        inner.fail = true;
+        assertThrows(TerminologyProviderException.class, () -> provider.expand(valueSet("a")));
+        assertEquals(0, provider.size());
+
+        inner.fail = false;
+        assertEquals(2, ((List<?>) provider.expand(valueSet("a"))).size());
+        assertEquals(2, inner.expansions.get());
+    }
+}
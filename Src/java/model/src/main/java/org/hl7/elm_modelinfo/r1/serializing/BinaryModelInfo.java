@@ -0,0 +1,353 @@
+package org.hl7.elm_modelinfo.r1.serializing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+
+/**
+ * Reads and writes ModelInfo in a compact binary form that loads considerably faster than the XML
+ * representation. The encoding mirrors the fields of the generated model info classes, strings are
+ * written once and referenced afterwards, and the fields of each class are named the first time the class
+ * is written so that readers can detect incompatible layouts.
+ *
+ * <p>The binary form is intended for ModelInfo resources converted at build time (see {@link #main(String[])}),
+ * it is not an interchange format.</p>
+ */
+public final class BinaryModelInfo {
+    private static final int MAGIC = 0x434d4946;
+    private static final int VERSION = 1;
+    private static final String MODEL_PACKAGE = ModelInfo.class.getPackageName() + ".";
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int STRING_REF = 2;
+    private static final int TRUE = 3;
+    private static final int FALSE = 4;
+    private static final int INTEGER = 5;
+    private static final int ENUM = 6;
+    private static final int LIST = 7;
+    private static final int OBJECT = 8;
+
+    private static final ClassValue<Map<String, Field>> FIELDS = new ClassValue<>() {
+        @Override
+        protected Map<String, Field> computeValue(Class<?> type) {
+            Map<String, Field> fields = new LinkedHashMap<>();
+            if (type.getSuperclass() != null && type.getSuperclass() != Object.class) {
+                fields.putAll(FIELDS.get(type.getSuperclass()));
+            }
+
+            Field[] declared = type.getDeclaredFields();
+            Arrays.sort(declared, Comparator.comparing(Field::getName));
+            for (Field field : declared) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    field.setAccessible(true);
+                    fields.put(field.getName(), field);
+                }
+            }
+
+            return fields;
+        }
+    };
+
+    private BinaryModelInfo() {}
+
+    /**
+     * Returns the name of the binary resource for the given ModelInfo XML resource.
+     */
+    public static String getBinaryName(String xmlName) {
+        return (xmlName.endsWith(".xml") ? xmlName.substring(0, xmlName.length() - 4) : xmlName) + ".bin";
+    }
+
+    public static void write(ModelInfo modelInfo, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        new Writer(data).writeValue(modelInfo);
+        data.flush();
+    }
+
+    public static ModelInfo read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a binary ModelInfo.");
+        }
+
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported binary ModelInfo version %d.", version));
+        }
+
+        Object result = new Reader(data).readValue();
+        if (!(result instanceof ModelInfo)) {
+            throw new IOException("Binary content is not a ModelInfo.");
+        }
+
+        return (ModelInfo) result;
+    }
+
+    /**
+     * Converts the ModelInfo XML files in a directory tree into their binary form, preserving the relative paths.
+     * Requires a ModelInfo XML reader on the class path.
+     *
+     * @param args the source and target directories
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BinaryModelInfo <source directory> <target directory>");
+            System.exit(1);
+        }
+
+        Path source = Path.of(args[0]);
+        Path target = Path.of(args[1]);
+        ModelInfoReader reader = ModelInfoReaderFactory.getReader("application/xml");
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(source)) {
+            files = paths.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.contains("modelinfo") && name.endsWith(".xml");
+                    })
+                    .collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            Path output = target.resolve(getBinaryName(source.relativize(file).toString()));
+            Files.createDirectories(output.getParent());
+            try (OutputStream out = Files.newOutputStream(output)) {
+                write(reader.read(file.toFile()), out);
+            }
+        }
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Set<Class<?>> classes = new HashSet<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Enum) {
+                out.writeByte(ENUM);
+                writeString(((Enum<?>) value).getDeclaringClass().getName());
+                writeString(((Enum<?>) value).name());
+            } else if (value instanceof List) {
+                out.writeByte(LIST);
+                writeSize(((List<?>) value).size());
+                for (Object element : (List<?>) value) {
+                    writeValue(element);
+                }
+            } else if (value.getClass().getName().startsWith(MODEL_PACKAGE)) {
+                writeObject(value);
+            } else {
+                throw new IllegalArgumentException(String.format(
+                        "Values of type %s are not supported in binary ModelInfo.",
+                        value.getClass().getName()));
+            }
+        }
+
+        private void writeObject(Object value) throws IOException {
+            Class<?> type = value.getClass();
+            Map<String, Field> fields = FIELDS.get(type);
+            out.writeByte(OBJECT);
+            writeString(type.getName());
+            if (classes.add(type)) {
+                writeSize(fields.size());
+                for (String name : fields.keySet()) {
+                    writeString(name);
+                }
+            }
+
+            try {
+                for (Field field : fields.values()) {
+                    writeValue(field.get(value));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if (index != null) {
+                out.writeByte(STRING_REF);
+                writeSize(index);
+                return;
+            }
+
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            writeSize(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeSize(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<Class<?>, Field[]> layouts = new HashMap<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Object readValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                case STRING_REF:
+                    return readString(tag);
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INTEGER:
+                    return in.readInt();
+                case ENUM:
+                    return readEnum();
+                case LIST:
+                    int size = readSize();
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                case OBJECT:
+                    return readObject();
+                default:
+                    throw new IOException(String.format("Invalid binary ModelInfo tag %d.", tag));
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object readEnum() throws IOException {
+            Class<?> type = modelClass(readString());
+            if (!type.isEnum()) {
+                throw new IOException(String.format("%s is not an enumeration.", type.getName()));
+            }
+
+            return Enum.valueOf((Class<Enum>) type, readString());
+        }
+
+        private Object readObject() throws IOException {
+            Class<?> type = modelClass(readString());
+            Field[] layout = layouts.get(type);
+            if (layout == null) {
+                Map<String, Field> fields = FIELDS.get(type);
+                layout = new Field[readSize()];
+                for (int i = 0; i < layout.length; i++) {
+                    String name = readString();
+                    layout[i] = fields.get(name);
+                    if (layout[i] == null) {
+                        throw new IOException(String.format("Unknown field %s of %s.", name, type.getName()));
+                    }
+                }
+                layouts.put(type, layout);
+            }
+
+            try {
+                Object result = type.getDeclaredConstructor().newInstance();
+                for (Field field : layout) {
+                    field.set(result, readValue());
+                }
+                return result;
+            } catch (ReflectiveOperationException | IllegalArgumentException e) {
+                throw new IOException(String.format("Could not read an instance of %s.", type.getName()), e);
+            }
+        }
+
+        private Class<?> modelClass(String name) throws IOException {
+            // Only the generated model info classes may be instantiated
+            if (!name.startsWith(MODEL_PACKAGE)) {
+                throw new IOException(String.format("Unexpected type %s in binary ModelInfo.", name));
+            }
+
+            try {
+                return Class.forName(name, false, BinaryModelInfo.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IOException(String.format("Unknown type %s in binary ModelInfo.", name), e);
+            }
+        }
+
+        private String readString() throws IOException {
+            int tag = in.readUnsignedByte();
+            if (tag != STRING && tag != STRING_REF) {
+                throw new IOException(String.format("Expected a string but found tag %d.", tag));
+            }
+
+            return readString(tag);
+        }
+
+        private String readString(int tag) throws IOException {
+            if (tag == STRING_REF) {
+                int index = readSize();
+                if (index >= strings.size()) {
+                    throw new IOException(String.format("Invalid string reference %d.", index));
+                }
+                return strings.get(index);
+            }
+
+            byte[] bytes = new byte[readSize()];
+            in.readFully(bytes);
+            String result = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(result);
+            return result;
+        }
+
+        private int readSize() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                result |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+
+            throw new IOException("Invalid size in binary ModelInfo.");
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.cqframework.cql.cql2elm.quick;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.elm_modelinfo.r1.serializing.BinaryModelInfo;
+import org.hl7.elm_modelinfo.r1.serializing.ModelInfoReaderFactory;
+
+/**
+ * Loads the ModelInfo resources of this module, preferring the binary form generated at build time over
+ * parsing the XML.
+ */
+class ModelInfoResources {
+    private ModelInfoResources() {}
+
+    static ModelInfo read(String resourceName) throws IOException {
+        InputStream binary =
+                ModelInfoResources.class.getResourceAsStream(BinaryModelInfo.getBinaryName(resourceName));
+        if (binary != null) {
+            try (binary) {
+                return BinaryModelInfo.read(binary);
+            }
+        }
+
+        return ModelInfoReaderFactory.getReader("application/xml")
+                .read(ModelInfoResources.class.getResourceAsStream(resourceName));
+    }
+}
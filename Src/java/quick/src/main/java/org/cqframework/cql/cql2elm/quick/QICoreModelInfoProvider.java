@@ -5,7 +5,6 @@ import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.cql.model.ModelInfoProvider;
 import org.hl7.cql.model.NamespaceManager;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
-import org.hl7.elm_modelinfo.r1.serializing.ModelInfoReaderFactory;
 
 public class QICoreModelInfoProvider implements ModelInfoProvider {
     private NamespaceManager namespaceManager;
@@ -30,26 +29,16 @@ public class QICoreModelInfoProvider implements ModelInfoProvider {
             try {
                 switch (localVersion) {
                     case "4.0.0":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QICoreModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/qicore-modelinfo-4.0.0.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/qicore-modelinfo-4.0.0.xml");
                     case "4.1.0":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QICoreModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/qicore-modelinfo-4.1.0.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/qicore-modelinfo-4.1.0.xml");
                     case "4.1.1":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QICoreModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/qicore-modelinfo-4.1.1.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/qicore-modelinfo-4.1.1.xml");
                     case "5.0.0":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QICoreModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/qicore-modelinfo-5.0.0.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/qicore-modelinfo-5.0.0.xml");
                     case "6.0.0":
                     case "":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QICoreModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/qicore-modelinfo-6.0.0.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/qicore-modelinfo-6.0.0.xml");
                 }
             } catch (IOException e) {
                 // Do not throw, allow other providers to resolve
@@ -5,7 +5,6 @@ import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.cql.model.ModelInfoProvider;
 import org.hl7.cql.model.NamespaceManager;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
-import org.hl7.elm_modelinfo.r1.serializing.ModelInfoReaderFactory;
 
 /**
  * Created by Bryn on 4/15/2016.
@@ -34,9 +33,7 @@ public class QuickFhirModelInfoProvider implements ModelInfoProvider {
                 switch (localVersion) {
                     case "3.0.1":
                     case "":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QuickFhirModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/quickfhir-modelinfo-3.0.1.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/quickfhir-modelinfo-3.0.1.xml");
                 }
             } catch (IOException e) {
                 // Do not throw, allow other providers to resolve
@@ -5,7 +5,6 @@ import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.cql.model.ModelInfoProvider;
 import org.hl7.cql.model.NamespaceManager;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
-import org.hl7.elm_modelinfo.r1.serializing.ModelInfoReaderFactory;
 
 public class QuickModelInfoProvider implements ModelInfoProvider {
     private NamespaceManager namespaceManager;
@@ -31,17 +30,11 @@ public class QuickModelInfoProvider implements ModelInfoProvider {
             try {
                 switch (localVersion) {
                     case "3.3.0":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QuickModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/quick-modelinfo-3.3.0.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/quick-modelinfo-3.3.0.xml");
                     case "3.0.0":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QuickModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/quick-modelinfo-3.0.0.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/quick-modelinfo-3.0.0.xml");
                     default:
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QuickModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/quick-modelinfo.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/quick-modelinfo.xml");
                 }
             } catch (IOException e) {
                 // Do not throw, allow other providers to resolve
@@ -5,7 +5,6 @@ import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.cql.model.ModelInfoProvider;
 import org.hl7.cql.model.NamespaceManager;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
-import org.hl7.elm_modelinfo.r1.serializing.ModelInfoReaderFactory;
 
 public class UsCoreModelInfoProvider implements ModelInfoProvider {
     private NamespaceManager namespaceManager;
@@ -31,18 +30,12 @@ public class UsCoreModelInfoProvider implements ModelInfoProvider {
             try {
                 switch (localVersion) {
                     case "3.1.0":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QuickModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/uscore-modelinfo-3.1.0.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/uscore-modelinfo-3.1.0.xml");
                     case "3.1.1":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QuickModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/uscore-modelinfo-3.1.1.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/uscore-modelinfo-3.1.1.xml");
                     case "6.1.0":
                     case "":
-                        return ModelInfoReaderFactory.getReader("application/xml")
-                                .read(QuickModelInfoProvider.class.getResourceAsStream(
-                                        "/org/hl7/fhir/uscore-modelinfo-6.1.0.xml"));
+                        return ModelInfoResources.read("/org/hl7/fhir/uscore-modelinfo-6.1.0.xml");
                 }
             } catch (IOException e) {
                 // Do not throw, allow other providers to resolve